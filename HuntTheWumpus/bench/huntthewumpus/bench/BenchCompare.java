@@ -0,0 +1,136 @@
+package huntthewumpus.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two JMH result files written with -rf csv and prints how much each
+ * benchmark changed. Anything that got worse by more than the threshold is
+ * flagged. Doesn't need JMH on the classpath, just the two files.
+ *
+ * Usage: BenchCompare baseline.csv current.csv [threshold-percent]
+ *
+ * @author Ivan Samuelson
+ */
+public final class BenchCompare {
+
+    /**
+     * No instances, just main.
+     *
+     */
+    private BenchCompare() {
+    }
+
+    /**
+     * Prints the comparison.
+     *
+     * @param args baseline file, current file and optionally the threshold in percent (5 by default)
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.printf("Usage: BenchCompare baseline.csv current.csv [threshold-percent]\n");
+            return;
+        }
+
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 5;
+
+        try {
+            Map<String, String[]> baseline = readResults(args[0]);
+            Map<String, String[]> current = readResults(args[1]);
+            int regressions = 0;
+
+            for (Map.Entry<String, String[]> entry : current.entrySet()) {
+                String[] now = entry.getValue();
+                String[] before = baseline.get(entry.getKey());
+
+                if (before == null) {
+                    System.out.printf("%-60s %14s %-10s  (new)\n", entry.getKey(), now[4], now[6]);
+                    continue;
+                }
+
+                // Throughput is better when it goes up, time per op is better when it goes down.
+                double change = (Double.parseDouble(now[4]) / Double.parseDouble(before[4]) - 1) * 100;
+                double worse = now[1].equals("thrpt") ? -change : change;
+                boolean regressed = worse > threshold;
+
+                if (regressed) {
+                    regressions++;
+                }
+
+                System.out.printf("%-60s %14s -> %14s %-10s %+7.1f%%%s\n", entry.getKey(), before[4], now[4], now[6],
+                        change, regressed ? "  REGRESSED" : "");
+            }
+
+            System.out.printf("%d of %d benchmarks regressed by more than %.1f%%.\n", regressions, current.size(), threshold);
+        } catch (IOException e) {
+            System.out.printf("Encountered the following exception while reading results: %s\n", e.getMessage());
+        }
+    }
+
+    /**
+     * Reads a JMH csv file into a map from benchmark name and parameters to
+     * its columns. Secondary results from profilers are kept too, they just have
+     * the profiler's metric tacked onto the name.
+     *
+     * @param fileName The csv file
+     * @return The rows keyed by benchmark, in file order
+     * @throws IOException If the file can't be read
+     */
+    private static Map<String, String[]> readResults(String fileName) throws IOException {
+        Map<String, String[]> results = new LinkedHashMap<>();
+        List<String> lines = Files.readAllLines(Paths.get(fileName), StandardCharsets.UTF_8);
+
+        // The first line is the header, and the parameter columns come after "Unit".
+        for (int i = 1; i < lines.size(); i++) {
+            String[] columns = split(lines.get(i));
+
+            if (columns.length < 7) {
+                continue;
+            }
+
+            StringBuilder key = new StringBuilder(columns[0]);
+
+            for (int c = 7; c < columns.length; c++) {
+                key.append(c == 7 ? " " : ",").append(columns[c]);
+            }
+
+            results.put(key.toString(), columns);
+        }
+
+        return results;
+    }
+
+    /**
+     * Splits one csv line, taking the quotes off the quoted columns.
+     *
+     * @param line The line
+     * @return The columns
+     */
+    private static String[] split(String line) {
+        List<String> columns = new ArrayList<>();
+        StringBuilder column = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                columns.add(column.toString());
+                column.setLength(0);
+            } else {
+                column.append(c);
+            }
+        }
+
+        columns.add(column.toString());
+        return columns.toArray(new String[columns.size()]);
+    }
+}
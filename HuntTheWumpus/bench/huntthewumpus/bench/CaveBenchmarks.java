@@ -0,0 +1,100 @@
+package huntthewumpus.bench;
+
+import huntthewumpus.Cave;
+import huntthewumpus.CaveValidator;
+import huntthewumpus.GameEngine;
+import huntthewumpus.GameEvent;
+import huntthewumpus.GameRandom;
+import huntthewumpus.HazardConfig;
+import huntthewumpus.HazardMap;
+import huntthewumpus.HazardPlacer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The per-turn paths of the game: move validation, hazard sensing, moving, and
+ * placing the hazards for a new game, plus the full cave check done at load
+ * time. Run with -prof gc to see allocation.
+ *
+ * @author Ivan Samuelson
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CaveBenchmarks {
+    @Param({"20", "10000", "1000000", "10000000"})
+    public int rooms;
+
+    private Cave cave;                  // The cave being played in.
+    private GameRandom random;          // Drives the moves and placements.
+    private int[] from = new int[1024]; // Rooms to check moves from.
+    private int[] to = new int[1024];   // Rooms to check moves to, half of them valid.
+    private int next;                   // Which pair to check next.
+    private GameEngine engine;          // A game for the move benchmark.
+
+    @Setup
+    public void setup() {
+        cave = SyntheticCave.build(rooms);
+        random = new GameRandom(42);
+
+        for (int i = 0; i < from.length; i++) {
+            from[i] = random.nextInt(rooms) + 1;
+            to[i] = (i % 2 == 0) ? cave.getAdjRoom(from[i], random.nextInt(3)) : random.nextInt(rooms) + 1;
+        }
+
+        engine = new GameEngine(cave, HazardConfig.CLASSIC, random);
+    }
+
+    @Benchmark
+    public boolean validRoom() {
+        int i = next++ & (from.length - 1);
+
+        return cave.validRoom(from[i], to[i]);
+    }
+
+    @Benchmark
+    public List<GameEvent> senseHazards() {
+        return engine.look();
+    }
+
+    @Benchmark
+    public List<GameEvent> move() {
+        if (engine.isGameOver()) {
+            engine = new GameEngine(cave, HazardConfig.CLASSIC, random);
+        }
+
+        int room = engine.getPlayerRoom();
+
+        return engine.move(cave.getAdjRoom(room, random.nextInt(cave.getDegree(room))));
+    }
+
+    @Benchmark
+    public HazardMap placeHazards() {
+        HazardMap hazards = new HazardMap(HazardConfig.CLASSIC.getTotal());
+
+        HazardPlacer.place(rooms, 1, HazardConfig.CLASSIC, random, hazards);
+        return hazards;
+    }
+
+    @Benchmark
+    public long validate() {
+        CaveValidator validator = new CaveValidator();
+
+        validator.validate(cave, false);
+        return validator.getProblemCount();
+    }
+}
@@ -0,0 +1,66 @@
+package huntthewumpus.bench;
+
+import huntthewumpus.Cave;
+import huntthewumpus.CaveFile;
+import huntthewumpus.CaveLoader;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading a cave from a rooms.txt file and from a compiled cave file. The files
+ * are written once per run into the temp directory. The 10M room text file is
+ * around 500 MB, so make sure there is room for it.
+ *
+ * @author Ivan Samuelson
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class LoadBenchmarks {
+    @Param({"20", "10000", "1000000", "10000000"})
+    public int rooms;
+
+    private File textFile;      // The cave as rooms.txt.
+    private File caveFile;      // The same cave compiled.
+
+    @Setup
+    public void setup() throws IOException {
+        textFile = File.createTempFile("rooms", ".txt");
+        caveFile = File.createTempFile("rooms", ".cave");
+
+        SyntheticCave.writeText(rooms, textFile.getPath());
+        CaveFile.write(new CaveLoader().load(textFile.getPath()), caveFile.getPath());
+    }
+
+    @TearDown
+    public void tearDown() {
+        textFile.delete();
+        caveFile.delete();
+    }
+
+    @Benchmark
+    public Cave loadText() throws IOException {
+        return new CaveLoader().load(textFile.getPath());
+    }
+
+    @Benchmark
+    public Cave loadCompiled() throws IOException {
+        return new CaveLoader().load(caveFile.getPath());
+    }
+}
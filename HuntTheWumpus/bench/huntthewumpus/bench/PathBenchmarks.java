@@ -0,0 +1,75 @@
+package huntthewumpus.bench;
+
+import huntthewumpus.Cave;
+import huntthewumpus.GameEngine;
+import huntthewumpus.GameRandom;
+import huntthewumpus.PathService;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Distance queries for crooked arrows and the Wumpus hint. 1000 rooms is looked
+ * up in the all-pairs table, a million rooms is searched on demand.
+ *
+ * @author Ivan Samuelson
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathBenchmarks {
+    @Param({"1000", "1000000"})
+    public int rooms;
+
+    private PathService paths;          // The service being measured.
+    private int[] from = new int[1024]; // Rooms to measure from.
+    private int[] near = new int[1024]; // Rooms up to an arrow's flight away from them.
+    private int[] far = new int[1024];  // Rooms anywhere in the cave, almost always out of range.
+    private int next;                   // Which pair to measure next.
+
+    @Setup
+    public void setup() {
+        Cave cave = SyntheticCave.build(rooms);
+        GameRandom random = new GameRandom(42);
+
+        paths = cave.getPaths();
+
+        // Near rooms are a short random walk away, so the search finds them.
+        for (int i = 0; i < from.length; i++) {
+            from[i] = random.nextInt(rooms) + 1;
+            near[i] = from[i];
+
+            for (int step = random.nextInt(GameEngine.MAX_ARROW_PATH) + 1; step > 0; step--) {
+                near[i] = cave.getAdjRoom(near[i], random.nextInt(cave.getDegree(near[i])));
+            }
+
+            far[i] = random.nextInt(rooms) + 1;
+        }
+    }
+
+    @Benchmark
+    public int nearby() {
+        int i = next++ & (from.length - 1);
+
+        return paths.distance(from[i], near[i], GameEngine.MAX_ARROW_PATH);
+    }
+
+    @Benchmark
+    public int outOfRange() {
+        int i = next++ & (from.length - 1);
+
+        return paths.distance(from[i], far[i], GameEngine.MAX_ARROW_PATH);
+    }
+}
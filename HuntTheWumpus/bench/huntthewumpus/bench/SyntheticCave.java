@@ -0,0 +1,100 @@
+package huntthewumpus.bench;
+
+import huntthewumpus.Cave;
+import huntthewumpus.StringTable;
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Builds caves of any size for the benchmarks. Room n has tunnels to the rooms
+ * on either side of it around a ring and to the room straight across the ring,
+ * so every room has three tunnels just like the bundled caves.
+ *
+ * @author Ivan Samuelson
+ */
+public final class SyntheticCave {
+    // A handful of descriptions, shared around the rooms.
+    private static final String[] DESCRIPTIONS = {
+        "A wooden sign reads \"Beware of the Wumpus!\"",
+        "There is a black pool of water in the corner.",
+        "You see a Tyrannosaurus Rex fossil embedded in the wall.",
+        "There is an empty Diet Rite can here.",
+        "You almost step on a broken cellular phone.",
+        "A couple of evil rats stare at you from under a pile of rocks.",
+        "You find a Spanish doubloon on the floor.",
+        "The ceiling is very low and you have to stoop."
+    };
+
+    /**
+     * No instances, just static helpers.
+     *
+     */
+    private SyntheticCave() {
+    }
+
+    /**
+     * Builds a cave in memory.
+     *
+     * @param numRooms How many rooms. Must be even so every room has a room across from it.
+     * @return The cave
+     */
+    public static Cave build(int numRooms) {
+        int[] offsets = new int[numRooms+1];
+        int[] neighbors = new int[numRooms * 3];
+        String[] descs = new String[numRooms];
+
+        for (int room = 1; room <= numRooms; room++) {
+            int base = (room-1) * 3;
+
+            neighbors[base] = tunnel(room, numRooms, 0);
+            neighbors[base+1] = tunnel(room, numRooms, 1);
+            neighbors[base+2] = tunnel(room, numRooms, 2);
+            offsets[room] = base + 3;
+            descs[room-1] = DESCRIPTIONS[room % DESCRIPTIONS.length];
+        }
+
+        return new Cave(offsets, neighbors, StringTable.of(descs));
+    }
+
+    /**
+     * Writes a cave out in the rooms.txt format.
+     *
+     * @param numRooms How many rooms. Must be even.
+     * @param fileName Where to write it
+     * @throws IOException If the file can't be written
+     */
+    public static void writeText(int numRooms, String fileName) throws IOException {
+        try (Writer out = new BufferedWriter(new FileWriter(fileName), 1 << 16)) {
+            out.write(numRooms + "\n");
+
+            for (int room = 1; room <= numRooms; room++) {
+                out.write(room + " " + tunnel(room, numRooms, 0) + " " + tunnel(room, numRooms, 1) + " "
+                        + tunnel(room, numRooms, 2) + "\n");
+                out.write(DESCRIPTIONS[room % DESCRIPTIONS.length] + "\n");
+            }
+        }
+    }
+
+    /**
+     * Works out where a tunnel out of a room goes.
+     *
+     * @param room The room number (1 based)
+     * @param numRooms How many rooms are in the cave
+     * @param tunnel 0 for the previous room, 1 for the next room, 2 for the room across
+     * @return The room number at the other end
+     */
+    private static int tunnel(int room, int numRooms, int tunnel) {
+        int index = room-1;
+
+        switch (tunnel) {
+            case 0:
+                return (index + numRooms - 1) % numRooms + 1;
+            case 1:
+                return (index + 1) % numRooms + 1;
+            default:
+                return (index + numRooms / 2) % numRooms + 1;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package huntthewumpus;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Hands output to a background thread that writes it to another sink, so the
+ * game doesn't wait on a slow terminal or pipe. Batches are written in the order
+ * they came in. If the writer falls too far behind, write waits for it to catch up.
+ *
+ * @author Ivan Samuelson
+ */
+public final class AsyncSink implements OutputSink {
+    // Put on the queue by flush. The writer thread counts it off when it gets there.
+    private static final String FLUSH = new String("");
+
+    private final OutputSink target;    // Where the output really goes.
+    private final BlockingQueue<String> queue;  // Batches waiting to be written.
+    private final Object lock = new Object();   // Guards flushed.
+    private long flushed = 0;           // How many flush markers the writer has reached.
+    private long flushes = 0;           // How many flush markers have been queued. Only the game thread touches this.
+
+    /**
+     * Creates a sink and starts its writer thread. The thread is a daemon, so
+     * flush before exiting if the output matters.
+     *
+     * @param target Where to write the output
+     * @param capacity How many batches can be waiting before write blocks
+     */
+    public AsyncSink(OutputSink target, int capacity) {
+        this.target = target;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+
+        Thread writer = new Thread(this::drain, "output-writer");
+
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void write(CharSequence text) {
+        if (text.length() > 0) {
+            put(text.toString());
+        }
+    }
+
+    @Override
+    public void flush() {
+        long target = ++flushes;
+
+        put(FLUSH);
+
+        synchronized (lock) {
+            while (flushed < target) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Queues a batch, waiting for room if the queue is full.
+     *
+     * @param text The batch
+     */
+    private void put(String text) {
+        try {
+            queue.put(text);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs on the writer thread, writing batches as they come in.
+     *
+     */
+    private void drain() {
+        while (true) {
+            String text;
+
+            try {
+                text = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            if (text == FLUSH) {
+                target.flush();
+
+                synchronized (lock) {
+                    flushed++;
+                    lock.notifyAll();
+                }
+            } else {
+                try {
+                    target.write(text);
+                } catch (RuntimeException e) {
+                    // Nowhere left to report it, so drop the batch and keep going
+                    // rather than leave a flush waiting forever.
+                }
+            }
+        }
+    }
+}
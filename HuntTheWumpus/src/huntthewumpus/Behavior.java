@@ -0,0 +1,32 @@
+package huntthewumpus;
+
+/**
+ * What a kind of hazard does as the game goes on. Every hazard with a behavior
+ * hears about what the player did each turn and then gets a tick, so a turn
+ * costs the number of hazards that do something and not the size of the cave.
+ *
+ * One behavior is shared by all the hazards of its kind, and by every game it's
+ * added to, so keep per-hazard state in the Hazard and per-game state in the World.
+ *
+ * @author Ivan Samuelson
+ */
+public interface Behavior {
+    /**
+     * Lets a hazard react to something that happened this turn, like an arrow
+     * that missed or the player walking into its room.
+     *
+     * @param hazard The hazard
+     * @param event What happened
+     * @param world The game it is in
+     */
+    default void notice(Hazard hazard, GameEvent event, World world) {
+    }
+
+    /**
+     * Lets a hazard act once the player's command is done.
+     *
+     * @param hazard The hazard
+     * @param world The game it is in
+     */
+    void tick(Hazard hazard, World world);
+}
@@ -0,0 +1,152 @@
+package huntthewumpus;
+
+import java.util.List;
+
+/**
+ * A player that pays attention to the warnings. Any room next to a room with no
+ * warnings is known to be safe, so it explores safe rooms first. Every time it
+ * smells the Wumpus from a new room it marks the unknown rooms around it as
+ * suspects, and it shoots once a suspect has been smelled from two rooms or is
+ * the only unknown room around. It only gambles on an unknown room when there's
+ * nothing else left.
+ *
+ * What it knows is kept in arrays the size of the cave, stamped with a game
+ * number so they don't have to be cleared between games.
+ *
+ * @author Ivan Samuelson
+ */
+public class CautiousPlayer implements Strategy {
+    private int[] safe = new int[0];        // Game number when the room was known to be safe.
+    private int[] visited = new int[0];     // Game number when the room was visited.
+    private int[] shot = new int[0];        // Game number when an arrow was shot into the room.
+    private int[] suspectGame = new int[0]; // Game number when the room was last suspected.
+    private int[] suspect = new int[0];     // How many rooms the Wumpus was smelled from next to this one.
+    private int game = 0;                   // The current game number.
+    private int frontier;                   // How many rooms are known safe but not visited yet.
+
+    @Override
+    public int play(GameEngine engine, GameRandom random, int maxTurns) {
+        int numRooms = engine.getNumRooms();
+
+        if (safe.length != numRooms+1) {
+            safe = new int[numRooms+1];
+            visited = new int[numRooms+1];
+            shot = new int[numRooms+1];
+            suspectGame = new int[numRooms+1];
+            suspect = new int[numRooms+1];
+            game = 0;
+        }
+
+        game++;
+        frontier = 0;
+
+        int turns = 0;
+
+        while (!engine.isGameOver() && turns < maxTurns) {
+            int current = engine.getPlayerRoom();
+            Room room = engine.getRoom(current);
+            int degree = room.getAdjRoomCount();
+            boolean firstVisit = visited[current] != game;  // A room's warnings never change, so only the first visit counts.
+            boolean smell = false;
+            boolean warned = false;
+
+            if (firstVisit && safe[current] == game) {
+                frontier--;
+            }
+
+            visited[current] = game;
+            safe[current] = game;
+
+            List<GameEvent> warnings = engine.look();
+
+            for (int i = 0; i < warnings.size(); i++) {
+                warned = true;
+                smell |= warnings.get(i).getDanger() == Room.Danger.WUMPUS;
+            }
+
+            int unknown = 0;        // How many adjacent rooms we know nothing about.
+            int lastUnknown = 0;    // One of them.
+            int bestSuspect = 0;    // The adjacent room most likely to have the Wumpus.
+
+            for (int i = 0; i < degree; i++) {
+                int adj = room.getAdjRoom(i);
+
+                if (!warned) {
+                    if (safe[adj] != game && visited[adj] != game) {
+                        frontier++;
+                    }
+
+                    safe[adj] = game;
+                } else if (safe[adj] != game) {
+                    unknown++;
+                    lastUnknown = adj;
+
+                    if (smell && shot[adj] != game) {
+                        if (suspectGame[adj] != game) {
+                            suspectGame[adj] = game;
+                            suspect[adj] = 0;
+                        }
+
+                        if (firstVisit) {
+                            suspect[adj]++;
+                        }
+
+                        if (bestSuspect == 0 || suspect[adj] > suspect[bestSuspect]) {
+                            bestSuspect = adj;
+                        }
+                    }
+                }
+            }
+
+            int target;
+
+            if (bestSuspect != 0 && (suspect[bestSuspect] >= 2 || unknown == 1)) {
+                // Pretty sure where the Wumpus is. Let it fly!
+                shot[bestSuspect] = game;
+                engine.shoot(bestSuspect);
+            } else if ((target = pickSafe(room, random)) != 0) {
+                engine.move(target);
+            } else if (bestSuspect != 0 && engine.getArrowsLeft() > 1) {
+                // Stuck next to the Wumpus with arrows to spare. Take a guess.
+                shot[bestSuspect] = game;
+                engine.shoot(bestSuspect);
+            } else {
+                // Nothing safe left. Gamble on an unknown room.
+                engine.move(unknown > 0 ? lastUnknown : room.getAdjRoom(random.nextInt(degree)));
+            }
+
+            turns++;
+        }
+
+        return turns;
+    }
+
+    /**
+     * Picks a safe adjacent room to move into, preferring ones not visited yet.
+     * Visited rooms are only worth walking back through while there are still
+     * safe rooms left to explore somewhere.
+     *
+     * @param room The room the player is in
+     * @param random Used to break ties
+     * @return A safe adjacent room, or 0 if there isn't one worth going to
+     */
+    private int pickSafe(Room room, GameRandom random) {
+        int degree = room.getAdjRoomCount();
+        int start = random.nextInt(degree);
+        int fallback = 0;
+
+        for (int n = 0; n < degree; n++) {
+            int adj = room.getAdjRoom((start + n) % degree);
+
+            if (safe[adj] == game) {
+                if (visited[adj] != game) {
+                    return adj;
+                }
+
+                fallback = adj;
+            }
+        }
+
+        return (frontier > 0) ? fallback : 0;
+    }
+}
@@ -0,0 +1,268 @@
+package huntthewumpus;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * This holds the whole "map" of the rooms as a handful of flat arrays instead of
+ * one Room object per room. Room numbers are 1 based just like in rooms.txt, so
+ * room n lives at index n-1 of each array.
+ *
+ * A cave never changes once it is loaded, so one cave can be shared by any number
+ * of games on any number of threads. Each game keeps its own dangers in a HazardMap.
+ *
+ * Tunnels are stored CSR style: offsets[n-1] to offsets[n] is the slice of
+ * neighbors that holds room n's adjacent rooms, so every room can have as many
+ * tunnels as it likes.
+ *
+ * The offsets and neighbors are IntBuffers, so a cave loaded from a compiled
+ * cave file reads its tunnels straight out of the mapped file instead of
+ * copying them onto the heap first. Caves parsed from a rooms file just wrap
+ * their arrays. Only absolute gets are used, so the buffers are shared safely.
+ *
+ * Memory per room (64-bit JVM, compressed oops), not counting description text:
+ *
+ *      Room[]: 4 byte array slot + 40 byte Room object       = 44 bytes
+ *      Cave:   4 byte offset + 12 byte neighbors (3 tunnels)
+ *              + 4 byte description offset                   = 20 bytes
+ *
+ * That is about 44 MB vs 20 MB for 1M rooms and 440 MB vs 200 MB for 10M rooms,
+ * plus two million fewer objects for the garbage collector to trace. Descriptions
+ * come from a RoomDescriptions, either a shared string table or offsets into the
+ * mapped rooms file, so rooms don't each carry their own String.
+ *
+ * Those are the arrays alone. Measured on the heap after a full GC, the Room[]
+ * layout took 67.5 MB for 1M rooms (679.5 MB for 10M), because readLine() gave
+ * every room its own description String too. The flat arrays took 16.5 MB
+ * (169.5 MB) back when every room had exactly 3 tunnels and so needed no offsets.
+ *
+ * @author Ivan Samuelson
+ */
+public final class Cave {
+    // Rooms with more tunnels than this get checked with a binary search
+    // instead of just looking at each tunnel.
+    static final int SMALL_DEGREE = 8;
+
+    private final int numRooms;         // How many rooms are in the cave.
+    private final IntBuffer offsets;    // Where each room's tunnels start in neighbors. numRooms+1 entries.
+    private final IntBuffer neighbors;  // Adjacent room numbers for all rooms, in file order.
+    private final int[] sorted;         // Same as neighbors but sorted per room, only when some room is big.
+    private final RoomDescriptions descriptions;    // Where the room descriptions come from.
+    private volatile PathService paths;     // Distances between rooms, built the first time they're needed.
+    private volatile long fingerprint;      // Hash of the tunnels, worked out the first time it's asked for.
+    private volatile boolean fingerprinted; // Has fingerprint been worked out yet?
+
+    /**
+     * Creates a cave from already loaded arrays. The arrays are used as is, not copied.
+     *
+     * @param offsets Where each room's tunnels start in neighbors, with one extra
+     *                entry at the end marking where the last room's tunnels stop
+     * @param neighbors The adjacent room numbers for all rooms
+     * @param descriptions The description of each room
+     */
+    public Cave(int[] offsets, int[] neighbors, RoomDescriptions descriptions) {
+        this(IntBuffer.wrap(offsets), IntBuffer.wrap(neighbors), descriptions);
+    }
+
+    /**
+     * Creates a cave from buffers, such as views of a mapped cave file. The
+     * buffers are used as is, not copied, and only ever read with absolute gets.
+     *
+     * @param offsets Where each room's tunnels start in neighbors, with one extra
+     *                entry at the end marking where the last room's tunnels stop
+     * @param neighbors The adjacent room numbers for all rooms
+     * @param descriptions The description of each room
+     */
+    Cave(IntBuffer offsets, IntBuffer neighbors, RoomDescriptions descriptions) {
+        this.numRooms = offsets.limit()-1;
+        this.offsets = offsets;
+        this.neighbors = neighbors;
+        this.sorted = sortLargeRooms(offsets, neighbors);
+        this.descriptions = descriptions;
+    }
+
+    /**
+     * Creates a cave with the same rooms and tunnels as another one but its
+     * descriptions coming from somewhere else, like a DescriptionCache in
+     * front of the original ones. The tunnels are shared, not copied.
+     *
+     * @param cave The cave to copy
+     * @param descriptions Where the descriptions come from now
+     */
+    Cave(Cave cave, RoomDescriptions descriptions) {
+        this.numRooms = cave.numRooms;
+        this.offsets = cave.offsets;
+        this.neighbors = cave.neighbors;
+        this.sorted = cave.sorted;
+        this.descriptions = descriptions;
+    }
+
+    /**
+     * Makes a copy of the neighbors with each big room's tunnels sorted so they
+     * can be binary searched. Small rooms are left alone since they never get searched.
+     * This is the only copy of the tunnels a cave ever makes, and only caves
+     * with big rooms make it.
+     *
+     * @param offsets Where each room's tunnels start in neighbors
+     * @param neighbors The adjacent room numbers for all rooms
+     * @return The sorted copy, or null if no room has more than SMALL_DEGREE tunnels
+     */
+    private static int[] sortLargeRooms(IntBuffer offsets, IntBuffer neighbors) {
+        int[] copy = null;
+
+        for (int i = 0; i < offsets.limit()-1; i++) {
+            if (offsets.get(i+1) - offsets.get(i) > SMALL_DEGREE) {
+                if (copy == null) {
+                    copy = new int[neighbors.limit()];
+
+                    // A duplicate, so the shared buffer's position is never touched.
+                    neighbors.duplicate().get(copy);
+                }
+
+                Arrays.sort(copy, offsets.get(i), offsets.get(i+1));
+            }
+        }
+
+        return copy;
+    }
+
+    /**
+     * Gets how many rooms are in the cave
+     *
+     * @return The number of rooms
+     */
+    public int getNumRooms() {
+        return numRooms;
+    }
+
+    /**
+     * Gets how many tunnels lead out of all the rooms put together. A tunnel
+     * both ways between two rooms counts twice, once from each end.
+     *
+     * @return The number of tunnels
+     */
+    public int getNumTunnels() {
+        return offsets.get(numRooms);
+    }
+
+    /**
+     * Gets how many tunnels lead out of a room
+     *
+     * @param room The room number (1 based)
+     * @return The number of adjacent rooms
+     */
+    public int getDegree(int room) {
+        return offsets.get(room) - offsets.get(room-1);
+    }
+
+    /**
+     * Gets one of the rooms adjacent to a room
+     *
+     * @param room The room number (1 based)
+     * @param tunnel Which tunnel, from 0 to getDegree(room)-1
+     * @return The room number at the other end of the tunnel
+     */
+    public int getAdjRoom(int room, int tunnel) {
+        return neighbors.get(offsets.get(room-1) + tunnel);
+    }
+
+    /**
+     * Check to see if there is a tunnel between two rooms. Small rooms just
+     * check each tunnel, big rooms binary search their sorted tunnels, so this
+     * never turns into a long linear scan.
+     *
+     * @param room The room the player is in
+     * @param adjRoom The room the player is moving/shooting into to
+     * @return True if adjRoom is adjacent to room, false otherwise.
+     */
+    public boolean validRoom(int room, int adjRoom) {
+        int start = offsets.get(room-1);
+        int end = offsets.get(room);
+
+        if (end - start > SMALL_DEGREE) {
+            return Arrays.binarySearch(sorted, start, end, adjRoom) >= 0;
+        }
+
+        for (int i = start; i < end; i++) {
+            if (neighbors.get(i) == adjRoom) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Works out a fingerprint of the cave's tunnels. Two caves with the same
+     * tunnels always have the same fingerprint, so it can be used to check that
+     * a saved game or replay is being run against the cave it came from.
+     * Descriptions don't count, since they don't change how a game plays.
+     * It's only worked out once, since snapshots check it every time they're saved.
+     *
+     * @return A 64-bit hash of the tunnels
+     */
+    public long getFingerprint() {
+        if (!fingerprinted) {
+            fingerprint = hashTunnels();
+            fingerprinted = true;
+        }
+
+        return fingerprint;
+    }
+
+    /**
+     * Hashes every offset and neighbor.
+     *
+     * @return A 64-bit hash of the tunnels
+     */
+    private long hashTunnels() {
+        long hash = 0xCBF29CE484222325L ^ numRooms;
+
+        for (int i = 0; i < offsets.limit(); i++) {
+            hash = (hash ^ offsets.get(i)) * 0x100000001B3L;
+        }
+
+        for (int i = 0; i < neighbors.limit(); i++) {
+            hash = (hash ^ neighbors.get(i)) * 0x100000001B3L;
+        }
+
+        return hash;
+    }
+
+    /**
+     * Gets the path service for the cave, building it the first time. Two
+     * threads asking at once might both build one, but they come out the same,
+     * so it doesn't matter which one sticks.
+     *
+     * @return The path service
+     */
+    public PathService getPaths() {
+        PathService result = paths;
+
+        if (result == null) {
+            result = new PathService(this);
+            paths = result;
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the description of a room
+     *
+     * @param room The room number (1 based)
+     * @return The description of the room
+     */
+    public String getRoomDesc(int room) {
+        return descriptions.get(room);
+    }
+
+    /**
+     * Gets where the room descriptions come from
+     *
+     * @return The descriptions
+     */
+    public RoomDescriptions getDescriptions() {
+        return descriptions;
+    }
+}
@@ -0,0 +1,319 @@
+package huntthewumpus;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes compiled cave files. A compiled cave is laid out so it can be
+ * mapped and loaded without parsing any text: the cave reads its tunnels
+ * straight out of the mapped adjacency block, and the descriptions out of the
+ * mapped string table when a room is described. Nothing is copied onto the heap. Everything is little endian and every block
+ * starts on a 4 byte boundary.
+ *
+ *      header (32 bytes)
+ *          int  magic          "WUMP"
+ *          int  version        VERSION
+ *          int  numRooms
+ *          int  numNeighbors   total tunnels in the neighbors block
+ *          int  reserved       always 0
+ *          int  textSize       bytes in the description text block
+ *          int  reserved x 2
+ *      adjacency block
+ *          int  offsets[numRooms+1]
+ *          int  neighbors[numNeighbors]
+ *      description string table
+ *          byte text[textSize]          UTF-8, padded to 4 bytes
+ *          int  starts[numRooms+1]      where each description starts in text
+ *
+ * There's no hazard placement in the file. Hazards are placed when each game
+ * starts, however the cave was loaded.
+ *
+ * @author Ivan Samuelson
+ */
+public final class CaveFile {
+    static final int MAGIC = 0x504D5557;    // "WUMP" when read as little endian bytes.
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+
+    /**
+     * No instances, just static helpers.
+     *
+     */
+    private CaveFile() {
+    }
+
+    /**
+     * Checks whether a buffer holds a compiled cave file.
+     *
+     * @param buffer The contents of the file
+     * @return True if the buffer starts with the compiled cave magic number
+     */
+    public static boolean isCaveFile(ByteBuffer buffer) {
+        return buffer.limit() >= 4 && buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).getInt(0) == MAGIC;
+    }
+
+    /**
+     * Reads a cave out of a mapped compiled cave file. The header and the block
+     * sizes are checked against the size of the file, and so are the tables of
+     * where each room's tunnels and description start. The tunnels and the
+     * descriptions are then left in the buffer, which the cave reads from for as
+     * long as it's used.
+     *
+     * @param mapped The contents of the file
+     * @return The cave
+     * @throws CaveFormatException If the file isn't a valid compiled cave
+     */
+    public static Cave read(ByteBuffer mapped) throws CaveFormatException {
+        ByteBuffer buffer = mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.limit() < HEADER_SIZE) {
+            throw new CaveFormatException("File is too short to hold a cave header");
+        }
+
+        if (buffer.getInt(0) != MAGIC) {
+            throw new CaveFormatException("Not a compiled cave file");
+        }
+
+        if (buffer.getInt(4) != VERSION) {
+            throw new CaveFormatException(String.format("Cave file version %d is not supported, expected %d",
+                    buffer.getInt(4), VERSION));
+        }
+
+        int numRooms = buffer.getInt(8);
+        int numNeighbors = buffer.getInt(12);
+        int textSize = buffer.getInt(20);
+
+        if (numRooms < 0 || numNeighbors < 0 || textSize < 0) {
+            throw new CaveFormatException("Cave header has a negative size in it");
+        }
+
+        if (buffer.getInt(16) != 0) {
+            throw new CaveFormatException("Cave header has something in a reserved field");
+        }
+
+        // Work out where each block lives and make sure the file is exactly that big.
+        long offsetsPos = HEADER_SIZE;
+        long neighborsPos = offsetsPos + 4L * (numRooms+1);
+        long textPos = neighborsPos + 4L * numNeighbors;
+        long startsPos = textPos + pad(textSize);
+        long size = startsPos + 4L * (numRooms+1);
+
+        if (size != buffer.limit()) {
+            throw new CaveFormatException(String.format("Cave file should be %d bytes but is %d", size, buffer.limit()));
+        }
+
+        IntBuffer offsets = ints(buffer, (int) offsetsPos, numRooms+1);
+        IntBuffer neighbors = ints(buffer, (int) neighborsPos, numNeighbors);
+
+        // A bad offset would send room lookups off the end of the neighbors, so check them once here.
+        if (offsets.get(0) != 0 || offsets.get(numRooms) != numNeighbors) {
+            throw new CaveFormatException("Cave adjacency offsets don't cover the neighbors block");
+        }
+
+        for (int i = 0; i < numRooms; i++) {
+            if (offsets.get(i+1) < offsets.get(i)) {
+                throw new CaveFormatException(String.format("Cave adjacency offsets go backwards at room %d", i+1));
+            }
+        }
+
+        // Same for the description starts, which would send a description off the end of the text.
+        if (buffer.getInt((int) startsPos) != 0 || buffer.getInt((int) startsPos + 4 * numRooms) != textSize) {
+            throw new CaveFormatException("Cave description starts don't cover the text block");
+        }
+
+        for (int i = 0; i < numRooms; i++) {
+            if (buffer.getInt((int) startsPos + 4 * (i+1)) < buffer.getInt((int) startsPos + 4 * i)) {
+                throw new CaveFormatException(String.format("Cave description starts go backwards at room %d", i+1));
+            }
+        }
+
+        return new Cave(offsets, neighbors, new TableDescriptions(buffer, (int) textPos, (int) startsPos));
+    }
+
+    /**
+     * Makes a view of some of the ints in a buffer.
+     *
+     * @param buffer The buffer, little endian
+     * @param pos Where the ints start
+     * @param count How many there are
+     * @return The view
+     */
+    private static IntBuffer ints(ByteBuffer buffer, int pos, int count) {
+        ByteBuffer block = buffer.duplicate();
+
+        block.position(pos);
+        block.limit(pos + 4 * count);
+
+        // A slice starts out big endian again.
+        return block.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+
+    /**
+     * Writes a cave out as a compiled cave file.
+     *
+     * @param cave The cave to write
+     * @param fileName The file to write it to
+     * @throws IOException If the file can't be written
+     */
+    public static void write(Cave cave, String fileName) throws IOException {
+        int numRooms = cave.getNumRooms();
+        int[] starts = new int[numRooms+1];
+
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer out = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+
+            // Skip the header for now. It gets written once we know how big everything is.
+            channel.position(HEADER_SIZE);
+
+            // Adjacency block: offsets then neighbors.
+            int numNeighbors = 0;
+
+            for (int room = 1; room <= numRooms+1; room++) {
+                putInt(channel, out, numNeighbors);
+
+                if (room <= numRooms) {
+                    numNeighbors += cave.getDegree(room);
+                }
+            }
+
+            for (int room = 1; room <= numRooms; room++) {
+                for (int i = 0; i < cave.getDegree(room); i++) {
+                    putInt(channel, out, cave.getAdjRoom(room, i));
+                }
+            }
+
+            // Then the description text, remembering where each one starts.
+            int textSize = 0;
+
+            for (int room = 1; room <= numRooms; room++) {
+                byte[] text = cave.getRoomDesc(room).getBytes(StandardCharsets.UTF_8);
+
+                starts[room-1] = textSize;
+                textSize += text.length;
+                putBytes(channel, out, text);
+            }
+
+            starts[numRooms] = textSize;
+            putBytes(channel, out, new byte[pad(textSize) - textSize]);
+
+            for (int start : starts) {
+                putInt(channel, out, start);
+            }
+
+            flush(channel, out);
+
+            // Now go back and fill in the header.
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+            header.putInt(MAGIC).putInt(VERSION).putInt(numRooms).putInt(numNeighbors).putInt(0).putInt(textSize);
+            header.clear();
+
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        }
+    }
+
+    /**
+     * Rounds a size up to the next multiple of 4.
+     *
+     * @param size The size in bytes
+     * @return The padded size
+     */
+    static int pad(int size) {
+        return (size + 3) & ~3;
+    }
+
+    /**
+     * Adds an int to the output buffer, writing the buffer out first if it's full.
+     *
+     * @param channel Where the buffer gets written
+     * @param out The output buffer
+     * @param value The int to add
+     * @throws IOException If the buffer can't be written
+     */
+    private static void putInt(FileChannel channel, ByteBuffer out, int value) throws IOException {
+        if (out.remaining() < 4) {
+            flush(channel, out);
+        }
+
+        out.putInt(value);
+    }
+
+    /**
+     * Adds some bytes to the output buffer, writing the buffer out as it fills up.
+     *
+     * @param channel Where the buffer gets written
+     * @param out The output buffer
+     * @param bytes The bytes to add
+     * @throws IOException If the buffer can't be written
+     */
+    private static void putBytes(FileChannel channel, ByteBuffer out, byte[] bytes) throws IOException {
+        int offset = 0;
+
+        while (offset < bytes.length) {
+            if (!out.hasRemaining()) {
+                flush(channel, out);
+            }
+
+            int count = Math.min(out.remaining(), bytes.length - offset);
+
+            out.put(bytes, offset, count);
+            offset += count;
+        }
+    }
+
+    /**
+     * Writes out whatever is in the output buffer and empties it.
+     *
+     * @param channel Where the buffer gets written
+     * @param out The output buffer
+     * @throws IOException If the buffer can't be written
+     */
+    private static void flush(FileChannel channel, ByteBuffer out) throws IOException {
+        out.flip();
+
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+
+        out.clear();
+    }
+
+    /**
+     * Descriptions read straight out of the string table of a mapped cave file.
+     *
+     */
+    private static final class TableDescriptions implements RoomDescriptions {
+        private final ByteBuffer buffer;    // The mapped file. Only read with absolute gets.
+        private final int textPos;          // Where the description text starts.
+        private final int startsPos;        // Where the table of description starts is.
+
+        TableDescriptions(ByteBuffer buffer, int textPos, int startsPos) {
+            this.buffer = buffer;
+            this.textPos = textPos;
+            this.startsPos = startsPos;
+        }
+
+        @Override
+        public String get(int room) {
+            int start = buffer.getInt(startsPos + 4 * (room-1));
+            int end = buffer.getInt(startsPos + 4 * room);
+            byte[] bytes = new byte[end - start];
+            ByteBuffer text = buffer.duplicate();
+
+            // A duplicate has its own position, so games describing rooms at once don't get in each other's way.
+            text.position(textPos + start);
+            text.get(bytes);
+
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
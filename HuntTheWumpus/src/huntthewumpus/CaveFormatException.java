@@ -0,0 +1,45 @@
+package huntthewumpus;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a rooms file or compiled cave file isn't laid out the way it
+ * should be. For text files it also says which line the problem is on.
+ *
+ * @author Ivan Samuelson
+ */
+public class CaveFormatException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int line;     // The line the problem is on (1 based), or 0 for binary files.
+
+    /**
+     * Creates the exception for a problem that isn't on any particular line.
+     *
+     * @param message What went wrong
+     */
+    public CaveFormatException(String message) {
+        super(message);
+        this.line = 0;
+    }
+
+    /**
+     * Creates the exception for a problem on a line of a text file.
+     *
+     * @param line The line the problem is on (1 based)
+     * @param message What went wrong
+     */
+    public CaveFormatException(int line, String message) {
+        super(String.format("Line %d: %s", line, message));
+        this.line = line;
+    }
+
+    /**
+     * Gets the line the problem is on
+     *
+     * @return The line number (1 based), or 0 if it isn't on a line
+     */
+    public int getLine() {
+        return line;
+    }
+}
@@ -0,0 +1,595 @@
+package huntthewumpus;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes generated caves out as rooms files or compiled cave files. The cave
+ * is never held in memory. Rooms are worked out a chunk at a time by a Topology,
+ * straight into an output buffer, on as many threads as we're given, so the
+ * size of the cave is only limited by the disk.
+ *
+ * Rooms files have to be written in order, so chunks are built on the pool a
+ * few at a time and written out as each one finishes, oldest first. Compiled
+ * files are written in two passes instead: the first works out how many tunnels
+ * and how much description text each chunk has, which says where every chunk's
+ * part of every block goes, and the second has each thread write its chunks
+ * straight into place.
+ *
+ * Every room's tunnels and description come from nothing but its room number
+ * and the seed, so the same topology and seed always give the same file, on any
+ * number of threads.
+ *
+ * @author Ivan Samuelson
+ */
+public final class CaveGenerator {
+    // Rooms built at a time by one thread.
+    private static final int CHUNK = 1 << 16;
+
+    // Descriptions handed out to the rooms, already encoded.
+    private static final byte[][] DESCRIPTIONS = encode(
+        "A wooden sign reads \"Beware of the Wumpus!\"",
+        "There is a black pool of water in the corner.",
+        "You see a Tyrannosaurus Rex fossil embedded in the wall.",
+        "There is an empty Diet Rite can here.",
+        "You almost step on a broken cellular phone.",
+        "A couple of evil rats stare at you from under a pile of rocks.",
+        "You find a Spanish doubloon on the floor.",
+        "The ceiling is very low and you have to stoop.",
+        "You step on a slippery spot, slip, and fall on your keester.",
+        "You get a strong sense of deja vu.",
+        "Water drips steadily from a crack in the ceiling.",
+        "Someone has scratched tally marks all over the walls.",
+        "A cold draft blows through the room.",
+        "The floor is covered in old bones.",
+        "You hear an echo, but you didn't say anything.",
+        "This room smells faintly of burnt toast."
+    );
+
+    private final Topology topology;    // The shape of the cave.
+    private final long seed;            // Picks the descriptions.
+    private final int threads;          // How many threads to build chunks on.
+    private boolean descriptions = true;    // Give rooms descriptions, or leave them blank?
+    private long bytesWritten;          // Size of the last file written.
+    private long tunnelsWritten;        // Tunnels in the last file written, counting both ends.
+    private long writeNanos;            // How long the last file took.
+
+    /**
+     * Creates a generator.
+     *
+     * @param topology The shape of the cave
+     * @param seed Picks the room descriptions. The topology has its own seed for the tunnels.
+     * @param threads How many threads to build the cave on
+     */
+    public CaveGenerator(Topology topology, long seed, int threads) {
+        this.topology = topology;
+        this.seed = seed;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Makes a topology from a description of its shape:
+     *
+     *      dodecahedron                the 20 room cave from the original game
+     *      torus:WxH                   W by H rooms, wrapping around at the edges
+     *      grid:WxH                    W by H rooms
+     *      regular:rooms:degree        random, every room with the same number of tunnels
+     *      smallworld:rooms:degree:p   a ring with degree tunnels per room, and a long
+     *                                  tunnel across it for each room with chance p
+     *
+     * @param shape The shape
+     * @param seed Which cave, for the random shapes
+     * @return The topology
+     * @throws IllegalArgumentException If the shape doesn't make sense
+     */
+    public static Topology parse(String shape, long seed) {
+        String[] parts = shape.toLowerCase().split(":");
+
+        try {
+            switch (parts[0]) {
+                case "dodecahedron":
+                    if (parts.length == 1) {
+                        return DodecahedronTopology.INSTANCE;
+                    }
+                    break;
+
+                case "torus":
+                case "grid":
+                    String[] size = (parts.length == 2) ? parts[1].split("x") : new String[0];
+
+                    if (size.length == 2) {
+                        return new GridTopology(Integer.parseInt(size[0]), Integer.parseInt(size[1]), parts[0].equals("torus"));
+                    }
+                    break;
+
+                case "regular":
+                    if (parts.length == 3) {
+                        return new RandomRegularTopology(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), seed);
+                    }
+                    break;
+
+                case "smallworld":
+                    if (parts.length == 4) {
+                        return new SmallWorldTopology(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]),
+                                Double.parseDouble(parts[3]), seed);
+                    }
+                    break;
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Bad number in cave shape \"%s\"", shape), e);
+        }
+
+        throw new IllegalArgumentException(String.format("Unknown cave shape \"%s\"", shape));
+    }
+
+    /**
+     * Gives every room a description, or leaves them all blank. Blank
+     * descriptions make for much smaller files when only the tunnels matter.
+     *
+     * @param descriptions True to give rooms descriptions
+     */
+    public void setDescriptions(boolean descriptions) {
+        this.descriptions = descriptions;
+    }
+
+    /**
+     * Writes the cave out as a rooms file.
+     *
+     * @param fileName Where to write it
+     * @throws IOException If the file can't be written
+     */
+    public void writeText(String fileName) throws IOException {
+        long start = System.nanoTime();
+        int numRooms = topology.getNumRooms();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        bytesWritten = 0;
+        tunnelsWritten = 0;
+
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ArrayDeque<Future<TextChunk>> pending = new ArrayDeque<>();
+            long next = 1;
+
+            write(channel, ByteBuffer.wrap((numRooms + "\n").getBytes(StandardCharsets.US_ASCII)));
+
+            // Keep a couple of chunks per thread on the go, writing the oldest as it finishes.
+            while (next <= numRooms || !pending.isEmpty()) {
+                while (next <= numRooms && pending.size() < threads * 2) {
+                    int first = (int) next;
+                    int end = (int) Math.min(next + CHUNK, numRooms + 1L);
+
+                    pending.add(pool.submit(() -> buildText(first, end)));
+                    next = end;
+                }
+
+                TextChunk chunk = get(pending.poll());
+
+                tunnelsWritten += chunk.tunnels;
+                write(channel, ByteBuffer.wrap(chunk.bytes, 0, chunk.length));
+            }
+        } finally {
+            pool.shutdownNow();
+            writeNanos = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Writes the cave out as a compiled cave file (see CaveFile).
+     *
+     * @param fileName Where to write it
+     * @throws IOException If the file can't be written, or the cave is too big for the format
+     */
+    public void writeCompiled(String fileName) throws IOException {
+        long start = System.nanoTime();
+        int numRooms = topology.getNumRooms();
+        int numChunks = (int) ((numRooms + (long) CHUNK - 1) / CHUNK);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        bytesWritten = 0;
+        tunnelsWritten = 0;
+
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            // First pass: how many tunnels and how much text is in each chunk.
+            List<Future<long[]>> sizes = new ArrayList<>(numChunks);
+
+            for (int i = 0; i < numChunks; i++) {
+                int first = 1 + i * CHUNK;
+                int end = (int) Math.min(first + (long) CHUNK, numRooms + 1L);
+
+                sizes.add(pool.submit(() -> measure(first, end)));
+            }
+
+            // Running totals say where each chunk starts in the neighbors and the text.
+            long[] tunnelStarts = new long[numChunks + 1];
+            long[] textStarts = new long[numChunks + 1];
+
+            for (int i = 0; i < numChunks; i++) {
+                long[] size = get(sizes.get(i));
+
+                tunnelStarts[i+1] = tunnelStarts[i] + size[0];
+                textStarts[i+1] = textStarts[i] + size[1];
+            }
+
+            long numNeighbors = tunnelStarts[numChunks];
+            long textSize = textStarts[numChunks];
+
+            if (numNeighbors > Integer.MAX_VALUE || textSize > Integer.MAX_VALUE - 3) {
+                throw new IOException(String.format("%d tunnels and %d bytes of descriptions won't fit in a compiled cave file."
+                        + " Write it as a rooms file, or leave out the descriptions.", numNeighbors, textSize));
+            }
+
+            Layout layout = new Layout(numRooms, (int) numNeighbors, (int) textSize);
+
+            // Second pass: every chunk writes its own part of each block.
+            List<Future<Void>> writes = new ArrayList<>(numChunks);
+
+            for (int i = 0; i < numChunks; i++) {
+                int first = 1 + i * CHUNK;
+                int end = (int) Math.min(first + (long) CHUNK, numRooms + 1L);
+                int tunnelStart = (int) tunnelStarts[i];
+                int textStart = (int) textStarts[i];
+
+                writes.add(pool.submit(() -> writeChunk(channel, layout, first, end, tunnelStart, textStart)));
+            }
+
+            for (Future<Void> write : writes) {
+                get(write);
+            }
+
+            // The last offset and start, the text padding and the header are all that's left.
+            ByteBuffer lastOffset = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer lastStart = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+
+            lastOffset.putInt(0, layout.numNeighbors);
+            lastStart.putInt(0, layout.textSize);
+            write(channel, lastOffset, layout.offsetsPos + 4L * numRooms);
+            write(channel, lastStart, layout.startsPos + 4L * numRooms);
+            write(channel, ByteBuffer.allocate(CaveFile.pad(layout.textSize) - layout.textSize), layout.textPos + layout.textSize);
+
+            ByteBuffer header = ByteBuffer.allocate(CaveFile.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+            header.putInt(CaveFile.MAGIC).putInt(CaveFile.VERSION).putInt(numRooms).putInt(layout.numNeighbors)
+                    .putInt(0).putInt(layout.textSize);
+            header.clear();
+            write(channel, header, 0);
+
+            bytesWritten = layout.size;
+            tunnelsWritten = numNeighbors;
+        } finally {
+            pool.shutdownNow();
+            writeNanos = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Gets how big the last file written was
+     *
+     * @return The size in bytes
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Gets how many tunnels the last file written had, counting each end of a tunnel
+     *
+     * @return The number of tunnels
+     */
+    public long getTunnelsWritten() {
+        return tunnelsWritten;
+    }
+
+    /**
+     * Gets how long the last file took to write
+     *
+     * @return The time in nanoseconds
+     */
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+
+    /**
+     * Adds a tunnel to a room's list unless it leads back into the room or
+     * repeats one already there. Shapes that can land on the same room twice use
+     * this so both ends of a tunnel always agree.
+     *
+     * @param tunnels The tunnels so far
+     * @param count How many tunnels so far
+     * @param room The room the tunnels lead out of
+     * @param adj The room to add a tunnel to
+     * @return The new number of tunnels
+     */
+    static int addTunnel(int[] tunnels, int count, int room, int adj) {
+        if (adj == room) {
+            return count;
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (tunnels[i] == adj) {
+                return count;
+            }
+        }
+
+        tunnels[count] = adj;
+        return count+1;
+    }
+
+    /**
+     * Picks a room's description.
+     *
+     * @param room The room number (1 based)
+     * @return The description, encoded, empty if descriptions are turned off
+     */
+    byte[] description(int room) {
+        if (!descriptions) {
+            return new byte[0];
+        }
+
+        long hash = GameRandom.mix64(seed + room * 0x9E3779B97F4A7C15L);
+
+        return DESCRIPTIONS[(int) ((hash >>> 1) % DESCRIPTIONS.length)];
+    }
+
+    /**
+     * Builds a chunk of a rooms file.
+     *
+     * @param first The first room
+     * @param end One past the last room
+     * @return The text for the rooms
+     */
+    private TextChunk buildText(int first, int end) {
+        TextChunk chunk = new TextChunk((end - first) * 96);
+        int[] tunnels = new int[topology.getMaxDegree()];
+
+        for (int room = first; room < end; room++) {
+            int count = topology.tunnels(room, tunnels);
+
+            chunk.appendInt(room);
+
+            for (int i = 0; i < count; i++) {
+                chunk.append((byte) ' ');
+                chunk.appendInt(tunnels[i]);
+            }
+
+            chunk.append((byte) '\n');
+            chunk.append(description(room));
+            chunk.append((byte) '\n');
+            chunk.tunnels += count;
+        }
+
+        return chunk;
+    }
+
+    /**
+     * Works out how many tunnels and how much description text a chunk has.
+     *
+     * @param first The first room
+     * @param end One past the last room
+     * @return The number of tunnels then the number of bytes of text
+     */
+    private long[] measure(int first, int end) {
+        int[] tunnels = new int[topology.getMaxDegree()];
+        long[] size = new long[2];
+
+        for (int room = first; room < end; room++) {
+            size[0] += topology.tunnels(room, tunnels);
+            size[1] += description(room).length;
+        }
+
+        return size;
+    }
+
+    /**
+     * Builds a chunk of a compiled cave file and writes each part where it goes.
+     *
+     * @param channel The file
+     * @param layout Where the blocks are
+     * @param first The first room
+     * @param end One past the last room
+     * @param tunnelStart Where the chunk's tunnels start in the neighbors block
+     * @param textStart Where the chunk's descriptions start in the text block
+     * @return Nothing
+     * @throws IOException If the file can't be written
+     */
+    private Void writeChunk(FileChannel channel, Layout layout, int first, int end, int tunnelStart, int textStart)
+            throws IOException {
+        int rooms = end - first;
+        int[] tunnels = new int[topology.getMaxDegree()];
+        ByteBuffer offsets = ByteBuffer.allocate(4 * rooms).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer starts = ByteBuffer.allocate(4 * rooms).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer neighbors = ByteBuffer.allocate(4 * rooms * topology.getMaxDegree()).order(ByteOrder.LITTLE_ENDIAN);
+        TextChunk text = new TextChunk(rooms * 64);
+        int offset = tunnelStart;
+
+        for (int room = first; room < end; room++) {
+            int count = topology.tunnels(room, tunnels);
+
+            offsets.putInt(offset);
+            starts.putInt(textStart + text.length);
+
+            for (int i = 0; i < count; i++) {
+                neighbors.putInt(tunnels[i]);
+            }
+
+            text.append(description(room));
+            offset += count;
+        }
+
+        offsets.flip();
+        starts.flip();
+        neighbors.flip();
+
+        write(channel, offsets, layout.offsetsPos + 4L * (first-1));
+        write(channel, neighbors, layout.neighborsPos + 4L * tunnelStart);
+        write(channel, ByteBuffer.wrap(text.bytes, 0, text.length), layout.textPos + textStart);
+        write(channel, starts, layout.startsPos + 4L * (first-1));
+
+        return null;
+    }
+
+    /**
+     * Writes all of a buffer at the channel's current position.
+     *
+     * @param channel The file
+     * @param buffer What to write
+     * @throws IOException If the file can't be written
+     */
+    private void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        bytesWritten += buffer.remaining();
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Writes all of a buffer at a given spot in the file. Safe to call from many
+     * threads at once.
+     *
+     * @param channel The file
+     * @param buffer What to write
+     * @param position Where in the file to write it
+     * @throws IOException If the file can't be written
+     */
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Waits for a chunk to finish, turning anything that went wrong on the pool
+     * back into an IOException.
+     *
+     * @param future The chunk
+     * @return What the chunk built
+     * @throws IOException If the chunk failed or we were interrupted waiting for it
+     */
+    private static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while generating the cave", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+
+            throw new IOException("Generating the cave failed: " + e.getCause(), e.getCause());
+        }
+    }
+
+    /**
+     * Encodes the descriptions once up front.
+     *
+     * @param descs The descriptions
+     * @return The encoded descriptions
+     */
+    private static byte[][] encode(String... descs) {
+        byte[][] bytes = new byte[descs.length][];
+
+        for (int i = 0; i < descs.length; i++) {
+            bytes[i] = descs[i].getBytes(StandardCharsets.UTF_8);
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Where each block of a compiled cave file starts.
+     *
+     */
+    private static final class Layout {
+        final int numNeighbors;     // Tunnels in the neighbors block.
+        final int textSize;         // Bytes in the text block, before padding.
+        final long offsetsPos;      // Where the offsets start.
+        final long neighborsPos;    // Where the neighbors start.
+        final long textPos;         // Where the text starts, right after the neighbors.
+        final long startsPos;       // Where the description starts are.
+        final long size;            // How big the whole file is.
+
+        Layout(int numRooms, int numNeighbors, int textSize) {
+            this.numNeighbors = numNeighbors;
+            this.textSize = textSize;
+            this.offsetsPos = CaveFile.HEADER_SIZE;
+            this.neighborsPos = offsetsPos + 4L * (numRooms+1);
+            this.textPos = neighborsPos + 4L * numNeighbors;
+            this.startsPos = textPos + CaveFile.pad(textSize);
+            this.size = startsPos + 4L * (numRooms+1);
+        }
+    }
+
+    /**
+     * A growing byte buffer that numbers can be written into as text without
+     * making any Strings.
+     *
+     */
+    private static final class TextChunk {
+        byte[] bytes;       // The text so far.
+        int length;         // How much of bytes is used.
+        long tunnels;       // How many tunnels are in the chunk.
+
+        TextChunk(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        void append(byte b) {
+            if (length == bytes.length) {
+                grow(1);
+            }
+
+            bytes[length++] = b;
+        }
+
+        void append(byte[] text) {
+            if (length + text.length > bytes.length) {
+                grow(text.length);
+            }
+
+            System.arraycopy(text, 0, bytes, length, text.length);
+            length += text.length;
+        }
+
+        void appendInt(int value) {
+            if (length + 11 > bytes.length) {
+                grow(11);
+            }
+
+            // Write the digits backwards from the end of where the number goes.
+            int digits = 1;
+
+            for (int rest = value; rest >= 10; rest /= 10) {
+                digits++;
+            }
+
+            int pos = length + digits;
+
+            do {
+                bytes[--pos] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value > 0);
+
+            length += digits;
+        }
+
+        private void grow(int needed) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + needed));
+        }
+    }
+}
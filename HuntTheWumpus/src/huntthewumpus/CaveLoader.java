@@ -0,0 +1,354 @@
+package huntthewumpus;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Loads a rooms.txt file by memory mapping it and parsing the numbers straight
+ * out of the bytes. Nothing is allocated per line, and the descriptions stay in
+ * the mapped file until a room is described. Compiled cave files (see CaveFile)
+ * are recognized by their header and loaded without any parsing at all.
+ *
+ * The file looks like this:
+ *
+ *      10                  number of rooms
+ *      1 2 6 10            room number followed by the rooms it has tunnels to
+ *      A wooden sign...    description of the room
+ *      ...                 two lines for each of the other rooms
+ *
+ * Mapped files are limited to 2 GB. Caves loaded from rooms files are checked
+ * with a CaveValidator unless that's turned off, so a cave with tunnels to
+ * nowhere or rooms that can't be reached never makes it into a game. Compiled
+ * cave files were checked when they were compiled, and CaveFile.read() checks
+ * their header and tables, so walking every tunnel again is only done if
+ * setValidateCompiled() asks for it. That would undo the point of mapping them.
+ *
+ * Loaded caves get a DescriptionCache in front of their descriptions, so rooms
+ * players keep walking back into aren't decoded every time.
+ *
+ * A mapped cave reads its descriptions from the file for as long as it's used,
+ * and its tunnels too if the file is a compiled cave, so a file that might be
+ * written over while games are still in the old cave (see CaveWatcher) should
+ * be loaded with setCopy(true) instead.
+ *
+ * @author Ivan Samuelson
+ */
+public final class CaveLoader {
+    // How many room descriptions a loaded cave keeps decoded by default.
+    public static final int DEFAULT_CACHE_SIZE = 4096;
+
+    // The fewest bytes a room can take: a one digit room number, a line end and
+    // an empty description line. The last room can leave off both line ends.
+    private static final int MIN_ROOM_BYTES = 3;
+
+    private ByteBuffer buffer;  // The file being parsed.
+    private int pos;            // Where we are in the buffer.
+    private int line;           // What line we are on (1 based) for error messages.
+    private long bytesLoaded;   // Size of the last file loaded.
+    private long loadNanos;     // How long the last load took.
+    private boolean compiled;   // Was the last file loaded a compiled cave file?
+    private boolean validate = true;    // Check loaded caves with a CaveValidator?
+    private boolean validateCompiled = false;   // Check compiled cave files with one too?
+    private int cacheSize = DEFAULT_CACHE_SIZE;     // Descriptions to cache per cave, 0 for none.
+    private boolean copy = false;       // Read files onto the heap instead of mapping them?
+
+    /**
+     * Loads a cave from a rooms file.
+     *
+     * @param fileName The rooms file to load
+     * @return The loaded cave
+     * @throws IOException If the file can't be read or isn't laid out right
+     */
+    public Cave load(String fileName) throws IOException {
+        long start = System.nanoTime();
+
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            long size = channel.size();
+
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(String.format("%s is %d bytes. Files over 2 GB can't be mapped.", fileName, size));
+            }
+
+            // A mapping stays good after the channel is closed.
+            ByteBuffer mapped = copy ? read(channel, (int) size) : channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            compiled = CaveFile.isCaveFile(mapped);
+
+            Cave cave = compiled ? CaveFile.read(mapped) : parse(mapped);
+
+            if (validate && (!compiled || validateCompiled)) {
+                new CaveValidator().check(cave, !compiled);
+            }
+
+            if (cacheSize > 0) {
+                DescriptionCache cache = new DescriptionCache(cave.getDescriptions(), cacheSize);
+
+                cave = new Cave(cave, cache);
+                GameMetrics.GLOBAL.setDescriptionCache(cache);
+            }
+
+            bytesLoaded = size;
+            loadNanos = System.nanoTime() - start;
+            GameMetrics.GLOBAL.caveLoaded(loadNanos);
+
+            return cave;
+        } finally {
+            buffer = null;
+        }
+    }
+
+    /**
+     * Reads a whole file onto the heap.
+     *
+     * @param channel The file
+     * @param size How big it is
+     * @return The contents
+     * @throws IOException If it can't be read
+     */
+    private static ByteBuffer read(FileChannel channel, int size) throws IOException {
+        ByteBuffer contents = ByteBuffer.allocate(size);
+
+        // A file cut short while we read it just comes back short, and won't parse.
+        while (contents.hasRemaining() && channel.read(contents) >= 0) {
+            // Keep reading.
+        }
+
+        contents.flip();
+        return contents;
+    }
+
+    /**
+     * Parses a cave out of a buffer holding a rooms file.
+     *
+     * @param buffer The contents of the rooms file
+     * @return The parsed cave. Its descriptions point into the buffer.
+     * @throws CaveFormatException If the buffer isn't laid out right
+     */
+    public Cave parse(ByteBuffer buffer) throws CaveFormatException {
+        this.buffer = buffer;
+        this.pos = 0;
+        this.line = 1;
+
+        // First line is the number of rooms.
+        int numRooms = readInt();
+        endLine();
+
+        // Check the count against what's left of the file before sizing anything
+        // from it, so a bad header is a bad header and not an OutOfMemoryError.
+        long left = buffer.limit() - pos;
+
+        if ((long) numRooms * MIN_ROOM_BYTES > left + 2) {
+            throw new CaveFormatException(1, String.format("Expected %d rooms but the file only has room for %d",
+                    numRooms, (left + 2) / MIN_ROOM_BYTES));
+        }
+
+        // Most caves have three tunnels per room, and every tunnel takes at least two bytes.
+        int[] offsets = new int[numRooms+1];
+        int[] neighbors = new int[(int) Math.min((long) numRooms * 3, left / 2 + 1)];
+        int numNeighbors = 0;
+        int[] starts = new int[numRooms];
+
+        for (int i = 0; i < numRooms; i++) {
+            if (pos >= buffer.limit()) {
+                throw error(String.format("Expected %d rooms but the file ended after %d", numRooms, i));
+            }
+
+            // The room number itself, then however many tunnels lead out of it.
+            readInt();
+            skipSpaces();
+
+            while (!atLineEnd()) {
+                if (numNeighbors == neighbors.length) {
+                    neighbors = Arrays.copyOf(neighbors, neighbors.length * 2 + 4);
+                }
+
+                neighbors[numNeighbors++] = readInt();
+                skipSpaces();
+            }
+
+            offsets[i+1] = numNeighbors;
+            endLine();
+
+            // The description is the whole next line. Just remember where it starts.
+            starts[i] = pos;
+
+            while (!atLineEnd()) {
+                pos++;
+            }
+
+            endLine();
+        }
+
+        return new Cave(offsets, Arrays.copyOf(neighbors, numNeighbors), new MappedDescriptions(buffer, starts));
+    }
+
+    /**
+     * Turns checking loaded caves with a CaveValidator on or off. It's on by
+     * default. Turn it off to load a broken cave so it can be looked at.
+     *
+     * @param validate True to check caves as they are loaded
+     */
+    public void setValidate(boolean validate) {
+        this.validate = validate;
+    }
+
+    /**
+     * Turns checking compiled cave files with a CaveValidator on or off. It's
+     * off by default, since they were checked when they were compiled. It does
+     * nothing if setValidate() has turned checking off altogether.
+     *
+     * @param validateCompiled True to check compiled cave files as well as rooms files
+     */
+    public void setValidateCompiled(boolean validateCompiled) {
+        this.validateCompiled = validateCompiled;
+    }
+
+    /**
+     * Reads files into memory instead of mapping them, so the cave is all on
+     * the heap and changing the file afterwards can't change it, or pull the
+     * descriptions and tunnels out from under it. It's off by default.
+     *
+     * @param copy True to copy files in
+     */
+    public void setCopy(boolean copy) {
+        this.copy = copy;
+    }
+
+    /**
+     * Sets how many room descriptions each loaded cave keeps decoded. Only the
+     * most recently described rooms are kept.
+     *
+     * @param cacheSize How many rooms to cache, or 0 to decode every time
+     */
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * Checks whether the last file loaded was a compiled cave file
+     *
+     * @return True for a compiled cave file, false for a rooms file
+     */
+    public boolean isCompiled() {
+        return compiled;
+    }
+
+    /**
+     * Gets how big the last file loaded was
+     *
+     * @return The size of the file in bytes
+     */
+    public long getBytesLoaded() {
+        return bytesLoaded;
+    }
+
+    /**
+     * Gets how long the last load took
+     *
+     * @return The load time in nanoseconds
+     */
+    public long getLoadNanos() {
+        return loadNanos;
+    }
+
+    /**
+     * Gets how fast the last file was parsed
+     *
+     * @return The parse throughput in MB/s
+     */
+    public double getThroughput() {
+        return loadNanos == 0 ? 0 : (bytesLoaded / 1e6) / (loadNanos / 1e9);
+    }
+
+    /**
+     * Reads a non-negative number starting at the current position, skipping
+     * any spaces in front of it.
+     *
+     * @return The number
+     * @throws CaveFormatException If there isn't a number here
+     */
+    private int readInt() throws CaveFormatException {
+        skipSpaces();
+
+        int start = pos;
+        long value = 0;
+
+        while (pos < buffer.limit()) {
+            int digit = buffer.get(pos) - '0';
+
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+
+            value = value * 10 + digit;
+
+            if (value > Integer.MAX_VALUE) {
+                throw error("Number is too big");
+            }
+
+            pos++;
+        }
+
+        if (pos == start) {
+            throw error("Expected a number");
+        }
+
+        return (int) value;
+    }
+
+    /**
+     * Skips over spaces and tabs.
+     *
+     */
+    private void skipSpaces() {
+        while (pos < buffer.limit() && (buffer.get(pos) == ' ' || buffer.get(pos) == '\t')) {
+            pos++;
+        }
+    }
+
+    /**
+     * Checks whether we are at the end of a line or the end of the file.
+     *
+     * @return True if the current line has nothing left on it
+     */
+    private boolean atLineEnd() {
+        return pos >= buffer.limit() || buffer.get(pos) == '\n' || buffer.get(pos) == '\r';
+    }
+
+    /**
+     * Moves past the end of the current line, which must have nothing left on
+     * it but spaces.
+     *
+     * @throws CaveFormatException If there is something else left on the line
+     */
+    private void endLine() throws CaveFormatException {
+        skipSpaces();
+
+        if (!atLineEnd()) {
+            throw error("Unexpected text");
+        }
+
+        if (pos < buffer.limit() && buffer.get(pos) == '\r') {
+            pos++;
+        }
+
+        if (pos < buffer.limit() && buffer.get(pos) == '\n') {
+            pos++;
+        }
+
+        line++;
+    }
+
+    /**
+     * Builds an exception that says where in the file things went wrong.
+     *
+     * @param message What went wrong
+     * @return The exception to throw
+     */
+    private CaveFormatException error(String message) {
+        return new CaveFormatException(line, message);
+    }
+}
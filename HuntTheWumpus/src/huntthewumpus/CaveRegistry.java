@@ -0,0 +1,95 @@
+package huntthewumpus;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps track of the current version of a cave. New games acquire() whatever is
+ * current, and publish() swaps in a new version in one step, so a game sees
+ * either the old cave or the new one and never a mix. Games that started in an
+ * old version keep it until they release it, see CaveVersion.
+ *
+ * @author Ivan Samuelson
+ */
+public final class CaveRegistry {
+    private final AtomicReference<CaveVersion> current = new AtomicReference<>();
+    private final AtomicInteger versions = new AtomicInteger();     // The last version number handed out.
+    private final AtomicInteger live = new AtomicInteger();         // Versions not retired yet, current included.
+
+    /**
+     * Creates a registry with a first version of the cave.
+     *
+     * @param cave The cave
+     */
+    public CaveRegistry(Cave cave) {
+        publish(cave);
+        GameMetrics.GLOBAL.setCaves(this);
+    }
+
+    /**
+     * Makes a cave the current version. Games already going carry on in the
+     * version they have, and the old current version is retired as soon as the
+     * last of them lets go.
+     *
+     * @param cave The new cave
+     * @return The new version
+     */
+    public CaveVersion publish(Cave cave) {
+        CaveVersion version = new CaveVersion(cave, versions.incrementAndGet(), this);
+
+        live.incrementAndGet();
+
+        CaveVersion old = current.getAndSet(version);
+
+        // Give up the registry's reference to the old version.
+        if (old != null) {
+            old.release();
+        }
+
+        return version;
+    }
+
+    /**
+     * Takes a reference to the current version. Release it when done with it.
+     *
+     * @return The current version
+     */
+    public CaveVersion acquire() {
+        while (true) {
+            CaveVersion version = current.get();
+
+            // Only fails if it was replaced and retired since we looked, so look again.
+            if (version.tryAcquire()) {
+                return version;
+            }
+        }
+    }
+
+    /**
+     * Gets the current version, without taking a reference to it
+     *
+     * @return The current version
+     */
+    public CaveVersion getCurrent() {
+        return current.get();
+    }
+
+    /**
+     * Gets how many versions are still around, the current one and any older
+     * ones games are still playing in
+     *
+     * @return The number of versions
+     */
+    public int getLiveVersions() {
+        return live.get();
+    }
+
+    /**
+     * Called by a version when its last reference goes.
+     *
+     * @param version The version
+     */
+    void retired(CaveVersion version) {
+        live.decrementAndGet();
+    }
+}
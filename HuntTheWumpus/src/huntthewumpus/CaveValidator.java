@@ -0,0 +1,463 @@
+package huntthewumpus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Checks that a loaded cave can actually be played in. The loader only checks
+ * that the file is laid out right, so a cave can still have tunnels to rooms that
+ * don't exist, tunnels that only go one way, or rooms nobody can ever get to.
+ * This finds all of those:
+ *
+ *      range       every tunnel leads to a room between 1 and numRooms
+ *      loops       no room has a tunnel to itself, or two tunnels to the same room
+ *      symmetry    every tunnel from a to b has a tunnel from b back to a
+ *      connected   every room can be reached from room 1
+ *
+ * Everything is one pass over the tunnels, so it takes time in proportion to the
+ * size of the cave. Looking up the far end of every tunnel to see if it comes
+ * back would jump all over memory in a big random cave, so symmetry is checked
+ * by adding up a hash of every tunnel as (from, to) and taking away the hash of
+ * (to, from). The totals only balance when every tunnel has one coming back,
+ * so the far ends are only looked up, to say which tunnels are one way, when
+ * they don't. Big caves are split into chunks of rooms that are checked on
+ * the fork/join common pool. Connectivity is a union-find shared by all the
+ * chunks: parents are in an AtomicIntegerArray and roots are linked with a
+ * compare and set, always from the bigger room number to the smaller, so the
+ * root of every group is its lowest room and no locks are needed. A parent of 0
+ * marks a root, so the array is ready to use as soon as it's allocated.
+ *
+ * Problems say which line of the rooms file they are on. Room n's tunnels are
+ * on line 2n, right after the number of rooms and the n-1 rooms before it.
+ *
+ * @author Ivan Samuelson
+ */
+public final class CaveValidator {
+    // Rooms checked by one task. Caves smaller than this are checked on the calling thread.
+    private static final int CHUNK = 1 << 15;
+
+    private final int maxProblems;  // The most problems to keep. The rest are only counted.
+    private Cave cave;              // The cave being checked.
+    private boolean lines;          // Does the cave come from a rooms file with line numbers?
+    private AtomicIntegerArray parents;     // Union-find parent of each room by room number, 0 for a root.
+    private final AtomicLong problemCount = new AtomicLong();  // Every problem found, kept or not.
+    private final LongAdder balance = new LongAdder();  // Tunnel hashes out minus tunnel hashes back.
+    private int parts;              // How many separate groups of rooms the cave falls into.
+    private long validateNanos;     // How long the last check took.
+
+    /**
+     * Creates a validator that keeps the first 100 problems it finds.
+     *
+     */
+    public CaveValidator() {
+        this(100);
+    }
+
+    /**
+     * Creates a validator that keeps up to a given number of problems.
+     *
+     * @param maxProblems The most problems to keep
+     */
+    public CaveValidator(int maxProblems) {
+        this.maxProblems = maxProblems;
+    }
+
+    /**
+     * Checks a cave.
+     *
+     * @param cave The cave to check
+     * @param lines True if the cave was loaded from a rooms file, so problems
+     *              can say which line they're on
+     * @return The problems found, in room order, up to the most this keeps
+     */
+    public List<Problem> validate(Cave cave, boolean lines) {
+        long start = System.nanoTime();
+        int numRooms = cave.getNumRooms();
+
+        this.cave = cave;
+        this.lines = lines;
+        this.parents = new AtomicIntegerArray(numRooms+1);
+        problemCount.set(0);
+        balance.reset();
+
+        try {
+            // Check every room's tunnels, joining up the rooms they connect as we go.
+            List<Problem> problems = new Chunk(1, numRooms+1, false).invoke();
+
+            // Only go looking for one way tunnels if there are some.
+            if (balance.sum() != 0) {
+                for (Problem problem : new Chunk(1, numRooms+1, true).invoke()) {
+                    if (problems.size() < maxProblems) {
+                        problems.add(problem);
+                    }
+                }
+            }
+
+            // Every group's root is its lowest room, so room 1's group has root 1
+            // and every other root is the lowest room of a group cut off from it.
+            int cutOff = 0;
+
+            parts = (numRooms > 0) ? 1 : 0;
+
+            for (int room = 2; room <= numRooms; room++) {
+                if (find(room) != 1) {
+                    cutOff++;
+
+                    if (parents.get(room) == 0) {
+                        parts++;
+                        report(problems, room, "Room %d can't be reached from room 1", room);
+                    }
+                }
+            }
+
+            if (cutOff > 0) {
+                report(problems, 1, "%d of %d rooms can't be reached from room 1", cutOff, numRooms);
+            }
+
+            problems.sort((a, b) -> Integer.compare(a.getRoom(), b.getRoom()));
+
+            return problems;
+        } finally {
+            this.cave = null;
+            this.parents = null;
+            validateNanos = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Checks a cave and throws the first problem found, if there is one.
+     *
+     * @param cave The cave to check
+     * @param lines True if the cave was loaded from a rooms file
+     * @throws CaveFormatException If the cave has any problems
+     */
+    public void check(Cave cave, boolean lines) throws CaveFormatException {
+        List<Problem> problems = validate(cave, lines);
+
+        if (!problems.isEmpty()) {
+            long more = problemCount.get() - 1;
+
+            throw problems.get(0).toException(more == 0 ? ""
+                    : String.format(" (and %d more problems, run validate to see them)", more));
+        }
+    }
+
+    /**
+     * Gets how many problems the last check found, including any past the most this keeps
+     *
+     * @return The number of problems
+     */
+    public long getProblemCount() {
+        return problemCount.get();
+    }
+
+    /**
+     * Gets how many separate groups of rooms the last cave fell into
+     *
+     * @return 1 for a connected cave
+     */
+    public int getParts() {
+        return parts;
+    }
+
+    /**
+     * Gets how long the last check took
+     *
+     * @return The time in nanoseconds
+     */
+    public long getValidateNanos() {
+        return validateNanos;
+    }
+
+    /**
+     * Checks the tunnels out of a range of rooms.
+     *
+     * @param first The first room to check
+     * @param end One past the last room to check
+     * @return The problems found, up to the most this keeps
+     */
+    private List<Problem> checkRooms(int first, int end) {
+        List<Problem> problems = new ArrayList<>();
+        int numRooms = cave.getNumRooms();
+        int[] scratch = null;
+        long sum = 0;
+
+        for (int room = first; room < end; room++) {
+            int degree = cave.getDegree(room);
+
+            for (int i = 0; i < degree; i++) {
+                int adj = cave.getAdjRoom(room, i);
+
+                if (adj < 1 || adj > numRooms) {
+                    report(problems, room, "Room %d has a tunnel to room %d, but there are only %d rooms", room, adj, numRooms);
+                } else if (adj == room) {
+                    report(problems, room, "Room %d has a tunnel to itself", room);
+                } else {
+                    sum += tunnelHash(room, adj) - tunnelHash(adj, room);
+
+                    // Both ends of a two way tunnel would join the same rooms, so only the lower one
+                    // does. One way tunnels from the higher end get joined by checkOneWay().
+                    if (room < adj) {
+                        union(room, adj);
+                    }
+                }
+            }
+
+            // Small rooms just compare every pair, big ones sort a copy of their tunnels.
+            if (degree <= Cave.SMALL_DEGREE) {
+                for (int i = 1; i < degree; i++) {
+                    int earlier = 0;
+
+                    for (int j = 0; j < i; j++) {
+                        if (cave.getAdjRoom(room, i) == cave.getAdjRoom(room, j)) {
+                            earlier++;
+                        }
+                    }
+
+                    // Only report the second tunnel to a room, not every one after it.
+                    if (earlier == 1) {
+                        report(problems, room, "Room %d has more than one tunnel to room %d", room, cave.getAdjRoom(room, i));
+                    }
+                }
+            } else {
+                if (scratch == null || scratch.length < degree) {
+                    scratch = new int[Math.max(degree, 64)];
+                }
+
+                for (int i = 0; i < degree; i++) {
+                    scratch[i] = cave.getAdjRoom(room, i);
+                }
+
+                Arrays.sort(scratch, 0, degree);
+
+                for (int i = 1; i < degree; i++) {
+                    if (scratch[i] == scratch[i-1] && (i == 1 || scratch[i] != scratch[i-2])) {
+                        report(problems, room, "Room %d has more than one tunnel to room %d", room, scratch[i]);
+                    }
+                }
+            }
+        }
+
+        balance.add(sum);
+
+        return problems;
+    }
+
+    /**
+     * Looks up the far end of every tunnel out of a range of rooms to find the
+     * ones that don't come back.
+     *
+     * @param first The first room to check
+     * @param end One past the last room to check
+     * @return The problems found, up to the most this keeps
+     */
+    private List<Problem> checkOneWay(int first, int end) {
+        List<Problem> problems = new ArrayList<>();
+        int numRooms = cave.getNumRooms();
+
+        for (int room = first; room < end; room++) {
+            for (int i = 0; i < cave.getDegree(room); i++) {
+                int adj = cave.getAdjRoom(room, i);
+
+                if (adj >= 1 && adj <= numRooms && adj != room && !cave.validRoom(adj, room)) {
+                    report(problems, room, "Room %d has a tunnel to room %d, but room %d has no tunnel back", room, adj, adj);
+
+                    if (room > adj) {
+                        union(room, adj);
+                    }
+                }
+            }
+        }
+
+        return problems;
+    }
+
+    /**
+     * Hashes a tunnel, one direction only.
+     *
+     * @param from The room it leads out of
+     * @param to The room it leads to
+     * @return The hash
+     */
+    private static long tunnelHash(int from, int to) {
+        return GameRandom.mix64(((long) from << 32) | to);
+    }
+
+    /**
+     * Finds the root of a room's group, pointing rooms at their grandparents on
+     * the way up so later finds are shorter. If another thread got there first
+     * the compare and set just fails, which is fine.
+     *
+     * @param room The room number
+     * @return The lowest room in its group, so far
+     */
+    private int find(int room) {
+        while (true) {
+            int parent = parents.get(room);
+
+            if (parent == 0) {
+                return room;
+            }
+
+            int grandparent = parents.get(parent);
+
+            if (grandparent == 0) {
+                return parent;
+            }
+
+            parents.compareAndSet(room, parent, grandparent);
+            room = grandparent;
+        }
+    }
+
+    /**
+     * Joins the groups two rooms are in. The bigger root is pointed at the
+     * smaller one, and only if it is still a root, otherwise start over.
+     *
+     * @param a One room
+     * @param b The other room
+     */
+    private void union(int a, int b) {
+        while (true) {
+            a = find(a);
+            b = find(b);
+
+            if (a == b) {
+                return;
+            }
+
+            if (a < b) {
+                int swap = a;
+                a = b;
+                b = swap;
+            }
+
+            if (parents.compareAndSet(a, 0, b)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Counts a problem and keeps it if there is still room.
+     *
+     * @param problems Where to keep it
+     * @param room The room it's about
+     * @param format What's wrong, only formatted if it is kept
+     * @param args The numbers that go in the message
+     */
+    private void report(List<Problem> problems, int room, String format, Object... args) {
+        problemCount.incrementAndGet();
+
+        if (problems.size() < maxProblems) {
+            problems.add(new Problem(room, lines ? 2 * room : 0, String.format(format, args)));
+        }
+    }
+
+    /**
+     * A range of rooms, split in half until it is small enough to just check.
+     *
+     */
+    private final class Chunk extends RecursiveTask<List<Problem>> {
+        private static final long serialVersionUID = 1L;
+
+        private final int first;    // The first room.
+        private final int end;      // One past the last room.
+        private final boolean oneWay;   // Looking for one way tunnels, rather than checking everything else?
+
+        Chunk(int first, int end, boolean oneWay) {
+            this.first = first;
+            this.end = end;
+            this.oneWay = oneWay;
+        }
+
+        @Override
+        protected List<Problem> compute() {
+            if (end - first <= CHUNK) {
+                return oneWay ? checkOneWay(first, end) : checkRooms(first, end);
+            }
+
+            int half = first + (end - first) / 2;
+            Chunk left = new Chunk(first, half, oneWay);
+            Chunk right = new Chunk(half, end, oneWay);
+
+            right.fork();
+
+            List<Problem> problems = left.compute();
+
+            // Left comes first so the problems stay in room order.
+            for (Problem problem : right.join()) {
+                if (problems.size() >= maxProblems) {
+                    break;
+                }
+
+                problems.add(problem);
+            }
+
+            return problems;
+        }
+    }
+
+    /**
+     * Something wrong with a cave, and where it is.
+     *
+     */
+    public static final class Problem {
+        private final int room;         // The room it's about.
+        private final int line;         // The line of the rooms file, or 0 for compiled caves.
+        private final String message;   // What's wrong.
+
+        Problem(int room, int line, String message) {
+            this.room = room;
+            this.line = line;
+            this.message = message;
+        }
+
+        /**
+         * Gets the room the problem is about
+         *
+         * @return The room number (1 based)
+         */
+        public int getRoom() {
+            return room;
+        }
+
+        /**
+         * Gets the line of the rooms file the problem is on
+         *
+         * @return The line number (1 based), or 0 for a compiled cave
+         */
+        public int getLine() {
+            return line;
+        }
+
+        /**
+         * Gets what's wrong
+         *
+         * @return The message
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * Turns the problem into an exception to throw.
+         *
+         * @param suffix Anything to add to the end of the message
+         * @return The exception
+         */
+        CaveFormatException toException(String suffix) {
+            return (line > 0) ? new CaveFormatException(line, message + suffix) : new CaveFormatException(message + suffix);
+        }
+
+        @Override
+        public String toString() {
+            return (line > 0) ? String.format("Line %d: %s", line, message) : message;
+        }
+    }
+}
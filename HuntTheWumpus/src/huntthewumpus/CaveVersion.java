@@ -0,0 +1,96 @@
+package huntthewumpus;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One loaded version of a cave, as handed out by a CaveRegistry. The cave in it
+ * never changes. A game holds on to the version it started in until it's done
+ * with it, so a newer version can be published without pulling the cave out
+ * from under anyone.
+ *
+ * Versions are reference counted. The registry holds one reference while the
+ * version is the current one, and every acquire() adds another. When the count
+ * drops to zero the version is retired and nothing can acquire it again, so
+ * once the last game lets go the cave is left for the garbage collector.
+ *
+ * @author Ivan Samuelson
+ */
+public final class CaveVersion {
+    private final Cave cave;        // The cave.
+    private final int number;       // Which version, counting up from 1.
+    private final CaveRegistry registry;    // Told when the version is retired.
+    private final AtomicInteger refs = new AtomicInteger(1);    // Starts with the registry's reference.
+
+    /**
+     * Creates a version, held by the registry.
+     *
+     * @param cave The cave
+     * @param number Which version it is
+     * @param registry The registry publishing it
+     */
+    CaveVersion(Cave cave, int number, CaveRegistry registry) {
+        this.cave = cave;
+        this.number = number;
+        this.registry = registry;
+    }
+
+    /**
+     * Adds a reference, unless the version has already been retired.
+     *
+     * @return True if it worked, false if the version is retired
+     */
+    boolean tryAcquire() {
+        while (true) {
+            int count = refs.get();
+
+            if (count == 0) {
+                return false;
+            }
+
+            if (refs.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Lets go of a reference. The last one to let go retires the version.
+     *
+     */
+    public void release() {
+        int count = refs.decrementAndGet();
+
+        if (count == 0) {
+            registry.retired(this);
+        } else if (count < 0) {
+            throw new IllegalStateException("Cave version " + number + " was released too many times");
+        }
+    }
+
+    /**
+     * Gets the cave
+     *
+     * @return The cave
+     */
+    public Cave getCave() {
+        return cave;
+    }
+
+    /**
+     * Gets which version this is
+     *
+     * @return The version number, counting up from 1
+     */
+    public int getNumber() {
+        return number;
+    }
+
+    /**
+     * Gets how many references there are to the version
+     *
+     * @return The reference count, 0 once it's retired
+     */
+    public int getRefs() {
+        return refs.get();
+    }
+}
@@ -0,0 +1,133 @@
+package huntthewumpus;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a rooms file and publishes it to a CaveRegistry as a new version
+ * whenever it changes, so a server picks up an edited cave without dropping
+ * anybody. New games get the new cave and games already going finish in the
+ * one they started in.
+ *
+ * The file is loaded and validated on the watcher's own thread, and only a cave
+ * that passes is published. A bad edit is reported and the current version
+ * stays. Saving a file tends to fire several events, so the watcher waits for
+ * the file to be quiet for QUIET_MILLIS before loading it. Files are copied in
+ * rather than mapped, since the next edit writes over them.
+ *
+ * @author Ivan Samuelson
+ */
+public final class CaveWatcher implements Closeable {
+    static final long QUIET_MILLIS = 200;
+
+    private final Path file;            // The rooms file.
+    private final CaveRegistry registry;    // Where new versions go.
+    private final WatchService watcher; // Tells us when the file's directory changes.
+    private final Thread thread;        // Waits for changes and reloads.
+
+    /**
+     * Starts watching a rooms file.
+     *
+     * @param fileName The rooms file the registry's cave came from
+     * @param registry Where to publish new versions
+     * @throws IOException If the file's directory can't be watched
+     */
+    public CaveWatcher(String fileName, CaveRegistry registry) throws IOException {
+        this.file = Paths.get(fileName).toAbsolutePath();
+        this.registry = registry;
+        this.watcher = FileSystems.getDefault().newWatchService();
+
+        // Only directories can be watched, and editors that save by writing a
+        // new file and renaming it over the old one only show up as a create.
+        file.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+        thread = new Thread(this::watch, "cave-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Loads the file, checks it and publishes it if it's good.
+     *
+     * @return The new version, or null if the file didn't load
+     */
+    public CaveVersion reload() {
+        long start = System.nanoTime();
+        CaveLoader loader = new CaveLoader();
+
+        loader.setCopy(true);
+
+        try {
+            CaveVersion version = registry.publish(loader.load(file.toString()));
+
+            GameMetrics.GLOBAL.caveReloaded(System.nanoTime() - start);
+            return version;
+        } catch (IOException | RuntimeException e) {
+            // A half written file can fail any which way. Keep playing the cave we have.
+            GameMetrics.GLOBAL.caveReloadFailed();
+            System.out.printf("Encountered the following exception while reloading %s: %s\n", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stops watching.
+     *
+     * @throws IOException If the watch service can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        watcher.close();
+    }
+
+    /**
+     * Runs on the watcher thread until the watcher is closed.
+     *
+     */
+    private void watch() {
+        try {
+            while (true) {
+                if (changed(watcher.take())) {
+                    // Wait for the writes to settle, then load it.
+                    WatchKey key;
+
+                    while ((key = watcher.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                        changed(key);
+                    }
+
+                    reload();
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // Closed. Nothing left to do.
+        }
+    }
+
+    /**
+     * Checks whether a batch of events touched the rooms file, and gets the
+     * key ready for more.
+     *
+     * @param key The batch
+     * @return True if the rooms file was created or changed
+     */
+    private boolean changed(WatchKey key) {
+        boolean ours = false;
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            // An overflow means events were lost, so it might have been us.
+            ours |= event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context());
+        }
+
+        key.reset();
+        return ours;
+    }
+}
@@ -0,0 +1,326 @@
+package huntthewumpus;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the most recently described rooms' descriptions around as Strings so
+ * they don't have to be decoded from the file again every time a player walks
+ * back into a room. It holds a fixed number of rooms, throwing out the least
+ * recently used one to make space, so a cave with millions of rooms costs no
+ * more heap than the rooms players are actually in.
+ *
+ * One cache wraps a cave's descriptions and is shared by every game in that
+ * cave. It's split into segments, each with its own lock, so games on different
+ * threads rarely wait on each other. Each segment is an open addressing table
+ * of room numbers plus a linked list threaded through int arrays, so a hit
+ * allocates nothing. Descriptions are decoded outside the lock.
+ *
+ * @author Ivan Samuelson
+ */
+public final class DescriptionCache implements RoomDescriptions {
+    private static final int SEGMENTS = 16;     // Must be a power of two.
+
+    private final RoomDescriptions source;  // Where descriptions come from on a miss.
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final int capacity;             // How many rooms the whole cache holds.
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates a cache in front of some descriptions.
+     *
+     * @param source Where descriptions come from when they aren't cached
+     * @param capacity How many rooms to keep, at least SEGMENTS
+     */
+    public DescriptionCache(RoomDescriptions source, int capacity) {
+        int perSegment = Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS);
+
+        this.source = source;
+        this.capacity = perSegment * SEGMENTS;
+
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+    }
+
+    @Override
+    public String get(int room) {
+        int hash = hash(room);
+        Segment segment = segments[hash & (SEGMENTS-1)];
+        String text = segment.get(room, hash);
+
+        if (text != null) {
+            hits.increment();
+            return text;
+        }
+
+        // Decode without holding the lock. Two games missing on the same room
+        // at once both decode it, and the second one's copy is just dropped.
+        misses.increment();
+        text = source.get(room);
+
+        if (segment.put(room, hash, text)) {
+            evictions.increment();
+        }
+
+        return text;
+    }
+
+    /**
+     * Gets how many lookups found their room in the cache
+     *
+     * @return The number of hits
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets how many lookups had to decode the description
+     *
+     * @return The number of misses
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets how many rooms were thrown out to make space
+     *
+     * @return The number of evictions
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Gets how many rooms the cache can hold
+     *
+     * @return The capacity in rooms
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Gets how many rooms are in the cache right now
+     *
+     * @return The number of rooms cached
+     */
+    public int getSize() {
+        int size = 0;
+
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+
+        return size;
+    }
+
+    /**
+     * Spreads room numbers out so neighboring rooms land in different segments
+     * and table slots.
+     *
+     * @param room The room number
+     * @return The hash
+     */
+    private static int hash(int room) {
+        int h = room * 0x9E3779B9;
+
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * One lock's worth of the cache: a hash table from room to entry, and the
+     * entries in a list from most to least recently used.
+     *
+     */
+    private static final class Segment {
+        private final int[] table;      // Entry index+1 in each slot, 0 for an empty slot.
+        private final int[] rooms;      // Room number of each entry.
+        private final String[] texts;   // Description of each entry.
+        private final int[] newer;      // Next more recently used entry, -1 at the head.
+        private final int[] older;      // Next less recently used entry, -1 at the tail.
+        private int head = -1;          // Most recently used entry.
+        private int tail = -1;          // Least recently used entry, the next to go.
+        private int size;               // How many entries are in use.
+
+        Segment(int capacity) {
+            // Keep the table at most half full so lookups stay short.
+            table = new int[Integer.highestOneBit(Math.max(2, capacity * 2 - 1)) << 1];
+            rooms = new int[capacity];
+            texts = new String[capacity];
+            newer = new int[capacity];
+            older = new int[capacity];
+        }
+
+        /**
+         * Looks up a room, marking it as just used.
+         *
+         * @param room The room number
+         * @param hash The room's hash
+         * @return The description, or null if it isn't cached
+         */
+        synchronized String get(int room, int hash) {
+            int entry = find(room, hash);
+
+            if (entry < 0) {
+                return null;
+            }
+
+            moveToHead(entry);
+            return texts[entry];
+        }
+
+        /**
+         * Adds a room, throwing out the least recently used room if full.
+         *
+         * @param room The room number
+         * @param hash The room's hash
+         * @param text The description
+         * @return True if a room was thrown out
+         */
+        synchronized boolean put(int room, int hash, String text) {
+            if (find(room, hash) >= 0) {
+                return false;   // Somebody else beat us to it.
+            }
+
+            boolean evicted = false;
+            int entry;
+
+            if (size < rooms.length) {
+                entry = size++;
+            } else {
+                // Reuse the tail entry.
+                entry = tail;
+                unlink(entry);
+                removeSlot(rooms[entry]);
+                evicted = true;
+            }
+
+            rooms[entry] = room;
+            texts[entry] = text;
+
+            int mask = table.length - 1;
+            int slot = (hash >>> 4) & mask;
+
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+
+            table[slot] = entry + 1;
+            linkAtHead(entry);
+
+            return evicted;
+        }
+
+        /**
+         * Gets how many rooms are cached
+         *
+         * @return The number of entries in use
+         */
+        synchronized int size() {
+            return size;
+        }
+
+        /**
+         * Finds a room's entry.
+         *
+         * @param room The room number
+         * @param hash The room's hash
+         * @return The entry index, or -1 if it isn't there
+         */
+        private int find(int room, int hash) {
+            int mask = table.length - 1;
+
+            // The low bits picked the segment, so use the ones above them.
+            for (int slot = (hash >>> 4) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+                if (rooms[table[slot]-1] == room) {
+                    return table[slot]-1;
+                }
+            }
+
+            return -1;
+        }
+
+        /**
+         * Takes a room out of the hash table, shifting later entries back so
+         * lookups don't stop early at the hole.
+         *
+         * @param room The room number
+         */
+        private void removeSlot(int room) {
+            int mask = table.length - 1;
+            int slot = (hash(room) >>> 4) & mask;
+
+            while (rooms[table[slot]-1] != room) {
+                slot = (slot + 1) & mask;
+            }
+
+            table[slot] = 0;
+
+            for (int next = (slot + 1) & mask; table[next] != 0; next = (next + 1) & mask) {
+                int home = (hash(rooms[table[next]-1]) >>> 4) & mask;
+
+                // Move the entry into the hole if the hole is between its home slot and where it is now.
+                if (((next - home) & mask) >= ((next - slot) & mask)) {
+                    table[slot] = table[next];
+                    table[next] = 0;
+                    slot = next;
+                }
+            }
+        }
+
+        /**
+         * Moves an entry to the front of the list.
+         *
+         * @param entry The entry index
+         */
+        private void moveToHead(int entry) {
+            if (entry != head) {
+                unlink(entry);
+                linkAtHead(entry);
+            }
+        }
+
+        /**
+         * Takes an entry out of the list.
+         *
+         * @param entry The entry index
+         */
+        private void unlink(int entry) {
+            if (newer[entry] >= 0) {
+                older[newer[entry]] = older[entry];
+            } else {
+                head = older[entry];
+            }
+
+            if (older[entry] >= 0) {
+                newer[older[entry]] = newer[entry];
+            } else {
+                tail = newer[entry];
+            }
+        }
+
+        /**
+         * Puts an entry at the front of the list.
+         *
+         * @param entry The entry index
+         */
+        private void linkAtHead(int entry) {
+            newer[entry] = -1;
+            older[entry] = head;
+
+            if (head >= 0) {
+                newer[head] = entry;
+            }
+
+            head = entry;
+
+            if (tail < 0) {
+                tail = entry;
+            }
+        }
+    }
+}
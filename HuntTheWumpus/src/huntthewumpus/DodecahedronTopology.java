@@ -0,0 +1,43 @@
+package huntthewumpus;
+
+/**
+ * The cave from the original 1976 game: 20 rooms on the corners of a
+ * dodecahedron, each with three tunnels. The numbering is the classic one, so
+ * anyone who played the original will feel right at home.
+ *
+ * @author Ivan Samuelson
+ */
+public final class DodecahedronTopology implements Topology {
+    public static final DodecahedronTopology INSTANCE = new DodecahedronTopology();
+
+    // The tunnels out of each room, room 1 first.
+    private static final int[][] TUNNELS = {
+        {2, 5, 8},    {1, 3, 10},   {2, 4, 12},   {3, 5, 14},   {1, 4, 6},
+        {5, 7, 15},   {6, 8, 17},   {1, 7, 9},    {8, 10, 18},  {2, 9, 11},
+        {10, 12, 19}, {3, 11, 13},  {12, 14, 20}, {4, 13, 15},  {6, 14, 16},
+        {15, 17, 20}, {7, 16, 18},  {9, 17, 19},  {11, 18, 20}, {13, 16, 19}
+    };
+
+    /**
+     * Only the one instance, the cave never changes.
+     *
+     */
+    private DodecahedronTopology() {
+    }
+
+    @Override
+    public int getNumRooms() {
+        return TUNNELS.length;
+    }
+
+    @Override
+    public int getMaxDegree() {
+        return 3;
+    }
+
+    @Override
+    public int tunnels(int room, int[] tunnels) {
+        System.arraycopy(TUNNELS[room-1], 0, tunnels, 0, 3);
+        return 3;
+    }
+}
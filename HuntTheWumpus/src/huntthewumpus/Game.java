@@ -2,423 +2,545 @@ package huntthewumpus;
 
 import java.io.BufferedReader;
 import java.io.Console;
-import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.Reader;
-import java.util.Random;
+import java.util.List;
 /**
- * This is the main game logic. This will set up the rooms and start the game.
- * 
+ * This is the console version of the game. This will set up the rooms and
+ * play the game by passing what the player types into a GameEngine and
+ * printing out what happened.
+ *
+ * Everything printed during a turn is collected in a TurnOutput and written out
+ * in one go just before the game waits for the player, so a turn costs one
+ * write instead of a printf per line.
+ *
  * @author Ivan Samuelson
  */
 public class Game {
-    private Room[] rooms;       // Hold the "map" of the rooms.
-    private int arrowsLeft = 3; // Fill that quiver up with 3 arrows.
-    
+    // Messages with a number in them, split up once instead of on every printf.
+    private static final MessageTemplate ROOM_NUMBER = new MessageTemplate("You are in room %d\n");
+    private static final MessageTemplate ARROWS_LEFT = new MessageTemplate("You have %d arrows left.\n");
+    private static final MessageTemplate CARRIED = new MessageTemplate("ZAP! Super bats snatch you up and drop you in room %d.\n");
+    private static final MessageTemplate WUMPUS_DISTANCE = new MessageTemplate("Your nose says the Wumpus is %d rooms away.\n");
+    private static final MessageTemplate ARROW_PATH = new MessageTemplate("Your arrow can only fly through %d rooms. Try again...\n");
+
+    // How far the hint can smell the Wumpus from.
+    private static final int HINT_RANGE = 5;
+
+    private Cave cave;          // Hold the "map" of the rooms.
+    private GameEngine engine;  // The game logic that does the real work.
+    private BufferedReader in;  // Used when there's no console to read from (piped input, IDE, etc).
+    private long seed = new GameRandom().nextLong();    // Seed for the game. Same seed, same game.
+    private String recordFile;  // Replay log to record the game to, or null to not record it.
+    private String historyDir;  // History log to append the game's events to, or null to not keep them.
+    private HistoryLog history; // The open history log, while the game is being played.
+    private long historyGame;   // The game's number in the history log.
+    private HazardConfig config = HazardConfig.CLASSIC;    // How many of each danger to place.
+    private GameRules rules = GameRules.NONE;   // What the dangers get up to during the game.
+    private boolean hints = false;      // Tell the player how far away the Wumpus is?
+    private TurnOutput out = new TurnOutput(new StreamSink(System.out));   // Where the game's text goes.
+
     /**
-     * Default constructor that sets up the game to play.
-     * 
+     * Default constructor that sets up the game to play from rooms.txt.
+     *
      */
     public Game() {
+        this("rooms.txt");
+    }
+
+    /**
+     * Sets up the game to play from the given rooms file.
+     *
+     * @param fileName The rooms file to load
+     */
+    public Game(String fileName) {
         // Set up the game.
-        setupRooms();
+        setupRooms(fileName);
     }
 
     /**
      * Sets up the rooms by reading in the information from a text file.
-     * 
+     *
+     * @param fileName The rooms file to load
      */
-    private void setupRooms() {
-        // Read in the file information. Let's first get the number of rooms to read in.
-        try (Reader ir = new InputStreamReader(new FileInputStream("rooms.txt"))) {
-            BufferedReader in = new BufferedReader(ir);
-            
-            // Read the first line in which is the # number of rooms
-            String line = in.readLine();
-            
-            int numRooms = Integer.parseInt(line);
-            
+    private void setupRooms(String fileName) {
+        try {
+            Cave loaded = new CaveLoader().load(fileName);
+
             // Make sure we have at LEAST 6 rooms or the game won't work the way it's set up.
-            if (numRooms >= 6 ) {
-                // We know the number of rooms, so create an array list of room objects to store the room info
-                rooms = new Room[numRooms];
-                
-                // Next read in 
-                for (int i = 0; i < numRooms; i++) {
-                    // Read the list of rooms
-                    line = in.readLine();
-                    String roomNums[] = line.split(" ");
-
-                    // Next, read in the room description
-                    line = in.readLine();
-                    
-                    rooms[i] = new Room(
-                            Integer.parseInt(roomNums[0]),
-                            Integer.parseInt(roomNums[1]),
-                            Integer.parseInt(roomNums[2]),
-                            Integer.parseInt(roomNums[3]),
-                            line);
-                }
-                // Place a wumpus in a room.
-                placeDanger(numRooms, Room.Danger.WUMPUS, 1);
-
-                // Place spiders in 2 different rooms.
-                placeDanger(numRooms, Room.Danger.SPIDER, 2);
-
-                // Place pits in 2 different rooms.
-                placeDanger(numRooms, Room.Danger.PIT, 2);
+            if (loaded.getNumRooms() >= 6 ) {
+                cave = loaded;
             } else {
                 // not enough rooms. Exit out of the game.
-                System.out.printf("Only %d rooms were defined. Need at least 6.\n", numRooms);
+                System.out.printf("Only %d rooms were defined. Need at least 6.\n", loaded.getNumRooms());
             }
         } catch (Exception e) {
             System.out.printf("Encountered the following exception while reading file: %s\n", e.getMessage());
         }
     }
-    
+
+    /**
+     * Sets the seed for the game, so the same game can be played again.
+     *
+     * @param seed The seed
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Records the game to a replay log when it is played.
+     *
+     * @param recordFile The replay log to append the game to
+     */
+    public void setRecordFile(String recordFile) {
+        this.recordFile = recordFile;
+    }
+
+    /**
+     * Appends what happens in the game to a history log when it is played.
+     *
+     * @param historyDir The history log's directory
+     */
+    public void setHistoryDir(String historyDir) {
+        this.historyDir = historyDir;
+    }
+
+    /**
+     * Sets how many of each danger to place.
+     *
+     * @param config The hazard counts
+     */
+    public void setHazards(HazardConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Sets which hazard behaviors the game is played with, like a Wumpus that
+     * wakes up when an arrow misses.
+     *
+     * @param rules The rules
+     */
+    public void setRules(GameRules rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * Turns on the hint that tells the player how many rooms away the Wumpus is,
+     * when it's close enough to smell.
+     *
+     * @param hints True to give the hint every turn
+     */
+    public void setHints(boolean hints) {
+        this.hints = hints;
+    }
+
+    /**
+     * Sends the game's text somewhere other than the console, such as a
+     * NullSink when nobody is watching.
+     *
+     * @param sink Where to write the game's text
+     */
+    public void setOutput(OutputSink sink) {
+        this.out = new TurnOutput(sink);
+    }
+
     /**
      * This starts the game. It will start the player in room 1 (index array 0).
-     * 
+     *
      */
     public void playGame() {
-        boolean gameOver = false;
-        int playerRoom = 0; // This will be the room number-1 of where the player is at. Starting in room 1 (1 - 0).
+        // If the rooms didn't load there's no game to play.
+        if (cave == null) {
+            return;
+        }
+
+        // Only record the game if we were asked to.
+        try (ReplayLog log = (recordFile == null) ? null : new ReplayLog(recordFile, cave);
+             HistoryLog historyLog = (historyDir == null) ? null : new HistoryLog(historyDir, cave)) {
+            history = historyLog;
+            playGame(log);
+
+            // However the game ended, even with nobody left typing.
+            if (history != null) {
+                history.endGame(historyGame, engine);
+            }
+        } catch (IOException e) {
+            out.print("Encountered the following exception while recording: ").print(e.getMessage()).print("\n");
+        }
+
+        // Make sure the last turn gets out before we go.
+        out.close();
+    }
+
+    /**
+     * Plays the game, recording it as it goes.
+     *
+     * @param log Where to record the game, or null to not record it
+     * @throws IOException If the replay log can't be written
+     */
+    private void playGame(ReplayLog log) throws IOException {
+        // The engine places the dangers and keeps track of the player.
+        engine = new GameEngine(cave, config, new GameRandom(seed));
+        rules.apply(engine);
+
+        if (log != null) {
+            log.startGame(seed, config, rules);
+        }
+
+        if (history != null) {
+            historyGame = history.startGame(engine);
+        }
         int adjRoom;        // This is used to determine an adjacent room the user is moving or shooting into.
-        
-        // Grab the system console for reading from.
-        Console console = System.console();
-        
+
         // Loop until the game is over. The game ends as follows:
         //    1. The user shoots the Wumpus. WIN!
         //    2. The player runs out of arrows and gets eaten by the Wumpus. LOSE!
         //    3. The player moves into a room with a pit. LOSE!
         //    4. The player moves into a room with a spider. LOSE!
         //    5. The player moves into a room with the Wumpus. LOSE!
-        while(!gameOver) {
+        while(!engine.isGameOver()) {
             // Tell the player about the current room they are in
             // and what may lay ahead. GASP!!!!
-            describeRoom(playerRoom);
-            
+            describeRoom(engine.getPlayerRoom());
+
             // Now tell the the valid commands and wait for input from player.
-            String command = console.readLine("(M)ove or (S)hoot?");
-            
+            String command = readLine("(M)ove or (S)hoot?");
+
+            // No more input means nobody is playing anymore.
+            if (command == null) {
+                return;
+            }
+
             // Determine what was entered
             switch (command.toUpperCase()) {
                 case "M":   // User wants to move
-                    // Get which room number they wish to move to.
-                    command = console.readLine("Which room?");
-                    
+                case "S":   // User wants to shoot
+                    // Get which room number they wish to move or shoot to.
+                    String roomText = readLine("Which room?");
+
+                    if (roomText == null) {
+                        return;
+                    }
+
+                    // Time the turn from here, now the player's done typing.
+                    long turnStart = System.nanoTime();
+
+                    // More than one room means a crooked arrow, up to MAX_ARROW_PATH rooms like "3 4 12".
+                    String[] path = roomText.trim().split("[\\s,]+");
+
+                    if (command.equalsIgnoreCase("S") && path.length > 1) {
+                        shootCrooked(path, log);
+                        GameMetrics.GLOBAL.turn(System.nanoTime() - turnStart);
+                        break;
+                    }
+
                     // Parse out the room number and catch an exceptions where
                     // they may have entered a non-number.
                     try {
-                        adjRoom = Integer.parseInt(command);
+                        adjRoom = Integer.parseInt(roomText);
                     } catch (NumberFormatException e) {
                         // Slap their wrists for being bad!
-                        System.out.printf("You entered an invalid number. Please try again.\n");
-                        
+                        out.print("You entered an invalid number. Please try again.\n");
+
                         break;  // Break out of the switch and go back to the top.
                     }
-                    
-                    // Verify if it's a valid room to move to.
-                    if (rooms[playerRoom].validRoom(adjRoom)) {
-                        // It is, so set them to that room, but remember, the
-                        // room number is also our undex into the array, so
-                        // subtract one from it.
-                        playerRoom = adjRoom-1;
-                        
-                        // This will check if the player died and print the
-                        // appropriate message and then set gameOver to true 
-                        // to exit the loop, effectively ending the game.
-                        gameOver = playerDead(playerRoom);
+
+                    if (log != null) {
+                        log.command(command.equalsIgnoreCase("S"), adjRoom);
+                    }
+
+                    // Let the engine do the work and print out what happened.
+                    if (command.equalsIgnoreCase("M")) {
+                        printEvents(record(engine.move(adjRoom)), true);
                     } else {
-                        // User entered an invalid room number. Slap their wrists again.
-                        System.out.printf("\nYou think you can teleport? Try again...\n");
+                        printEvents(record(engine.shoot(adjRoom)), false);
                     }
+
+                    GameMetrics.GLOBAL.turn(System.nanoTime() - turnStart);
                     break;
-                    
-                case "S":   // User wants to shoot
-                    // Make sure the player has enough arrows first
-                    if (arrowsLeft > 0) {
-                        // Get which room number they wish to shoot into.
-                        command = console.readLine("Which room?");
-
-                        // Parse out the room number and catch an exceptions where
-                        // they may have entered a non-number.
-                        try {
-                            adjRoom = Integer.parseInt(command);
-                        } catch (NumberFormatException e) {
-                            // Slap their wrists for being bad!
-                            System.out.printf("You entered an invalid number. Please try again.\n");
-                            
-                            break;  // Break out of the switch and go back to the top.
-                        }               
-
-                        // Verify if it's a valid room to move to.
-                        if (rooms[playerRoom].validRoom(adjRoom)) {
-                            // Decreate the arrow count since the shot an arrow 
-                            // into a valid adjacent room.
-                            arrowsLeft--;
-                            
-                            // Check if that room has the Wumpus.
-                            // gameOver will be true if they did.
-                            gameOver = shootRoom(adjRoom-1);
-
-                            // Check if the game is over.
-                            if (gameOver) {
-                                // THEY KILLED THE WUMPUS! THEY WIN!!!
-                                System.out.printf("You shot the Wumpus!   ** You Win! **\n");
-                                System.out.printf("\nEnjoy your fame!");
-                            } else {
-                                // They shot into an empty room. Np dead Wumpus.
-                                // Check if arrow count is 0. If so, game is over and they lose!
-                                if (arrowsLeft == 0) {
-                                    // Wumpus has a free lunch as the user is out of arrows.
-                                    System.out.printf("You ran out of arrows and the Wumpus found you and had you for lunch.\n");
-                                    System.out.printf("Better luck next time!\n");
-                                    
-                                    // Game is over.
-                                    gameOver = true;
-                                }
-                            }
-                        } else {
-                            // Slap their wrists again. They entered a non-adjacent room number. Tsk, tsk!
-                            System.out.printf("Hey. You can't shoot into that room. Try again...\n");
-                        }
+
+                default:
+                    // Uh oh. User enter an invalid command. Admonish the user for being stupid.
+                    out.print("\nWrong command buddy! Can't you read directions? Try again.\n");
+            }
+        }
+
+        if (log != null) {
+            log.endGame(engine);
+        }
+    }
+
+    /**
+     * Shoots a crooked arrow through the rooms the player listed.
+     *
+     * @param rooms The room numbers as the player typed them
+     * @param log Where to record the shot, or null to not record it
+     * @throws IOException If the replay log can't be written
+     */
+    private void shootCrooked(String[] rooms, ReplayLog log) throws IOException {
+        int[] path = new int[rooms.length];
+
+        try {
+            for (int i = 0; i < rooms.length; i++) {
+                path[i] = Integer.parseInt(rooms[i]);
+            }
+        } catch (NumberFormatException e) {
+            out.print("You entered an invalid number. Please try again.\n");
+            return;
+        }
+
+        if (path.length > GameEngine.MAX_ARROW_PATH) {
+            out.print(ARROW_PATH, GameEngine.MAX_ARROW_PATH);
+            return;
+        }
+
+        if (log != null) {
+            log.shot(path);
+        }
+
+        printEvents(record(engine.shoot(path)), false);
+    }
+
+    /**
+     * Appends what a command did to the history log, if there is one.
+     *
+     * @param events What the command returned
+     * @return The same events, to print
+     */
+    private List<GameEvent> record(List<GameEvent> events) {
+        if (history != null) {
+            history.record(historyGame, engine, events);
+        }
+
+        return events;
+    }
+
+    /**
+     * Reads a line from the console, or from standard input if there is no
+     * console (running from an IDE or with piped input).
+     *
+     * @param prompt What to ask the player
+     * @return The line the player entered, or null if there is no more input
+     */
+    private String readLine(String prompt) {
+        Console console = System.console();
+
+        // The prompt goes out with the rest of the turn, in one write.
+        out.print(prompt);
+        out.flush();
+
+        if (console != null) {
+            return console.readLine();
+        }
+
+        // No console, so fall back to plain old standard input.
+        try {
+            if (in == null) {
+                in = new BufferedReader(new InputStreamReader(System.in));
+            }
+
+            return in.readLine();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Prints out what happened after a move or a shot.
+     *
+     * @param events The events the engine handed back
+     * @param moving True if the player was moving, false if they were shooting
+     */
+    private void printEvents(List<GameEvent> events, boolean moving) {
+        for (GameEvent event : events) {
+            switch (event.getType()) {
+                case DIED:
+                    playerDead(event.getDanger());
+                    break;
+
+                case ARROW_HIT:
+                    // WOOT!!! The player killed the Wumpus.
+                    out.print("Your arrow goes down the tunnel and finds its mark!\n");
+                    break;
+
+                case WON:
+                    // THEY KILLED THE WUMPUS! THEY WIN!!!
+                    out.print("You shot the Wumpus!   ** You Win! **\n");
+                    out.print("\nEnjoy your fame!");
+                    break;
+
+                case ARROW_MISSED:
+                    // Well, they guessed wrong. The Wumpus wasn't in that room. Arrow is lost.
+                    out.print("Your arrow goes down the tunnel and is lost. You missed.\n");
+                    break;
+
+                case OUT_OF_ARROWS:
+                    // Wumpus has a free lunch as the user is out of arrows.
+                    out.print("You ran out of arrows and the Wumpus found you and had you for lunch.\n");
+                    out.print("Better luck next time!\n");
+                    break;
+
+                case WOKE:
+                    // Uh oh. All that noise woke it up.
+                    out.print("You hear a growl. The Wumpus is awake and on the move!\n");
+                    break;
+
+                case CARRIED:
+                    // Whee!
+                    out.print(CARRIED, event.getRoom());
+                    break;
+
+                case SHOT_SELF:
+                    // Oops.
+                    out.print("Ouch! Your arrow came around the bend and got you!\n");
+                    break;
+
+                case INVALID_ROOM:
+                    // Slap their wrists again. Tsk, tsk!
+                    if (moving) {
+                        out.print("\nYou think you can teleport? Try again...\n");
+                    } else {
+                        out.print("Hey. You can't shoot into that room. Try again...\n");
                     }
                     break;
-                    
-                default:    
-                    // Uh oh. User enter an invalid command. Admonish the user for being stupid.
-                    System.out.printf("\nWrong command buddy! Can't you read directions? Try again.\n");
+
+                default:
+                    // MOVED and HAZARD_NEARBY get printed when the room is described
+                    // at the top of the next turn.
+                    break;
             }
         }
     }
-    
+
     /**
      * Describes the room based on the room number given.
-     * 
+     *
      * @param room The room number whose description needs printing.
      */
     private void describeRoom(int room) {
+        Room current = engine.getRoom(room);
+
         // Print out the room description
-        System.out.printf("You are in room %d\n", room+1);  // Need to add 1 since this is zero-based.
-        System.out.printf("You have %d arrows left.\n", arrowsLeft);    // print number of arrows left.
-        System.out.printf("%s\n", rooms[room].getRoomDesc());   // Print out the room description next.
-        
+        out.print(ROOM_NUMBER, room);
+        out.print(ARROWS_LEFT, engine.getArrowsLeft());    // print number of arrows left.
+        out.print(current.getRoomDesc()).print("\n");   // Print out the room description next.
+
         // Now print out what adjacent rooms are off the current room.
-        System.out.printf("There are tunnels to rooms %d, %d, and %d.\n", rooms[room].getAdjRoom1(), rooms[room].getAdjRoom2(), 
-                rooms[room].getAdjRoom3());
+        describeTunnels(current);
+        out.print("\n");
 
-        // Check to see if there are any dangers present in the other three rooms.
-        printDanger(room);
+        // Check to see if there are any dangers present in the adjacent rooms.
+        printDanger(engine.look());
+
+        if (hints) {
+            int distance = engine.getDistanceTo(Room.Danger.WUMPUS, HINT_RANGE);
+
+            // Right next door already gets a warning of its own.
+            if (distance > 1) {
+                out.print(WUMPUS_DISTANCE, distance);
+            }
+        }
     }
 
-    // This is called when the player wants to shoot into a room.
-    // It receives the room number to shoot into.
     /**
-     * Determines if the user can shoot into this room. If they can,
-     * it will also look to see if the user shoots into the same room
-     * as the Wumpus. If that is the case, then the game is won.
-     * 
-     * @param room The room number the player wishes to shoot into
-     * @return Returns whether the Wumpus is dead or alive
+     * Prints the sentence listing the tunnels out of a room, however many there are.
+     * Something like "There are tunnels to rooms 2, 6, and 10."
+     *
+     * @param room The room whose tunnels need listing.
      */
-    private boolean shootRoom(int room) {
-        boolean wumpusDead; // Did the player kill the Wumpus?
-        
-        // See what is in the room they shot into.
-        Room.Danger danger = rooms[room].getDanger();
-        
-        // Check to see what danger, if any, is in the adjacent room.
-        switch (danger) {
-            case WUMPUS:
-                // WOOT!!! The player killed the Wumpus. They WIN!
-                System.out.printf("Your arrow goes down the tunnel and finds its mark!\n");
-                wumpusDead = true;
-                break;
-                
-            default:
-                // Well, they guessed wrong. The Wumpus wasn't in that room. Arrow is lost.
-                System.out.printf("Your arrow goes down the tunnel and is lost. You missed.\n");
-                wumpusDead = false;
+    private void describeTunnels(Room room) {
+        int count = room.getAdjRoomCount();
+
+        if (count == 0) {
+            // A room nobody dug a tunnel out of.
+            out.print("There are no tunnels out of this room.");
+            return;
+        }
+
+        if (count == 1) {
+            out.print("There is a tunnel to room ").print(room.getAdjRoom(0)).print(".");
+            return;
+        }
+
+        out.print("There are tunnels to rooms ");
+
+        for (int i = 0; i < count; i++) {
+            if (i == count-1) {
+                // Last one gets an "and" in front of it.
+                out.print(count > 2 ? ", and " : " and ");
+            } else if (i > 0) {
+                out.print(", ");
+            }
+
+            out.print(room.getAdjRoom(i));
         }
-        
-        // Return whether the Wumpus is dead (true) or alive (false).
-        return wumpusDead;
+
+        out.print(".");
     }
-    
+
     /**
-     * This checks to see if the player died while moving into a room. This can
-     * happen if:
-     * 
-     *      1. The player moves into the same room as the Wumpus
-     *      2. The player moves into the same room as a Spider
-     *      3. The player moves into the same room as a Pit.
-     * 
-     * This will print out the appropriate message based on whether they live
-     * or die.
-     * 
-     * @param room The room number the player is moving into.
-     * @return True if the player has died, false if they are still alive.
+     * This prints the message for how the player died.
+     *
+     * @param danger The danger that was in the room the player moved into.
      */
-    private boolean playerDead(int room) { 
-        boolean isDead; // Is player is dead or alive?
-        
-        // Get the danger, if any, that exists in the room they
-        // moved into.
-        Room.Danger danger = rooms[room].getDanger();
-        
-        // Let's see what danger, if any, is here.
+    private void playerDead(Room.Danger danger) {
+        // Let's see what danger got them.
         switch (danger) {
-            case NONE:
-                // Whew! No danger in this room. The player is safe.
-                isDead = false;
-                break;
-                
             case PIT:
                 // AHHHHH! They fell down a pit! Player died. Game over.
-                System.out.printf("You fell into a bottomless pit! AHHHHHH!\n");
-                isDead = true;
+                out.print("You fell into a bottomless pit! AHHHHHH!\n");
                 break;
-                
+
             case WUMPUS:
                 // Yummy! The Wumpus had lunch. Player died. Game over.
-                System.out.printf("Munch, munch, munch! You made a tasty snack for the Wumpus.\n");
-                isDead = true;
+                out.print("Munch, munch, munch! You made a tasty snack for the Wumpus.\n");
                 break;
-                
+
             case SPIDER:
                 // YUCK! They ran into a spider's web and will become lunch for them.
                 // Player died. Game over.
-                System.out.printf("The spiders spin a web around you.\n");
-                isDead = true;
+                out.print("The spiders spin a web around you.\n");
                 break;
-                
+
             default:
                 // If we get here, it means there was a programming mistake and we
                 // have an extra Danger enum. This is what we call a feature, not a bug. ;)
-                System.out.printf("WHOA! The programmer made a mistake. Contact them at once!\n");
-                isDead = false;
+                out.print("WHOA! The programmer made a mistake. Contact them at once!\n");
         }
-        
-        // Return whether the player is dead (true) or alive (false).
-        return isDead;
     }
-    
+
     /**
      * This will give the player clues as to any dangers that lie ahead in any
-     * of the adjacent rooms. It will only print one warning for each unique
+     * of the adjacent rooms. The engine only reports one warning for each unique
      * danger that is one room away.
-     * 
-     * @param room The room number that the player is current in.
+     *
+     * @param warnings The HAZARD_NEARBY events for the current room.
      */
-    private void printDanger(int room) {
-        // Create an array of the adjacent rooms from the given room. This makes
-        // it easier to use one set of code to loop through instead of repeating
-        // for each adjacent room. This also leaves room for expansion if we wish
-        // to add more than 3 adjacent rooms (although we'd still have to change
-        // the following initialization of the array).
-        int[] adjRooms = { rooms[room].getAdjRoom1(), rooms[room].getAdjRoom2(), rooms[room].getAdjRoom3() };
-        
-        int pitCount = 0;       // How many pits are in the adjacent rooms.
-        int spiderCount = 0;    // How many spiders are in the adjacent rooms.
-        int wumpusCount = 0;    // Is there a wumpus in one of the adjacent rooms?
-
-        // Loop through all three adjacent rooms.
-        for (int i = 0; i < adjRooms.length; i++) {
-            // Get the current adjacent room number from the current room.
-            int adjRoom = adjRooms[i];
-            
-            // Check to see what danger exists in the adjacent room
-            switch (rooms[adjRoom-1].getDanger()) {
+    private void printDanger(List<GameEvent> warnings) {
+        for (GameEvent warning : warnings) {
+            switch (warning.getDanger()) {
                 case PIT:
-                    // There is a pit in one of the rooms. Increase the pit count by one.
-                    pitCount++;
+                    // One or more pits are in the adjacent rooms.
+                    out.print("You smell a dank odor.\n");
                     break;
 
                 case SPIDER:
-                    // There is a spider in one of the rooms. Increase the spider count by one.
-                    spiderCount++;
+                    // One or more spiders are in the adjacent rooms.
+                    out.print("You hear a faint clicking noise.\n");
                     break;
 
                 case WUMPUS:
-                    // Uh oh. The Wumpus is in one of the adjacent rooms. Increase the count.
-                    wumpusCount++;
+                    // The wumpus is in one of the adjacent rooms. Proceed with caution.
+                    // Might I suggest the user shoots an arrow?
+                    out.print("You smell some nasty Wumpus!\n");
+                    break;
+
+                case BATS:
+                    // Bats in one of the adjacent rooms. Harmless, mostly.
+                    out.print("You hear the flapping of wings.\n");
                     break;
             }
         }
-        
-        // Now, check over each of the counts to see if we need to print out a
-        // warning of danger lurking in one or more of the adjacent rooms.
-        if (pitCount > 0) {
-            // One or more pits are in the adjacent rooms.
-            System.out.printf("You smell a dank odor.\n");
-        }
-        
-        if (spiderCount > 0) {
-            // One or more spiders are in the adjacent rooms.
-            System.out.printf("You hear a faint clicking noise.\n");
-        }
-        
-        if (wumpusCount > 0) {
-            // The wumpus is in one of the adjacent rooms. Proceed with caution.
-            // Might I suggest the user shoots an arrow?
-            System.out.printf("You smell some nasty Wumpus!\n");
-        }
-        
-        
-    }
-    
-    // This is used to randomlly place a danger in a room.
-    // numRooms is the number of potential rooms to place a danger in
-    // danger is the type of danger to place
-    // dangerCount is the number of that danger to place.
-    /**
-     * This is used to randomly place a danger into the room.
-     * 
-     * @param numRooms The number of potential rooms to place a danger in
-     * @param danger The type of danger to place
-     * @param dangerCount The number of the danger type to place
-     */
-    private void placeDanger(int numRooms, Room.Danger danger, int dangerCount) {
-        int room;   // This will hold a random room number for the danger.
-        int dangerPlaced = 0;   // Count how many dangers we've placed.
-        
-        // Loop until we've placed "dangerCount" dangers.
-        while(dangerPlaced != dangerCount) {
-            room = randomRoom(numRooms);
-            
-            // Check to see if the room doesn't already have danger in it.
-            if (rooms[room-1].getDanger() == Room.Danger.NONE) {
-                // It's empty. Place the danger!
-                rooms[room-1].setDanger(danger);
-                
-                // Increase the count of danger's placed
-                dangerPlaced++;
-            }
-        }
-    }
-    
-    // This will generate a random room, ignoring room 1 since we don't place
-    // dangers in the starting room. That would be a little unfair, right?
-    /**
-     * Generate a random room, excluding the room #1 since that is the starting point
-     * 
-     * @param numRooms The number of rooms to random generate (from 1 to numRooms)
-     * @return Returns a randomly chosen room number from 1 to numRooms
-     */
-    private int randomRoom(int numRooms) {
-        // Get a random number generator
-        Random randRoom = new Random();
-        int room;   // This will hold the random room number
-        
-        do {
-            // Generate a random number from 0 to numRooms-1.
-            // We add one to it so it's from 1 to numRooms.
-            room = randRoom.nextInt(numRooms) + 1;
-        } while (room == 1);    // Keep looping until room doesn't equal 1.
-        
-        // Return the room #.
-        return room;
     }
 }
@@ -0,0 +1,560 @@
+package huntthewumpus;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This is the game logic without any console attached to it. Commands come in
+ * as method calls and what happened goes back out as a list of GameEvents, so the
+ * game can be driven by the console, a bot or a test at full speed.
+ *
+ * The event list returned by a command is reused by the next command, so copy it
+ * if you need to hold on to it.
+ *
+ * @author Ivan Samuelson
+ */
+public class GameEngine {
+    // The most rooms a crooked arrow can fly through, same as the original game.
+    public static final int MAX_ARROW_PATH = 5;
+
+    private final Cave cave;        // Hold the "map" of the rooms. Shared with other games.
+    private final HazardMap hazards;    // Where this game's dangers are.
+    private final ProximityIndex proximity; // Which dangers are near each room, kept up to date by the hazards.
+    private final World world;      // The hazards that move around, ticked after each command.
+    private final GameRandom random;    // Where this game's randomness comes from.
+    private final List<GameEvent> events = new ArrayList<>();  // Events from the last command. Reused every turn.
+    private int playerRoom = 0;     // Room number-1 of where the player is at. Starting in room 1.
+    private int arrowsLeft = 3;     // Fill that quiver up with 3 arrows.
+    private boolean gameOver = false;   // Has the game ended?
+    private boolean won = false;        // Did the player kill the Wumpus?
+    private boolean shotSelf = false;   // Did a crooked arrow come back and get the player?
+    private Room.Danger killedBy = Room.Danger.NONE;   // What got the player, if anything did.
+    private int rules = 0;          // GameRules flags applied to this game, so snapshots can put them back.
+
+    /**
+     * Creates a new game in the given cave with a fresh set of dangers. The cave
+     * itself isn't changed, so it can be shared with other games.
+     *
+     * @param cave The cave to play in
+     */
+    public GameEngine(Cave cave) {
+        this(cave, HazardConfig.CLASSIC, new GameRandom());
+    }
+
+    /**
+     * Creates a new game in the given cave with the given dangers placed at random.
+     *
+     * @param cave The cave to play in
+     * @param config How many of each danger to place
+     * @param random Where the randomness for this game comes from
+     */
+    public GameEngine(Cave cave, HazardConfig config, GameRandom random) {
+        this(cave, config, random, 1);
+    }
+
+    /**
+     * Creates a new game that tracks dangers further away than the next room,
+     * so senses with a longer range (smelling the Wumpus two rooms away, say)
+     * can be looked up with getWarnings.
+     *
+     * @param cave The cave to play in
+     * @param config How many of each danger to place
+     * @param random Where the randomness for this game comes from
+     * @param senseRange How many tunnels away dangers can be sensed
+     */
+    public GameEngine(Cave cave, HazardConfig config, GameRandom random, int senseRange) {
+        this(cave, place(cave, config, random), random, senseRange);
+    }
+
+    /**
+     * Creates a game with the dangers already placed, for restoring snapshots.
+     *
+     * @param cave The cave to play in
+     * @param hazards Where the dangers are
+     * @param random Where the randomness for this game comes from
+     * @param senseRange How many tunnels away dangers can be sensed
+     */
+    GameEngine(Cave cave, HazardMap hazards, GameRandom random, int senseRange) {
+        this.cave = cave;
+        this.hazards = hazards;
+        this.proximity = new ProximityIndex(cave, senseRange, hazards.size());
+
+        // The index is attached after the dangers are placed so it only counts where they ended up.
+        hazards.setProximity(proximity);
+        this.world = new World(cave, hazards, random);
+        this.random = random;
+    }
+
+    /**
+     * Places the dangers for a new game anywhere but room 1, where the player starts.
+     *
+     * @param cave The cave to play in
+     * @param config How many of each danger to place
+     * @param random Where the randomness for this game comes from
+     * @return Where the dangers are
+     */
+    private static HazardMap place(Cave cave, HazardConfig config, GameRandom random) {
+        HazardMap hazards = new HazardMap(config.getTotal());
+        int collisions = HazardPlacer.place(cave.getNumRooms(), 1, config, random, hazards);
+
+        GameMetrics.GLOBAL.gameStarted(config.getTotal(), collisions);
+        return hazards;
+    }
+
+    /**
+     * Gives every danger of one kind something to do each turn, like a Wumpus
+     * that wakes up when an arrow misses. Do this before the first command.
+     *
+     * @param danger The kind of danger
+     * @param behavior What it does every turn
+     */
+    public void addBehavior(Room.Danger danger, Behavior behavior) {
+        world.addBehavior(danger, behavior);
+    }
+
+    /**
+     * Notes that a set of GameRules was applied, so a snapshot knows which
+     * behaviors to put back. Behaviors added any other way aren't saved.
+     *
+     * @param flags The GameRules flags
+     */
+    void addRules(int flags) {
+        rules |= flags;
+    }
+
+    /**
+     * Gets the GameRules flags applied to this game
+     *
+     * @return The flags
+     */
+    int getRules() {
+        return rules;
+    }
+
+    /**
+     * Gets the cave the game is in
+     *
+     * @return The cave
+     */
+    Cave getCave() {
+        return cave;
+    }
+
+    /**
+     * Gets where the dangers are, for snapshots
+     *
+     * @return The hazard map
+     */
+    HazardMap getHazards() {
+        return hazards;
+    }
+
+    /**
+     * Gets the moving parts of the game, for snapshots
+     *
+     * @return The world
+     */
+    World getWorld() {
+        return world;
+    }
+
+    /**
+     * Gets the game's randomness, for snapshots
+     *
+     * @return The random number generator
+     */
+    GameRandom getRandom() {
+        return random;
+    }
+
+    /**
+     * Gets how far away dangers are tracked
+     *
+     * @return The sense range in tunnels
+     */
+    int getSenseRange() {
+        return proximity.getRange();
+    }
+
+    /**
+     * Puts the player back where a snapshot says they were.
+     *
+     * @param playerRoom The room number the player is in (1 based)
+     * @param arrowsLeft How many arrows they have
+     * @param gameOver Whether the game has ended
+     * @param won Whether they killed the Wumpus
+     * @param shotSelf Whether they shot themselves
+     * @param killedBy What they walked into, Danger.NONE if nothing
+     */
+    void restorePlayer(int playerRoom, int arrowsLeft, boolean gameOver, boolean won, boolean shotSelf, Room.Danger killedBy) {
+        this.playerRoom = playerRoom-1;
+        this.arrowsLeft = arrowsLeft;
+        this.gameOver = gameOver;
+        this.won = won;
+        this.shotSelf = shotSelf;
+        this.killedBy = killedBy;
+    }
+
+    /**
+     * Looks around the room the player is in and reports any dangers in the
+     * adjacent rooms.
+     *
+     * @return A HAZARD_NEARBY event for each kind of danger one room away
+     */
+    public List<GameEvent> look() {
+        events.clear();
+        senseDanger(playerRoom);
+        return events;
+    }
+
+    /**
+     * Moves the player into an adjacent room.
+     *
+     * @param room The room number the player wants to move into
+     * @return MOVED followed by anything the hazards did and then any warnings
+     *         if the player lives, DIED if they don't, or INVALID_ROOM if the
+     *         room isn't adjacent
+     */
+    public List<GameEvent> move(int room) {
+        events.clear();
+
+        if (gameOver) {
+            events.add(new GameEvent(GameEvent.Type.GAME_OVER, playerRoom+1, Room.Danger.NONE));
+        } else if (cave.validRoom(playerRoom+1, room)) {
+            GameMetrics.GLOBAL.moved();
+
+            // Remember, the room number is also our index into the array, so
+            // subtract one from it.
+            playerRoom = room-1;
+
+            Room.Danger danger = hazards.get(room);
+
+            if (!deadly(danger)) {
+                // Whew! Nothing deadly in this room. Let the hazards have their
+                // turn, then tell them what's lurking nearby.
+                events.add(new GameEvent(GameEvent.Type.MOVED, room, danger));
+                endTurn();
+
+                if (!gameOver) {
+                    senseDanger(playerRoom);
+                }
+            } else {
+                // Pit, spider or Wumpus. Either way, the game is over.
+                events.add(new GameEvent(GameEvent.Type.DIED, room, danger));
+                killedBy = danger;
+                endGame();
+            }
+        } else {
+            // You think you can teleport?
+            events.add(new GameEvent(GameEvent.Type.INVALID_ROOM, room, Room.Danger.NONE));
+        }
+
+        return events;
+    }
+
+    /**
+     * Shoots an arrow into an adjacent room.
+     *
+     * @param room The room number the player wants to shoot into
+     * @return ARROW_HIT and WON if the Wumpus was in there, ARROW_MISSED (and
+     *         OUT_OF_ARROWS on the last arrow) if not, or INVALID_ROOM if the room
+     *         isn't adjacent
+     */
+    public List<GameEvent> shoot(int room) {
+        events.clear();
+
+        if (gameOver || arrowsLeft == 0) {
+            events.add(new GameEvent(GameEvent.Type.GAME_OVER, playerRoom+1, Room.Danger.NONE));
+        } else if (cave.validRoom(playerRoom+1, room)) {
+            // Decrease the arrow count since they shot an arrow into a valid adjacent room.
+            arrowsLeft--;
+            GameMetrics.GLOBAL.shot(false);
+
+            if (hazards.get(room) == Room.Danger.WUMPUS) {
+                // WOOT!!! The player killed the Wumpus. They WIN!
+                events.add(new GameEvent(GameEvent.Type.ARROW_HIT, room, Room.Danger.WUMPUS));
+                events.add(new GameEvent(GameEvent.Type.WON, room, Room.Danger.WUMPUS));
+                won = true;
+                endGame();
+            } else {
+                // Well, they guessed wrong. Arrow is lost.
+                arrowMissed(room);
+            }
+        } else {
+            // They entered a non-adjacent room number. Tsk, tsk!
+            events.add(new GameEvent(GameEvent.Type.INVALID_ROOM, room, Room.Danger.NONE));
+        }
+
+        return events;
+    }
+
+    /**
+     * Shoots a crooked arrow through a list of rooms, like the original game.
+     * Each room should be next to the one before it, starting from the player's
+     * room. If one isn't, the arrow bounces down a random tunnel instead and
+     * carries on from wherever it ends up, so it might even come back around
+     * to the player.
+     *
+     * @param path The rooms the arrow should fly through, 1 to MAX_ARROW_PATH of them
+     * @return ARROW_HIT and WON if the arrow found the Wumpus, SHOT_SELF if it found
+     *         the player, ARROW_MISSED (and OUT_OF_ARROWS on the last arrow) if
+     *         it found neither, or INVALID_ROOM if the path is too long, too short
+     *         or doubles straight back on itself
+     */
+    public List<GameEvent> shoot(int[] path) {
+        events.clear();
+
+        if (gameOver || arrowsLeft == 0) {
+            events.add(new GameEvent(GameEvent.Type.GAME_OVER, playerRoom+1, Room.Danger.NONE));
+            return events;
+        }
+
+        // Arrows aren't that crooked. No going A to B and straight back to A.
+        boolean valid = path.length > 0 && path.length <= MAX_ARROW_PATH;
+
+        for (int i = 2; i < path.length && valid; i++) {
+            valid = path[i] != path[i-2];
+        }
+
+        if (!valid) {
+            events.add(new GameEvent(GameEvent.Type.INVALID_ROOM, path.length > 0 ? path[0] : 0, Room.Danger.NONE));
+            return events;
+        }
+
+        arrowsLeft--;
+        GameMetrics.GLOBAL.shot(true);
+
+        int arrow = playerRoom+1;   // Where the arrow is.
+
+        for (int next : path) {
+            if (!cave.validRoom(arrow, next)) {
+                // No tunnel there, so off it goes down a random one.
+                int degree = cave.getDegree(arrow);
+
+                if (degree == 0) {
+                    break;
+                }
+
+                next = cave.getAdjRoom(arrow, random.nextInt(degree));
+            }
+
+            arrow = next;
+
+            if (hazards.get(arrow) == Room.Danger.WUMPUS) {
+                // WOOT!!! Right through the twisty tunnels.
+                events.add(new GameEvent(GameEvent.Type.ARROW_HIT, arrow, Room.Danger.WUMPUS));
+                events.add(new GameEvent(GameEvent.Type.WON, arrow, Room.Danger.WUMPUS));
+                won = true;
+                endGame();
+                return events;
+            }
+
+            if (arrow == playerRoom+1) {
+                // Ouch! Should've aimed better.
+                events.add(new GameEvent(GameEvent.Type.SHOT_SELF, arrow, Room.Danger.NONE));
+                shotSelf = true;
+                endGame();
+                return events;
+            }
+        }
+
+        arrowMissed(arrow);
+        return events;
+    }
+
+    /**
+     * Adds the events for an arrow that didn't hit anything, then lets the
+     * hazards react to the noise.
+     *
+     * @param room Where the arrow ended up
+     */
+    private void arrowMissed(int room) {
+        events.add(new GameEvent(GameEvent.Type.ARROW_MISSED, room, Room.Danger.NONE));
+
+        if (arrowsLeft == 0) {
+            // Wumpus has a free lunch as the user is out of arrows.
+            events.add(new GameEvent(GameEvent.Type.OUT_OF_ARROWS, playerRoom+1, Room.Danger.WUMPUS));
+            endGame();
+        } else {
+            // The noise might just wake something up.
+            endTurn();
+        }
+    }
+
+    /**
+     * Gets the room number the player is in
+     *
+     * @return The room number (1 based) of the player
+     */
+    public int getPlayerRoom() {
+        return playerRoom+1;
+    }
+
+    /**
+     * Gets how many rooms are in the cave
+     *
+     * @return The number of rooms
+     */
+    public int getNumRooms() {
+        return cave.getNumRooms();
+    }
+
+    /**
+     * Gets the room with the given room number
+     *
+     * @param room The room number (1 based)
+     * @return The room
+     */
+    public Room getRoom(int room) {
+        return new Room(cave, hazards, room);
+    }
+
+    /**
+     * Gets how many arrows the player has left
+     *
+     * @return The number of arrows left
+     */
+    public int getArrowsLeft() {
+        return arrowsLeft;
+    }
+
+    /**
+     * Checks whether the game has ended
+     *
+     * @return True if the game is over, false if it is still going
+     */
+    public boolean isGameOver() {
+        return gameOver;
+    }
+
+    /**
+     * Checks whether the player killed the Wumpus
+     *
+     * @return True if the player won, false otherwise
+     */
+    public boolean isWon() {
+        return won;
+    }
+
+    /**
+     * Gets how many tunnels away the nearest danger of a kind is, for hints like
+     * "the Wumpus is 3 rooms away". This searches no further than maxDepth, so
+     * it stays cheap in a big cave.
+     *
+     * @param danger The kind of danger, usually Danger.WUMPUS
+     * @param maxDepth The most tunnels to look through
+     * @return The number of tunnels, or -1 if there's none within maxDepth
+     */
+    public int getDistanceTo(Room.Danger danger, int maxDepth) {
+        PathService paths = cave.getPaths();
+        int nearest = -1;
+
+        for (int room : hazards.getRooms()) {
+            if (hazards.get(room) == danger) {
+                int distance = paths.distance(playerRoom+1, room, nearest < 0 ? maxDepth : nearest-1);
+
+                if (distance >= 0) {
+                    nearest = distance;
+                }
+            }
+        }
+
+        return nearest;
+    }
+
+    /**
+     * Gets whether the player shot themselves with a crooked arrow
+     *
+     * @return True if that's how the game ended
+     */
+    public boolean isShotSelf() {
+        return shotSelf;
+    }
+
+    /**
+     * Gets which kinds of danger are within some number of tunnels of the player.
+     *
+     * @param distance How many tunnels away, from 1 to the sense range
+     * @return A bit mask with bit (1 << danger.ordinal()) set for each kind of danger that close
+     */
+    public int getWarnings(int distance) {
+        return proximity.getWarnings(playerRoom+1, distance);
+    }
+
+    /**
+     * Gets what killed the player by walking into its room
+     *
+     * @return The danger the player walked into, Danger.NONE if they haven't
+     */
+    public Room.Danger getKilledBy() {
+        return killedBy;
+    }
+
+    /**
+     * Ticks the hazards after a command, then checks whether something came
+     * for the player or the player got carried somewhere deadly.
+     *
+     */
+    private void endTurn() {
+        // No hazards that do anything means nothing to tick, which is the usual game.
+        if (!world.isActive()) {
+            return;
+        }
+
+        playerRoom = world.tick(playerRoom+1, events) - 1;
+
+        Room.Danger danger = hazards.get(playerRoom+1);
+
+        if (deadly(danger)) {
+            events.add(new GameEvent(GameEvent.Type.DIED, playerRoom+1, danger));
+            killedBy = danger;
+            endGame();
+        }
+    }
+
+    /**
+     * Ends the game, once whatever ended it has been noted.
+     *
+     */
+    private void endGame() {
+        gameOver = true;
+        GameMetrics.GLOBAL.gameOver(this);
+    }
+
+    /**
+     * Checks whether walking into a danger ends the game.
+     *
+     * @param danger The danger
+     * @return True for the Wumpus, spiders and pits, false for bats and no danger at all
+     */
+    private static boolean deadly(Room.Danger danger) {
+        return danger != Room.Danger.NONE && danger != Room.Danger.BATS;
+    }
+
+    /**
+     * Adds a warning event for each unique danger that is one room away. The
+     * proximity index already knows, so this doesn't look at the tunnels at all.
+     *
+     * @param room The room index (room number-1) that the player is in.
+     */
+    private void senseDanger(int room) {
+        int warnings = proximity.getWarnings(room+1, 1);
+
+        // Only one warning for each kind of danger, in the same order as always.
+        if ((warnings & (1 << Room.Danger.PIT.ordinal())) != 0) {
+            events.add(GameEvent.hazardNearby(Room.Danger.PIT));
+        }
+
+        if ((warnings & (1 << Room.Danger.SPIDER.ordinal())) != 0) {
+            events.add(GameEvent.hazardNearby(Room.Danger.SPIDER));
+        }
+
+        if ((warnings & (1 << Room.Danger.WUMPUS.ordinal())) != 0) {
+            events.add(GameEvent.hazardNearby(Room.Danger.WUMPUS));
+        }
+
+        if ((warnings & (1 << Room.Danger.BATS.ordinal())) != 0) {
+            events.add(GameEvent.hazardNearby(Room.Danger.BATS));
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package huntthewumpus;
+
+/**
+ * This is a single thing that happened in the game as a result of a command.
+ * The game engine hands these back instead of printing anything, so whoever
+ * is driving the game (the console, a bot, a test) decides what to do with them.
+ *
+ * @author Ivan Samuelson
+ */
+public final class GameEvent {
+    // Enumerate the different kinds of things that can happen during a turn
+    public enum Type {
+        MOVED,          // The player walked into a new room and is still alive.
+        DIED,           // The player walked into a room with a danger in it.
+        HAZARD_NEARBY,  // A danger is lurking in one of the adjacent rooms.
+        ARROW_HIT,      // The arrow found the Wumpus.
+        ARROW_MISSED,   // The arrow went down the tunnel and was lost.
+        WON,            // The Wumpus is dead. Game over, player wins.
+        OUT_OF_ARROWS,  // No arrows left, the Wumpus comes for lunch. Game over.
+        INVALID_ROOM,   // The room given isn't adjacent to the player's room.
+        GAME_OVER,      // A command was given after the game already ended.
+        WOKE,           // A sleeping danger woke up and started moving.
+        CARRIED,        // The player was carried off to another room, room is where they landed.
+        SHOT_SELF;      // A crooked arrow came back around into the player's room. Game over.
+    }
+
+    // Warnings never change, so there's one shared instance per danger instead of
+    // allocating a new event every single turn.
+    private static final GameEvent[] HAZARD_EVENTS = new GameEvent[Room.Danger.values().length];
+
+    static {
+        for (Room.Danger danger : Room.Danger.values()) {
+            HAZARD_EVENTS[danger.ordinal()] = new GameEvent(Type.HAZARD_NEARBY, 0, danger);
+        }
+    }
+
+    private final Type type;            // What happened
+    private final int room;             // The room number it happened in (1 based), or 0 if it doesn't apply
+    private final Room.Danger danger;   // The danger involved, Danger.NONE if it doesn't apply
+
+    /**
+     * Creates an event.
+     *
+     * @param type What happened
+     * @param room The room number it happened in, or 0 if it doesn't apply
+     * @param danger The danger involved, or Danger.NONE if it doesn't apply
+     */
+    public GameEvent(Type type, int room, Room.Danger danger) {
+        this.type = type;
+        this.room = room;
+        this.danger = danger;
+    }
+
+    /**
+     * Gets the shared warning event for a danger in an adjacent room.
+     *
+     * @param danger The danger that is nearby
+     * @return The warning event for that danger
+     */
+    public static GameEvent hazardNearby(Room.Danger danger) {
+        return HAZARD_EVENTS[danger.ordinal()];
+    }
+
+    /**
+     * Gets what happened
+     *
+     * @return The type of the event
+     */
+    public Type getType() {
+        return this.type;
+    }
+
+    /**
+     * Gets the room number the event happened in
+     *
+     * @return The room number (1 based), or 0 if it doesn't apply
+     */
+    public int getRoom() {
+        return this.room;
+    }
+
+    /**
+     * Gets the danger involved in the event
+     *
+     * @return The danger, or Danger.NONE if it doesn't apply
+     */
+    public Room.Danger getDanger() {
+        return this.danger;
+    }
+
+    @Override
+    public String toString() {
+        return type + "(" + room + ", " + danger + ")";
+    }
+}
@@ -0,0 +1,440 @@
+package huntthewumpus;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts what the games in this process are doing: commands, how games end,
+ * hazard placement, cave loads and reloads, games handed between shards,
+ * description cache hits and how long turns take. Every game records into
+ * GLOBAL, so it's always on. Counters are LongAdders and latencies go into
+ * fixed size LatencyHistograms striped by thread, so recording never allocates
+ * and threads don't fight over one cache line.
+ *
+ * The engine counts commands and how games end. Turns are timed by whatever is
+ * feeding the engine commands from a player, the console game and the server,
+ * since that's where a slow turn is noticed.
+ *
+ * Read it over JMX once register() has been called, or as text with dump().
+ *
+ * @author Ivan Samuelson
+ */
+public final class GameMetrics implements GameMetricsMXBean {
+    public static final String OBJECT_NAME = "huntthewumpus:type=GameMetrics";
+
+    // Histogram stripes, about two per core so the threads timing turns seldom share one.
+    // Set before GLOBAL, which needs it.
+    private static final int STRIPES = 2 * Runtime.getRuntime().availableProcessors();
+
+    // The metrics every game records into.
+    public static final GameMetrics GLOBAL = new GameMetrics();
+
+    private final LongAdder gamesStarted = new LongAdder();
+    private final LongAdder gamesWon = new LongAdder();
+    private final LongAdder moves = new LongAdder();
+    private final LongAdder shots = new LongAdder();
+    private final LongAdder crookedShots = new LongAdder();
+    private final LongAdder outOfArrows = new LongAdder();
+    private final LongAdder shotSelf = new LongAdder();
+    private final LongAdder[] deaths = new LongAdder[Room.DANGERS.length];    // Indexed by danger ordinal.
+    private final LongAdder hazardsPlaced = new LongAdder();
+    private final LongAdder placementCollisions = new LongAdder();
+    private final LatencyHistogram caveLoads = new LatencyHistogram(STRIPES);
+    private final LatencyHistogram turns = new LatencyHistogram(STRIPES);
+    private final LatencyHistogram caveReloads = new LatencyHistogram(STRIPES);
+    private final LongAdder caveReloadFailures = new LongAdder();
+    private final LatencyHistogram shardHandoffs = new LatencyHistogram(STRIPES);
+    private final LongAdder shardJoins = new LongAdder();
+    private volatile DescriptionCache descriptions;     // The last loaded cave's description cache, if any.
+    private volatile CaveRegistry caves;                // The server's cave versions, if it has any.
+
+    /**
+     * Creates an empty set of metrics. Games only ever record into GLOBAL, so
+     * this is for keeping a separate tally.
+     *
+     */
+    public GameMetrics() {
+        for (int i = 0; i < deaths.length; i++) {
+            deaths[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Makes GLOBAL visible over JMX. Registering more than once is fine.
+     *
+     */
+    public static void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(GLOBAL, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            // Somebody got there first. Nothing to do.
+        } catch (JMException e) {
+            System.out.printf("Encountered the following exception while registering metrics: %s\n", e.getMessage());
+        }
+    }
+
+    /**
+     * Records a new game with its hazards placed.
+     *
+     * @param hazards How many hazards were placed
+     * @param collisions How many times a room was drawn that was already taken
+     */
+    void gameStarted(int hazards, int collisions) {
+        gamesStarted.increment();
+        hazardsPlaced.add(hazards);
+
+        if (collisions != 0) {
+            placementCollisions.add(collisions);
+        }
+    }
+
+    /**
+     * Records a move command.
+     *
+     */
+    void moved() {
+        moves.increment();
+    }
+
+    /**
+     * Records an arrow being shot.
+     *
+     * @param crooked True if it was a crooked arrow
+     */
+    void shot(boolean crooked) {
+        shots.increment();
+
+        if (crooked) {
+            crookedShots.increment();
+        }
+    }
+
+    /**
+     * Records how a game ended.
+     *
+     * @param engine The game, just finished
+     */
+    void gameOver(GameEngine engine) {
+        if (engine.isWon()) {
+            gamesWon.increment();
+        } else if (engine.isShotSelf()) {
+            shotSelf.increment();
+        } else if (engine.getKilledBy() != Room.Danger.NONE) {
+            deaths[engine.getKilledBy().ordinal()].increment();
+        } else {
+            outOfArrows.increment();
+        }
+    }
+
+    /**
+     * Records how long a cave took to load.
+     *
+     * @param nanos The load time in nanoseconds
+     */
+    void caveLoaded(long nanos) {
+        caveLoads.record(nanos);
+    }
+
+    /**
+     * Records a cave being reloaded and published as a new version.
+     *
+     * @param nanos How long loading, checking and publishing took, in nanoseconds
+     */
+    void caveReloaded(long nanos) {
+        caveReloads.record(nanos);
+    }
+
+    /**
+     * Records a changed cave that didn't load, so the old one was kept.
+     *
+     */
+    void caveReloadFailed() {
+        caveReloadFailures.increment();
+    }
+
+    /**
+     * Records a game handed off to the shard that owns the room the player moved into.
+     *
+     * @param nanos How long the other shard took to take it, in nanoseconds
+     */
+    void shardHandoff(long nanos) {
+        shardHandoffs.record(nanos);
+    }
+
+    /**
+     * Records a player picking up a game another shard handed to this one.
+     *
+     */
+    void shardJoined() {
+        shardJoins.increment();
+    }
+
+    /**
+     * Reports on a registry's cave versions along with everything else.
+     *
+     * @param registry The registry
+     */
+    void setCaves(CaveRegistry registry) {
+        caves = registry;
+    }
+
+    /**
+     * Reports on a description cache along with everything else. Only the
+     * latest one is followed, which is the cave that was loaded last.
+     *
+     * @param cache The cache
+     */
+    void setDescriptionCache(DescriptionCache cache) {
+        descriptions = cache;
+    }
+
+    /**
+     * Records how long a player's turn took, from the command coming in to
+     * what happened going back out.
+     *
+     * @param nanos The turn time in nanoseconds
+     */
+    public void turn(long nanos) {
+        turns.record(nanos);
+    }
+
+    @Override
+    public long getGamesStarted() {
+        return gamesStarted.sum();
+    }
+
+    @Override
+    public long getGamesWon() {
+        return gamesWon.sum();
+    }
+
+    @Override
+    public long getMoves() {
+        return moves.sum();
+    }
+
+    @Override
+    public long getShots() {
+        return shots.sum();
+    }
+
+    @Override
+    public long getCrookedShots() {
+        return crookedShots.sum();
+    }
+
+    @Override
+    public long getOutOfArrows() {
+        return outOfArrows.sum();
+    }
+
+    @Override
+    public long getShotSelf() {
+        return shotSelf.sum();
+    }
+
+    @Override
+    public Map<String, Long> getDeaths() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+
+        for (Room.Danger danger : Room.DANGERS) {
+            if (danger != Room.Danger.NONE) {
+                counts.put(danger.name(), deaths[danger.ordinal()].sum());
+            }
+        }
+
+        return counts;
+    }
+
+    @Override
+    public long getHazardsPlaced() {
+        return hazardsPlaced.sum();
+    }
+
+    @Override
+    public long getPlacementCollisions() {
+        return placementCollisions.sum();
+    }
+
+    @Override
+    public long getCaveLoads() {
+        return caveLoads.getCount();
+    }
+
+    @Override
+    public long getCaveLoadP50Nanos() {
+        return caveLoads.getPercentile(50);
+    }
+
+    @Override
+    public long getCaveLoadMaxNanos() {
+        return caveLoads.getPercentile(100);
+    }
+
+    @Override
+    public long getCaveReloads() {
+        return caveReloads.getCount();
+    }
+
+    @Override
+    public long getCaveReloadFailures() {
+        return caveReloadFailures.sum();
+    }
+
+    @Override
+    public long getCaveReloadP50Nanos() {
+        return caveReloads.getPercentile(50);
+    }
+
+    @Override
+    public long getCaveReloadMaxNanos() {
+        return caveReloads.getPercentile(100);
+    }
+
+    @Override
+    public int getCaveVersion() {
+        CaveRegistry registry = caves;
+
+        return (registry == null) ? 0 : registry.getCurrent().getNumber();
+    }
+
+    @Override
+    public int getLiveCaveVersions() {
+        CaveRegistry registry = caves;
+
+        return (registry == null) ? 0 : registry.getLiveVersions();
+    }
+
+    @Override
+    public long getShardHandoffs() {
+        return shardHandoffs.getCount();
+    }
+
+    @Override
+    public long getShardHandoffP50Nanos() {
+        return shardHandoffs.getPercentile(50);
+    }
+
+    @Override
+    public long getShardHandoffMaxNanos() {
+        return shardHandoffs.getPercentile(100);
+    }
+
+    @Override
+    public long getShardJoins() {
+        return shardJoins.sum();
+    }
+
+    @Override
+    public long getTurns() {
+        return turns.getCount();
+    }
+
+    @Override
+    public long getTurnP50Nanos() {
+        return turns.getPercentile(50);
+    }
+
+    @Override
+    public long getTurnP99Nanos() {
+        return turns.getPercentile(99);
+    }
+
+    @Override
+    public long getTurnP999Nanos() {
+        return turns.getPercentile(99.9);
+    }
+
+    @Override
+    public long getTurnMaxNanos() {
+        return turns.getPercentile(100);
+    }
+
+    @Override
+    public long getDescriptionHits() {
+        DescriptionCache cache = descriptions;
+
+        return (cache == null) ? 0 : cache.getHits();
+    }
+
+    @Override
+    public long getDescriptionMisses() {
+        DescriptionCache cache = descriptions;
+
+        return (cache == null) ? 0 : cache.getMisses();
+    }
+
+    @Override
+    public long getDescriptionEvictions() {
+        DescriptionCache cache = descriptions;
+
+        return (cache == null) ? 0 : cache.getEvictions();
+    }
+
+    @Override
+    public int getDescriptionCacheSize() {
+        DescriptionCache cache = descriptions;
+
+        return (cache == null) ? 0 : cache.getSize();
+    }
+
+    @Override
+    public String dump() {
+        StringBuilder text = new StringBuilder(1024);
+
+        line(text, "games.started", getGamesStarted());
+        line(text, "games.won", getGamesWon());
+        line(text, "games.out_of_arrows", getOutOfArrows());
+        line(text, "games.shot_self", getShotSelf());
+
+        for (Map.Entry<String, Long> death : getDeaths().entrySet()) {
+            line(text, "games.died." + death.getKey(), death.getValue());
+        }
+
+        line(text, "commands.move", getMoves());
+        line(text, "commands.shoot", getShots());
+        line(text, "commands.shoot.crooked", getCrookedShots());
+        line(text, "hazards.placed", getHazardsPlaced());
+        line(text, "hazards.placement_collisions", getPlacementCollisions());
+        line(text, "cave.loads", getCaveLoads());
+        line(text, "cave.load.p50_ns", getCaveLoadP50Nanos());
+        line(text, "cave.load.max_ns", getCaveLoadMaxNanos());
+        line(text, "cave.reloads", getCaveReloads());
+        line(text, "cave.reload.failures", getCaveReloadFailures());
+        line(text, "cave.reload.p50_ns", getCaveReloadP50Nanos());
+        line(text, "cave.reload.max_ns", getCaveReloadMaxNanos());
+        line(text, "cave.version", getCaveVersion());
+        line(text, "cave.versions_live", getLiveCaveVersions());
+        line(text, "shard.handoffs", getShardHandoffs());
+        line(text, "shard.handoff.p50_ns", getShardHandoffP50Nanos());
+        line(text, "shard.handoff.max_ns", getShardHandoffMaxNanos());
+        line(text, "shard.joins", getShardJoins());
+        line(text, "descriptions.hits", getDescriptionHits());
+        line(text, "descriptions.misses", getDescriptionMisses());
+        line(text, "descriptions.evictions", getDescriptionEvictions());
+        line(text, "descriptions.cached", getDescriptionCacheSize());
+        line(text, "turns", getTurns());
+        line(text, "turn.p50_ns", getTurnP50Nanos());
+        line(text, "turn.p99_ns", getTurnP99Nanos());
+        line(text, "turn.p999_ns", getTurnP999Nanos());
+        line(text, "turn.max_ns", getTurnMaxNanos());
+
+        return text.toString();
+    }
+
+    /**
+     * Adds one metric to a dump.
+     *
+     * @param text The dump so far
+     * @param name The metric's name
+     * @param value The metric's value
+     */
+    private static void line(StringBuilder text, String name, long value) {
+        text.append(name).append(' ').append(value).append('\n');
+    }
+}
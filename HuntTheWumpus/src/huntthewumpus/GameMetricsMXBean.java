@@ -0,0 +1,243 @@
+package huntthewumpus;
+
+import java.util.Map;
+
+/**
+ * What GameMetrics shows over JMX, under the name GameMetrics.OBJECT_NAME.
+ * Latencies are only as exact as a LatencyHistogram keeps them, about 6%.
+ *
+ * @author Ivan Samuelson
+ */
+public interface GameMetricsMXBean {
+    /**
+     * Gets how many games have been started
+     *
+     * @return The number of games
+     */
+    long getGamesStarted();
+
+    /**
+     * Gets how many games ended with the Wumpus shot
+     *
+     * @return The number of wins
+     */
+    long getGamesWon();
+
+    /**
+     * Gets how many move commands have been played
+     *
+     * @return The number of moves
+     */
+    long getMoves();
+
+    /**
+     * Gets how many arrows have been shot, crooked or not
+     *
+     * @return The number of shots
+     */
+    long getShots();
+
+    /**
+     * Gets how many of the shots were crooked arrows
+     *
+     * @return The number of crooked shots
+     */
+    long getCrookedShots();
+
+    /**
+     * Gets how many games were lost by running out of arrows
+     *
+     * @return The number of games
+     */
+    long getOutOfArrows();
+
+    /**
+     * Gets how many games were lost to the player's own crooked arrow
+     *
+     * @return The number of games
+     */
+    long getShotSelf();
+
+    /**
+     * Gets how many players walked into each kind of danger
+     *
+     * @return The count for each danger, by name
+     */
+    Map<String, Long> getDeaths();
+
+    /**
+     * Gets how many hazards have been placed in new games
+     *
+     * @return The number of hazards
+     */
+    long getHazardsPlaced();
+
+    /**
+     * Gets how many times placing a hazard drew a room that was already taken
+     *
+     * @return The number of collisions
+     */
+    long getPlacementCollisions();
+
+    /**
+     * Gets how many caves have been loaded
+     *
+     * @return The number of loads
+     */
+    long getCaveLoads();
+
+    /**
+     * Gets the median time to load a cave
+     *
+     * @return The time in nanoseconds
+     */
+    long getCaveLoadP50Nanos();
+
+    /**
+     * Gets the longest time to load a cave
+     *
+     * @return The time in nanoseconds
+     */
+    long getCaveLoadMaxNanos();
+
+    /**
+     * Gets how many times a changed cave was reloaded and published
+     *
+     * @return The number of reloads
+     */
+    long getCaveReloads();
+
+    /**
+     * Gets how many times a changed cave failed to load and the old one was kept
+     *
+     * @return The number of failed reloads
+     */
+    long getCaveReloadFailures();
+
+    /**
+     * Gets the median time to reload a cave, from loading it to publishing it
+     *
+     * @return The time in nanoseconds
+     */
+    long getCaveReloadP50Nanos();
+
+    /**
+     * Gets the longest time to reload a cave
+     *
+     * @return The time in nanoseconds
+     */
+    long getCaveReloadMaxNanos();
+
+    /**
+     * Gets which version of the cave new games are started in
+     *
+     * @return The version number, 0 if the cave isn't versioned
+     */
+    int getCaveVersion();
+
+    /**
+     * Gets how many versions of the cave games are still playing in, the
+     * current one included
+     *
+     * @return The number of versions
+     */
+    int getLiveCaveVersions();
+
+    /**
+     * Gets how many games were handed off to another shard
+     *
+     * @return The number of handoffs
+     */
+    long getShardHandoffs();
+
+    /**
+     * Gets the median time for another shard to take a game handed to it
+     *
+     * @return The time in nanoseconds
+     */
+    long getShardHandoffP50Nanos();
+
+    /**
+     * Gets the longest time for another shard to take a game handed to it
+     *
+     * @return The time in nanoseconds
+     */
+    long getShardHandoffMaxNanos();
+
+    /**
+     * Gets how many games handed to this shard were picked up by their players
+     *
+     * @return The number of joins
+     */
+    long getShardJoins();
+
+    /**
+     * Gets how many room descriptions were found in the description cache
+     *
+     * @return The number of hits
+     */
+    long getDescriptionHits();
+
+    /**
+     * Gets how many room descriptions had to be decoded from the cave file
+     *
+     * @return The number of misses
+     */
+    long getDescriptionMisses();
+
+    /**
+     * Gets how many descriptions were thrown out of the cache to make space
+     *
+     * @return The number of evictions
+     */
+    long getDescriptionEvictions();
+
+    /**
+     * Gets how many descriptions are in the cache right now
+     *
+     * @return The number of rooms cached
+     */
+    int getDescriptionCacheSize();
+
+    /**
+     * Gets how many turns have been timed
+     *
+     * @return The number of turns
+     */
+    long getTurns();
+
+    /**
+     * Gets the median time to play a turn
+     *
+     * @return The time in nanoseconds
+     */
+    long getTurnP50Nanos();
+
+    /**
+     * Gets the time 99% of turns were played within
+     *
+     * @return The time in nanoseconds
+     */
+    long getTurnP99Nanos();
+
+    /**
+     * Gets the time 99.9% of turns were played within
+     *
+     * @return The time in nanoseconds
+     */
+    long getTurnP999Nanos();
+
+    /**
+     * Gets the longest time to play a turn
+     *
+     * @return The time in nanoseconds
+     */
+    long getTurnMaxNanos();
+
+    /**
+     * Writes every metric out as text, one "name value" per line.
+     *
+     * @return The metrics
+     */
+    String dump();
+}
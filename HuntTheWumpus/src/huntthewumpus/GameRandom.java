@@ -0,0 +1,116 @@
+package huntthewumpus;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A small, fast random number generator (SplitMix64, the same one behind
+ * java.util.SplittableRandom). One of these is made per game and reused for
+ * everything random in that game. Giving it the same seed gives the same game.
+ *
+ * This is per game and not thread-safe.
+ *
+ * @author Ivan Samuelson
+ */
+public final class GameRandom {
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    // Used to come up with a different seed for every unseeded generator.
+    private static final AtomicLong seeder = new AtomicLong(mix64(System.currentTimeMillis()) ^ mix64(System.nanoTime()));
+
+    private long state;     // Moves along by GOLDEN_GAMMA every time a number is drawn.
+
+    /**
+     * Creates a generator with a seed nobody else is using.
+     *
+     */
+    public GameRandom() {
+        this(seeder.getAndAdd(2 * GOLDEN_GAMMA));
+    }
+
+    /**
+     * Creates a generator with the given seed.
+     *
+     * @param seed The seed. The same seed always gives the same numbers.
+     */
+    public GameRandom(long seed) {
+        this.state = seed;
+    }
+
+    /**
+     * Gets the next random long.
+     *
+     * @return Any long value, all equally likely
+     */
+    public long nextLong() {
+        return mix64(state += GOLDEN_GAMMA);
+    }
+
+    /**
+     * Gets the next random int from 0 up to (but not including) bound.
+     *
+     * @param bound How many different values there are. Must be positive.
+     * @return A number from 0 to bound-1, all equally likely
+     */
+    public int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound must be positive");
+        }
+
+        // Multiply and shift instead of dividing, throwing away the few values that
+        // would make some results more likely than others.
+        long product = (nextLong() >>> 32) * bound;
+        int low = (int) product;
+
+        if (Integer.toUnsignedLong(low) < bound) {
+            long threshold = (1L << 32) % bound;
+
+            while (Integer.toUnsignedLong(low) < threshold) {
+                product = (nextLong() >>> 32) * bound;
+                low = (int) product;
+            }
+        }
+
+        return (int) (product >>> 32);
+    }
+
+    /**
+     * Gets where the generator is up to, so a saved game can carry on with
+     * exactly the same numbers after it is restored.
+     *
+     * @return The state
+     */
+    public long getState() {
+        return state;
+    }
+
+    /**
+     * Puts the generator back to a state from getState().
+     *
+     * @param state The state
+     */
+    public void setState(long state) {
+        this.state = state;
+    }
+
+    /**
+     * Makes a new generator seeded from this one. Handy for giving each worker
+     * thread its own generator that still comes from one seed.
+     *
+     * @return A new generator
+     */
+    public GameRandom split() {
+        return new GameRandom(nextLong());
+    }
+
+    /**
+     * Scrambles the bits of a long (the SplitMix64 finalizer).
+     *
+     * @param z The value to scramble
+     * @return The scrambled value
+     */
+    static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
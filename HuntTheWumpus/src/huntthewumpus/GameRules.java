@@ -0,0 +1,115 @@
+package huntthewumpus;
+
+/**
+ * Which of the optional hazard behaviors a game is played with. These are kept
+ * as flags so a replay log can record them and play the game back the same way.
+ * Games with no rules have hazards that never move, which is how this version
+ * of the game always played.
+ *
+ * Rules are immutable, so they can be shared by any number of games.
+ *
+ * @author Ivan Samuelson
+ */
+public final class GameRules {
+    public static final int WAKING_WUMPUS = 1;      // The Wumpus wakes and wanders when an arrow misses.
+    public static final int SUPER_BATS = 2;         // Bats carry the player off to a random room.
+    public static final int SPREADING_SPIDERS = 4;  // Spiders breed into the rooms next to them.
+
+    public static final GameRules NONE = new GameRules(0);
+    public static final GameRules CLASSIC = new GameRules(WAKING_WUMPUS | SUPER_BATS);
+
+    // How often spiders spread and how many there can be, with SPREADING_SPIDERS.
+    private static final SpreadingSpiders SPIDERS = new SpreadingSpiders(5, 10);
+
+    private final int flags;    // Which rules are on.
+
+    /**
+     * Creates a set of rules.
+     *
+     * @param flags Which rules are on, WAKING_WUMPUS and so on put together with |
+     */
+    public GameRules(int flags) {
+        this.flags = flags;
+    }
+
+    /**
+     * Works out the rules from their names, like "wumpus,bats".
+     *
+     * @param names The names, separated by commas: wumpus, bats, spiders, classic or none
+     * @return The rules
+     * @throws IllegalArgumentException If a name isn't one of those
+     */
+    public static GameRules parse(String names) {
+        int flags = 0;
+
+        for (String name : names.split(",")) {
+            switch (name.trim().toLowerCase()) {
+                case "wumpus":
+                    flags |= WAKING_WUMPUS;
+                    break;
+
+                case "bats":
+                    flags |= SUPER_BATS;
+                    break;
+
+                case "spiders":
+                    flags |= SPREADING_SPIDERS;
+                    break;
+
+                case "classic":
+                    flags |= CLASSIC.flags;
+                    break;
+
+                case "none":
+                    break;
+
+                default:
+                    throw new IllegalArgumentException(String.format(
+                            "Unknown rule \"%s\". Rules are wumpus, bats, spiders, classic or none.", name));
+            }
+        }
+
+        return new GameRules(flags);
+    }
+
+    /**
+     * Gets which rules are on
+     *
+     * @return The flags
+     */
+    public int getFlags() {
+        return flags;
+    }
+
+    /**
+     * Gives the hazards of a new game their behaviors.
+     *
+     * @param engine The game, before any commands have been given
+     */
+    public void apply(GameEngine engine) {
+        engine.addRules(flags);
+
+        if ((flags & WAKING_WUMPUS) != 0) {
+            engine.addBehavior(Room.Danger.WUMPUS, WakingWumpus.CLASSIC);
+        }
+
+        if ((flags & SUPER_BATS) != 0) {
+            engine.addBehavior(Room.Danger.BATS, SuperBats.INSTANCE);
+        }
+
+        if ((flags & SPREADING_SPIDERS) != 0) {
+            engine.addBehavior(Room.Danger.SPIDER, SPIDERS);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append((flags & WAKING_WUMPUS) != 0 ? ",wumpus" : "");
+        sb.append((flags & SUPER_BATS) != 0 ? ",bats" : "");
+        sb.append((flags & SPREADING_SPIDERS) != 0 ? ",spiders" : "");
+
+        return (sb.length() == 0) ? "none" : sb.substring(1);
+    }
+}
@@ -0,0 +1,496 @@
+package huntthewumpus;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hosts lots of games at once over TCP. Every connection gets its own session
+ * with its own hazards and player, but they all share one loaded cave. Each
+ * session runs on its own thread: a virtual thread when the JVM has them
+ * (Java 21 and up), otherwise a platform thread with a small stack.
+ *
+ * The protocol is one line in, one line out. Commands are:
+ *
+ *      M room      move into a room
+ *      S room      shoot into a room
+ *      S r1 r2 ... shoot a crooked arrow through up to 5 rooms
+ *      L           look around
+ *      N           start a new game
+ *      I           the token this session's game is saved under
+ *      R token     pick up the game saved under a token
+ *      STATS       the server's GameMetrics, as "STATS name value; name value; ..."
+ *      Q           quit
+ *
+ * Every reply starts with where the player is, followed by what happened:
+ *
+ *      ROOM 2 ARROWS 3 TUNNELS 1 3 7; MOVED 2; HAZARD_NEARBY PIT
+ *
+ * and a reply of "ERROR message" means the command wasn't understood. The same
+ * kind of line is sent as soon as a client connects.
+ *
+ * With a snapshot store, every session claims a slot and its game is saved
+ * there every so often, and again when the client hangs up. "I" replies with
+ * "SESSION token", and a client that lost its connection can come back and send
+ * "R token" to carry on where it was. Quitting or finishing a game frees the slot.
+ *
+ * With a history log, every game's moves, shots and ending are appended to it.
+ * A game picked up with "R" carries on as a new game in the log, marked resumed.
+ *
+ * The cave comes from a CaveRegistry, and each game is played in whichever
+ * version was current when it started, even if a newer one is published while
+ * it's going. A saved game can only be picked up while the current cave has the
+ * same tunnels as the one it was saved in.
+ *
+ * The server only listens on the loopback address unless it's given another
+ * one, since anybody who can connect can read its STATS and play its games.
+ *
+ * @author Ivan Samuelson
+ */
+public class GameServer {
+    private final CaveRegistry caves;   // The cave every session plays in, by version.
+    private final int port;             // The port to listen on.
+    private volatile InetAddress bindAddress = InetAddress.getLoopbackAddress();  // Where to listen.
+    private final ExecutorService executor = newThreadPerTaskExecutor("wumpus-session");
+    private final AtomicInteger activeSessions = new AtomicInteger();  // How many clients are connected.
+    private volatile ServerSocket serverSocket; // Set once the server is listening.
+    private volatile SnapshotStore snapshots;   // Where games are checkpointed, or null for nowhere.
+    private volatile long snapshotNanos;        // How often a changed game is checkpointed.
+    private volatile HistoryLog history;        // Where every game's events go, or null for nowhere.
+
+    /**
+     * Creates a server for the given cave.
+     *
+     * @param cave The cave every session plays in
+     * @param port The port to listen on, or 0 for any free port
+     */
+    public GameServer(Cave cave, int port) {
+        this(new CaveRegistry(cave), port);
+    }
+
+    /**
+     * Creates a server that starts new games in whatever version of the cave
+     * is current in a registry.
+     *
+     * @param caves The cave's versions
+     * @param port The port to listen on, or 0 for any free port
+     */
+    public GameServer(CaveRegistry caves, int port) {
+        this.caves = caves;
+        this.port = port;
+    }
+
+    /**
+     * Listens for connections until the server is closed. Each connection is
+     * handed off to its own session thread.
+     *
+     * @throws IOException If the server can't listen on its port
+     */
+    public void serve() throws IOException {
+        try (ServerSocket server = new ServerSocket(port, 1024, bindAddress)) {
+            serverSocket = server;
+
+            while (!server.isClosed()) {
+                Socket socket;
+
+                try {
+                    socket = server.accept();
+                } catch (IOException e) {
+                    // Closed out from under us means we're shutting down.
+                    if (server.isClosed()) {
+                        break;
+                    }
+
+                    throw e;
+                }
+
+                socket.setTcpNoDelay(true);
+                executor.execute(() -> runSession(socket));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Sets the address to listen on. It's the loopback address unless this is
+     * called before serve().
+     *
+     * @param bindAddress The address, or null for every address the machine has
+     */
+    public void setBindAddress(InetAddress bindAddress) {
+        this.bindAddress = bindAddress;
+    }
+
+    /**
+     * Stops accepting new connections.
+     *
+     * @throws IOException If the server socket can't be closed
+     */
+    public void close() throws IOException {
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+    }
+
+    /**
+     * Checkpoints every session's game into a snapshot store. Set this before
+     * calling serve().
+     *
+     * @param snapshots The store, or null to stop checkpointing
+     * @param intervalMillis How often a game that changed is saved, in milliseconds
+     */
+    public void setSnapshots(SnapshotStore snapshots, long intervalMillis) {
+        this.snapshots = snapshots;
+        this.snapshotNanos = intervalMillis * 1000000L;
+    }
+
+    /**
+     * Appends every session's games to a history log. Set this before calling serve().
+     *
+     * @param history The log, or null to stop recording
+     */
+    public void setHistory(HistoryLog history) {
+        this.history = history;
+    }
+
+    /**
+     * Gets the port the server is listening on
+     *
+     * @return The port, or 0 if it isn't listening yet
+     */
+    public int getLocalPort() {
+        ServerSocket server = serverSocket;
+
+        return (server == null) ? 0 : server.getLocalPort();
+    }
+
+    /**
+     * Gets how many clients are connected right now
+     *
+     * @return The number of active sessions
+     */
+    public int getActiveSessions() {
+        return activeSessions.get();
+    }
+
+    /**
+     * Plays games with one client until they quit or hang up.
+     *
+     * @param socket The client's connection
+     */
+    private void runSession(Socket socket) {
+        SnapshotStore store = snapshots;
+        HistoryLog log = history;
+        int slot = (store == null) ? -1 : store.claim();
+        long game = 0;      // The game's number in the history log, 0 once it's ended there.
+        CaveVersion version = caves.acquire();  // The cave the game is in.
+
+        activeSessions.incrementAndGet();
+
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII));
+             Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.US_ASCII))) {
+            GameEngine engine = new GameEngine(version.getCave());
+            StringBuilder reply = new StringBuilder(128);
+            boolean dirty = true;           // Whether the game changed since it was last saved.
+            long lastSave = System.nanoTime();
+
+            if (log != null) {
+                game = log.startGame(engine);
+            }
+
+            reply(out, reply, engine, engine.look());
+
+            try {
+                String line;
+
+                while ((line = in.readLine()) != null) {
+                    String command = line.trim();
+                    long turnStart = System.nanoTime();
+
+                    if (command.equalsIgnoreCase("Q")) {
+                        // Nothing to come back to.
+                        if (slot >= 0) {
+                            store.clear(slot);
+                        }
+
+                        dirty = false;
+                        break;
+                    } else if (command.equalsIgnoreCase("L")) {
+                        reply(out, reply, engine, engine.look());
+                    } else if (command.equalsIgnoreCase("N")) {
+                        game = endHistory(log, game, engine);
+
+                        // A new game goes into the newest cave.
+                        version.release();
+                        version = caves.acquire();
+                        engine = new GameEngine(version.getCave());
+                        dirty = true;
+
+                        if (log != null) {
+                            game = log.startGame(engine);
+                        }
+
+                        reply(out, reply, engine, engine.look());
+                    } else if (command.equalsIgnoreCase("STATS")) {
+                        out.write("STATS " + GameMetrics.GLOBAL.dump().trim().replace("\n", "; ") + "\n");
+                        out.flush();
+                    } else if (command.equalsIgnoreCase("I")) {
+                        if (slot < 0) {
+                            error(out, "Games are not being saved");
+                        } else {
+                            out.write("SESSION " + store.getToken(slot) + "\n");
+                            out.flush();
+                        }
+                    } else if (command.length() >= 2 && (command.charAt(0) == 'R' || command.charAt(0) == 'r')) {
+                        long token;
+                        int saved;
+
+                        try {
+                            token = Long.parseLong(command.substring(1).trim());
+                        } catch (NumberFormatException e) {
+                            error(out, "You entered an invalid token");
+                            continue;
+                        }
+
+                        if (store == null) {
+                            error(out, "Games are not being saved");
+                        } else if (slot >= 0 && token == store.getToken(slot)) {
+                            reply(out, reply, engine, engine.look());
+                        } else if ((saved = store.resume(token)) < 0) {
+                            error(out, "There is no game to pick up with that token");
+                        } else {
+                            CaveVersion latest = caves.acquire();
+                            GameEngine resumed;
+
+                            try {
+                                resumed = store.load(saved, latest.getCave());
+                            } catch (IOException e) {
+                                resumed = null;
+                            }
+
+                            if (resumed == null) {
+                                latest.release();
+                                store.release(saved);
+                                error(out, "The game saved under that token could not be read");
+                                continue;
+                            }
+
+                            // The game this session had so far is given up for the saved one.
+                            if (slot >= 0) {
+                                store.clear(slot);
+                                store.release(slot);
+                            }
+
+                            game = endHistory(log, game, engine);
+                            version.release();
+                            version = latest;
+                            slot = saved;
+                            engine = resumed;
+
+                            if (log != null) {
+                                game = log.resumeGame(engine);
+                            }
+
+                            dirty = false;
+                            lastSave = System.nanoTime();
+                            reply(out, reply, engine, engine.look());
+                        }
+                    } else if (command.length() >= 2 && (command.charAt(0) == 'M' || command.charAt(0) == 'm'
+                            || command.charAt(0) == 'S' || command.charAt(0) == 's')) {
+                        // "S 3 4 12" shoots a crooked arrow through each room in turn.
+                        String[] rooms = command.substring(1).trim().split("[\\s,]+");
+                        int[] path = new int[rooms.length];
+
+                        try {
+                            for (int i = 0; i < rooms.length; i++) {
+                                path[i] = Integer.parseInt(rooms[i]);
+                            }
+                        } catch (NumberFormatException e) {
+                            error(out, "You entered an invalid number");
+                            continue;
+                        }
+
+                        boolean moving = (command.charAt(0) == 'M' || command.charAt(0) == 'm');
+                        List<GameEvent> events;
+
+                        if (moving && path.length > 1) {
+                            error(out, "You can only move one room at a time");
+                            continue;
+                        } else if (moving) {
+                            events = engine.move(path[0]);
+                        } else {
+                            events = (path.length > 1) ? engine.shoot(path) : engine.shoot(path[0]);
+                        }
+
+                        if (log != null && game != 0) {
+                            log.record(game, engine, events);
+
+                            if (engine.isGameOver()) {
+                                game = endHistory(log, game, engine);
+                            }
+                        }
+
+                        reply(out, reply, engine, events);
+                        dirty = true;
+                    } else {
+                        error(out, "Unknown command");
+                    }
+
+                    GameMetrics.GLOBAL.turn(System.nanoTime() - turnStart);
+
+                    if (slot >= 0 && dirty && System.nanoTime() - lastSave >= snapshotNanos) {
+                        slot = checkpoint(store, slot, engine);
+                        dirty = false;
+                        lastSave = System.nanoTime();
+                    }
+                }
+            } finally {
+                // Whatever happened to the client, save where they got to.
+                if (slot >= 0 && dirty) {
+                    slot = checkpoint(store, slot, engine);
+                }
+
+                endHistory(log, game, engine);
+            }
+        } catch (IOException e) {
+            // The client went away. Nothing to clean up but the socket.
+        } finally {
+            if (slot >= 0) {
+                store.release(slot);
+            }
+
+            version.release();
+
+            activeSessions.decrementAndGet();
+        }
+    }
+
+    /**
+     * Saves a session's game into its slot. A finished game is cleared out
+     * instead, since there's nothing left to pick up.
+     *
+     * @param store The snapshot store
+     * @param slot The session's slot
+     * @param engine The session's game
+     * @return The slot, or -1 if the game can't be saved and the slot was given up
+     */
+    private static int checkpoint(SnapshotStore store, int slot, GameEngine engine) {
+        if (engine.isGameOver()) {
+            store.clear(slot);
+            return slot;
+        }
+
+        try {
+            store.save(slot, engine);
+            return slot;
+        } catch (IOException e) {
+            // Too big for the store. Carry on without saving this one.
+            store.clear(slot);
+            store.release(slot);
+            return -1;
+        }
+    }
+
+    /**
+     * Ends a game in the history log, as given up on if it isn't over.
+     *
+     * @param log The history log, or null if there isn't one
+     * @param game The game's number in the log, or 0 if it's already ended there
+     * @param engine The game
+     * @return 0, for the game's number from now on
+     */
+    private static long endHistory(HistoryLog log, long game, GameEngine engine) {
+        if (log != null && game != 0) {
+            log.endGame(game, engine);
+        }
+
+        return 0;
+    }
+
+    /**
+     * Sends the player's state and the events from their last command.
+     *
+     * @param out Where to send the reply
+     * @param reply A buffer to build the reply in, reused for every reply
+     * @param engine The session's game
+     * @param events What happened
+     * @throws IOException If the reply can't be sent
+     */
+    private static void reply(Writer out, StringBuilder reply, GameEngine engine, List<GameEvent> events) throws IOException {
+        int room = engine.getPlayerRoom();
+        Room current = engine.getRoom(room);
+
+        reply.setLength(0);
+        reply.append("ROOM ").append(room).append(" ARROWS ").append(engine.getArrowsLeft()).append(" TUNNELS");
+
+        for (int i = 0; i < current.getAdjRoomCount(); i++) {
+            reply.append(' ').append(current.getAdjRoom(i));
+        }
+
+        for (GameEvent event : events) {
+            reply.append("; ").append(event.getType().name());
+
+            if (event.getRoom() > 0) {
+                reply.append(' ').append(event.getRoom());
+            }
+
+            if (event.getDanger() != Room.Danger.NONE) {
+                reply.append(' ').append(event.getDanger().name());
+            }
+        }
+
+        reply.append('\n');
+        out.append(reply);
+        out.flush();
+    }
+
+    /**
+     * Sends an error reply.
+     *
+     * @param out Where to send the reply
+     * @param message What went wrong
+     * @throws IOException If the reply can't be sent
+     */
+    private static void error(Writer out, String message) throws IOException {
+        out.write("ERROR " + message + "\n");
+        out.flush();
+    }
+
+    /**
+     * Creates an executor that runs every task on its own new thread. Virtual
+     * threads are used when the JVM has them, so thousands of blocked sessions
+     * cost next to nothing. This is looked up by reflection so the game still
+     * builds and runs on Java 8.
+     *
+     * @param name What to name the threads, when they are platform threads
+     * @return The executor
+     */
+    static ExecutorService newThreadPerTaskExecutor(String name) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            // No virtual threads. Use platform threads with small stacks instead.
+            AtomicInteger count = new AtomicInteger();
+
+            return Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(null, r, name + "-" + count.incrementAndGet(), 256 * 1024);
+
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
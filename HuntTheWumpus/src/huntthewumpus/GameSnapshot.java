@@ -0,0 +1,247 @@
+package huntthewumpus;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Saves a game in progress and brings it back later, exactly as it was, even
+ * down to the random numbers still to come. Only what a game changes is saved.
+ * The cave is left out and only checked by its fingerprint, so a snapshot is a
+ * few dozen bytes no matter how big the cave is:
+ *
+ *      int   magic         "WSNP"
+ *      byte  version       VERSION
+ *      long  fingerprint   Cave.getFingerprint() of the cave the game is in
+ *      long  random        GameRandom.getState()
+ *      int   player room
+ *      byte  arrows left
+ *      byte  flags         GAME_OVER, WON, SHOT_SELF
+ *      byte  killed by     danger ordinal
+ *      byte  sense range
+ *      byte  rules         GameRules.getFlags() applied to the game
+ *      int   turn          World.getTurn()
+ *      int   hazards
+ *          int   room
+ *          byte  danger ordinal                x hazards
+ *      int   actors        hazards with a behavior, in the order they act
+ *          int   room
+ *          int   state                         x actors
+ *
+ * Everything is little endian. Behaviors come back from the rules, so a game
+ * given behaviors some other way than GameRules.apply() won't get them back.
+ *
+ * @author Ivan Samuelson
+ */
+public final class GameSnapshot {
+    static final int MAGIC = 0x504E5357;    // "WSNP" when read as little endian bytes.
+    static final int VERSION = 1;
+
+    // Flag bits.
+    private static final int GAME_OVER = 1;
+    private static final int WON = 2;
+    private static final int SHOT_SELF = 4;
+
+    // Bytes before the hazards, and for each hazard and actor.
+    private static final int FIXED_SIZE = 4 + 1 + 8 + 8 + 4 + 5 + 4 + 4 + 4;
+    private static final int HAZARD_SIZE = 5;
+    private static final int ACTOR_SIZE = 8;
+
+    /**
+     * No instances, just static helpers.
+     *
+     */
+    private GameSnapshot() {
+    }
+
+    /**
+     * Works out how many bytes a game's snapshot takes.
+     *
+     * @param engine The game
+     * @return The size in bytes
+     */
+    public static int sizeOf(GameEngine engine) {
+        return FIXED_SIZE + HAZARD_SIZE * engine.getHazards().size() + ACTOR_SIZE * engine.getWorld().getActors().size();
+    }
+
+    /**
+     * Writes a snapshot of a game into a buffer, starting at its position.
+     *
+     * @param engine The game
+     * @param buffer Where to write it. Must have sizeOf(engine) bytes left.
+     */
+    public static void write(GameEngine engine, ByteBuffer buffer) {
+        ByteBuffer out = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        HazardMap hazards = engine.getHazards();
+        List<Hazard> actors = engine.getWorld().getActors();
+        int flags = (engine.isGameOver() ? GAME_OVER : 0) | (engine.isWon() ? WON : 0) | (engine.isShotSelf() ? SHOT_SELF : 0);
+
+        out.putInt(MAGIC);
+        out.put((byte) VERSION);
+        out.putLong(engine.getCave().getFingerprint());
+        out.putLong(engine.getRandom().getState());
+        out.putInt(engine.getPlayerRoom());
+        out.put((byte) engine.getArrowsLeft());
+        out.put((byte) flags);
+        out.put((byte) engine.getKilledBy().ordinal());
+        out.put((byte) engine.getSenseRange());
+        out.put((byte) engine.getRules());
+        out.putInt(engine.getWorld().getTurn());
+
+        int[] rooms = hazards.getRooms();
+
+        out.putInt(rooms.length);
+
+        for (int room : rooms) {
+            out.putInt(room);
+            out.put((byte) hazards.get(room).ordinal());
+        }
+
+        out.putInt(actors.size());
+
+        for (Hazard actor : actors) {
+            out.putInt(actor.getRoom());
+            out.putInt(actor.getState());
+        }
+    }
+
+    /**
+     * Reads a snapshot out of a buffer, starting at its position, and brings
+     * the game back.
+     *
+     * @param buffer Where to read it from
+     * @param cave The cave the game was in
+     * @return The game, ready to carry on
+     * @throws IOException If the snapshot is broken or was taken in a different cave
+     */
+    public static GameEngine read(ByteBuffer buffer, Cave cave) throws IOException {
+        ByteBuffer in = buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        try {
+            if (in.getInt() != MAGIC) {
+                throw new IOException("Not a game snapshot");
+            }
+
+            int version = in.get();
+
+            if (version != VERSION) {
+                throw new IOException(String.format("Snapshot version %d is not supported, expected %d", version, VERSION));
+            }
+
+            if (in.getLong() != cave.getFingerprint()) {
+                throw new IOException("Snapshot was taken in a different cave");
+            }
+
+            long random = in.getLong();
+            int playerRoom = in.getInt();
+            int arrowsLeft = in.get() & 0xFF;
+            int flags = in.get();
+            Room.Danger killedBy = danger(in.get());
+            int senseRange = in.get();
+            int rules = in.get();
+            int turn = in.getInt();
+            int numHazards = in.getInt();
+            HazardMap hazards = new HazardMap(Math.max(numHazards, 1));
+
+            checkRoom(playerRoom, cave);
+
+            for (int i = 0; i < numHazards; i++) {
+                int room = in.getInt();
+
+                hazards.put(checkRoom(room, cave), danger(in.get()));
+            }
+
+            int numActors = in.getInt();
+            int[] rooms = new int[numActors];
+            int[] states = new int[numActors];
+
+            for (int i = 0; i < numActors; i++) {
+                rooms[i] = in.getInt();
+                states[i] = in.getInt();
+            }
+
+            GameEngine engine = new GameEngine(cave, hazards, new GameRandom(random), senseRange);
+
+            new GameRules(rules).apply(engine);
+            engine.getWorld().restoreActors(rooms, states, turn);
+            engine.restorePlayer(playerRoom, arrowsLeft, (flags & GAME_OVER) != 0, (flags & WON) != 0,
+                    (flags & SHOT_SELF) != 0, killedBy);
+
+            return engine;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Snapshot is cut off", e);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Snapshot is corrupt: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Saves a game to a file, replacing whatever was there.
+     *
+     * @param engine The game
+     * @param fileName The file
+     * @throws IOException If the file can't be written
+     */
+    public static void save(GameEngine engine, String fileName) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(sizeOf(engine));
+
+        write(engine, buffer);
+        buffer.flip();
+
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Brings back a game saved to a file.
+     *
+     * @param fileName The file
+     * @param cave The cave the game was in
+     * @return The game, ready to carry on
+     * @throws IOException If the file can't be read, is broken, or was saved in a different cave
+     */
+    public static GameEngine load(String fileName, Cave cave) throws IOException {
+        return read(ByteBuffer.wrap(Files.readAllBytes(Paths.get(fileName))), cave);
+    }
+
+    /**
+     * Checks a room number from a snapshot.
+     *
+     * @param room The room number
+     * @param cave The cave
+     * @return The room number
+     * @throws IllegalArgumentException If the room isn't in the cave
+     */
+    private static int checkRoom(int room, Cave cave) {
+        if (room < 1 || room > cave.getNumRooms()) {
+            throw new IllegalArgumentException(String.format("Room %d is not in the cave", room));
+        }
+
+        return room;
+    }
+
+    /**
+     * Turns a danger ordinal from a snapshot back into a danger.
+     *
+     * @param ordinal The ordinal
+     * @return The danger
+     * @throws IllegalArgumentException If there is no such danger
+     */
+    private static Room.Danger danger(int ordinal) {
+        if (ordinal < 0 || ordinal >= Room.DANGERS.length) {
+            throw new IllegalArgumentException(String.format("Unknown danger %d", ordinal));
+        }
+
+        return Room.DANGERS[ordinal];
+    }
+}
@@ -0,0 +1,81 @@
+package huntthewumpus;
+
+/**
+ * Rooms laid out in rows like a sheet of graph paper, each with tunnels to the
+ * rooms north, south, east and west of it. A torus wraps the edges around so
+ * every room has all four tunnels. A plain grid doesn't, so rooms along the
+ * edges have three tunnels and the corners have two.
+ *
+ * Rooms are numbered across each row, top row first.
+ *
+ * @author Ivan Samuelson
+ */
+public final class GridTopology implements Topology {
+    private final int width;        // Rooms in each row.
+    private final int height;       // Number of rows.
+    private final boolean wrap;     // Do the edges wrap around into a torus?
+
+    /**
+     * Creates a grid.
+     *
+     * @param width Rooms in each row
+     * @param height Number of rows
+     * @param wrap True for a torus, false for a plain grid
+     */
+    public GridTopology(int width, int height, boolean wrap) {
+        if (width < 1 || height < 1 || (long) width * height > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format("A %dx%d grid is not a size we can make", width, height));
+        }
+
+        this.width = width;
+        this.height = height;
+        this.wrap = wrap;
+    }
+
+    @Override
+    public int getNumRooms() {
+        return width * height;
+    }
+
+    @Override
+    public int getMaxDegree() {
+        return 4;
+    }
+
+    @Override
+    public int tunnels(int room, int[] tunnels) {
+        int x = (room-1) % width;
+        int y = (room-1) / width;
+        int count = 0;
+
+        // North, west, east, south. Tiny tori can wrap onto the same room twice, so those get dropped.
+        if (y > 0 || wrap) {
+            count = CaveGenerator.addTunnel(tunnels, count, room, room(x, (y + height - 1) % height));
+        }
+
+        if (x > 0 || wrap) {
+            count = CaveGenerator.addTunnel(tunnels, count, room, room((x + width - 1) % width, y));
+        }
+
+        if (x < width-1 || wrap) {
+            count = CaveGenerator.addTunnel(tunnels, count, room, room((x + 1) % width, y));
+        }
+
+        if (y < height-1 || wrap) {
+            count = CaveGenerator.addTunnel(tunnels, count, room, room(x, (y + 1) % height));
+        }
+
+        return count;
+    }
+
+    /**
+     * Gets the number of the room at a spot on the grid.
+     *
+     * @param x The column, from 0
+     * @param y The row, from 0
+     * @return The room number (1 based)
+     */
+    private int room(int x, int y) {
+        return y * width + x + 1;
+    }
+}
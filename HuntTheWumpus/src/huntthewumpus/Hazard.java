@@ -0,0 +1,83 @@
+package huntthewumpus;
+
+/**
+ * One danger that does something during the game, like a Wumpus that wakes up
+ * or bats that carry the player off. Dangers that just sit there, like pits,
+ * don't get one. Behaviors are shared by every hazard of a kind, so anything a
+ * behavior needs to remember about one hazard goes in its state.
+ *
+ * @author Ivan Samuelson
+ */
+public final class Hazard {
+    private final Room.Danger danger;   // What kind of danger this is.
+    private final Behavior behavior;    // What it does every turn.
+    private int room;                   // Where it is (1 based).
+    private int state;                  // Whatever its behavior wants to keep track of.
+
+    /**
+     * Creates a hazard. Only the World makes these.
+     *
+     * @param danger What kind of danger it is
+     * @param behavior What it does every turn
+     * @param room Where it is (1 based)
+     */
+    Hazard(Room.Danger danger, Behavior behavior, int room) {
+        this.danger = danger;
+        this.behavior = behavior;
+        this.room = room;
+    }
+
+    /**
+     * Gets what kind of danger this is
+     *
+     * @return The danger
+     */
+    public Room.Danger getDanger() {
+        return danger;
+    }
+
+    /**
+     * Gets what this hazard does every turn
+     *
+     * @return The behavior
+     */
+    public Behavior getBehavior() {
+        return behavior;
+    }
+
+    /**
+     * Gets where the hazard is
+     *
+     * @return The room number (1 based)
+     */
+    public int getRoom() {
+        return room;
+    }
+
+    /**
+     * Moves the hazard. Use World.moveHazard so the hazard map follows along.
+     *
+     * @param room The room number (1 based)
+     */
+    void setRoom(int room) {
+        this.room = room;
+    }
+
+    /**
+     * Gets the behavior's state for this hazard
+     *
+     * @return The state, 0 to start with
+     */
+    public int getState() {
+        return state;
+    }
+
+    /**
+     * Sets the behavior's state for this hazard
+     *
+     * @param state The new state
+     */
+    public void setState(int state) {
+        this.state = state;
+    }
+}
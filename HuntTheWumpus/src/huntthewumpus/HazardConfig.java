@@ -0,0 +1,84 @@
+package huntthewumpus;
+
+import java.util.Arrays;
+
+/**
+ * How many of each danger to place when a game starts. A config never changes,
+ * the with() method hands back a new one.
+ *
+ * @author Ivan Samuelson
+ */
+public final class HazardConfig {
+    // The classic game: 1 Wumpus, 2 spiders and 2 pits.
+    public static final HazardConfig CLASSIC = new HazardConfig(new int[Room.DANGERS.length])
+            .with(Room.Danger.WUMPUS, 1)
+            .with(Room.Danger.SPIDER, 2)
+            .with(Room.Danger.PIT, 2);
+
+    private final int[] counts;     // How many of each danger, by Danger ordinal.
+
+    /**
+     * Creates a config from counts by Danger ordinal. The array isn't copied.
+     *
+     * @param counts How many of each danger
+     */
+    private HazardConfig(int[] counts) {
+        this.counts = counts;
+    }
+
+    /**
+     * Gets a copy of this config with a different count for one danger.
+     *
+     * @param danger The danger to change. Danger.NONE can't be placed.
+     * @param count How many of that danger to place
+     * @return The new config
+     */
+    public HazardConfig with(Room.Danger danger, int count) {
+        if (danger == Room.Danger.NONE || count < 0) {
+            throw new IllegalArgumentException("Can't place " + count + " " + danger);
+        }
+
+        int[] copy = Arrays.copyOf(counts, counts.length);
+
+        copy[danger.ordinal()] = count;
+        return new HazardConfig(copy);
+    }
+
+    /**
+     * Gets how many of a danger get placed
+     *
+     * @param danger The danger
+     * @return How many of that danger get placed
+     */
+    public int getCount(Room.Danger danger) {
+        return counts[danger.ordinal()];
+    }
+
+    /**
+     * Gets how many dangers get placed altogether
+     *
+     * @return The total number of hazards
+     */
+    public int getTotal() {
+        int total = 0;
+
+        for (int count : counts) {
+            total += count;
+        }
+
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+
+        for (Room.Danger danger : Room.DANGERS) {
+            if (counts[danger.ordinal()] > 0) {
+                sb.append(sb.length() == 0 ? "" : ", ").append(counts[danger.ordinal()]).append(' ').append(danger);
+            }
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,212 @@
+package huntthewumpus;
+
+/**
+ * The dangers for one game, kept apart from the cave so any number of games can
+ * share one loaded cave. Only rooms with a danger in them are stored, in a small
+ * open addressing hash table, so starting a new game costs the number of hazards
+ * and not the number of rooms. Rooms that aren't in the table have no danger.
+ *
+ * A ProximityIndex can be attached so it hears about every danger that comes
+ * or goes, however the change was made.
+ *
+ * This is per game and not thread-safe.
+ *
+ * @author Ivan Samuelson
+ */
+public final class HazardMap {
+    private int[] rooms;        // Room number in each slot, 0 for an empty slot.
+    private byte[] dangers;     // Danger ordinal in each slot.
+    private int size;           // How many rooms have a danger in them.
+    private ProximityIndex proximity;   // Told about every change, or null.
+
+    /**
+     * Creates an empty map sized for the given number of hazards.
+     *
+     * @param expected How many hazards are likely to be placed
+     */
+    public HazardMap(int expected) {
+        // Keep the table at most half full so lookups stay short.
+        int capacity = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+
+        rooms = new int[capacity];
+        dangers = new byte[capacity];
+    }
+
+    /**
+     * Gets the danger in a room
+     *
+     * @param room The room number (1 based)
+     * @return The danger in the room, Danger.NONE if there isn't one
+     */
+    public Room.Danger get(int room) {
+        int mask = rooms.length - 1;
+
+        for (int slot = hash(room) & mask; rooms[slot] != 0; slot = (slot + 1) & mask) {
+            if (rooms[slot] == room) {
+                return Room.DANGERS[dangers[slot]];
+            }
+        }
+
+        return Room.Danger.NONE;
+    }
+
+    /**
+     * Attaches a proximity index, counting the dangers already placed in it.
+     *
+     * @param proximity The index to keep up to date
+     */
+    public void setProximity(ProximityIndex proximity) {
+        this.proximity = proximity;
+
+        for (int i = 0; i < rooms.length; i++) {
+            if (rooms[i] != 0) {
+                proximity.add(rooms[i], Room.DANGERS[dangers[i]]);
+            }
+        }
+    }
+
+    /**
+     * Puts a danger in a room, replacing whatever was there. Putting Danger.NONE
+     * removes the room from the map.
+     *
+     * @param room The room number (1 based)
+     * @param danger What danger to put in the room
+     */
+    public void put(int room, Room.Danger danger) {
+        if (danger == Room.Danger.NONE) {
+            remove(room);
+            return;
+        }
+
+        if ((size + 1) * 2 > rooms.length) {
+            grow();
+        }
+
+        int mask = rooms.length - 1;
+        int slot = hash(room) & mask;
+
+        while (rooms[slot] != 0 && rooms[slot] != room) {
+            slot = (slot + 1) & mask;
+        }
+
+        if (rooms[slot] == 0) {
+            rooms[slot] = room;
+            size++;
+        } else if (dangers[slot] == danger.ordinal()) {
+            return;     // Nothing changed.
+        } else if (proximity != null) {
+            proximity.remove(room, Room.DANGERS[dangers[slot]]);
+        }
+
+        dangers[slot] = (byte) danger.ordinal();
+
+        if (proximity != null) {
+            proximity.add(room, danger);
+        }
+    }
+
+    /**
+     * Takes any danger out of a room.
+     *
+     * @param room The room number (1 based)
+     */
+    public void remove(int room) {
+        int mask = rooms.length - 1;
+        int slot = hash(room) & mask;
+
+        while (rooms[slot] != room) {
+            if (rooms[slot] == 0) {
+                return;     // Wasn't there in the first place.
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        rooms[slot] = 0;
+        size--;
+
+        if (proximity != null) {
+            proximity.remove(room, Room.DANGERS[dangers[slot]]);
+        }
+
+        // Shift any following entries back so lookups don't stop early at the hole.
+        for (int next = (slot + 1) & mask; rooms[next] != 0; next = (next + 1) & mask) {
+            int home = hash(rooms[next]) & mask;
+
+            // Move the entry into the hole if the hole is between its home slot and where it is now.
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                rooms[slot] = rooms[next];
+                dangers[slot] = dangers[next];
+                rooms[next] = 0;
+                slot = next;
+            }
+        }
+    }
+
+    /**
+     * Gets how many rooms have a danger in them
+     *
+     * @return The number of hazards
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets all the rooms that have a danger in them, in no particular order.
+     *
+     * @return The room numbers
+     */
+    public int[] getRooms() {
+        int[] result = new int[size];
+        int count = 0;
+
+        for (int room : rooms) {
+            if (room != 0) {
+                result[count++] = room;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Doubles the size of the table.
+     *
+     */
+    private void grow() {
+        int[] oldRooms = rooms;
+        byte[] oldDangers = dangers;
+
+        int mask = oldRooms.length * 2 - 1;
+
+        rooms = new int[oldRooms.length * 2];
+        dangers = new byte[oldRooms.length * 2];
+
+        // Straight into the new slots, the dangers haven't changed.
+        for (int i = 0; i < oldRooms.length; i++) {
+            if (oldRooms[i] != 0) {
+                int slot = hash(oldRooms[i]) & mask;
+
+                while (rooms[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+
+                rooms[slot] = oldRooms[i];
+                dangers[slot] = oldDangers[i];
+            }
+        }
+    }
+
+    /**
+     * Scrambles a room number so neighboring rooms don't pile up in neighboring slots.
+     *
+     * @param room The room number
+     * @return The hash
+     */
+    private static int hash(int room) {
+        int h = room * 0x9E3779B9;
+
+        return h ^ (h >>> 16);
+    }
+}
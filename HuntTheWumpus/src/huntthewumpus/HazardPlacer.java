@@ -0,0 +1,87 @@
+package huntthewumpus;
+
+/**
+ * Places the dangers for a new game. Picking k rooms out of n always takes O(k)
+ * time no matter how crowded the cave gets, using Floyd's algorithm for picking
+ * a random subset, and the starting room never gets a danger. That would be a
+ * little unfair, right?
+ *
+ * @author Ivan Samuelson
+ */
+public final class HazardPlacer {
+    /**
+     * No instances, just static helpers.
+     *
+     */
+    private HazardPlacer() {
+    }
+
+    /**
+     * Places the dangers in a config into random, distinct rooms.
+     *
+     * @param numRooms How many rooms are in the cave
+     * @param startRoom The room the player starts in (1 based), which stays safe
+     * @param config How many of each danger to place
+     * @param random Where the randomness comes from
+     * @param hazards Where to put the dangers. Should be empty.
+     * @return How many times a room was drawn that had already been picked.
+     *         Floyd's algorithm never retries, it just takes a different room.
+     */
+    public static int place(int numRooms, int startRoom, HazardConfig config, GameRandom random, HazardMap hazards) {
+        int count = config.getTotal();
+        int candidates = numRooms - 1;     // Every room but the start room.
+
+        if (count > candidates) {
+            throw new IllegalArgumentException(String.format("Can't place %d hazards in %d rooms", count, numRooms));
+        }
+
+        // Floyd's algorithm: for each j in the last k candidates, draw from 0 to j
+        // and take j itself if the draw was already picked. Every k-subset is
+        // equally likely. The hazard map doubles as the "already picked" set.
+        int[] picked = new int[count];
+        int collisions = 0;
+
+        for (int i = 0, j = candidates - count; j < candidates; i++, j++) {
+            int room = toRoom(random.nextInt(j+1), startRoom);
+
+            if (hazards.get(room) != Room.Danger.NONE) {
+                room = toRoom(j, startRoom);
+                collisions++;
+            }
+
+            hazards.put(room, Room.Danger.WUMPUS);
+            picked[i] = room;
+        }
+
+        // Floyd's picks a fair set, but not in a fair order, so shuffle the picks
+        // before handing out the dangers.
+        for (int i = count-1; i > 0; i--) {
+            int swap = random.nextInt(i+1);
+            int room = picked[i];
+
+            picked[i] = picked[swap];
+            picked[swap] = room;
+        }
+
+        int next = 0;
+
+        for (Room.Danger danger : Room.DANGERS) {
+            for (int n = 0; n < config.getCount(danger); n++) {
+                hazards.put(picked[next++], danger);
+            }
+        }
+
+        return collisions;
+    }
+
+    /**
+     * Turns a candidate number into a room number, skipping over the start room.
+     *
+     * @param candidate The candidate, from 0 to numRooms-2
+     * @param startRoom The room the player starts in
+     * @return The room number (1 based), never the start room
+     */
+    private static int toRoom(int candidate, int startRoom) {
+        return (candidate + 1 >= startRoom) ? candidate + 2 : candidate + 1;
+    }
+}
@@ -0,0 +1,326 @@
+package huntthewumpus;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The index of one sealed HistoryLog segment: which records happened in each
+ * room, and which ENDED records have each outcome. A query on one room only
+ * touches that room's records instead of the whole segment.
+ *
+ *      header (HEADER_SIZE bytes)
+ *          int   magic         "WHIX"
+ *          int   version       VERSION
+ *          int   records       how many records the segment has
+ *          int   rooms         how many different rooms are in it
+ *          int   outcomes      how many different outcomes are in it
+ *          int   unused
+ *          long  minGame       lowest game number in the segment
+ *          long  maxGame       highest game number in the segment
+ *      room x rooms, in room order
+ *          int   room
+ *          int   end           where its records end in the room postings
+ *      outcome x outcomes, in outcome order
+ *          int   outcome       ReplayLog.outcomeOf() code
+ *          int   end           where its records end in the outcome postings
+ *      int   record number x records, grouped by room
+ *      int   record number x ENDED records, grouped by outcome
+ *
+ * A group starts where the one before it ended, and record numbers in a group
+ * are in order. Everything is little endian. The index is written to a
+ * temporary file and renamed into place, so it's either all there or not at all.
+ *
+ * @author Ivan Samuelson
+ */
+final class HistoryIndex {
+    static final int MAGIC = 0x58494857;    // "WHIX" when read as little endian bytes.
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 40;
+
+    private static final int OUTCOMES = 256;    // Outcome codes fit in a byte.
+
+    private final ByteBuffer index;     // The whole index file.
+    private final int records;
+    private final int rooms;
+    private final int outcomes;
+    private final long minGame;
+    private final long maxGame;
+
+    /**
+     * Wraps an index that's been read or mapped.
+     *
+     * @param index The index, little endian
+     * @param file Where it came from, for the error message
+     * @throws IOException If it isn't an index
+     */
+    private HistoryIndex(ByteBuffer index, File file) throws IOException {
+        if (index.capacity() < HEADER_SIZE || index.getInt(0) != MAGIC || index.getInt(4) != VERSION) {
+            throw new IOException(file + " is not a history index");
+        }
+
+        this.index = index;
+        this.records = index.getInt(8);
+        this.rooms = index.getInt(12);
+        this.outcomes = index.getInt(16);
+        this.minGame = index.getLong(24);
+        this.maxGame = index.getLong(32);
+
+        // The tables have to be there before the outcome table can say how big the rest is.
+        long tables = HEADER_SIZE + 8L * (rooms + outcomes);
+
+        if (records < 0 || rooms < 0 || outcomes < 0 || index.capacity() < tables
+                || index.capacity() != tables + 4L * records + 4L * outcomePostings()) {
+            throw new IOException(file + " is the wrong size for a history index");
+        }
+    }
+
+    /**
+     * Maps an index file.
+     *
+     * @param file The index file
+     * @return The index
+     * @throws IOException If it can't be read or isn't an index
+     */
+    static HistoryIndex open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            return new HistoryIndex(mapped, file);
+        }
+    }
+
+    /**
+     * Indexes a segment, writing the index next to it.
+     *
+     * @param segment The segment file
+     * @param file Where to write the index
+     * @throws IOException If the segment can't be read or the index written
+     */
+    static void build(File segment, File file) throws IOException {
+        ByteBuffer log;
+
+        try (FileChannel channel = FileChannel.open(segment.toPath(), StandardOpenOption.READ)) {
+            log = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            log.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        HistoryLog.checkHeader(log, segment);
+
+        // Sorting room and record number packed into one long groups the
+        // records by room, in order, in one go.
+        int records = countRecords(log);
+        long[] byRoom = new long[records];
+        int[] outcomeCounts = new int[OUTCOMES];
+        long minGame = Long.MAX_VALUE;
+        long maxGame = 0;
+
+        for (int i = 0; i < records; i++) {
+            int pos = HistoryLog.HEADER_SIZE + i * HistoryLog.RECORD_SIZE;
+            long game = log.getLong(pos);
+
+            minGame = Math.min(minGame, game);
+            maxGame = Math.max(maxGame, game);
+            byRoom[i] = ((long) log.getInt(pos + 8) << 32) | i;
+
+            if (log.get(pos + 12) == HistoryLog.ENDED) {
+                outcomeCounts[log.getShort(pos + 14) & (OUTCOMES-1)]++;
+            }
+        }
+
+        Arrays.sort(byRoom);
+
+        int rooms = 0;
+        int outcomes = 0;
+        int ended = 0;
+
+        for (int i = 0; i < records; i++) {
+            if (i == 0 || (int) (byRoom[i] >> 32) != (int) (byRoom[i-1] >> 32)) {
+                rooms++;
+            }
+        }
+
+        for (int count : outcomeCounts) {
+            outcomes += (count > 0) ? 1 : 0;
+            ended += count;
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + 8 * (rooms + outcomes) + 4 * (records + ended))
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        out.putInt(MAGIC).putInt(VERSION).putInt(records).putInt(rooms).putInt(outcomes).putInt(0);
+        out.putLong(records == 0 ? 0 : minGame).putLong(maxGame);
+
+        // Room table, then outcome table.
+        for (int i = 0; i < records; i++) {
+            int room = (int) (byRoom[i] >> 32);
+
+            if (i+1 == records || (int) (byRoom[i+1] >> 32) != room) {
+                out.putInt(room).putInt(i+1);
+            }
+        }
+
+        int[] starts = new int[OUTCOMES];
+        int end = 0;
+
+        for (int outcome = 0; outcome < OUTCOMES; outcome++) {
+            starts[outcome] = end;
+
+            if (outcomeCounts[outcome] > 0) {
+                end += outcomeCounts[outcome];
+                out.putInt(outcome).putInt(end);
+            }
+        }
+
+        // Room postings, then outcome postings.
+        for (int i = 0; i < records; i++) {
+            out.putInt((int) byRoom[i]);
+        }
+
+        int outcomeBase = out.position();
+
+        for (int i = 0; i < records; i++) {
+            int pos = HistoryLog.HEADER_SIZE + i * HistoryLog.RECORD_SIZE;
+
+            if (log.get(pos + 12) == HistoryLog.ENDED) {
+                int outcome = log.getShort(pos + 14) & (OUTCOMES-1);
+
+                out.putInt(outcomeBase + 4 * starts[outcome]++, i);
+            }
+        }
+
+        out.clear();
+
+        File temp = new File(file.getPath() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+
+            channel.force(false);
+        }
+
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Counts the good records in a segment, stopping at the first zeroed one.
+     *
+     * @param log The segment, little endian
+     * @return The number of records
+     */
+    static int countRecords(ByteBuffer log) {
+        int max = (log.capacity() - HistoryLog.HEADER_SIZE) / HistoryLog.RECORD_SIZE;
+        int records = 0;
+
+        while (records < max && log.get(HistoryLog.HEADER_SIZE + records * HistoryLog.RECORD_SIZE + 12) != 0) {
+            records++;
+        }
+
+        return records;
+    }
+
+    /**
+     * Gets how many records the segment has
+     *
+     * @return The number of records
+     */
+    int getRecords() {
+        return records;
+    }
+
+    /**
+     * Gets the lowest game number in the segment
+     *
+     * @return The game number, 0 if the segment is empty
+     */
+    long getMinGame() {
+        return minGame;
+    }
+
+    /**
+     * Gets the highest game number in the segment
+     *
+     * @return The game number, 0 if the segment is empty
+     */
+    long getMaxGame() {
+        return maxGame;
+    }
+
+    /**
+     * Gets the records that happened in a room
+     *
+     * @param room The room number
+     * @return Their record numbers, in order
+     */
+    int[] inRoom(int room) {
+        return find(HEADER_SIZE, rooms, room, HEADER_SIZE + 8 * (rooms + outcomes));
+    }
+
+    /**
+     * Gets the ENDED records with an outcome
+     *
+     * @param outcome The ReplayLog.outcomeOf() code
+     * @return Their record numbers, in order
+     */
+    int[] withOutcome(int outcome) {
+        return find(HEADER_SIZE + 8 * rooms, outcomes, outcome, HEADER_SIZE + 8 * (rooms + outcomes) + 4 * records);
+    }
+
+    /**
+     * Binary searches one of the tables and copies out the postings it points to.
+     *
+     * @param table Where the table starts
+     * @param size How many entries it has
+     * @param key The room or outcome to look for
+     * @param postings Where its postings start
+     * @return The record numbers, empty if the key isn't there
+     */
+    private int[] find(int table, int size, int key, int postings) {
+        int low = 0;
+        int high = size - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int found = index.getInt(table + 8 * mid);
+
+            if (found < key) {
+                low = mid + 1;
+            } else if (found > key) {
+                high = mid - 1;
+            } else {
+                int start = (mid == 0) ? 0 : index.getInt(table + 8 * (mid-1) + 4);
+                int end = index.getInt(table + 8 * mid + 4);
+                int[] numbers = new int[end - start];
+
+                for (int i = 0; i < numbers.length; i++) {
+                    numbers[i] = index.getInt(postings + 4 * (start + i));
+                }
+
+                return numbers;
+            }
+        }
+
+        return new int[0];
+    }
+
+    /**
+     * Works out how many outcome postings there are from the outcome table
+     *
+     * @return The number of ENDED records
+     */
+    private int outcomePostings() {
+        return (outcomes == 0) ? 0 : index.getInt(HEADER_SIZE + 8 * rooms + 8 * (outcomes-1) + 4);
+    }
+}
@@ -0,0 +1,673 @@
+package huntthewumpus;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps every move, shot, death and game result from every session, forever,
+ * in a directory of append-only segment files. Where ReplayLog keeps enough to
+ * play one game again, this keeps what happened in a fixed size record that can
+ * be counted up without playing anything, by HistoryStats or a HistoryReader.
+ *
+ * Records are copied into a buffer under a lock, and the buffer is written out
+ * when it fills. A background thread writes out whatever is buffered and syncs
+ * it to disk every syncMillis, so one fsync covers every event since the last
+ * one however many sessions sent them. Anything not synced yet is lost if the
+ * machine goes down, and sync() is there for when that matters.
+ *
+ * Once a segment reaches segmentBytes it's sealed and a new one started. The
+ * background thread syncs the sealed segment and writes an index next to it
+ * (see HistoryIndex), so queries on a room or an outcome don't read the whole
+ * thing. The newest segment has no index until it's sealed.
+ *
+ * Each segment is stamped with the cave its games started in. A game starting
+ * in any other cave, because a server reloaded its rooms file or the log was
+ * opened for a different one, seals the segment and starts a new one stamped
+ * with the new cave, so every STARTED record is in a segment of its own cave.
+ * Games already going when that happens carry on in whatever segment is being
+ * appended to, so a record belongs to the cave its game's STARTED record is in.
+ *
+ *      segment-NNNNNNNN.log
+ *          header (HEADER_SIZE bytes)
+ *              int   magic         "WHST"
+ *              int   version       VERSION
+ *              long  fingerprint   Cave.getFingerprint() of the cave the games started in
+ *          record (RECORD_SIZE bytes) repeated
+ *              long  game          which game, numbered from 1 across the whole log
+ *              int   room          where it happened
+ *              byte  kind          STARTED, MOVED, CARRIED, SHOT, DIED or ENDED
+ *              byte  danger        ordinal of the danger involved
+ *              short extra         STARTED: GameEngine.getWarnings(1) in room 1, or
+ *                                      RESUMED for a game picked up from a snapshot
+ *                                  SHOT: arrows left afterwards
+ *                                  ENDED: ReplayLog.outcomeOf() code
+ *
+ * Everything is little endian. A record is never split across a page, so a
+ * crash can only lose whole records off the end, and a torn tail is cut off
+ * when the log is opened again.
+ *
+ * @author Ivan Samuelson
+ */
+public final class HistoryLog implements Closeable {
+    static final int MAGIC = 0x54534857;    // "WHST" when read as little endian bytes.
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 16;
+
+    // Record kinds. 0 is never written, so zeroed space reads as the end of the log.
+    public static final int STARTED = 1;
+    public static final int MOVED = 2;
+    public static final int CARRIED = 3;
+    public static final int SHOT = 4;
+    public static final int DIED = 5;
+    public static final int ENDED = 6;
+
+    // Set in a STARTED record's extra for a game picked up from a snapshot partway through.
+    public static final int RESUMED = 0x4000;
+
+    public static final int DEFAULT_SEGMENT_BYTES = 64 << 20;
+    public static final long DEFAULT_SYNC_MILLIS = 50;
+
+    private static final int BUFFER_BYTES = 64 << 10;
+
+    private final File dir;                 // Where the segments are.
+    private final long segmentBytes;        // How big a segment gets before it's sealed.
+    private final long syncMillis;          // How often buffered records are synced.
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private final ArrayDeque<Sealed> sealed = new ArrayDeque<>();  // Segments waiting to be synced and indexed.
+    private final Thread syncer;            // Syncs and indexes in the background.
+    private final Object syncLock = new Object();   // Keeps syncs in order, so synced never skips a segment.
+    private FileChannel channel;            // The segment being appended to.
+    private int segment;                    // Its number.
+    private long segmentSize;               // Its size, counting what's still in the buffer.
+    private long fingerprint;               // The cave it's stamped with.
+    private long nextGame;                  // The number the next game gets.
+    private long appended;                  // Records appended so far.
+    private long written;                   // Records handed to the operating system so far.
+    private volatile long synced;           // Records known to be on disk.
+    private volatile long syncs;            // How many times the log has been synced.
+    private volatile IOException failure;   // The first thing that went wrong writing in the background.
+    private boolean closed;
+
+    /**
+     * Opens a log with the default segment size and sync interval.
+     *
+     * @param dirName The directory, created if it doesn't exist
+     * @param cave The cave the games are in
+     * @throws IOException If the log can't be opened
+     */
+    public HistoryLog(String dirName, Cave cave) throws IOException {
+        this(dirName, cave, DEFAULT_SEGMENT_BYTES, DEFAULT_SYNC_MILLIS);
+    }
+
+    /**
+     * Opens a log for appending, creating it if it doesn't exist yet. New records
+     * go on the end of the newest segment, once any torn record at its end has
+     * been cut off, and any older segment that never got its index gets one now.
+     * If the newest segment is for a different cave, a new one is started.
+     *
+     * @param dirName The directory, created if it doesn't exist
+     * @param cave The cave the games are in
+     * @param segmentBytes How big a segment gets before a new one is started
+     * @param syncMillis How often buffered records are synced to disk, in milliseconds
+     * @throws IOException If the log can't be opened
+     */
+    public HistoryLog(String dirName, Cave cave, long segmentBytes, long syncMillis) throws IOException {
+        this.dir = new File(dirName);
+        this.fingerprint = cave.getFingerprint();
+        this.segmentBytes = Math.max(segmentBytes, HEADER_SIZE + BUFFER_BYTES);
+        this.syncMillis = Math.max(1, syncMillis);
+
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can't create history directory " + dirName);
+        }
+
+        int[] segments = segments(dir);
+        long lastGame = 0;
+
+        for (int i = 0; i < segments.length - 1; i++) {
+            File index = indexFile(dir, segments[i]);
+
+            if (!index.exists()) {
+                HistoryIndex.build(segmentFile(dir, segments[i]), index);
+            }
+
+            lastGame = Math.max(lastGame, HistoryIndex.open(index).getMaxGame());
+        }
+
+        segment = (segments.length == 0) ? 0 : segments[segments.length-1];
+        channel = openSegment(segment);
+
+        try {
+            lastGame = Math.max(lastGame, recover());
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        // The syncer isn't running yet, but it picks up anything sealed here once it is.
+        synchronized (this) {
+            switchCave(cave.getFingerprint());
+        }
+
+        if (failure != null) {
+            channel.close();
+            throw failure;
+        }
+
+        nextGame = lastGame + 1;
+        syncer = new Thread(this::syncLoop, "history-sync");
+        syncer.setDaemon(true);
+        syncer.start();
+    }
+
+    /**
+     * Lists the segment numbers in a log directory, oldest first.
+     *
+     * @param dir The directory
+     * @return The segment numbers
+     */
+    static int[] segments(File dir) {
+        String[] names = dir.list();
+        int[] numbers = new int[(names == null) ? 0 : names.length];
+        int count = 0;
+
+        for (int i = 0; i < numbers.length; i++) {
+            if (names[i].startsWith("segment-") && names[i].endsWith(".log")) {
+                try {
+                    numbers[count++] = Integer.parseInt(names[i].substring(8, names[i].length() - 4));
+                } catch (NumberFormatException e) {
+                    // Not one of ours.
+                }
+            }
+        }
+
+        int[] found = Arrays.copyOf(numbers, count);
+
+        Arrays.sort(found);
+        return found;
+    }
+
+    /**
+     * Gets the file for a segment
+     *
+     * @param dir The log directory
+     * @param segment The segment number
+     * @return The segment file
+     */
+    static File segmentFile(File dir, int segment) {
+        return new File(dir, String.format("segment-%08d.log", segment));
+    }
+
+    /**
+     * Gets the index file for a segment
+     *
+     * @param dir The log directory
+     * @param segment The segment number
+     * @return The index file
+     */
+    static File indexFile(File dir, int segment) {
+        return new File(dir, String.format("segment-%08d.idx", segment));
+    }
+
+    /**
+     * Checks a segment's header.
+     *
+     * @param header The first HEADER_SIZE bytes of the segment, little endian
+     * @param file The segment, for the error message
+     * @throws IOException If it isn't a segment
+     */
+    static void checkHeader(ByteBuffer header, File file) throws IOException {
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException(file + " is not a history segment");
+        }
+    }
+
+    /**
+     * Starts recording a new game.
+     *
+     * @param engine The game, before its first command
+     * @return The game's number, to record its events under
+     */
+    public long startGame(GameEngine engine) {
+        return startGame(engine.getCave(), 1, engine.getWarnings(1));
+    }
+
+    /**
+     * Starts recording a game picked up partway through from a snapshot. It gets
+     * a new number, and its STARTED record is marked RESUMED and put in the
+     * room the player is in, since what it looked like at the start isn't known.
+     *
+     * @param engine The game
+     * @return The game's number, to record its events under
+     */
+    public long resumeGame(GameEngine engine) {
+        return startGame(engine.getCave(), engine.getPlayerRoom(), RESUMED);
+    }
+
+    /**
+     * Appends a STARTED record under a new game number, in a segment of the
+     * game's cave.
+     *
+     * @param cave The cave the game is in
+     * @param room Where the player is
+     * @param extra What goes in the record's extra field
+     * @return The game's number
+     */
+    private synchronized long startGame(Cave cave, int room, int extra) {
+        long game = nextGame++;
+
+        switchCave(cave.getFingerprint());
+        put(game, room, STARTED, Room.Danger.NONE, extra);
+        return game;
+    }
+
+    /**
+     * Makes sure the segment being appended to is stamped with a cave. One with
+     * records for another cave in it is sealed and a new one started, and an
+     * empty one just gets its header written again. Call with the lock held.
+     *
+     * @param cave Cave.getFingerprint() of the cave
+     */
+    private void switchCave(long cave) {
+        if (cave == fingerprint || closed) {
+            return;
+        }
+
+        fingerprint = cave;
+
+        if (segmentSize > HEADER_SIZE) {
+            seal();
+            return;
+        }
+
+        try {
+            writeHeader(channel);
+        } catch (IOException e) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+    }
+
+    /**
+     * Records what a command did. Warnings and commands that did nothing aren't
+     * kept, just where the player went, where arrows went and what killed them.
+     *
+     * @param game The game's number
+     * @param engine The game, after the command
+     * @param events What the command returned
+     */
+    public synchronized void record(long game, GameEngine engine, List<GameEvent> events) {
+        for (int i = 0; i < events.size(); i++) {
+            GameEvent event = events.get(i);
+
+            switch (event.getType()) {
+                case MOVED:
+                    put(game, event.getRoom(), MOVED, event.getDanger(), 0);
+                    break;
+                case CARRIED:
+                    put(game, event.getRoom(), CARRIED, Room.Danger.NONE, 0);
+                    break;
+                case DIED:
+                    put(game, event.getRoom(), DIED, event.getDanger(), 0);
+                    break;
+                case ARROW_HIT:
+                case ARROW_MISSED:
+                    put(game, event.getRoom(), SHOT, event.getDanger(), engine.getArrowsLeft());
+                    break;
+                default:
+                    // Warnings and the like can be worked out again from where everything was.
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Records how a game ended, or that it was given up on if it hadn't. Every
+     * game should end this way so nothing is left waiting on it.
+     *
+     * @param game The game's number
+     * @param engine The game
+     */
+    public synchronized void endGame(long game, GameEngine engine) {
+        put(game, engine.getPlayerRoom(), ENDED, engine.getKilledBy(), ReplayLog.outcomeOf(engine));
+    }
+
+    /**
+     * Gets how many records have been appended since the log was opened
+     *
+     * @return The number of records
+     */
+    public synchronized long getAppended() {
+        return appended;
+    }
+
+    /**
+     * Gets how many of the appended records are known to be on disk
+     *
+     * @return The number of records
+     */
+    public long getSynced() {
+        return synced;
+    }
+
+    /**
+     * Gets how many times the log has been synced to disk
+     *
+     * @return The number of syncs
+     */
+    public long getSyncs() {
+        return syncs;
+    }
+
+    /**
+     * Writes out and syncs everything appended so far, without waiting for the
+     * background thread to get to it.
+     *
+     * @throws IOException If the log can't be written
+     */
+    public void sync() throws IOException {
+        syncOnce();
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Syncs everything and closes the log. The newest segment is left unsealed
+     * for the next time the log is opened to carry on with.
+     *
+     * @throws IOException If the log can't be written
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+            notifyAll();
+        }
+
+        try {
+            syncer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            syncOnce();
+        } finally {
+            channel.close();
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Copies one record into the buffer, writing the buffer out first if it's
+     * full and starting a new segment if this one is. Call with the lock held.
+     *
+     * @param game The game's number
+     * @param room Where it happened
+     * @param kind What happened
+     * @param danger The danger involved
+     * @param extra Anything else, depending on the kind
+     */
+    private void put(long game, int room, int kind, Room.Danger danger, int extra) {
+        if (closed) {
+            return;     // Stragglers after close are dropped rather than left half written.
+        }
+
+        if (segmentSize + RECORD_SIZE > segmentBytes) {
+            seal();
+        }
+
+        if (buffer.remaining() < RECORD_SIZE) {
+            writeBuffer();
+        }
+
+        buffer.putLong(game).putInt(room).put((byte) kind).put((byte) danger.ordinal()).putShort((short) extra);
+        segmentSize += RECORD_SIZE;
+        appended++;
+    }
+
+    /**
+     * Hands the buffer to the operating system. Call with the lock held.
+     *
+     */
+    private void writeBuffer() {
+        buffer.flip();
+
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            // Nobody to tell from here, so keep it for the next sync() or close().
+            if (failure == null) {
+                failure = e;
+            }
+        }
+
+        buffer.clear();
+        written = appended;
+    }
+
+    /**
+     * Seals the segment being appended to and starts the next one. The sealed
+     * one is synced, closed and indexed in the background. Call with the lock held.
+     *
+     */
+    private void seal() {
+        writeBuffer();
+        sealed.add(new Sealed(segment, channel, written));
+
+        try {
+            channel = openSegment(++segment);
+        } catch (IOException e) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Opens a segment, writing its header if it's new, and sets segmentSize.
+     * An existing segment sets fingerprint to the cave it's stamped with.
+     *
+     * @param number The segment number
+     * @return The segment, positioned at its end
+     * @throws IOException If the segment can't be opened or isn't a segment
+     */
+    private FileChannel openSegment(int number) throws IOException {
+        File file = segmentFile(dir, number);
+        FileChannel opened = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+            if (opened.size() >= HEADER_SIZE) {
+                opened.read(header, 0);
+                checkHeader(header, file);
+                fingerprint = header.getLong(8);
+            } else {
+                opened.truncate(0);
+                writeHeader(opened);
+            }
+
+            segmentSize = Math.max(opened.size(), HEADER_SIZE);
+            opened.position(segmentSize);
+            return opened;
+        } catch (IOException e) {
+            opened.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes a segment's header, stamped with the current cave.
+     *
+     * @param segment The segment
+     * @throws IOException If it can't be written
+     */
+    private void writeHeader(FileChannel segment) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        header.putInt(MAGIC).putInt(VERSION).putLong(fingerprint);
+        header.flip();
+
+        while (header.hasRemaining()) {
+            segment.write(header, header.position());
+        }
+    }
+
+    /**
+     * Cuts a torn or zeroed tail off the segment just opened and finds the
+     * highest game number in it.
+     *
+     * @return The highest game number in the segment, 0 if it's empty
+     * @throws IOException If the segment can't be read
+     */
+    private long recover() throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        long end = HEADER_SIZE + (segmentSize - HEADER_SIZE) / RECORD_SIZE * RECORD_SIZE;
+        long good = HEADER_SIZE;
+        long lastGame = 0;
+
+        for (long pos = HEADER_SIZE; pos < end && good == pos; ) {
+            chunk.clear();
+            chunk.limit((int) Math.min(BUFFER_BYTES, end - pos));
+
+            while (chunk.hasRemaining() && channel.read(chunk, pos + chunk.position()) > 0) {
+                // Keep reading until the chunk is full.
+            }
+
+            for (int i = 0; i + RECORD_SIZE <= chunk.position() && chunk.get(i + 12) != 0; i += RECORD_SIZE) {
+                lastGame = Math.max(lastGame, chunk.getLong(i));
+                good += RECORD_SIZE;
+            }
+
+            pos += chunk.position();
+        }
+
+        if (good != segmentSize) {
+            channel.truncate(good);
+            segmentSize = good;
+            channel.position(good);
+        }
+
+        return lastGame;
+    }
+
+    /**
+     * Runs on the background thread, syncing every syncMillis and dealing with
+     * sealed segments as they come along, until the log is closed.
+     *
+     */
+    private void syncLoop() {
+        while (true) {
+            synchronized (this) {
+                if (!closed && sealed.isEmpty()) {
+                    try {
+                        wait(syncMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+
+                if (closed) {
+                    break;
+                }
+            }
+
+            syncOnce();
+        }
+
+        // Whatever was sealed last still wants its index.
+        syncOnce();
+    }
+
+    /**
+     * Writes out the buffer and syncs the segment, then syncs, closes and
+     * indexes any sealed segments. The fsyncs happen outside the lock so
+     * appending carries on meanwhile.
+     *
+     */
+    private void syncOnce() {
+        synchronized (syncLock) {
+            FileChannel current;
+            long upTo;
+            Sealed done;
+
+            synchronized (this) {
+                if (buffer.position() > 0) {
+                    writeBuffer();
+                }
+
+                current = channel;
+                upTo = written;
+            }
+
+            try {
+                // Sealed segments go first, so synced never counts past a gap.
+                while ((done = nextSealed()) != null) {
+                    done.channel.force(false);
+                    done.channel.close();
+                    synced = Math.max(synced, done.written);
+                    HistoryIndex.build(segmentFile(dir, done.segment), indexFile(dir, done.segment));
+                }
+
+                current.force(false);
+                synced = Math.max(synced, upTo);
+                syncs++;
+            } catch (IOException e) {
+                // A closed channel just means the log was closed under us, and
+                // close() syncs it.
+                if (current.isOpen() && failure == null) {
+                    failure = e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the next sealed segment off the queue
+     *
+     * @return The segment, or null if there isn't one
+     */
+    private synchronized Sealed nextSealed() {
+        return sealed.poll();
+    }
+
+    /**
+     * A segment that's full and waiting to be synced and indexed.
+     *
+     */
+    private static final class Sealed {
+        final int segment;              // Its number.
+        final FileChannel channel;      // Still open, so it can be synced.
+        final long written;             // Records written once it's synced.
+
+        Sealed(int segment, FileChannel channel, long written) {
+            this.segment = segment;
+            this.channel = channel;
+            this.written = written;
+        }
+    }
+}
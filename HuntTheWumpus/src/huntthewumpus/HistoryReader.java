@@ -0,0 +1,227 @@
+package huntthewumpus;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads a HistoryLog directory, which can still be being written to by a
+ * server at the same time. Segments are mapped, so reading is just walking
+ * through memory.
+ *
+ * scan() reads everything after a position and hands back where it got to, so
+ * something like HistoryStats can keep coming back for just what's new. The
+ * room and outcome queries use each sealed segment's index, and only read the
+ * newest segment from end to end.
+ *
+ * Positions are a segment number in the top 32 bits and a record number in
+ * the bottom 32, so 0 is the start of the log.
+ *
+ * A log can hold games from more than one cave, so every record comes with the
+ * cave its segment is stamped with. That's the cave of every game started in the
+ * segment. A game still going when a newer cave came in can have its later
+ * records in a segment of the newer cave, so anything that needs to be exact
+ * should go by the cave its STARTED record came with, like HistoryStats does.
+ *
+ * @author Ivan Samuelson
+ */
+public final class HistoryReader {
+    /**
+     * Gets handed records, one at a time, in the order they were appended.
+     *
+     */
+    public interface Visitor {
+        /**
+         * Looks at one record.
+         *
+         * @param cave Cave.getFingerprint() of the cave the record's segment is stamped with
+         * @param game The game's number
+         * @param room Where it happened
+         * @param kind HistoryLog.STARTED, MOVED, CARRIED, SHOT, DIED or ENDED
+         * @param danger The danger involved
+         * @param extra Anything else, depending on the kind (see HistoryLog)
+         */
+        void visit(long cave, long game, int room, int kind, Room.Danger danger, int extra);
+    }
+
+    private final File dir;             // Where the segments are.
+    private final Map<Integer, ByteBuffer> sealed = new HashMap<>();       // Mapped sealed segments.
+    private final Map<Integer, HistoryIndex> indexes = new HashMap<>();    // Their indexes.
+
+    /**
+     * Creates a reader for a log directory.
+     *
+     * @param dirName The directory
+     * @throws IOException If it isn't there
+     */
+    public HistoryReader(String dirName) throws IOException {
+        this.dir = new File(dirName);
+
+        if (!dir.isDirectory()) {
+            throw new IOException("No history in " + dirName);
+        }
+    }
+
+    /**
+     * Reads every record after a position.
+     *
+     * @param position Where to start, 0 for the start of the log
+     * @param visitor What gets each record
+     * @return Where it got to, to start from next time
+     * @throws IOException If a segment can't be read
+     */
+    public long scan(long position, Visitor visitor) throws IOException {
+        int[] segments = HistoryLog.segments(dir);
+        int segment = (int) (position >>> 32);
+        int record = (int) position;
+
+        for (int i = 0; i < segments.length; i++) {
+            if (segments[i] < segment) {
+                continue;
+            }
+
+            if (segments[i] > segment) {
+                segment = segments[i];
+                record = 0;
+            }
+
+            ByteBuffer log = segment(segment, i == segments.length - 1);
+            int records = HistoryIndex.countRecords(log);
+
+            for (; record < records; record++) {
+                visit(log, record, visitor);
+            }
+        }
+
+        return ((long) segment << 32) | record;
+    }
+
+    /**
+     * Reads every record that happened in a room.
+     *
+     * @param room The room number
+     * @param visitor What gets each record
+     * @throws IOException If a segment can't be read
+     */
+    public void forRoom(int room, Visitor visitor) throws IOException {
+        query(room, -1, visitor);
+    }
+
+    /**
+     * Reads every ENDED record with an outcome.
+     *
+     * @param outcome The ReplayLog.outcomeOf() code
+     * @param visitor What gets each record
+     * @throws IOException If a segment can't be read
+     */
+    public void forOutcome(int outcome, Visitor visitor) throws IOException {
+        query(0, outcome, visitor);
+    }
+
+    /**
+     * Finds records by room or outcome, through the index where there is one.
+     *
+     * @param room The room number, if outcome is -1
+     * @param outcome The outcome code, or -1 to look for a room instead
+     * @param visitor What gets each record
+     * @throws IOException If a segment can't be read
+     */
+    private void query(int room, int outcome, Visitor visitor) throws IOException {
+        int[] segments = HistoryLog.segments(dir);
+
+        for (int i = 0; i < segments.length; i++) {
+            boolean newest = (i == segments.length - 1);
+            ByteBuffer log = segment(segments[i], newest);
+            HistoryIndex index = newest ? null : index(segments[i]);
+
+            if (index != null) {
+                for (int record : (outcome < 0) ? index.inRoom(room) : index.withOutcome(outcome)) {
+                    visit(log, record, visitor);
+                }
+            } else {
+                // No index yet, so look at every record.
+                int records = HistoryIndex.countRecords(log);
+
+                for (int record = 0; record < records; record++) {
+                    int pos = HistoryLog.HEADER_SIZE + record * HistoryLog.RECORD_SIZE;
+                    boolean match = (outcome < 0) ? log.getInt(pos + 8) == room
+                            : log.get(pos + 12) == HistoryLog.ENDED && (log.getShort(pos + 14) & 0xFF) == outcome;
+
+                    if (match) {
+                        visit(log, record, visitor);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands one record to a visitor.
+     *
+     * @param log The segment
+     * @param record The record number
+     * @param visitor What gets the record
+     */
+    private static void visit(ByteBuffer log, int record, Visitor visitor) {
+        int pos = HistoryLog.HEADER_SIZE + record * HistoryLog.RECORD_SIZE;
+        int danger = log.get(pos + 13);
+
+        visitor.visit(log.getLong(8), log.getLong(pos), log.getInt(pos + 8), log.get(pos + 12),
+                (danger >= 0 && danger < Room.DANGERS.length) ? Room.DANGERS[danger] : Room.Danger.NONE,
+                log.getShort(pos + 14));
+    }
+
+    /**
+     * Maps a segment. Sealed segments never change so they're kept, but the
+     * newest one is mapped again each time to pick up what's been added.
+     *
+     * @param segment The segment number
+     * @param newest True if it's the newest one, still being written
+     * @return The segment, little endian
+     * @throws IOException If it can't be read
+     */
+    private ByteBuffer segment(int segment, boolean newest) throws IOException {
+        ByteBuffer log = sealed.get(segment);
+
+        if (log == null) {
+            File file = HistoryLog.segmentFile(dir, segment);
+
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                log = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                log.order(ByteOrder.LITTLE_ENDIAN);
+            }
+
+            HistoryLog.checkHeader(log, file);
+
+            if (!newest) {
+                sealed.put(segment, log);
+            }
+        }
+
+        return log;
+    }
+
+    /**
+     * Gets a sealed segment's index, if it has one yet.
+     *
+     * @param segment The segment number
+     * @return The index, or null if it hasn't been written yet
+     * @throws IOException If it can't be read
+     */
+    private HistoryIndex index(int segment) throws IOException {
+        HistoryIndex index = indexes.get(segment);
+        File file = HistoryLog.indexFile(dir, segment);
+
+        if (index == null && file.exists()) {
+            index = HistoryIndex.open(file);
+            indexes.put(segment, index);
+        }
+
+        return index;
+    }
+}
@@ -0,0 +1,427 @@
+package huntthewumpus;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counts up a HistoryLog as it grows: how often each room kills the players who
+ * walk into it and with what, and how games go when the Wumpus starts out next
+ * to room 1. Each update() reads only what's been added since the last one, so
+ * it can be run every second against a live server's log for the cost of the
+ * new records.
+ *
+ * Room 5 of one cave has nothing to do with room 5 of the next, so the per room
+ * counts are kept separately for each cave in the log. Every record is counted
+ * in the cave its game started in, which comes from the game's STARTED record,
+ * so games that were still going when a server reloaded its cave don't leak
+ * into the new one.
+ *
+ * Per room counts live in arrays indexed by room number, grown to fit the
+ * biggest room seen, so a record costs a map lookup and an array increment or
+ * two. The only things kept per game are its cave and the warnings it started
+ * with, and only until it ends.
+ *
+ * @author Ivan Samuelson
+ */
+public final class HistoryStats implements HistoryReader.Visitor {
+    private static final int WUMPUS_NEARBY = 1 << Room.Danger.WUMPUS.ordinal();
+
+    private long position = 0;          // Where the next update() reads from.
+    private long records = 0;           // Records counted so far.
+    private final Map<Long, Rooms> caves = new LinkedHashMap<>();   // Per room counts for each cave, in the order they turned up.
+    private final Map<Long, Rooms> playing = new HashMap<>();       // The cave of each game that hasn't ended.
+    private final Map<Long, Integer> starts = new HashMap<>();  // Warnings at the start of games that haven't ended.
+    private long games = 0;             // Games started from the beginning.
+    private long wins = 0;              // How many of those were won.
+    private long nearGames = 0;         // Games started with the Wumpus next to room 1.
+    private long nearWins = 0;          // How many of those were won.
+    private final long[] outcomes = new long[256];  // Ended games by ReplayLog.outcomeOf() code, resumed ones too.
+
+    /**
+     * Reads and counts whatever has been added to the log since last time.
+     *
+     * @param reader The log
+     * @return How many records were read
+     * @throws IOException If the log can't be read
+     */
+    public long update(HistoryReader reader) throws IOException {
+        long before = records;
+
+        position = reader.scan(position, this);
+        return records - before;
+    }
+
+    @Override
+    public void visit(long cave, long game, int room, int kind, Room.Danger danger, int extra) {
+        records++;
+
+        switch (kind) {
+            case HistoryLog.STARTED:
+                playing.put(game, rooms(cave));
+
+                if ((extra & HistoryLog.RESUMED) == 0) {
+                    starts.put(game, extra);
+                }
+
+                break;
+            case HistoryLog.MOVED:
+            case HistoryLog.CARRIED:
+                roomsOf(game, cave).count(room, -1);
+                break;
+            case HistoryLog.DIED:
+                // Walking into a danger is just a DIED record, no MOVED, so the
+                // visits to a room are its entries plus its deaths.
+                roomsOf(game, cave).count(room, danger.ordinal());
+                break;
+            case HistoryLog.ENDED:
+                outcomes[extra & 0xFF]++;
+                playing.remove(game);
+
+                Integer warnings = starts.remove(game);
+
+                // Games given up on partway don't count towards how games go.
+                if (warnings != null && extra != ReplayLog.UNFINISHED) {
+                    boolean won = (extra == ReplayLog.WON);
+
+                    games++;
+                    wins += won ? 1 : 0;
+
+                    if ((warnings & WUMPUS_NEARBY) != 0) {
+                        nearGames++;
+                        nearWins += won ? 1 : 0;
+                    }
+                }
+
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Gets the counts for a cave, starting them if it's new.
+     *
+     * @param cave Cave.getFingerprint() of the cave
+     * @return Its per room counts
+     */
+    private Rooms rooms(long cave) {
+        return caves.computeIfAbsent(cave, key -> new Rooms());
+    }
+
+    /**
+     * Gets the counts for the cave a game started in.
+     *
+     * @param game The game's number
+     * @param cave The cave of the segment the record is in, for a game whose
+     *             STARTED record hasn't been seen
+     * @return Its cave's per room counts
+     */
+    private Rooms roomsOf(long game, long cave) {
+        Rooms rooms = playing.get(game);
+
+        return (rooms != null) ? rooms : rooms(cave);
+    }
+
+    /**
+     * Gets how many records have been counted
+     *
+     * @return The number of records
+     */
+    public long getRecords() {
+        return records;
+    }
+
+    /**
+     * Gets the caves games have been played in
+     *
+     * @return Cave.getFingerprint() of each cave, in the order they turned up in the log
+     */
+    public long[] getCaves() {
+        long[] fingerprints = new long[caves.size()];
+        int i = 0;
+
+        for (long cave : caves.keySet()) {
+            fingerprints[i++] = cave;
+        }
+
+        return fingerprints;
+    }
+
+    /**
+     * Gets how many times players walked, or were carried, into a room and lived
+     *
+     * @param cave Cave.getFingerprint() of the cave
+     * @param room The room number
+     * @return The number of entries
+     */
+    public long getEntries(long cave, int room) {
+        Rooms rooms = caves.get(cave);
+
+        return (rooms == null) ? 0 : rooms.getEntries(room);
+    }
+
+    /**
+     * Gets how many players died in a room to one kind of danger
+     *
+     * @param cave Cave.getFingerprint() of the cave
+     * @param room The room number
+     * @param danger The danger
+     * @return The number of deaths
+     */
+    public long getDeaths(long cave, int room, Room.Danger danger) {
+        Rooms rooms = caves.get(cave);
+
+        return (rooms == null) ? 0 : rooms.getDeaths(room, danger);
+    }
+
+    /**
+     * Gets how many players died in a room to anything
+     *
+     * @param cave Cave.getFingerprint() of the cave
+     * @param room The room number
+     * @return The number of deaths
+     */
+    public long getDeaths(long cave, int room) {
+        Rooms rooms = caves.get(cave);
+
+        return (rooms == null) ? 0 : rooms.getDeaths(room);
+    }
+
+    /**
+     * Gets the chance that ending up in a room killed the player, to one kind
+     * of danger. Players who lived and players who died both count as ending up there.
+     *
+     * @param cave Cave.getFingerprint() of the cave
+     * @param room The room number
+     * @param danger The danger
+     * @return The death rate, from 0 to 1, or 0 if nobody has been there
+     */
+    public double getDeathRate(long cave, int room, Room.Danger danger) {
+        Rooms rooms = caves.get(cave);
+
+        return (rooms == null) ? 0 : rooms.getDeathRate(room, danger);
+    }
+
+    /**
+     * Gets how many games were played from the start to a finish
+     *
+     * @return The number of games
+     */
+    public long getGames() {
+        return games;
+    }
+
+    /**
+     * Gets how many of those games were won
+     *
+     * @return The number of wins
+     */
+    public long getWins() {
+        return wins;
+    }
+
+    /**
+     * Gets how many games started with the Wumpus next to room 1
+     *
+     * @return The number of games
+     */
+    public long getWumpusNearStartGames() {
+        return nearGames;
+    }
+
+    /**
+     * Gets how many games that started with the Wumpus next to room 1 were won
+     *
+     * @return The number of wins
+     */
+    public long getWumpusNearStartWins() {
+        return nearWins;
+    }
+
+    /**
+     * Gets how many games ended one way, resumed games included
+     *
+     * @param outcome The ReplayLog.outcomeOf() code
+     * @return The number of games
+     */
+    public long getOutcomes(int outcome) {
+        return outcomes[outcome & 0xFF];
+    }
+
+    /**
+     * Writes up the stats: how games went, how the Wumpus starting next door
+     * changes that, and the deadliest rooms of each cave.
+     *
+     * @param top How many rooms to list for each cave
+     * @return The report
+     */
+    public String report(int top) {
+        StringBuilder text = new StringBuilder(1024);
+        long others = games - nearGames;
+
+        text.append(String.format("%,d records, %,d games played from the start, %.2f%% won\n",
+                records, games, percent(wins, games)));
+        text.append(String.format("Wumpus next to room 1: %,d games (%.2f%%), %.2f%% won; otherwise %.2f%% won\n",
+                nearGames, percent(nearGames, games), percent(nearWins, nearGames), percent(wins - nearWins, others)));
+
+        for (Map.Entry<Long, Rooms> cave : caves.entrySet()) {
+            // Only worth saying which cave once there's more than one.
+            if (caves.size() > 1) {
+                text.append(String.format("Cave %016x:\n", cave.getKey()));
+            }
+
+            cave.getValue().report(text, top);
+        }
+
+        return text.toString();
+    }
+
+    /**
+     * Works out a percentage, without dividing by zero
+     *
+     * @param part The part
+     * @param whole The whole
+     * @return The percentage, 0 if the whole is 0
+     */
+    private static double percent(long part, long whole) {
+        return (whole == 0) ? 0 : part * 100.0 / whole;
+    }
+
+    /**
+     * The per room counts for one cave.
+     *
+     */
+    private static final class Rooms {
+        private long[] entries = new long[0];   // How many times each room was walked or carried into.
+        private final long[][] deaths = new long[Room.DANGERS.length][0];   // Deaths in each room, by danger ordinal.
+
+        /**
+         * Counts a room being walked into, and a death there if there was one.
+         *
+         * @param room The room number
+         * @param danger The ordinal of what killed the player, or -1 if nothing did
+         */
+        void count(int room, int danger) {
+            if (room < 0) {
+                return;
+            }
+
+            if (room >= entries.length) {
+                int size = Math.max(room + 1, entries.length * 2);
+
+                entries = Arrays.copyOf(entries, size);
+
+                for (int i = 0; i < deaths.length; i++) {
+                    deaths[i] = Arrays.copyOf(deaths[i], size);
+                }
+            }
+
+            if (danger < 0) {
+                entries[room]++;
+            } else {
+                deaths[danger][room]++;
+            }
+        }
+
+        /**
+         * Gets how many times players walked, or were carried, into a room and lived
+         *
+         * @param room The room number
+         * @return The number of entries
+         */
+        long getEntries(int room) {
+            return (room >= 0 && room < entries.length) ? entries[room] : 0;
+        }
+
+        /**
+         * Gets how many players died in a room to one kind of danger
+         *
+         * @param room The room number
+         * @param danger The danger
+         * @return The number of deaths
+         */
+        long getDeaths(int room, Room.Danger danger) {
+            long[] counts = deaths[danger.ordinal()];
+
+            return (room >= 0 && room < counts.length) ? counts[room] : 0;
+        }
+
+        /**
+         * Gets how many players died in a room to anything
+         *
+         * @param room The room number
+         * @return The number of deaths
+         */
+        long getDeaths(int room) {
+            long total = 0;
+
+            for (Room.Danger danger : Room.DANGERS) {
+                total += getDeaths(room, danger);
+            }
+
+            return total;
+        }
+
+        /**
+         * Gets the chance that ending up in a room killed the player, to one kind of danger
+         *
+         * @param room The room number
+         * @param danger The danger
+         * @return The death rate, from 0 to 1, or 0 if nobody has been there
+         */
+        double getDeathRate(int room, Room.Danger danger) {
+            long visits = getEntries(room) + getDeaths(room);
+
+            return (visits == 0) ? 0 : (double) getDeaths(room, danger) / visits;
+        }
+
+        /**
+         * Gets the chance ending up in a room killed the player, to anything
+         *
+         * @param room The room number
+         * @return The death rate, from 0 to 1
+         */
+        double rate(int room) {
+            long visits = getEntries(room) + getDeaths(room);
+
+            return (visits == 0) ? 0 : (double) getDeaths(room) / visits;
+        }
+
+        /**
+         * Lists the rooms by how many players they killed out of how many ended up there.
+         *
+         * @param text Where to write them
+         * @param top How many rooms to list
+         */
+        void report(StringBuilder text, int top) {
+            Integer[] rooms = new Integer[entries.length];
+            int count = 0;
+
+            for (int room = 0; room < entries.length; room++) {
+                if (getDeaths(room) > 0) {
+                    rooms[count++] = room;
+                }
+            }
+
+            Arrays.sort(rooms, 0, count, (a, b) -> Double.compare(rate(b), rate(a)));
+
+            for (int i = 0; i < Math.min(top, count); i++) {
+                int room = rooms[i];
+
+                text.append(String.format("Room %d: %,d visits, %.2f%% died", room, getEntries(room) + getDeaths(room),
+                        rate(room) * 100));
+
+                for (Room.Danger danger : Room.DANGERS) {
+                    if (getDeaths(room, danger) > 0) {
+                        text.append(String.format(", %s %.2f%%", danger, getDeathRate(room, danger) * 100));
+                    }
+                }
+
+                text.append('\n');
+            }
+        }
+    }
+}
@@ -1,20 +1,720 @@
 package huntthewumpus;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * Plays a rendition of the classic 1976 game, Hunt the Wumpus.
  * 
  * @author Ivan Samuelson
  */
 public class HuntTheWumpus {
-
+    private static final int SNAPSHOT_SLOTS = 16384;        // Games a snapshot file can hold.
+    private static final int SNAPSHOT_SLOT_SIZE = 1024;     // Bytes for each game.
+    private static final long SNAPSHOT_INTERVAL = 5000;     // How often games are checkpointed, in milliseconds.
     
     /**
+     * Usage:
+     *
+     *      HuntTheWumpus [rooms-file] [-seed n] [-record log-file] [-quiet]
+     *                    [-rules wumpus,bats,spiders|classic] [-bats n] [-hints]
+     *                    [-history dir]
+     *                                      play the game (rooms.txt by default), optionally
+     *                                      with a set seed, recording it to a replay log,
+     *                                      without printing anything, with hazards that
+     *                                      move around, with some super bats, with hints
+     *                                      about how far away the Wumpus is or adding what
+     *                                      happens to a history log. Shoot a crooked
+     *                                      arrow by giving up to 5 rooms, like "2 3 4"
+     *      HuntTheWumpus load rooms-file   load a rooms file and report how fast it parsed
+     *      HuntTheWumpus validate rooms-file
+     *                                      check a rooms or cave file for tunnels to rooms
+     *                                      that don't exist, one way tunnels and rooms that
+     *                                      can't be reached, listing each problem's line
+     *      HuntTheWumpus compile rooms-file cave-file
+     *                                      compile a rooms file into a binary cave file
+     *      HuntTheWumpus generate shape out-file [-seed n] [-threads n] [-binary] [-plain]
+     *                                      write a generated cave as a rooms file, or a
+     *                                      compiled cave file with -binary. Shapes are
+     *                                      dodecahedron, torus:WxH, grid:WxH,
+     *                                      regular:rooms:degree and
+     *                                      smallworld:rooms:degree:shortcut-chance.
+     *                                      -plain leaves out the room descriptions
+     *      HuntTheWumpus serve rooms-file port [snapshot-file] [-history dir] [-watch] [-bind address]
+     *                                      host games for many players over TCP, optionally
+     *                                      checkpointing every game into a snapshot file
+     *                                      so players can pick up where they left off,
+     *                                      keeping every game's moves, shots and deaths in
+     *                                      a history log, and reloading the rooms file
+     *                                      whenever it changes. New games get the new cave
+     *                                      while games already going finish in the old one.
+     *                                      Only this machine can connect unless -bind gives
+     *                                      another address to listen on
+     *      HuntTheWumpus history dir [-top n] [-room n] [-follow seconds]
+     *                                      report from a history log: win rates, games where
+     *                                      the Wumpus started next to room 1 and the n
+     *                                      deadliest rooms (10 by default) of each cave it
+     *                                      was served, or what happened in one room.
+     *                                      -follow keeps reporting on a log that's still
+     *                                      being written
+     *      HuntTheWumpus metrics host port
+     *                                      print a running server's game counters and turn
+     *                                      latencies. Games played at the console or by a
+     *                                      server can also be watched over JMX
+     *      HuntTheWumpus loadgen host port clients seconds
+     *                                      simulate players against a server and report latency
+     *      HuntTheWumpus shard shape shards index port [-seed n]
+     *                                      host one shard of a generated cave too big for one
+     *                                      process. The rooms are split into runs, one per
+     *                                      shard, and this process plays the games of players
+     *                                      in run index, listening on port+index. A player who
+     *                                      walks into another shard's rooms is handed to it
+     *                                      over port+shards+index, which only listens on
+     *                                      loopback, so every shard runs on one machine
+     *      HuntTheWumpus shardbench shape shards clients seconds [-seed n] [-port n]
+     *                                      start every shard of a generated cave as its own
+     *                                      process, simulate players against them and report
+     *                                      how long moves take within a shard and across two,
+     *                                      and the commands/s of all the shards together
+     *      HuntTheWumpus replay rooms-file log-file
+     *                                      play back a replay log and check every game
+     *      HuntTheWumpus simulate rooms-file games [random|cautious|optimal] [rules]
+     *                                      play scripted games on 1, 2, 4... cores and report
+     *                                      win rates, game lengths and games/s, optionally
+     *                                      with moving hazards (and 2 bats with bats).
+     *                                      optimal solves the cave first and plays perfectly,
+     *                                      so it only works without rules
+     *      HuntTheWumpus solve rooms-file [-bats n] [-path n] [-threads n]
+     *                                      work out the exact chance of winning a cave with
+     *                                      perfect play, with arrows flying through up to
+     *                                      n rooms (5 by default, 1 for straight arrows only)
+     *
      * @param args the command line arguments
      */
     public static void main(String[] args) {
+        try {
+            run(args);
+        } catch (NumberFormatException e) {
+            // A port, count or seed that isn't a number, so nothing was started.
+            System.out.printf("You entered an invalid number: %s\n", e.getMessage());
+        }
+    }
+
+    /**
+     * Works out which command was asked for and runs it.
+     *
+     * @param args the command line arguments
+     * @throws NumberFormatException If an argument that should be a number isn't
+     */
+    private static void run(String[] args) {
+        if (args.length == 2 && args[0].equals("load")) {
+            load(args[1]);
+            return;
+        }
+
+        if (args.length == 2 && args[0].equals("validate")) {
+            validate(args[1]);
+            return;
+        }
+
+        if (args.length == 3 && args[0].equals("compile")) {
+            compile(args[1], args[2]);
+            return;
+        }
+
+        if (args.length >= 3 && args[0].equals("generate")) {
+            generate(args);
+            return;
+        }
+
+        if (args.length >= 3 && args[0].equals("serve")) {
+            String snapshotFile = null;
+            String historyDir = null;
+            String bindAddress = null;
+            boolean watch = false;
+
+            for (int arg = 3; arg < args.length; arg++) {
+                if (args[arg].equals("-history") && arg+1 < args.length) {
+                    historyDir = args[++arg];
+                } else if (args[arg].equals("-bind") && arg+1 < args.length) {
+                    bindAddress = args[++arg];
+                } else if (args[arg].equals("-watch")) {
+                    watch = true;
+                } else {
+                    snapshotFile = args[arg];
+                }
+            }
+
+            serve(args[1], Integer.parseInt(args[2]), bindAddress, snapshotFile, historyDir, watch);
+            return;
+        }
+
+        if (args.length >= 2 && args[0].equals("history")) {
+            history(args);
+            return;
+        }
+
+        if (args.length == 3 && args[0].equals("metrics")) {
+            metrics(args[1], Integer.parseInt(args[2]));
+            return;
+        }
+
+        if (args.length == 5 && args[0].equals("loadgen")) {
+            loadgen(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+            return;
+        }
+
+        if (args.length >= 5 && args[0].equals("shard")) {
+            shard(args);
+            return;
+        }
+
+        if (args.length >= 5 && args[0].equals("shardbench")) {
+            shardbench(args);
+            return;
+        }
+
+        if (args.length == 3 && args[0].equals("replay")) {
+            replay(args[1], args[2]);
+            return;
+        }
+
+        if (args.length >= 3 && args.length <= 5 && args[0].equals("simulate")) {
+            simulate(args[1], Long.parseLong(args[2]), args.length >= 4 ? args[3] : "cautious",
+                    args.length == 5 ? args[4] : "none");
+            return;
+        }
+
+        if (args.length >= 2 && args[0].equals("solve")) {
+            solve(args);
+            return;
+        }
+
         // We need to read in the file information first
-        Game game = new Game();
+        int arg = 0;
+        Game game = (args.length > 0 && !args[0].startsWith("-")) ? new Game(args[arg++]) : new Game();
+
+        // Piped output doesn't need to keep up with a player, so let a background
+        // thread write it while the game gets on with the next turn.
+        if (System.console() == null) {
+            game.setOutput(new AsyncSink(new StreamSink(System.out), 64));
+        }
+
+        // Then any options.
+        for (; arg < args.length; arg++) {
+            if (args[arg].equals("-seed") && arg+1 < args.length) {
+                game.setSeed(Long.parseLong(args[++arg]));
+            } else if (args[arg].equals("-record") && arg+1 < args.length) {
+                game.setRecordFile(args[++arg]);
+            } else if (args[arg].equals("-hints")) {
+                game.setHints(true);
+            } else if (args[arg].equals("-quiet")) {
+                game.setOutput(NullSink.INSTANCE);
+            } else if (args[arg].equals("-rules") && arg+1 < args.length) {
+                try {
+                    game.setRules(GameRules.parse(args[++arg]));
+                } catch (IllegalArgumentException e) {
+                    System.out.printf("%s\n", e.getMessage());
+                    return;
+                }
+            } else if (args[arg].equals("-bats") && arg+1 < args.length) {
+                game.setHazards(HazardConfig.CLASSIC.with(Room.Danger.BATS, Integer.parseInt(args[++arg])));
+            } else if (args[arg].equals("-history") && arg+1 < args.length) {
+                game.setHistoryDir(args[++arg]);
+            }
+        }
+
+        GameMetrics.register();
         game.playGame();
     }
+
+    /**
+     * Loads a rooms file and prints how big it was and how fast it parsed.
+     *
+     * @param fileName The rooms file to load
+     */
+    private static void load(String fileName) {
+        CaveLoader loader = new CaveLoader();
+
+        try {
+            Cave cave = loader.load(fileName);
+
+            System.out.printf("Loaded %d rooms (%.1f MB) in %.1f ms: %.1f MB/s\n", cave.getNumRooms(),
+                    loader.getBytesLoaded() / 1e6, loader.getLoadNanos() / 1e6, loader.getThroughput());
+        } catch (IOException e) {
+            System.out.printf("Encountered the following exception while reading file: %s\n", e.getMessage());
+        }
+    }
+
+    /**
+     * Loads a cave without checking it, then checks it and prints every problem.
+     *
+     * @param fileName The rooms or cave file to check
+     */
+    private static void validate(String fileName) {
+        CaveLoader loader = new CaveLoader();
+        CaveValidator validator = new CaveValidator(1000);
+
+        loader.setValidate(false);
+
+        try {
+            Cave cave = loader.load(fileName);
+
+            for (CaveValidator.Problem problem : validator.validate(cave, !loader.isCompiled())) {
+                System.out.printf("%s\n", problem);
+            }
+
+            if (validator.getProblemCount() > 1000) {
+                System.out.printf("... and %d more\n", validator.getProblemCount() - 1000);
+            }
+
+            System.out.printf("Checked %d rooms and %d tunnels in %.1f ms: %d problems, %d separate parts\n",
+                    cave.getNumRooms(), cave.getNumTunnels(), validator.getValidateNanos() / 1e6,
+                    validator.getProblemCount(), validator.getParts());
+        } catch (IOException e) {
+            System.out.printf("Encountered the following exception while reading file: %s\n", e.getMessage());
+        }
+    }
+
+    /**
+     * Compiles a rooms file into a binary cave file that loads without parsing.
+     *
+     * @param fileName The rooms file to compile
+     * @param caveFileName The cave file to write
+     */
+    private static void compile(String fileName, String caveFileName) {
+        try {
+            Cave cave = new CaveLoader().load(fileName);
+
+            CaveFile.write(cave, caveFileName);
+            System.out.printf("Compiled %d rooms into %s\n", cave.getNumRooms(), caveFileName);
+        } catch (IOException e) {
+            System.out.printf("Encountered the following exception while compiling: %s\n", e.getMessage());
+        }
+    }
+
+    /**
+     * Generates a cave and writes it out, printing how big it was and how fast it went.
+     *
+     * @param args The command line: generate, the shape, the file, then any options
+     */
+    private static void generate(String[] args) {
+        long seed = 1;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean binary = false;
+        boolean plain = false;
+
+        for (int arg = 3; arg < args.length; arg++) {
+            if (args[arg].equals("-seed") && arg+1 < args.length) {
+                seed = Long.parseLong(args[++arg]);
+            } else if (args[arg].equals("-threads") && arg+1 < args.length) {
+                threads = Integer.parseInt(args[++arg]);
+            } else if (args[arg].equals("-binary")) {
+                binary = true;
+            } else if (args[arg].equals("-plain")) {
+                plain = true;
+            }
+        }
+
+        try {
+            Topology topology = CaveGenerator.parse(args[1], seed);
+            CaveGenerator generator = new CaveGenerator(topology, seed, threads);
+
+            generator.setDescriptions(!plain);
+
+            if (binary) {
+                generator.writeCompiled(args[2]);
+            } else {
+                generator.writeText(args[2]);
+            }
+
+            System.out.printf("Generated %d rooms and %d tunnels into %s (%.1f MB) in %.1f ms on %d threads: %.1f MB/s\n",
+                    topology.getNumRooms(), generator.getTunnelsWritten(), args[2], generator.getBytesWritten() / 1e6,
+                    generator.getWriteNanos() / 1e6, threads,
+                    (generator.getBytesWritten() / 1e6) / (generator.getWriteNanos() / 1e9));
+        } catch (IllegalArgumentException e) {
+            System.out.printf("%s\n", e.getMessage());
+        } catch (IOException e) {
+            System.out.printf("Encountered the following exception while generating: %s\n", e.getMessage());
+        }
+    }
+
+    /**
+     * Loads a cave and hosts games in it until the process is killed.
+     *
+     * @param fileName The rooms file to load
+     * @param port The port to listen on
+     * @param bindAddress The address to listen on, or null for just this machine
+     * @param snapshotFile Where to checkpoint games, or null to not bother
+     * @param historyDir Where to keep every game's events, or null to not bother
+     * @param watch True to reload the rooms file whenever it changes
+     */
+    private static void serve(String fileName, int port, String bindAddress, String snapshotFile, String historyDir,
+            boolean watch) {
+        try {
+            CaveLoader loader = new CaveLoader();
+
+            // A file that's going to be edited can't be left mapped under the games using it.
+            loader.setCopy(watch);
+
+            Cave cave = loader.load(fileName);
+            CaveRegistry caves = new CaveRegistry(cave);
+            GameServer server = new GameServer(caves, port);
+
+            if (bindAddress != null) {
+                server.setBindAddress(InetAddress.getByName(bindAddress));
+            }
+
+            if (watch) {
+                new CaveWatcher(fileName, caves);
+                System.out.printf("Watching %s for changes\n", fileName);
+            }
+
+            if (snapshotFile != null) {
+                SnapshotStore store = new SnapshotStore(snapshotFile, cave, SNAPSHOT_SLOTS, SNAPSHOT_SLOT_SIZE);
+
+                // Get the last checkpoints onto disk on the way out.
+                Runtime.getRuntime().addShutdownHook(new Thread(store::force));
+                server.setSnapshots(store, SNAPSHOT_INTERVAL);
+                System.out.printf("Checkpointing games to %s, %d of %d slots have saved games\n",
+                        snapshotFile, store.getSavedCount(), store.getNumSlots());
+            }
+
+            if (historyDir != null) {
+                HistoryLog history = new HistoryLog(historyDir, cave);
+
+                // Sync whatever's still buffered on the way out.
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        history.close();
+                    } catch (IOException e) {
+                        System.out.printf("Encountered the following exception while closing history: %s\n", e.getMessage());
+                    }
+                }));
+                server.setHistory(history);
+                System.out.printf("Keeping game history in %s\n", historyDir);
+            }
+
+            System.out.printf("Serving %d rooms on port %d\n", cave.getNumRooms(), port);
+            GameMetrics.register();
+            server.serve();
+        } catch (IOException e) {
+            System.out.printf("Encountered the following exception while serving: %s\n", e.getMessage());
+        }
+    }
+
+    /**
+     * Reports on a history log, once or every so often as it grows.
+     *
+     * @param args The command line: history, the directory, then any options
+     */
+    private static void history(String[] args) {
+        int top = 10;
+        int room = 0;
+        long follow = 0;
+
+        for (int arg = 2; arg < args.length; arg++) {
+            if (args[arg].equals("-top") && arg+1 < args.length) {
+                top = Integer.parseInt(args[++arg]);
+            } else if (args[arg].equals("-room") && arg+1 < args.length) {
+                room = Integer.parseInt(args[++arg]);
+            } else if (args[arg].equals("-follow") && arg+1 < args.length) {
+                follow = Long.parseLong(args[++arg]);
+            }
+        }
+
+        try {
+            HistoryReader reader = new HistoryReader(args[1]);
+
+            if (room > 0) {
+                // Straight from the indexes, no need to read the rest. Room n is a
+                // different room in each cave, so they're counted separately.
+                Map<Long, long[]> caves = new LinkedHashMap<>();
+                long start = System.nanoTime();
+
+                reader.forRoom(room, (cave, game, where, kind, danger, extra) ->
+                        caves.computeIfAbsent(cave, key -> new long[HistoryLog.ENDED + 1])[Math.min(kind & 0xFF, HistoryLog.ENDED)]++);
+
+                for (Map.Entry<Long, long[]> cave : caves.entrySet()) {
+                    long[] kinds = cave.getValue();
+
+                    System.out.printf("Room %d of cave %016x: %d started, %d moved in, %d carried in, %d shots ended, %d died, %d ended\n",
+                            room, cave.getKey(), kinds[HistoryLog.STARTED], kinds[HistoryLog.MOVED], kinds[HistoryLog.CARRIED],
+                            kinds[HistoryLog.SHOT], kinds[HistoryLog.DIED], kinds[HistoryLog.ENDED]);
+                }
+
+                System.out.printf("Found in %.1f ms\n", (System.nanoTime() - start) / 1e6);
+                return;
+            }
+
+            HistoryStats stats = new HistoryStats();
+
+            do {
+                long start = System.nanoTime();
+                long read = stats.update(reader);
+
+                System.out.printf("Read %,d records in %.1f ms\n%s", read, (System.nanoTime() - start) / 1e6, stats.report(top));
+
+                if (follow > 0) {
+                    Thread.sleep(follow * 1000);
+                }
+            } while (follow > 0);
+        } catch (IOException e) {
+            System.out.printf("Encountered the following exception while reading history: %s\n", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Asks a server for its metrics and prints them, one per line.
+     *
+     * @param host Where the server is
+     * @param port The port the server is listening on
+     */
+    private static void metrics(String host, int port) {
+        try (Socket socket = new Socket(host, port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+             Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII)) {
+            // Skip the greeting, then ask.
+            in.readLine();
+            out.write("STATS\nQ\n");
+            out.flush();
+
+            String reply = in.readLine();
+
+            if (reply == null || !reply.startsWith("STATS ")) {
+                System.out.printf("The server did not send any metrics\n");
+                return;
+            }
+
+            for (String metric : reply.substring(6).split("; ")) {
+                System.out.printf("%s\n", metric);
+            }
+        } catch (IOException e) {
+            System.out.printf("Encountered the following exception while reading metrics: %s\n", e.getMessage());
+        }
+    }
+
+    /**
+     * Runs simulated players against a server and prints the command latencies.
+     *
+     * @param host Where the server is
+     * @param port The port the server is listening on
+     * @param clients How many players to simulate at once
+     * @param seconds How long to run for
+     */
+    private static void loadgen(String host, int port, int clients, int seconds) {
+        try {
+            new LoadGenerator(host, port, clients, seconds).run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Builds one shard's piece of a generated cave and hosts its games until the
+     * process is killed.
+     *
+     * @param args The command line: shard, the shape, the number of shards, which
+     *             shard, the base port, then any options
+     */
+    private static void shard(String[] args) {
+        long seed = 1;
+        int shards = Integer.parseInt(args[2]);
+        int index = Integer.parseInt(args[3]);
+        int port = Integer.parseInt(args[4]);
+
+        for (int arg = 5; arg < args.length; arg++) {
+            if (args[arg].equals("-seed") && arg+1 < args.length) {
+                seed = Long.parseLong(args[++arg]);
+            }
+        }
+
+        try {
+            long start = System.nanoTime();
+            Topology topology = CaveGenerator.parse(args[1], seed);
+            ShardMap map = new ShardMap(topology.getNumRooms(), shards);
+
+            if (index < 0 || index >= map.getShards()) {
+                System.out.printf("There is no shard %d of %d\n", index, map.getShards());
+                return;
+            }
+
+            ShardCave piece = new ShardCave(topology, seed, map, index);
+            ShardServer server = new ShardServer(piece, port);
+
+            GameMetrics.register();
+            System.out.printf("Shard %d of %d: rooms %d to %d and %d halo rooms, built in %.1f ms, listening on port %d (%d for shards)\n",
+                    index, map.getShards(), map.getFirst(index), map.getEnd(index) - 1, piece.getHaloRooms(),
+                    (System.nanoTime() - start) / 1e6, port + index, server.getPeerPort(index));
+            server.serve();
+        } catch (IllegalArgumentException e) {
+            System.out.printf("%s\n", e.getMessage());
+        } catch (IOException e) {
+            System.out.printf("Encountered the following exception while running shard: %s\n", e.getMessage());
+        }
+    }
+
+    /**
+     * Starts every shard of a generated cave as its own process and runs
+     * simulated players against them.
+     *
+     * @param args The command line: shardbench, the shape, the number of shards,
+     *             clients, seconds, then any options
+     */
+    private static void shardbench(String[] args) {
+        long seed = 1;
+        int port = 19000;
+
+        for (int arg = 5; arg < args.length; arg++) {
+            if (args[arg].equals("-seed") && arg+1 < args.length) {
+                seed = Long.parseLong(args[++arg]);
+            } else if (args[arg].equals("-port") && arg+1 < args.length) {
+                port = Integer.parseInt(args[++arg]);
+            }
+        }
+
+        try {
+            new ShardBenchmark(args[1], seed, Integer.parseInt(args[2]), port, Integer.parseInt(args[3]),
+                    Integer.parseInt(args[4])).run();
+        } catch (IOException e) {
+            System.out.printf("Encountered the following exception while starting shards: %s\n", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Plays back every game in a replay log and prints whether they all matched.
+     *
+     * @param fileName The rooms file the games were played in
+     * @param logFile The replay log
+     */
+    private static void replay(String fileName, String logFile) {
+        try {
+            ReplayRunner runner = new ReplayRunner(new CaveLoader().load(fileName));
+
+            runner.run(logFile);
+            System.out.printf("Replayed %d games (%d commands) in %.1f ms: %.0f games/s\n", runner.getGames(),
+                    runner.getCommands(), runner.getElapsedNanos() / 1e6, runner.getGames() / (runner.getElapsedNanos() / 1e9));
+
+            if (runner.getMismatches() == 0) {
+                System.out.printf("All games matched.\n");
+            } else {
+                System.out.printf("%d games did not match, the first was game %d.\n", runner.getMismatches(),
+                        runner.getFirstMismatch()+1);
+            }
+        } catch (IOException e) {
+            System.out.printf("Encountered the following exception while replaying: %s\n", e.getMessage());
+        }
+    }
+
+    /**
+     * Plays scripted games with more and more threads, printing how fast each
+     * run went and then how the games turned out.
+     *
+     * @param fileName The rooms file to play in
+     * @param games How many games to play in each run
+     * @param strategy "random", "cautious" or "optimal"
+     * @param ruleNames Which hazard behaviors to play with, as GameRules.parse() takes them
+     */
+    private static void simulate(String fileName, long games, String strategy, String ruleNames) {
+        try {
+            GameRules rules = GameRules.parse(ruleNames);
+            Cave cave = new CaveLoader().load(fileName);
+            HazardConfig config = ((rules.getFlags() & GameRules.SUPER_BATS) != 0)
+                    ? HazardConfig.CLASSIC.with(Room.Danger.BATS, 2) : HazardConfig.CLASSIC;
+            Simulation simulation;
+
+            if (strategy.equals("optimal")) {
+                // The solver doesn't know about hazards moving around.
+                if (rules.getFlags() != 0) {
+                    System.out.printf("The optimal player can't play with rules.\n");
+                    return;
+                }
+
+                Solver solver = new Solver(cave, config, GameEngine.MAX_ARROW_PATH);
+
+                System.out.printf("Solved: %.2f%% won with perfect play\n",
+                        solver.solve(Runtime.getRuntime().availableProcessors()) * 100);
+                simulation = new Simulation(cave, config, rules, () -> new OptimalPlayer(solver), 1000);
+            } else {
+                simulation = new Simulation(cave, config, rules,
+                        strategy.equals("random") ? RandomWalker::new : CautiousPlayer::new, 1000);
+            }
+
+            int cores = Runtime.getRuntime().availableProcessors();
+            double baseline = 0;
+            SimulationStats stats = null;
+
+            for (int threads = 1; ; threads = Math.min(threads * 2, cores)) {
+                long start = System.nanoTime();
+
+                stats = simulation.run(games, 1, threads);
+
+                double perSecond = games / ((System.nanoTime() - start) / 1e9);
+
+                if (threads == 1) {
+                    baseline = perSecond;
+                }
+
+                System.out.printf("%2d threads: %,.0f games/s (%.2fx)\n", threads, perSecond, perSecond / baseline);
+
+                if (threads == cores) {
+                    break;
+                }
+            }
+
+            System.out.printf("%s\n", stats);
+        } catch (IllegalArgumentException e) {
+            System.out.printf("%s\n", e.getMessage());
+        } catch (IOException e) {
+            System.out.printf("Encountered the following exception while reading file: %s\n", e.getMessage());
+        }
+    }
+
+    /**
+     * Solves a cave and prints the chance of winning it with perfect play.
+     *
+     * @param args The command line: solve, the rooms file, then any options
+     */
+    private static void solve(String[] args) {
+        HazardConfig config = HazardConfig.CLASSIC;
+        int path = GameEngine.MAX_ARROW_PATH;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        for (int arg = 2; arg < args.length; arg++) {
+            if (args[arg].equals("-bats") && arg+1 < args.length) {
+                config = HazardConfig.CLASSIC.with(Room.Danger.BATS, Integer.parseInt(args[++arg]));
+            } else if (args[arg].equals("-path") && arg+1 < args.length) {
+                path = Integer.parseInt(args[++arg]);
+            } else if (args[arg].equals("-threads") && arg+1 < args.length) {
+                threads = Integer.parseInt(args[++arg]);
+            }
+        }
+
+        try {
+            Solver solver = new Solver(new CaveLoader().load(args[1]), config, path);
+            double chance = solver.solve(threads);
+
+            System.out.printf("Perfect play wins %d of %d placements: %.4f%%\n", solver.getWins(),
+                    solver.getPlacements(), chance * 100);
+            System.out.printf("Solved %,d beliefs in %.1f ms on %d threads\n", solver.getStates(),
+                    solver.getSolveNanos() / 1e6, threads);
+        } catch (IllegalArgumentException e) {
+            System.out.printf("%s\n", e.getMessage());
+        } catch (IOException e) {
+            System.out.printf("Encountered the following exception while solving: %s\n", e.getMessage());
+        }
+    }
     
 }
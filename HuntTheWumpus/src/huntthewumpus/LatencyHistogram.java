@@ -0,0 +1,178 @@
+package huntthewumpus;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size histogram of latencies in nanoseconds. Each power of two range is
+ * split into 16 buckets, so any recorded value is off by at most 1/16th (about 6%)
+ * when read back. Recording never allocates and is safe from any number of threads.
+ *
+ * A histogram that lots of threads record into at once can be split into
+ * stripes, each a whole set of buckets. Each thread records into the stripe its
+ * id hashes to, so threads mostly don't fight over the same counters, and reading
+ * adds the stripes back up. One stripe is plenty for a histogram only one thread
+ * records into.
+ *
+ * @author Ivan Samuelson
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 4;                  // 16 buckets per power of two.
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int NUM_BUCKETS = (64 - SUB_BITS + 1) * SUB_COUNT;
+
+    private final AtomicLongArray[] stripes;    // How many values fell in each bucket, per stripe.
+    private final int mask;                     // Picks a stripe from a hashed thread id.
+
+    /**
+     * Creates a histogram for one thread at a time to record into.
+     *
+     */
+    public LatencyHistogram() {
+        this(1);
+    }
+
+    /**
+     * Creates a histogram for lots of threads to record into at once.
+     *
+     * @param stripes How many sets of buckets to spread the threads over,
+     *          rounded up to a power of two
+     */
+    public LatencyHistogram(int stripes) {
+        int count = (stripes <= 1) ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+
+        this.stripes = new AtomicLongArray[count];
+        this.mask = count - 1;
+
+        for (int i = 0; i < count; i++) {
+            this.stripes[i] = new AtomicLongArray(NUM_BUCKETS);
+        }
+    }
+
+    /**
+     * Records one latency.
+     *
+     * @param nanos The latency in nanoseconds
+     */
+    public void record(long nanos) {
+        AtomicLongArray buckets = stripes[0];
+
+        if (mask != 0) {
+            // Thread ids are handed out one after another, so mix them up before picking.
+            long id = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+
+            buckets = stripes[(int) (id >>> 32) & mask];
+        }
+
+        buckets.incrementAndGet(bucketOf(Math.max(0, nanos)));
+    }
+
+    /**
+     * Adds everything recorded in another histogram into this one.
+     *
+     * @param other The histogram to add in
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            long count = other.getBucket(i);
+
+            if (count != 0) {
+                stripes[0].addAndGet(i, count);
+            }
+        }
+    }
+
+    /**
+     * Gets how many latencies have been recorded
+     *
+     * @return The number of values recorded
+     */
+    public long getCount() {
+        long count = 0;
+
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            count += getBucket(i);
+        }
+
+        return count;
+    }
+
+    /**
+     * Gets a percentile of the recorded latencies.
+     *
+     * @param percentile The percentile to get, from 0 to 100
+     * @return The latency in nanoseconds that percentile of values are at or under,
+     *         or 0 if nothing has been recorded
+     */
+    public long getPercentile(double percentile) {
+        long count = getCount();
+
+        if (count == 0) {
+            return 0;
+        }
+
+        // Find the bucket that the value at this rank falls into.
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += getBucket(i);
+
+            if (seen >= rank) {
+                return highestValueOf(i);
+            }
+        }
+
+        return highestValueOf(NUM_BUCKETS-1);
+    }
+
+    /**
+     * Adds up one bucket across every stripe.
+     *
+     * @param bucket The bucket index
+     * @return How many values fell in it
+     */
+    private long getBucket(int bucket) {
+        long count = 0;
+
+        for (AtomicLongArray buckets : stripes) {
+            count += buckets.get(bucket);
+        }
+
+        return count;
+    }
+
+    /**
+     * Works out which bucket a value goes into.
+     *
+     * @param value The value, zero or more
+     * @return The bucket index
+     */
+    private static int bucketOf(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT-1);
+
+        return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    /**
+     * Works out the biggest value that goes into a bucket.
+     *
+     * @param bucket The bucket index
+     * @return The biggest value in that bucket
+     */
+    private static long highestValueOf(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+
+        int exponent = bucket / SUB_COUNT + SUB_BITS - 1;
+        long sub = bucket % SUB_COUNT;
+        long lowest = (1L << exponent) | (sub << (exponent - SUB_BITS));
+
+        return lowest + (1L << (exponent - SUB_BITS)) - 1;
+    }
+}
@@ -0,0 +1,153 @@
+package huntthewumpus;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hammers a GameServer with lots of simulated players and reports how long
+ * commands take. Every client wanders around at random, shoots now and then,
+ * and starts a new game whenever its game ends.
+ *
+ * @author Ivan Samuelson
+ */
+public class LoadGenerator {
+    private final String host;      // Where the server is.
+    private final int port;         // The port the server is listening on.
+    private final int clients;      // How many players to simulate at once.
+    private final long durationNanos;   // How long to run for.
+    private final LatencyHistogram latencies = new LatencyHistogram();    // Latency of every command sent.
+    private final AtomicInteger failures = new AtomicInteger();         // Clients that couldn't connect or got cut off.
+
+    /**
+     * Creates a load generator.
+     *
+     * @param host Where the server is
+     * @param port The port the server is listening on
+     * @param clients How many players to simulate at once
+     * @param seconds How long to run for
+     */
+    public LoadGenerator(String host, int port, int clients, int seconds) {
+        this.host = host;
+        this.port = port;
+        this.clients = clients;
+        this.durationNanos = TimeUnit.SECONDS.toNanos(seconds);
+    }
+
+    /**
+     * Runs all the clients until time is up and prints the results.
+     *
+     * @throws InterruptedException If interrupted while waiting for the clients
+     */
+    public void run() throws InterruptedException {
+        ExecutorService executor = GameServer.newThreadPerTaskExecutor("wumpus-client");
+        CountDownLatch done = new CountDownLatch(clients);
+        List<LatencyHistogram> perClient = new ArrayList<>();
+        long start = System.nanoTime();
+        long deadline = start + durationNanos;
+
+        for (int i = 0; i < clients; i++) {
+            // Each client records into its own histogram so they don't fight over one.
+            LatencyHistogram histogram = new LatencyHistogram();
+
+            perClient.add(histogram);
+            executor.execute(() -> {
+                try {
+                    runClient(histogram, deadline);
+                } catch (IOException e) {
+                    failures.incrementAndGet();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+
+        done.await();
+        executor.shutdown();
+
+        long elapsed = System.nanoTime() - start;
+
+        for (LatencyHistogram histogram : perClient) {
+            latencies.add(histogram);
+        }
+
+        long commands = latencies.getCount();
+
+        System.out.printf("%d clients, %d failed, %d commands in %.1f s: %.0f commands/s\n", clients, failures.get(),
+                commands, elapsed / 1e9, commands / (elapsed / 1e9));
+        System.out.printf("Latency p50 %.1f us, p99 %.1f us, p99.9 %.1f us\n", latencies.getPercentile(50) / 1e3,
+                latencies.getPercentile(99) / 1e3, latencies.getPercentile(99.9) / 1e3);
+    }
+
+    /**
+     * Plays as one client until the deadline.
+     *
+     * @param histogram Where to record command latencies
+     * @param deadline When to stop, as a System.nanoTime() value
+     * @throws IOException If the connection fails
+     */
+    private void runClient(LatencyHistogram histogram, long deadline) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            OutputStream out = socket.getOutputStream();
+            String reply = in.readLine();
+
+            while (reply != null && System.nanoTime() < deadline) {
+                String command;
+
+                if (reply.contains("; DIED") || reply.contains("; WON") || reply.contains("; OUT_OF_ARROWS")) {
+                    command = "N\n";
+                } else {
+                    // Pick a random tunnel out of the room and usually walk, sometimes shoot.
+                    int[] tunnels = parseTunnels(reply);
+                    int room = tunnels[random.nextInt(tunnels.length)];
+
+                    command = (random.nextInt(10) == 0 ? "S " : "M ") + room + "\n";
+                }
+
+                long sent = System.nanoTime();
+
+                out.write(command.getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                reply = in.readLine();
+                histogram.record(System.nanoTime() - sent);
+            }
+
+            out.write("Q\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+        }
+    }
+
+    /**
+     * Pulls the tunnel list out of a reply like "ROOM 2 ARROWS 3 TUNNELS 1 3 7; ...".
+     *
+     * @param reply The reply from the server
+     * @return The rooms the player can get to
+     */
+    private static int[] parseTunnels(String reply) {
+        int start = reply.indexOf("TUNNELS ") + "TUNNELS ".length();
+        int end = reply.indexOf(';', start);
+        String[] rooms = reply.substring(start, end < 0 ? reply.length() : end).trim().split(" ");
+        int[] tunnels = new int[rooms.length];
+
+        for (int i = 0; i < rooms.length; i++) {
+            tunnels[i] = Integer.parseInt(rooms[i]);
+        }
+
+        return tunnels;
+    }
+}
@@ -0,0 +1,47 @@
+package huntthewumpus;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Room descriptions left sitting in a memory mapped file. Only the offset of
+ * each description is kept, and the bytes are turned into a String when a room
+ * actually gets described. A description runs up to the end of its line.
+ *
+ * @author Ivan Samuelson
+ */
+public final class MappedDescriptions implements RoomDescriptions {
+    private final ByteBuffer buffer;    // The mapped file. Only ever read with absolute gets so it can be shared.
+    private final int[] starts;         // Where each room's description starts in the buffer.
+
+    /**
+     * Creates the descriptions over a mapped buffer.
+     *
+     * @param buffer The mapped file the descriptions live in
+     * @param starts The offset of each room's description, room 1 first
+     */
+    public MappedDescriptions(ByteBuffer buffer, int[] starts) {
+        this.buffer = buffer;
+        this.starts = starts;
+    }
+
+    @Override
+    public String get(int room) {
+        int start = starts[room-1];
+        int end = start;
+        int limit = buffer.limit();
+
+        // Find the end of the line.
+        while (end < limit && buffer.get(end) != '\n' && buffer.get(end) != '\r') {
+            end++;
+        }
+
+        byte[] bytes = new byte[end - start];
+
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
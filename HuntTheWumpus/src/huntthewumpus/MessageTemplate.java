@@ -0,0 +1,93 @@
+package huntthewumpus;
+
+/**
+ * A message with a hole in it, like "You are in room %d\n", that is split up
+ * once when it is created instead of every time it is printed the way printf
+ * does. Only one %d or %s and any number of %% are understood, which is all
+ * the game needs.
+ *
+ * @author Ivan Samuelson
+ */
+public final class MessageTemplate {
+    private final String before;    // The text before the hole.
+    private final String after;     // The text after the hole, null if there's no hole.
+
+    /**
+     * Splits up a message.
+     *
+     * @param format The message, with at most one %d or %s in it
+     */
+    public MessageTemplate(String format) {
+        StringBuilder piece = new StringBuilder();
+        String first = null;
+
+        for (int i = 0; i < format.length(); i++) {
+            char c = format.charAt(i);
+
+            if (c != '%') {
+                piece.append(c);
+                continue;
+            }
+
+            char type = (i+1 < format.length()) ? format.charAt(++i) : ' ';
+
+            if (type == '%') {
+                piece.append('%');
+            } else if ((type == 'd' || type == 's') && first == null) {
+                first = piece.toString();
+                piece.setLength(0);
+            } else {
+                throw new IllegalArgumentException(String.format("Can't handle %%%c in \"%s\"", type, format));
+            }
+        }
+
+        if (first == null) {
+            before = piece.toString();
+            after = null;
+        } else {
+            before = first;
+            after = piece.toString();
+        }
+    }
+
+    /**
+     * Adds the message to a buffer as it is.
+     *
+     * @param out The buffer to add to
+     */
+    public void appendTo(StringBuilder out) {
+        out.append(before);
+
+        if (after != null) {
+            out.append(after);
+        }
+    }
+
+    /**
+     * Adds the message to a buffer with a number in the hole.
+     *
+     * @param out The buffer to add to
+     * @param value The number for the hole
+     */
+    public void appendTo(StringBuilder out, int value) {
+        out.append(before);
+
+        if (after != null) {
+            out.append(value).append(after);
+        }
+    }
+
+    /**
+     * Adds the message to a buffer with some text in the hole.
+     *
+     * @param out The buffer to add to
+     * @param value The text for the hole
+     */
+    public void appendTo(StringBuilder out, CharSequence value) {
+        out.append(before);
+
+        if (after != null) {
+            out.append(value).append(after);
+        }
+    }
+}
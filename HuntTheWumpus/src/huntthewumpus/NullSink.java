@@ -0,0 +1,26 @@
+package huntthewumpus;
+
+/**
+ * Throws all output away, for games played with nobody watching.
+ *
+ * @author Ivan Samuelson
+ */
+public final class NullSink implements OutputSink {
+    // There's nothing to a NullSink, so everyone can share this one.
+    public static final NullSink INSTANCE = new NullSink();
+
+    /**
+     * Use INSTANCE instead.
+     *
+     */
+    private NullSink() {
+    }
+
+    @Override
+    public void write(CharSequence text) {
+    }
+
+    @Override
+    public void flush() {
+    }
+}
@@ -0,0 +1,161 @@
+package huntthewumpus;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A player that does whatever a Solver says is best. It keeps the same belief
+ * the solver does, the placements that fit everything it has heard, and asks
+ * the solver what to do with it each time it has a choice to make. Between
+ * choices it walks through rooms it has already been in, which are safe, to get
+ * where it needs to be.
+ *
+ * Over enough games it should win as often as the solver says perfect play
+ * does, which makes it a good check on the solver. The solver is shared by
+ * every player, so beliefs solved for one game are there for the next.
+ *
+ * @author Ivan Samuelson
+ */
+public class OptimalPlayer implements Strategy {
+    private final Solver solver;    // Decides what to do.
+    private int[] from = new int[0];    // Where each room was reached from on a walk, scratch space.
+    private int[] queue = new int[0];   // Rooms to look at on a walk, scratch space.
+
+    /**
+     * Creates a player that follows a solver.
+     *
+     * @param solver The solver, set up for the same cave and hazards as the games
+     */
+    public OptimalPlayer(Solver solver) {
+        this.solver = solver;
+    }
+
+    @Override
+    public int play(GameEngine engine, GameRandom random, int maxTurns) {
+        int numRooms = engine.getNumRooms();
+
+        if (from.length != numRooms+1) {
+            from = new int[numRooms+1];
+            queue = new int[numRooms];
+        }
+
+        long visited = 1;   // Room 1, where the game starts.
+        int[] belief = solver.observe(solver.allPlacements(), 1, engine.getWarnings(1));
+        int turns = 0;
+
+        while (!engine.isGameOver() && turns < maxTurns && belief.length > 0) {
+            Solver.Choice choice = solver.choose(visited, engine.getArrowsLeft(), belief);
+
+            if (choice.shoot) {
+                int[] shot = solver.findShot(visited, choice.targets, choice.rooms);
+                long rooms = 0;
+
+                turns += walk(engine, shot[0], visited, maxTurns - turns);
+
+                if (turns >= maxTurns) {
+                    break;
+                }
+
+                int[] path = new int[shot.length-1];
+
+                for (int i = 0; i < path.length; i++) {
+                    path[i] = shot[i+1];
+                    rooms |= 1L << (path[i]-1);
+                }
+
+                engine.shoot(path);
+                turns++;
+
+                belief = solver.missed(belief, rooms);
+            } else if (choice.room == 0) {
+                // Nothing left worth doing. Wander off and hope for the best.
+                Room room = engine.getRoom(engine.getPlayerRoom());
+
+                engine.move(room.getAdjRoom(random.nextInt(room.getAdjRoomCount())));
+                turns++;
+            } else {
+                // Get next to the room, then step in.
+                int target = choice.room;
+                int next = 0;
+
+                for (long rooms = visited; rooms != 0 && next == 0; rooms &= rooms - 1) {
+                    int room = Long.numberOfTrailingZeros(rooms) + 1;
+
+                    if (engine.getRoom(room).validRoom(target)) {
+                        next = room;
+                    }
+                }
+
+                turns += walk(engine, next, visited, maxTurns - turns);
+
+                if (turns >= maxTurns) {
+                    break;
+                }
+
+                List<GameEvent> events = engine.move(target);
+
+                turns++;
+
+                if (!engine.isGameOver()) {
+                    int observation = engine.getWarnings(1);
+
+                    if (events.get(0).getDanger() == Room.Danger.BATS) {
+                        observation |= 1;
+                    }
+
+                    visited |= 1L << (target-1);
+                    belief = solver.observe(belief, target, observation);
+                }
+            }
+        }
+
+        return turns;
+    }
+
+    /**
+     * Walks to a room through rooms already visited, the shortest way.
+     *
+     * @param engine The game
+     * @param target Where to go
+     * @param visited The rooms that are safe to walk through
+     * @param maxTurns The most moves to make
+     * @return How many moves it took
+     */
+    private int walk(GameEngine engine, int target, long visited, int maxTurns) {
+        int start = engine.getPlayerRoom();
+
+        if (start == target) {
+            return 0;
+        }
+
+        // Breadth first back from the target, so following from[] walks there.
+        int head = 0;
+        int tail = 0;
+
+        Arrays.fill(from, 0);
+        from[target] = target;
+        queue[tail++] = target;
+
+        while (head < tail && from[start] == 0) {
+            int room = queue[head++];
+
+            for (int i = 0; i < engine.getRoom(room).getAdjRoomCount(); i++) {
+                int adj = engine.getRoom(room).getAdjRoom(i);
+
+                if (from[adj] == 0 && (visited & (1L << (adj-1))) != 0) {
+                    from[adj] = room;
+                    queue[tail++] = adj;
+                }
+            }
+        }
+
+        int turns = 0;
+
+        for (int room = start; room != target && turns < maxTurns; turns++) {
+            room = from[room];
+            engine.move(room);
+        }
+
+        return turns;
+    }
+}
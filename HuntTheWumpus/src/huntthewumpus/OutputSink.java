@@ -0,0 +1,24 @@
+package huntthewumpus;
+
+/**
+ * Somewhere for the game's output to go. The console game hands over a whole
+ * turn's worth of text at a time, so a sink gets one write per turn instead of
+ * one per line.
+ *
+ * @author Ivan Samuelson
+ */
+public interface OutputSink {
+    /**
+     * Writes out a batch of text. The text may be reused as soon as this
+     * returns, so a sink that holds on to it has to copy it.
+     *
+     * @param text The text to write
+     */
+    void write(CharSequence text);
+
+    /**
+     * Waits until everything written so far has actually gone out.
+     *
+     */
+    void flush();
+}
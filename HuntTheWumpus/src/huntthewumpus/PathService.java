@@ -0,0 +1,209 @@
+package huntthewumpus;
+
+import java.util.Arrays;
+
+/**
+ * Answers "how many tunnels from here to there" questions about a cave, for
+ * crooked arrows and for the "how far is the Wumpus" hint.
+ *
+ * Small caves get every answer worked out up front with a breadth first search
+ * from every room, one byte per pair of rooms, so a query is a single array
+ * lookup. That's 16 MB at ALL_PAIRS_LIMIT rooms. Bigger caves search from the
+ * source on demand, stopping at the first layer that holds the target or at the
+ * depth limit, so a query only costs the rooms within that distance. The search
+ * arrays are the size of the cave and stamped so they never need clearing, one
+ * set per thread.
+ *
+ * A PathService never changes once it is built, so like the Cave it can be
+ * shared by any number of games on any number of threads. Use Cave.getPaths()
+ * to get the one for a cave.
+ *
+ * @author Ivan Samuelson
+ */
+public final class PathService {
+    // Caves with more rooms than this search on demand instead of storing every pair.
+    static final int ALL_PAIRS_LIMIT = 4096;
+
+    // Stored distances past this (or no path at all) read as unreachable.
+    private static final int FAR = 0xFF;
+
+    private final Cave cave;            // The cave being searched.
+    private final byte[] allPairs;      // Distance from room a to room b at (a-1)*numRooms + b-1, or null for big caves.
+    private final ThreadLocal<Search> searches; // Search arrays for each thread, big caves only.
+
+    /**
+     * Builds the path service for a cave. Small caves are searched from every
+     * room right away.
+     *
+     * @param cave The cave
+     */
+    PathService(Cave cave) {
+        this.cave = cave;
+
+        if (cave.getNumRooms() <= ALL_PAIRS_LIMIT) {
+            this.allPairs = buildAllPairs(cave);
+            this.searches = null;
+        } else {
+            this.allPairs = null;
+            this.searches = ThreadLocal.withInitial(() -> new Search(cave.getNumRooms()));
+        }
+    }
+
+    /**
+     * Gets the fewest tunnels it takes to get from one room to another.
+     *
+     * @param from The room number to start from (1 based)
+     * @param to The room number to get to (1 based)
+     * @return The number of tunnels, 0 if they're the same room, or -1 if there's no way there
+     */
+    public int distance(int from, int to) {
+        return distance(from, to, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Gets the fewest tunnels it takes to get from one room to another, giving
+     * up past a limit. The limit is what keeps this cheap in a big cave.
+     *
+     * @param from The room number to start from (1 based)
+     * @param to The room number to get to (1 based)
+     * @param maxDepth The most tunnels to look through
+     * @return The number of tunnels, or -1 if it's further than maxDepth or there's no way there
+     */
+    public int distance(int from, int to, int maxDepth) {
+        if (allPairs != null) {
+            int distance = allPairs[(from-1) * cave.getNumRooms() + to-1] & 0xFF;
+
+            return (distance == FAR || distance > maxDepth) ? -1 : distance;
+        }
+
+        return searches.get().distance(cave, from, to, maxDepth);
+    }
+
+    /**
+     * Checks whether the distances are all stored up front.
+     *
+     * @return True for a small cave with every pair stored, false if rooms are searched on demand
+     */
+    public boolean isAllPairs() {
+        return allPairs != null;
+    }
+
+    /**
+     * Searches from every room and stores every distance.
+     *
+     * @param cave The cave
+     * @return The distances, FAR for anything unreachable or further than 254 tunnels
+     */
+    private static byte[] buildAllPairs(Cave cave) {
+        int numRooms = cave.getNumRooms();
+        byte[] distances = new byte[numRooms * numRooms];
+        int[] queue = new int[numRooms];
+
+        Arrays.fill(distances, (byte) FAR);
+
+        for (int source = 1; source <= numRooms; source++) {
+            int row = (source-1) * numRooms;
+            int head = 0;
+            int tail = 0;
+
+            distances[row + source-1] = 0;
+            queue[tail++] = source;
+
+            // The row doubles as the visited set, anything not FAR has been reached.
+            while (head < tail) {
+                int room = queue[head++];
+                int next = (distances[row + room-1] & 0xFF) + 1;
+
+                if (next >= FAR) {
+                    continue;
+                }
+
+                for (int i = 0; i < cave.getDegree(room); i++) {
+                    int adj = cave.getAdjRoom(room, i);
+
+                    if ((distances[row + adj-1] & 0xFF) == FAR) {
+                        distances[row + adj-1] = (byte) next;
+                        queue[tail++] = adj;
+                    }
+                }
+            }
+        }
+
+        return distances;
+    }
+
+    /**
+     * One thread's breadth first search arrays for a big cave.
+     *
+     */
+    private static final class Search {
+        private final int[] seen;       // Search number that last reached each room, by room number.
+        private int[] queue = new int[256];     // Rooms waiting to be searched. Grows as needed.
+        private int search = 0;         // The current search number.
+
+        /**
+         * Creates the arrays for a cave.
+         *
+         * @param numRooms How many rooms are in the cave
+         */
+        Search(int numRooms) {
+            seen = new int[numRooms+1];
+        }
+
+        /**
+         * Searches out from one room a layer at a time until the other turns up.
+         *
+         * @param cave The cave
+         * @param from Where to start
+         * @param to What to look for
+         * @param maxDepth The most layers to search
+         * @return The distance, or -1 if it wasn't found within maxDepth
+         */
+        int distance(Cave cave, int from, int to, int maxDepth) {
+            if (from == to) {
+                return 0;
+            }
+
+            // Stamps only wrap after four billion searches, but start over cleanly if they do.
+            if (++search == 0) {
+                Arrays.fill(seen, 0);
+                search = 1;
+            }
+
+            int head = 0;
+            int tail = 0;
+
+            seen[from] = search;
+            queue[tail++] = from;
+
+            for (int depth = 1; depth <= maxDepth && head < tail; depth++) {
+                int layerEnd = tail;
+
+                for (; head < layerEnd; head++) {
+                    int room = queue[head];
+                    int degree = cave.getDegree(room);
+
+                    for (int i = 0; i < degree; i++) {
+                        int adj = cave.getAdjRoom(room, i);
+
+                        if (adj == to) {
+                            return depth;
+                        }
+
+                        if (seen[adj] != search) {
+                            seen[adj] = search;
+
+                            if (tail == queue.length) {
+                                queue = Arrays.copyOf(queue, tail * 2);
+                            }
+
+                            queue[tail++] = adj;
+                        }
+                    }
+                }
+            }
+
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package huntthewumpus;
+
+/**
+ * A random shuffle of the numbers 0 to n-1 that can be worked out one number
+ * at a time, in either direction, without ever storing it. That's what lets
+ * the generator make random caves of a hundred million rooms a chunk at a time.
+ *
+ * The shuffle is a 4 round Feistel network over the smallest even number of
+ * bits that covers n, which shuffles up to 4n numbers. Anything that comes out
+ * at n or above is fed back in until it lands inside ("cycle walking"), which
+ * takes fewer than 4 tries on average and keeps it a true shuffle of 0 to n-1.
+ *
+ * @author Ivan Samuelson
+ */
+final class Permutation {
+    private static final int ROUNDS = 4;
+
+    private final long size;        // How many numbers are shuffled.
+    private final int halfBits;     // Bits in each half of the Feistel block.
+    private final long halfMask;    // Mask for one half.
+    private final long[] keys = new long[ROUNDS];  // Round keys, from the seed.
+
+    /**
+     * Creates a shuffle of 0 to size-1.
+     *
+     * @param size How many numbers to shuffle
+     * @param seed Which shuffle. The same seed gives the same shuffle.
+     */
+    Permutation(long size, long seed) {
+        int bits = 64 - Long.numberOfLeadingZeros(Math.max(size-1, 1));
+
+        this.size = size;
+        this.halfBits = (bits + 1) / 2;
+        this.halfMask = (1L << halfBits) - 1;
+
+        for (int i = 0; i < ROUNDS; i++) {
+            keys[i] = GameRandom.mix64(seed + (i+1) * 0x9E3779B97F4A7C15L);
+        }
+    }
+
+    /**
+     * Gets where a number ends up after the shuffle.
+     *
+     * @param x A number from 0 to size-1
+     * @return Its place in the shuffle
+     */
+    long apply(long x) {
+        do {
+            x = encrypt(x);
+        } while (x >= size);
+
+        return x;
+    }
+
+    /**
+     * Undoes the shuffle.
+     *
+     * @param y A place in the shuffle, from 0 to size-1
+     * @return The number that ends up there
+     */
+    long inverse(long y) {
+        do {
+            y = decrypt(y);
+        } while (y >= size);
+
+        return y;
+    }
+
+    /**
+     * Runs one block through the Feistel rounds.
+     *
+     * @param x The block
+     * @return The shuffled block
+     */
+    private long encrypt(long x) {
+        long left = x >>> halfBits;
+        long right = x & halfMask;
+
+        for (int i = 0; i < ROUNDS; i++) {
+            long next = left ^ (GameRandom.mix64(right ^ keys[i]) & halfMask);
+
+            left = right;
+            right = next;
+        }
+
+        return (left << halfBits) | right;
+    }
+
+    /**
+     * Runs one block back through the Feistel rounds in reverse.
+     *
+     * @param y The shuffled block
+     * @return The original block
+     */
+    private long decrypt(long y) {
+        long left = y >>> halfBits;
+        long right = y & halfMask;
+
+        for (int i = ROUNDS-1; i >= 0; i--) {
+            long previous = right ^ (GameRandom.mix64(left ^ keys[i]) & halfMask);
+
+            right = left;
+            left = previous;
+        }
+
+        return (left << halfBits) | right;
+    }
+}
@@ -0,0 +1,457 @@
+package huntthewumpus;
+
+import java.util.Arrays;
+
+/**
+ * Keeps track of which dangers are within a few tunnels of each room, so the
+ * warnings for a room are one lookup instead of a walk over its tunnels. It's
+ * only updated when a danger is placed, moves or goes away: each change does a
+ * breadth first search out to the range from the danger's room and bumps a
+ * counter in every room it reaches.
+ *
+ * Each room near a danger has one long of packed counters, one counter for
+ * each kind of danger at each distance from 1 to the range. A room counts a
+ * danger at the shortest distance to it, so "within 2 tunnels" is the distance
+ * 1 and distance 2 counters put together. Rooms with no danger nearby aren't
+ * stored at all, so like the HazardMap this costs the number of rooms near a
+ * danger and not the number of rooms in the cave. Small caves, where a long
+ * for every room takes no more room than the hash table would, just index the
+ * counters by room number.
+ *
+ * The counters are as wide as 64 bits allows: 16 bits each for a range of 1,
+ * 8 bits for a range of 2 and so on, which is the most dangers of one kind
+ * that can be near one room.
+ *
+ * This is per game and not thread-safe.
+ *
+ * @author Ivan Samuelson
+ */
+public final class ProximityIndex {
+    // Every danger but NONE gets a counter at each distance.
+    private static final int KINDS = Room.DANGERS.length - 1;
+
+    private final Cave cave;        // The cave the dangers are in.
+    private final int range;        // How many tunnels away dangers are tracked.
+    private final int bits;         // How wide each counter is.
+    private final long counterMask; // A counter's worth of one bits.
+
+    private int[] rooms;            // Room number in each slot, 0 for an empty slot. Null for a small cave.
+    private long[] counters;        // Packed counters in each slot, or for each room in a small cave.
+    private int size;               // How many rooms have a danger nearby.
+
+    // The breadth first search is only needed for big rooms or a range past
+    // the next room, so these are made the first time it runs.
+    private int[] queue;            // Search queue, reused by every update.
+    private int[] seen;             // Rooms the current search has reached, open addressing.
+    private int[] seenStamp;        // Which search put the room in each seen slot.
+    private int seenCount;          // How many rooms the current search has reached.
+    private int search = 0;         // The current search number.
+
+    /**
+     * Creates an empty index.
+     *
+     * @param cave The cave the dangers are in
+     * @param range How many tunnels away to track dangers, at least 1
+     * @param expected How many dangers are likely to be placed, to size the table
+     */
+    public ProximityIndex(Cave cave, int range, int expected) {
+        int width = range < 1 ? 0 : Long.SIZE / (KINDS * range);
+
+        if (width < 4) {
+            throw new IllegalArgumentException(String.format("Can't track dangers %d tunnels away", range));
+        }
+
+        this.cave = cave;
+        this.range = range;
+        this.bits = Math.min(width, 32);
+        this.counterMask = (1L << bits) - 1;
+
+        // Guess how many rooms will be near a danger from the average number of
+        // tunnels, and keep the table at most half full like the HazardMap.
+        long degree = (cave.getNumTunnels() + cave.getNumRooms() - 1) / cave.getNumRooms();
+        long rooms = expected;
+
+        for (int d = 0; d < range && rooms < cave.getNumRooms(); d++) {
+            rooms *= degree;
+        }
+
+        rooms = Math.min(rooms, cave.getNumRooms());
+        int capacity = Integer.highestOneBit((int) Math.max(4, rooms * 2 - 1)) << 1;
+
+        if (capacity > cave.getNumRooms()) {
+            this.counters = new long[cave.getNumRooms()+1];
+        } else {
+            this.rooms = new int[capacity];
+            this.counters = new long[capacity];
+        }
+    }
+
+    /**
+     * Gets how many tunnels away dangers are tracked
+     *
+     * @return The range
+     */
+    public int getRange() {
+        return range;
+    }
+
+    /**
+     * Gets which kinds of danger are within some number of tunnels of a room.
+     *
+     * @param room The room number (1 based)
+     * @param distance How many tunnels away to look, from 1 to the range
+     * @return A bit mask with bit (1 << danger.ordinal()) set for each kind of danger in range
+     */
+    public int getWarnings(int room, int distance) {
+        long packed = lookup(room);
+        int warnings = 0;
+
+        if (packed == 0) {
+            return 0;
+        }
+
+        for (int kind = 0; kind < KINDS; kind++) {
+            for (int d = 1; d <= distance; d++) {
+                if (((packed >>> shift(kind, d)) & counterMask) != 0) {
+                    warnings |= 1 << (kind + 1);
+                    break;
+                }
+            }
+        }
+
+        return warnings;
+    }
+
+    /**
+     * Gets how many dangers of one kind are exactly some number of tunnels from
+     * a room, going the shortest way.
+     *
+     * @param room The room number (1 based)
+     * @param danger The kind of danger
+     * @param distance How many tunnels away, from 1 to the range
+     * @return How many of them there are
+     */
+    public int getCount(int room, Room.Danger danger, int distance) {
+        return (int) ((lookup(room) >>> shift(danger.ordinal()-1, distance)) & counterMask);
+    }
+
+    /**
+     * Gets how many rooms have a danger within range
+     *
+     * @return The number of rooms stored
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Counts a danger that was just put in a room.
+     *
+     * @param room The room number (1 based)
+     * @param danger The danger
+     */
+    public void add(int room, Room.Danger danger) {
+        update(room, danger, 1);
+    }
+
+    /**
+     * Stops counting a danger that just left a room.
+     *
+     * @param room The room number (1 based)
+     * @param danger The danger
+     */
+    public void remove(int room, Room.Danger danger) {
+        update(room, danger, -1);
+    }
+
+    /**
+     * Walks out from a danger's room to the range and adds or takes one off the
+     * danger's counter at each room it reaches.
+     *
+     * @param origin The room the danger is in
+     * @param danger The danger
+     * @param delta 1 to add the danger, -1 to take it away
+     */
+    private void update(int origin, Room.Danger danger, int delta) {
+        if (danger == Room.Danger.NONE) {
+            return;
+        }
+
+        int kind = danger.ordinal()-1;
+
+        // The usual case of warning about the next room over in a small room
+        // just needs to skip doubled up tunnels, no search.
+        if (range == 1 && cave.getDegree(origin) <= Cave.SMALL_DEGREE) {
+            updateAdjacent(origin, shift(kind, 1), delta);
+            return;
+        }
+
+        int head = 0;
+        int tail = 0;
+
+        if (queue == null) {
+            queue = new int[16];
+            seen = new int[16];
+            seenStamp = new int[16];
+        }
+
+        search++;
+        seenCount = 0;
+        markSeen(origin);
+        queue[tail++] = origin;
+
+        // One layer at a time, so every room is counted at its shortest distance.
+        for (int distance = 1; distance <= range; distance++) {
+            int layerEnd = tail;
+
+            for (; head < layerEnd; head++) {
+                int room = queue[head];
+                int degree = cave.getDegree(room);
+
+                for (int i = 0; i < degree; i++) {
+                    int adj = cave.getAdjRoom(room, i);
+
+                    if (markSeen(adj)) {
+                        bump(adj, shift(kind, distance), delta);
+
+                        // The last layer doesn't need to go any further.
+                        if (distance < range) {
+                            if (tail == queue.length) {
+                                queue = Arrays.copyOf(queue, tail * 2);
+                            }
+
+                            queue[tail++] = adj;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Bumps a counter in each room next to a small room.
+     *
+     * @param origin The room the danger is in
+     * @param shift Where the danger's counter is in the packed long
+     * @param delta 1 to add the danger, -1 to take it away
+     */
+    private void updateAdjacent(int origin, int shift, int delta) {
+        int degree = cave.getDegree(origin);
+
+        for (int i = 0; i < degree; i++) {
+            int adj = cave.getAdjRoom(origin, i);
+            boolean counted = (adj == origin);  // A tunnel that loops back doesn't count.
+
+            // Nor does a second tunnel to the same room.
+            for (int j = 0; j < i && !counted; j++) {
+                counted = cave.getAdjRoom(origin, j) == adj;
+            }
+
+            if (!counted) {
+                bump(adj, shift, delta);
+            }
+        }
+    }
+
+    /**
+     * Adds to or takes from one counter of a room, dropping the room once none
+     * of its counters are left.
+     *
+     * @param room The room number (1 based)
+     * @param shift Where the counter is in the packed long
+     * @param delta 1 or -1
+     */
+    private void bump(int room, int shift, int delta) {
+        int slot = (rooms == null) ? room : find(room);
+        long packed = (rooms == null || rooms[slot] == room) ? counters[slot] : 0;
+        long count = ((packed >>> shift) & counterMask) + delta;
+
+        if (count < 0) {
+            throw new IllegalStateException(String.format("Room %d lost a danger it never had", room));
+        }
+
+        if (count > counterMask) {
+            throw new IllegalStateException(String.format("Too many dangers near room %d to count", room));
+        }
+
+        packed = (packed & ~(counterMask << shift)) | (count << shift);
+
+        if (rooms == null) {
+            // Small cave, the room is its own slot.
+            size += (packed == 0 ? -1 : 0) + (counters[slot] == 0 ? 1 : 0);
+            counters[slot] = packed;
+        } else if (rooms[slot] == room) {
+            if (packed == 0) {
+                delete(slot);
+            } else {
+                counters[slot] = packed;
+            }
+        } else {
+            if ((size + 1) * 2 > rooms.length) {
+                grow();
+                slot = find(room);
+            }
+
+            rooms[slot] = room;
+            counters[slot] = packed;
+            size++;
+        }
+    }
+
+    /**
+     * Works out where a counter is in the packed long.
+     *
+     * @param kind The danger ordinal-1
+     * @param distance The distance, from 1 to the range
+     * @return The bit position of the counter
+     */
+    private int shift(int kind, int distance) {
+        return (kind * range + distance - 1) * bits;
+    }
+
+    /**
+     * Gets the packed counters of a room
+     *
+     * @param room The room number (1 based)
+     * @return The counters, 0 if no danger is near
+     */
+    private long lookup(int room) {
+        if (rooms == null) {
+            return counters[room];
+        }
+
+        int slot = find(room);
+
+        return (rooms[slot] == room) ? counters[slot] : 0;
+    }
+
+    /**
+     * Finds the slot a room is in, or the empty slot it would go in.
+     *
+     * @param room The room number (1 based)
+     * @return The slot
+     */
+    private int find(int room) {
+        int mask = rooms.length - 1;
+        int slot = hash(room) & mask;
+
+        while (rooms[slot] != 0 && rooms[slot] != room) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    /**
+     * Empties a slot, shifting any following entries back so lookups don't
+     * stop early at the hole. Same as HazardMap.remove.
+     *
+     * @param slot The slot to empty
+     */
+    private void delete(int slot) {
+        int mask = rooms.length - 1;
+
+        rooms[slot] = 0;
+        size--;
+
+        for (int next = (slot + 1) & mask; rooms[next] != 0; next = (next + 1) & mask) {
+            int home = hash(rooms[next]) & mask;
+
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                rooms[slot] = rooms[next];
+                counters[slot] = counters[next];
+                rooms[next] = 0;
+                slot = next;
+            }
+        }
+    }
+
+    /**
+     * Doubles the size of the table.
+     *
+     */
+    private void grow() {
+        int[] oldRooms = rooms;
+        long[] oldCounters = counters;
+
+        rooms = new int[oldRooms.length * 2];
+        counters = new long[oldRooms.length * 2];
+
+        for (int i = 0; i < oldRooms.length; i++) {
+            if (oldRooms[i] != 0) {
+                int slot = find(oldRooms[i]);
+
+                rooms[slot] = oldRooms[i];
+                counters[slot] = oldCounters[i];
+            }
+        }
+    }
+
+    /**
+     * Marks a room as reached by the current search.
+     *
+     * @param room The room number (1 based)
+     * @return True if the room hadn't been reached yet, false if it had
+     */
+    private boolean markSeen(int room) {
+        // Keep it at most half full, like the tables.
+        if ((seenCount + 1) * 2 > seen.length) {
+            growSeen();
+        }
+
+        int mask = seen.length - 1;
+        int slot = hash(room) & mask;
+
+        // Slots from an older search count as empty, so nothing needs clearing between searches.
+        while (seenStamp[slot] == search) {
+            if (seen[slot] == room) {
+                return false;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        seen[slot] = room;
+        seenStamp[slot] = search;
+        seenCount++;
+        return true;
+    }
+
+    /**
+     * Doubles the size of the seen set, keeping the rooms the current search has reached.
+     *
+     */
+    private void growSeen() {
+        int[] oldSeen = seen;
+        int[] oldStamp = seenStamp;
+        int mask = oldSeen.length * 2 - 1;
+
+        seen = new int[oldSeen.length * 2];
+        seenStamp = new int[oldSeen.length * 2];
+
+        for (int i = 0; i < oldSeen.length; i++) {
+            if (oldStamp[i] == search) {
+                int slot = hash(oldSeen[i]) & mask;
+
+                while (seenStamp[slot] == search) {
+                    slot = (slot + 1) & mask;
+                }
+
+                seen[slot] = oldSeen[i];
+                seenStamp[slot] = search;
+            }
+        }
+    }
+
+    /**
+     * Scrambles a room number so neighboring rooms don't pile up in neighboring slots.
+     *
+     * @param room The room number
+     * @return The hash
+     */
+    private static int hash(int room) {
+        int h = room * 0x9E3779B9;
+
+        return h ^ (h >>> 16);
+    }
+}
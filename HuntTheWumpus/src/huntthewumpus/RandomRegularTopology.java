@@ -0,0 +1,81 @@
+package huntthewumpus;
+
+/**
+ * A random cave where every room has the same number of tunnels, like a
+ * random k-regular graph. It's built out of shuffles of the rooms: each shuffle
+ * strings every room together into one big loop, giving each room a tunnel to
+ * the room before it and the room after it. An odd degree adds one more shuffle
+ * that pairs rooms off. Since there's always at least one loop through every
+ * room, the cave is always connected.
+ *
+ * Nothing is stored. A room's tunnels come from finding where it landed in each
+ * shuffle and looking up its neighbors there, so any room can be worked out on
+ * its own. Once in a while two shuffles put the same two rooms side by side, and
+ * the repeated tunnel is dropped from both rooms, so a handful of rooms in a big
+ * cave end up with one or two tunnels fewer than the rest.
+ *
+ * @author Ivan Samuelson
+ */
+public final class RandomRegularTopology implements Topology {
+    private final int numRooms;         // How many rooms.
+    private final int degree;           // Tunnels per room.
+    private final Permutation[] loops;  // One shuffle for each loop through the rooms.
+    private final Permutation pairs;    // The shuffle that pairs rooms off for an odd degree, or null.
+
+    /**
+     * Creates a random cave.
+     *
+     * @param numRooms How many rooms
+     * @param degree How many tunnels each room gets, 2 or more
+     * @param seed Which cave. The same seed always gives the same cave.
+     */
+    public RandomRegularTopology(int numRooms, int degree, long seed) {
+        if (degree < 2 || degree >= numRooms) {
+            throw new IllegalArgumentException(String.format("Can't give %d rooms %d tunnels each", numRooms, degree));
+        }
+
+        this.numRooms = numRooms;
+        this.degree = degree;
+        this.loops = new Permutation[degree / 2];
+
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new Permutation(numRooms, seed + i);
+        }
+
+        this.pairs = (degree % 2 == 1) ? new Permutation(numRooms, seed + loops.length) : null;
+    }
+
+    @Override
+    public int getNumRooms() {
+        return numRooms;
+    }
+
+    @Override
+    public int getMaxDegree() {
+        return degree;
+    }
+
+    @Override
+    public int tunnels(int room, int[] tunnels) {
+        long index = room-1;
+        int count = 0;
+
+        for (Permutation loop : loops) {
+            long place = loop.inverse(index);
+
+            count = CaveGenerator.addTunnel(tunnels, count, room, (int) loop.apply((place + numRooms - 1) % numRooms) + 1);
+            count = CaveGenerator.addTunnel(tunnels, count, room, (int) loop.apply((place + 1) % numRooms) + 1);
+        }
+
+        // Rooms are paired off two places at a time. With an odd number of rooms the last one misses out.
+        if (pairs != null) {
+            long partner = pairs.inverse(index) ^ 1;
+
+            if (partner < numRooms) {
+                count = CaveGenerator.addTunnel(tunnels, count, room, (int) pairs.apply(partner) + 1);
+            }
+        }
+
+        return count;
+    }
+}
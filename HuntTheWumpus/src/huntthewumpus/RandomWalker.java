@@ -0,0 +1,30 @@
+package huntthewumpus;
+
+/**
+ * The clueless player. Wanders through a random tunnel every turn, ignores all
+ * the warnings, and now and then shoots an arrow down a random tunnel.
+ *
+ * @author Ivan Samuelson
+ */
+public class RandomWalker implements Strategy {
+    @Override
+    public int play(GameEngine engine, GameRandom random, int maxTurns) {
+        int turns = 0;
+
+        while (!engine.isGameOver() && turns < maxTurns) {
+            Room room = engine.getRoom(engine.getPlayerRoom());
+            int target = room.getAdjRoom(random.nextInt(room.getAdjRoomCount()));
+
+            // One turn in ten, shoot instead of walking.
+            if (random.nextInt(10) == 0) {
+                engine.shoot(target);
+            } else {
+                engine.move(target);
+            }
+
+            turns++;
+        }
+
+        return turns;
+    }
+}
@@ -0,0 +1,299 @@
+package huntthewumpus;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Appends games to a binary replay log. A game is stored as its seed, its hazard
+ * counts and the commands the player gave, so it can be played again exactly
+ * with ReplayRunner. Most commands take a single byte.
+ *
+ * The file is a header followed by any number of games:
+ *
+ *      header
+ *          int   magic         "WLOG"
+ *          byte  version       VERSION
+ *          long  fingerprint   Cave.getFingerprint() of the cave the games were played in
+ *      game
+ *          byte  'G'
+ *          long  seed
+ *          var   hazard count for each danger but NONE, in Danger order
+ *          var   rules         GameRules.getFlags()
+ *          var   command       see encode(), repeated. Shots are followed by
+ *                                  var   0 for a plain shot, or the length n of a
+ *                                        crooked arrow's path
+ *                                  var   n-1 more zigzag encoded rooms
+ *          var   0             end of commands
+ *          byte  outcome       see outcomeOf()
+ *          var   room          where the player ended up
+ *          var   arrows        how many arrows were left
+ *
+ * "var" numbers take 7 bits per byte, low bits first, with the top bit set on
+ * every byte but the last.
+ *
+ * Older logs still play back with ReplayRunner, but new games are only ever
+ * appended to logs of the current version:
+ *
+ *      version 1   before bats and rules, so games have one count for each of
+ *                  the first V1_DANGERS dangers and no rules
+ *      version 2   before crooked arrows, so shots have nothing after them
+ *
+ * @author Ivan Samuelson
+ */
+public final class ReplayLog implements Closeable {
+    static final int MAGIC = 0x574C4F47;    // "WLOG"
+    static final int VERSION = 3;
+    static final int V1_DANGERS = 3;        // Wumpus, spider and pit.
+    static final int GAME = 'G';
+
+    // Outcome codes. Dying adds the danger's ordinal to DIED.
+    static final int UNFINISHED = 0;
+    static final int WON = 1;
+    static final int OUT_OF_ARROWS = 2;
+    static final int DIED = 3;
+    static final int SHOT_SELF = 127;   // Well clear of DIED plus any danger.
+
+    private final DataOutputStream out; // Where the log is written.
+    private boolean inGame = false;     // Has a game been started but not ended?
+
+    /**
+     * Opens a replay log for appending, creating it if it doesn't exist yet.
+     *
+     * @param fileName The log file
+     * @param cave The cave the games are being played in
+     * @throws IOException If the log can't be opened, or it was recorded in a different cave
+     */
+    public ReplayLog(String fileName, Cave cave) throws IOException {
+        File file = new File(fileName);
+        boolean existing = file.length() > 0;
+
+        // Make sure we aren't mixing games from different caves in one log.
+        if (existing) {
+            try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+                checkHeader(in, cave);
+            }
+        }
+
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 1 << 16));
+
+        if (!existing) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(cave.getFingerprint());
+        }
+    }
+
+    /**
+     * Reads a log header and checks it belongs to the given cave.
+     *
+     * @param in Where to read the header from
+     * @param cave The cave the log should be for
+     * @throws IOException If the header is wrong or for a different cave
+     */
+    static void checkHeader(DataInputStream in, Cave cave) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a replay log");
+        }
+
+        int version = in.readUnsignedByte();
+
+        if (version != VERSION) {
+            throw new IOException(String.format("Replay log version %d is not supported, expected %d", version, VERSION));
+        }
+
+        if (in.readLong() != cave.getFingerprint()) {
+            throw new IOException("Replay log was recorded in a different cave");
+        }
+    }
+
+    /**
+     * Starts recording a new game, ending the last one if it wasn't already.
+     *
+     * @param seed The seed the game's GameRandom was created with
+     * @param config How many of each danger were placed
+     * @param rules Which hazard behaviors the game is played with
+     * @throws IOException If the log can't be written
+     */
+    public void startGame(long seed, HazardConfig config, GameRules rules) throws IOException {
+        if (inGame) {
+            endGame(UNFINISHED, 0, 0);
+        }
+
+        out.writeByte(GAME);
+        out.writeLong(seed);
+
+        for (int i = 1; i < Room.DANGERS.length; i++) {
+            writeVar(config.getCount(Room.DANGERS[i]));
+        }
+
+        writeVar(rules.getFlags());
+
+        inGame = true;
+    }
+
+    /**
+     * Records a command given to the game.
+     *
+     * @param shoot True for a shot, false for a move
+     * @param room The room number given with the command
+     * @throws IOException If the log can't be written
+     */
+    public void command(boolean shoot, int room) throws IOException {
+        writeVar(encode(shoot, room));
+
+        if (shoot) {
+            writeVar(0);    // Plain shot, not a crooked one.
+        }
+    }
+
+    /**
+     * Records a crooked arrow shot through a list of rooms.
+     *
+     * @param path The rooms given for the arrow's path
+     * @throws IOException If the log can't be written
+     */
+    public void shot(int[] path) throws IOException {
+        writeVar(encode(true, path.length > 0 ? path[0] : 0));
+        writeVar(path.length);
+
+        for (int i = 1; i < path.length; i++) {
+            writeVar(zigzag(path[i]));
+        }
+    }
+
+    /**
+     * Packs a command into a number that is never 0 (that marks the end of the
+     * commands) and fits in one byte for rooms up to 31, two bytes up to 4095.
+     * Rooms are zigzag encoded first so a player typing a negative room still
+     * replays the same.
+     *
+     * @param shoot True for a shot, false for a move
+     * @param room The room number given with the command
+     * @return The packed command
+     */
+    static long encode(boolean shoot, int room) {
+        return ((zigzag(room) << 1) | (shoot ? 1 : 0)) + 1;
+    }
+
+    /**
+     * Folds a room number so small negative numbers stay small: 0, -1, 1, -2...
+     * become 0, 1, 2, 3...
+     *
+     * @param room The room number
+     * @return The zigzag encoded number
+     */
+    static long zigzag(int room) {
+        return Integer.toUnsignedLong((room << 1) ^ (room >> 31));
+    }
+
+    /**
+     * Unfolds a zigzag encoded room number.
+     *
+     * @param zigzag The zigzag encoded number
+     * @return The room number
+     */
+    static int unzigzag(long zigzag) {
+        return ((int) zigzag >>> 1) ^ -((int) zigzag & 1);
+    }
+
+    /**
+     * Gets the room number back out of a packed command.
+     *
+     * @param command The packed command
+     * @return The room number
+     */
+    static int decodeRoom(long command) {
+        return unzigzag((command - 1) >>> 1);
+    }
+
+    /**
+     * Checks whether a packed command is a shot.
+     *
+     * @param command The packed command
+     * @return True for a shot, false for a move
+     */
+    static boolean decodeShoot(long command) {
+        return ((command - 1) & 1) != 0;
+    }
+
+    /**
+     * Ends the game being recorded, noting how it turned out so a replay can be checked.
+     *
+     * @param engine The game, after its last command
+     * @throws IOException If the log can't be written
+     */
+    public void endGame(GameEngine engine) throws IOException {
+        endGame(outcomeOf(engine), engine.getPlayerRoom(), engine.getArrowsLeft());
+    }
+
+    /**
+     * Writes out anything buffered and closes the log, ending any game still open.
+     *
+     * @throws IOException If the log can't be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (inGame) {
+            endGame(UNFINISHED, 0, 0);
+        }
+
+        out.close();
+    }
+
+    /**
+     * Works out the outcome code for a game.
+     *
+     * @param engine The game
+     * @return UNFINISHED, WON, OUT_OF_ARROWS, SHOT_SELF, or DIED plus the ordinal of what killed them
+     */
+    static int outcomeOf(GameEngine engine) {
+        if (!engine.isGameOver()) {
+            return UNFINISHED;
+        } else if (engine.isWon()) {
+            return WON;
+        } else if (engine.isShotSelf()) {
+            return SHOT_SELF;
+        } else if (engine.getKilledBy() != Room.Danger.NONE) {
+            return DIED + engine.getKilledBy().ordinal();
+        }
+
+        return OUT_OF_ARROWS;
+    }
+
+    /**
+     * Writes the end of a game.
+     *
+     * @param outcome The outcome code
+     * @param room Where the player ended up
+     * @param arrows How many arrows were left
+     * @throws IOException If the log can't be written
+     */
+    private void endGame(int outcome, int room, int arrows) throws IOException {
+        writeVar(0);
+        out.writeByte(outcome);
+        writeVar(room);
+        writeVar(arrows);
+        inGame = false;
+    }
+
+    /**
+     * Writes a non-negative number 7 bits at a time.
+     *
+     * @param value The number to write
+     * @throws IOException If the log can't be written
+     */
+    private void writeVar(long value) throws IOException {
+        while (value >= 0x80) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        out.writeByte((int) value);
+    }
+}
@@ -0,0 +1,209 @@
+package huntthewumpus;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Plays back every game in a replay log as fast as it can, with no console, and
+ * checks that each one turns out the same way it did when it was recorded.
+ *
+ * @author Ivan Samuelson
+ */
+public class ReplayRunner {
+    private final Cave cave;    // The cave the games were recorded in.
+    private ByteBuffer buffer;  // The log being played back.
+    private int version;        // The version of the log being played back.
+    private long games;         // How many games were played back.
+    private long commands;      // How many commands were played back.
+    private long mismatches;    // How many games didn't turn out the same.
+    private long firstMismatch = -1;    // Which game (0 based) was the first not to match.
+    private long elapsedNanos;  // How long the whole playback took.
+
+    /**
+     * Creates a runner for logs recorded in the given cave.
+     *
+     * @param cave The cave the games were recorded in
+     */
+    public ReplayRunner(Cave cave) {
+        this.cave = cave;
+    }
+
+    /**
+     * Plays back every game in a log.
+     *
+     * @param fileName The replay log
+     * @throws IOException If the log can't be read, is for a different cave, or is cut off
+     */
+    public void run(String fileName) throws IOException {
+        long start = System.nanoTime();
+
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Replay logs over 2 GB can't be mapped. Split the log up.");
+            }
+
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            // Header: magic, version and the fingerprint of the cave.
+            if (buffer.remaining() < 13 || buffer.getInt() != ReplayLog.MAGIC) {
+                throw new IOException("Not a replay log");
+            }
+
+            version = buffer.get();
+
+            if (version < 1 || version > ReplayLog.VERSION) {
+                throw new IOException(String.format("Replay log version %d is not supported", version));
+            }
+
+            if (buffer.getLong() != cave.getFingerprint()) {
+                throw new IOException("Replay log was recorded in a different cave");
+            }
+
+            while (buffer.hasRemaining()) {
+                replayGame();
+            }
+        } catch (BufferUnderflowException e) {
+            // Running off the end of the buffer means the last game was only partly written.
+            throw new IOException(String.format("Replay log is cut off in game %d", games+1), e);
+        } finally {
+            buffer = null;
+            elapsedNanos = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Plays back one game and checks how it turned out.
+     *
+     * @throws IOException If the game record is broken
+     */
+    private void replayGame() throws IOException {
+        if (buffer.get() != ReplayLog.GAME) {
+            throw new IOException(String.format("Replay log is corrupt at game %d", games+1));
+        }
+
+        long seed = buffer.getLong();
+        HazardConfig config = HazardConfig.CLASSIC;
+        int dangers = (version == 1) ? ReplayLog.V1_DANGERS : Room.DANGERS.length-1;
+
+        for (int i = 1; i <= dangers; i++) {
+            config = config.with(Room.DANGERS[i], (int) readVar());
+        }
+
+        // Version 1 games were all played with hazards that never moved.
+        GameRules rules = (version == 1) ? GameRules.NONE : new GameRules((int) readVar());
+        GameEngine engine = new GameEngine(cave, config, new GameRandom(seed));
+
+        rules.apply(engine);
+
+        for (long command = readVar(); command != 0; command = readVar()) {
+            int room = ReplayLog.decodeRoom(command);
+
+            // Crooked arrows came in with version 3, which says after every shot whether it was one.
+            int pathLength = (ReplayLog.decodeShoot(command) && version >= 3) ? (int) readVar() : 0;
+
+            if (pathLength > 0) {
+                int[] path = new int[pathLength];
+
+                path[0] = room;
+
+                for (int i = 1; i < pathLength; i++) {
+                    path[i] = ReplayLog.unzigzag(readVar());
+                }
+
+                engine.shoot(path);
+            } else if (ReplayLog.decodeShoot(command)) {
+                engine.shoot(room);
+            } else {
+                engine.move(room);
+            }
+
+            commands++;
+        }
+
+        int outcome = buffer.get();
+        int room = (int) readVar();
+        int arrows = (int) readVar();
+
+        // Unfinished games weren't ended with the engine, so only the outcome can be checked.
+        boolean matches = (outcome == ReplayLog.outcomeOf(engine))
+                && (outcome == ReplayLog.UNFINISHED || (room == engine.getPlayerRoom() && arrows == engine.getArrowsLeft()));
+
+        if (!matches) {
+            if (mismatches == 0) {
+                firstMismatch = games;
+            }
+
+            mismatches++;
+        }
+
+        games++;
+    }
+
+    /**
+     * Reads a number written 7 bits at a time.
+     *
+     * @return The number
+     */
+    private long readVar() {
+        long value = 0;
+        int shift = 0;
+        int b;
+
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        return value;
+    }
+
+    /**
+     * Gets how many games were played back
+     *
+     * @return The number of games
+     */
+    public long getGames() {
+        return games;
+    }
+
+    /**
+     * Gets how many commands were played back
+     *
+     * @return The number of commands
+     */
+    public long getCommands() {
+        return commands;
+    }
+
+    /**
+     * Gets how many games didn't turn out the way they were recorded
+     *
+     * @return The number of mismatched games
+     */
+    public long getMismatches() {
+        return mismatches;
+    }
+
+    /**
+     * Gets the first game that didn't turn out the way it was recorded
+     *
+     * @return The game number (0 based), or -1 if they all matched
+     */
+    public long getFirstMismatch() {
+        return firstMismatch;
+    }
+
+    /**
+     * Gets how long the playback took
+     *
+     * @return The time in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+}
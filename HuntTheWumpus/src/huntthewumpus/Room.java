@@ -1,57 +1,38 @@
 package huntthewumpus;
 
 /**
- * This defines a room in the Hunt the Wumpus game.
+ * This defines a room in the Hunt the Wumpus game. A Room doesn't hold any data
+ * of its own anymore, it is just a lightweight view of one room in a Cave along
+ * with the dangers of one game, so creating one is cheap and setting its danger
+ * shows up in that game.
  * 
  * @author Ivan Samuelson
  */
 public final class Room {
-    // Enumerate the different kinds of danger the player can experience
-    public enum Danger { NONE, WUMPUS, SPIDER, PIT; }
+    // Enumerate the different kinds of danger the player can experience. Bats
+    // don't kill, they just move the player somewhere else. New kinds go on the
+    // end so the ordinals stored in replay logs keep their meaning.
+    public enum Danger { NONE, WUMPUS, SPIDER, PIT, BATS; }
     
-    private int roomNo; // This is the current room number
-    private int adjRoom1, adjRoom2, adjRoom3;   // There are three adjacent rooms from this room
-    private String roomDesc;    // Description of the current room.
-    private Danger danger;    // This will hold what danger is in the room.
-                              // null = None, Wumpus, Pit, Spider - based off of Danger enum.
+    // Cached copy of Danger.values() so looking up a danger by ordinal doesn't
+    // clone the array every time.
+    static final Danger[] DANGERS = Danger.values();
     
-    // Default constructor. Doesn't do anything except set the danger to none, otherwise
-    // it will be null and we don't want that.
-    public Room() {
-        setDanger(Danger.NONE);
-    };
+    private final Cave cave;            // The cave this room is in.
+    private final HazardMap hazards;    // The dangers of the game this room is being played in.
+    private final int roomNo;           // This is the current room number
     
     /**
-     * Overloaded constructor that will create a room with supplied values except for danger.
+     * Creates a view of one room in a cave.
      * 
+     * @param cave The cave the room is in
+     * @param hazards The dangers of the game being played
      * @param roomNo What room number is this room
-     * @param adjRoom1 The first room that is adjacent to this room
-     * @param adjRoom2 The second room that is adjacent to this room
-     * @param adjRoom3 The third room that is adjacent to this room
-     * @param roomDesc The description of this room
      */
-    public Room(int roomNo, int adjRoom1, int adjRoom2, int adjRoom3, String roomDesc) {
-        this(roomNo, adjRoom1, adjRoom2, adjRoom3, roomDesc, Danger.NONE);
-    }
-
-    
-    /**
-     * Another overloaded constructor. This assigns all the values, including Danger.
-     * 
-     * @param roomNo What room number is this room
-     * @param adjRoom1 The first room that is adjacent to this room
-     * @param adjRoom2 The second room that is adjacent to this room
-     * @param adjRoom3 The third room that is adjacent to this room
-     * @param roomDesc The description of this room
-     * @param danger What danger lies in this room.
-     */
-    public Room(int roomNo, int adjRoom1, int adjRoom2, int adjRoom3, String roomDesc, Danger danger) {
-        setRoom(roomNo);
-        setAdjRoom1(adjRoom1);
-        setAdjRoom2(adjRoom2);
-        setAdjRoom3(adjRoom3);
-        setRoomDesc(roomDesc);
-        setDanger(danger);
+    public Room(Cave cave, HazardMap hazards, int roomNo) {
+        this.cave = cave;
+        this.hazards = hazards;
+        this.roomNo = roomNo;
     }
     
     /**
@@ -62,7 +43,7 @@ public final class Room {
      * @return True if the room is adjacent to the current room, false otherwise.
      */
     public boolean validRoom(int room) {
-        return (room == adjRoom1 || room == adjRoom2 || room == adjRoom3);
+        return cave.validRoom(roomNo, room);
     }
     
     // Public getters and setters
@@ -73,7 +54,7 @@ public final class Room {
      * @param danger What danger to set this room to.
      */
     public void setDanger(Danger danger) {
-        this.danger = danger;
+        hazards.put(roomNo, danger);
     }
     
     /**
@@ -82,16 +63,7 @@ public final class Room {
      * @return Danger that is assigned to the room
      */
     public Danger getDanger() {
-        return this.danger;
-    }
-    
-    /**
-     * Sets this rooms number.
-     * 
-     * @param roomNum What room number is this room
-     */
-    public void setRoom(int roomNum) {
-        this.roomNo = roomNum;
+        return hazards.get(roomNo);
     }
     
    /**
@@ -104,66 +76,22 @@ public final class Room {
     }
     
     /**
-     * Sets the first adjacent room value from this room
+     * Gets how many rooms are adjacent to this room
      * 
-     * @param adjRoom The room number of the adjacent room
+     * @return The number of tunnels out of this room
      */
-    public void setAdjRoom1(int adjRoom) {
-        this.adjRoom1 = adjRoom;
+    public int getAdjRoomCount() {
+        return cave.getDegree(roomNo);
     }
 
     /**
-     * Sets the second adjacent room value from this room
-     * 
-     * @param adjRoom The room number of the adjacent room
-     */
-    public void setAdjRoom2(int adjRoom) {
-        this.adjRoom2 = adjRoom;
-    }
-
-    /**
-     * Sets the third adjacent room value from this room
-     * 
-     * @param adjRoom The room number of the adjacent room
-     */
-    public void setAdjRoom3(int adjRoom) {
-        this.adjRoom3 = adjRoom;
-    }
-
-    /**
-     * Gets the first adjacent room value from this room
-     * 
-     * @return The room number of the first adjacent room
-     */
-    public int getAdjRoom1() {
-        return this.adjRoom1;
-    }
-
-    /**
-     * Gets the second adjacent room value from this room
-     * 
-     * @return The room number of the second adjacent room
-     */
-    public int getAdjRoom2() {
-        return this.adjRoom2;
-    }
-
-    /**
-     * Gets the third adjacent room value from this room
-     * 
-     * @return The room number of the third adjacent room
-     */
-    public int getAdjRoom3() {
-        return this.adjRoom3;
-    }
-    
-    /**
-     * Sets the rooms description
+     * Gets one of the adjacent room values from this room
      * 
-     * @param roomDesc The description of the room
+     * @param tunnel Which tunnel, from 0 to getAdjRoomCount()-1
+     * @return The room number of the adjacent room
      */
-    public void setRoomDesc(String roomDesc) {
-        this.roomDesc = roomDesc;
+    public int getAdjRoom(int tunnel) {
+        return cave.getAdjRoom(roomNo, tunnel);
     }
     
     /**
@@ -172,6 +100,6 @@ public final class Room {
      * @return The description of the room
      */
     public String getRoomDesc() {
-        return this.roomDesc;
+        return cave.getRoomDesc(roomNo);
     }
 }
@@ -0,0 +1,18 @@
+package huntthewumpus;
+
+/**
+ * This is where a Cave gets its room descriptions from. Descriptions are only
+ * needed when a room is described to the player, so implementations are free
+ * to keep them however is cheapest and turn them into Strings on demand.
+ *
+ * @author Ivan Samuelson
+ */
+public interface RoomDescriptions {
+    /**
+     * Gets the description of a room
+     *
+     * @param room The room number (1 based)
+     * @return The description of the room
+     */
+    String get(int room);
+}
@@ -0,0 +1,315 @@
+package huntthewumpus;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Starts a sharded cave as one local process per shard, hammers it with
+ * simulated players and reports how long moves take inside one shard and
+ * across two, and how many commands the shards get through together. Players
+ * wander like the LoadGenerator's, keep a connection to each shard they've
+ * been handed to, and follow every handoff straight away, so a move that
+ * crosses shards is timed from sending it to the new shard's answer to "J".
+ *
+ * @author Ivan Samuelson
+ */
+public class ShardBenchmark {
+    private final String shape;     // The cave's shape, as CaveGenerator.parse() takes it.
+    private final long seed;        // Which cave.
+    private final int shards;       // How many shard processes to start.
+    private final int basePort;     // Shard s listens on basePort + s.
+    private final int clients;      // How many players to simulate at once.
+    private final long durationNanos;   // How long to run for.
+    private final AtomicInteger failures = new AtomicInteger();     // Clients that couldn't connect or got cut off.
+    private final AtomicLong handoffs = new AtomicLong();           // Moves that crossed into another shard.
+
+    /**
+     * Creates a benchmark.
+     *
+     * @param shape The cave's shape, like torus:1000x1000
+     * @param seed Which cave, for the random shapes
+     * @param shards How many shard processes to start
+     * @param basePort Shard 0's port. The others follow on from it.
+     * @param clients How many players to simulate at once
+     * @param seconds How long to run for
+     */
+    public ShardBenchmark(String shape, long seed, int shards, int basePort, int clients, int seconds) {
+        this.shape = shape;
+        this.seed = seed;
+        this.shards = shards;
+        this.basePort = basePort;
+        this.clients = clients;
+        this.durationNanos = TimeUnit.SECONDS.toNanos(seconds);
+    }
+
+    /**
+     * Starts the shards, runs all the clients until time is up, prints the
+     * results and stops the shards again.
+     *
+     * @throws IOException If a shard process couldn't be started
+     * @throws InterruptedException If interrupted while waiting for the clients
+     */
+    public void run() throws IOException, InterruptedException {
+        List<Process> processes = new ArrayList<>();
+
+        try {
+            for (int shard = 0; shard < shards; shard++) {
+                processes.add(startShard(shard));
+            }
+
+            runClients();
+        } finally {
+            for (Process process : processes) {
+                process.destroy();
+            }
+        }
+    }
+
+    /**
+     * Starts one shard in its own JVM, on the same class path as this one, and
+     * waits for it to say it's listening. Anything else it prints is passed along.
+     *
+     * @param shard Which shard
+     * @return The process
+     * @throws IOException If it couldn't be started or didn't start listening
+     */
+    private Process startShard(int shard) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                HuntTheWumpus.class.getName(), "shard", shape, Integer.toString(shards), Integer.toString(shard),
+                Integer.toString(basePort), "-seed", Long.toString(seed)).redirectErrorStream(true).start();
+        BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.US_ASCII));
+        String line;
+
+        while ((line = in.readLine()) != null) {
+            System.out.printf("%s\n", line);
+
+            if (line.contains("listening on port")) {
+                break;
+            }
+        }
+
+        if (line == null) {
+            process.destroy();
+            throw new IOException(String.format("Shard %d didn't start", shard));
+        }
+
+        // Keep reading so a chatty shard never blocks on a full pipe.
+        Thread drain = new Thread(() -> {
+            try {
+                String more;
+
+                while ((more = in.readLine()) != null) {
+                    System.out.printf("%s\n", more);
+                }
+            } catch (IOException e) {
+                // The shard is gone.
+            }
+        }, "shard-" + shard + "-output");
+
+        drain.setDaemon(true);
+        drain.start();
+        return process;
+    }
+
+    /**
+     * Runs the clients until the deadline and prints what they saw.
+     *
+     * @throws InterruptedException If interrupted while waiting for the clients
+     */
+    private void runClients() throws InterruptedException {
+        ExecutorService executor = GameServer.newThreadPerTaskExecutor("wumpus-client");
+        CountDownLatch done = new CountDownLatch(clients);
+        List<LatencyHistogram[]> perClient = new ArrayList<>();
+        long start = System.nanoTime();
+        long deadline = start + durationNanos;
+
+        for (int i = 0; i < clients; i++) {
+            // Each client records into its own histograms so they don't fight over them.
+            LatencyHistogram[] histograms = { new LatencyHistogram(), new LatencyHistogram() };
+
+            perClient.add(histograms);
+            executor.execute(() -> {
+                try {
+                    runClient(histograms[0], histograms[1], deadline);
+                } catch (IOException e) {
+                    failures.incrementAndGet();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+
+        done.await();
+        executor.shutdown();
+
+        long elapsed = System.nanoTime() - start;
+        LatencyHistogram local = new LatencyHistogram();
+        LatencyHistogram crossing = new LatencyHistogram();
+
+        for (LatencyHistogram[] histograms : perClient) {
+            local.add(histograms[0]);
+            crossing.add(histograms[1]);
+        }
+
+        long commands = local.getCount() + crossing.getCount();
+
+        System.out.printf("%d shards, %d clients, %d failed, %d commands (%d crossed shards) in %.1f s: %.0f commands/s\n",
+                shards, clients, failures.get(), commands, handoffs.get(), elapsed / 1e9, commands / (elapsed / 1e9));
+        System.out.printf("Within a shard:  p50 %.1f us, p99 %.1f us, p99.9 %.1f us\n", local.getPercentile(50) / 1e3,
+                local.getPercentile(99) / 1e3, local.getPercentile(99.9) / 1e3);
+        System.out.printf("Across shards:   p50 %.1f us, p99 %.1f us, p99.9 %.1f us (move, handoff and join)\n",
+                crossing.getPercentile(50) / 1e3, crossing.getPercentile(99) / 1e3, crossing.getPercentile(99.9) / 1e3);
+    }
+
+    /**
+     * Plays as one client until the deadline, following the game from shard to shard.
+     *
+     * @param local Where to record commands answered by one shard
+     * @param crossing Where to record moves that were handed to another shard
+     * @param deadline When to stop, as a System.nanoTime() value
+     * @throws IOException If a connection fails
+     */
+    private void runClient(LatencyHistogram local, LatencyHistogram crossing, long deadline) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Connection[] connections = new Connection[shards];
+        int current = 0;    // The shard the game is in.
+
+        try {
+            connections[0] = new Connection(basePort);
+
+            String reply = connections[0].call("N");
+
+            while (reply != null && System.nanoTime() < deadline) {
+                String command;
+
+                if (reply.startsWith("ERROR") || reply.contains("; DIED") || reply.contains("; WON")
+                        || reply.contains("; OUT_OF_ARROWS") || reply.contains("; SHOT_SELF")) {
+                    // Every game starts in room 1, which is shard 0's.
+                    current = 0;
+                    command = "N";
+                } else {
+                    // Pick a random tunnel out of the room and usually walk, sometimes shoot.
+                    int[] tunnels = parseTunnels(reply);
+                    int room = tunnels[random.nextInt(tunnels.length)];
+
+                    command = (random.nextInt(10) == 0 ? "S " : "M ") + room;
+                }
+
+                long sent = System.nanoTime();
+
+                reply = connections[current].call(command);
+
+                int handoff = (reply == null) ? -1 : reply.indexOf("; HANDOFF ");
+
+                if (handoff < 0) {
+                    local.record(System.nanoTime() - sent);
+                    continue;
+                }
+
+                // "; HANDOFF shard port token": go and pick the game up.
+                String[] parts = reply.substring(handoff + "; HANDOFF ".length()).trim().split(" ");
+
+                current = Integer.parseInt(parts[0]);
+
+                if (connections[current] == null) {
+                    connections[current] = new Connection(Integer.parseInt(parts[1]));
+                }
+
+                reply = connections[current].call("J " + parts[2]);
+                crossing.record(System.nanoTime() - sent);
+                handoffs.incrementAndGet();
+            }
+        } finally {
+            for (Connection connection : connections) {
+                if (connection != null) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Pulls the tunnel list out of a reply like "ROOM 2 ARROWS 3 TUNNELS 1 3 7; ...".
+     *
+     * @param reply The reply from the shard
+     * @return The rooms the player can get to
+     */
+    private static int[] parseTunnels(String reply) {
+        int start = reply.indexOf("TUNNELS ") + "TUNNELS ".length();
+        int end = reply.indexOf(';', start);
+        String[] rooms = reply.substring(start, end < 0 ? reply.length() : end).trim().split(" ");
+        int[] tunnels = new int[rooms.length];
+
+        for (int i = 0; i < rooms.length; i++) {
+            tunnels[i] = Integer.parseInt(rooms[i]);
+        }
+
+        return tunnels;
+    }
+
+    /**
+     * One client's connection to one shard.
+     *
+     */
+    private static final class Connection {
+        private final Socket socket;
+        private final BufferedReader in;
+        private final OutputStream out;
+
+        /**
+         * Connects to a shard and reads its greeting.
+         *
+         * @param port The shard's port
+         * @throws IOException If it can't be reached
+         */
+        Connection(int port) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            socket.setTcpNoDelay(true);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            out = socket.getOutputStream();
+            in.readLine();
+        }
+
+        /**
+         * Sends a command and waits for the reply.
+         *
+         * @param command The command
+         * @return The reply, or null if the shard hung up
+         * @throws IOException If the connection fails
+         */
+        String call(String command) throws IOException {
+            out.write((command + "\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            return in.readLine();
+        }
+
+        /**
+         * Says goodbye and hangs up.
+         *
+         */
+        void close() {
+            try {
+                out.write("Q\n".getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                socket.close();
+            } catch (IOException e) {
+                // Already gone.
+            }
+        }
+    }
+}
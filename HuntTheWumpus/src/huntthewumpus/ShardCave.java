@@ -0,0 +1,233 @@
+package huntthewumpus;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One shard's piece of a cave too big for one process. It's built straight from
+ * the cave's Topology, which works out any room's tunnels on its own, so no
+ * process ever holds the whole cave.
+ *
+ * The piece is a normal Cave with its own room numbers: the rooms the shard owns
+ * come first, in order, then a halo of other shards' rooms around them. The halo
+ * is the shard's cache of the rooms on the far side of its borders. It holds
+ * every room within HALO_DEPTH tunnels of the shard, which is as far as anything
+ * a player in the shard can do will reach:
+ *
+ *      moving          into a room one tunnel away, then sensing dangers in
+ *                      the rooms next to that one
+ *      crooked arrow   up to MAX_ARROW_PATH rooms, bouncing down a random tunnel
+ *                      from any of them but the last
+ *
+ * So the engine's validRoom() checks and hazard sensing are all answered from
+ * the halo and never leave the process. Halo rooms carry all their tunnels,
+ * except the outermost ring, which only keeps tunnels to rooms in the piece.
+ * Nothing ever follows a tunnel out of the outermost ring.
+ *
+ * Runs of room numbers only make a small halo when neighbors are numbered
+ * close together, see ShardMap.
+ *
+ * @author Ivan Samuelson
+ */
+public final class ShardCave {
+    // How many tunnels out from the shard's own rooms the halo reaches.
+    public static final int HALO_DEPTH = GameEngine.MAX_ARROW_PATH;
+
+    private final ShardMap map;     // Which shard owns which room.
+    private final int shard;        // Which shard this is.
+    private final int first;        // The first room the shard owns.
+    private final int owned;        // How many rooms the shard owns.
+    private final int[] halo;       // Room numbers of the halo rooms, sorted.
+    private final Cave cave;        // The owned rooms and the halo, numbered locally.
+
+    /**
+     * Builds one shard's piece of a generated cave.
+     *
+     * @param topology The shape of the whole cave
+     * @param seed The seed the cave was generated with, which picks the descriptions
+     * @param map How the rooms are split between shards
+     * @param shard Which shard to build
+     */
+    public ShardCave(Topology topology, long seed, ShardMap map, int shard) {
+        this.map = map;
+        this.shard = shard;
+        this.first = map.getFirst(shard);
+        this.owned = map.getEnd(shard) - first;
+
+        int[] tunnels = new int[topology.getMaxDegree()];
+        Map<Integer, int[]> rings = new HashMap<>();    // Tunnels out of each halo room found so far.
+        List<Integer> frontier = new ArrayList<>();     // The ring of the halo being filled in.
+        long size = 0;      // How many tunnels the piece has.
+
+        // Find the first ring: other shards' rooms right next to ours.
+        for (int room = first; room < first + owned; room++) {
+            int count = topology.tunnels(room, tunnels);
+
+            size += count;
+
+            for (int i = 0; i < count; i++) {
+                if (!isOwned(tunnels[i]) && !rings.containsKey(tunnels[i])) {
+                    rings.put(tunnels[i], null);
+                    frontier.add(tunnels[i]);
+                }
+            }
+        }
+
+        // Then each ring is whatever the one before it leads to that we haven't seen.
+        for (int depth = 1; depth <= HALO_DEPTH; depth++) {
+            List<Integer> next = new ArrayList<>();
+
+            for (int room : frontier) {
+                int count = topology.tunnels(room, tunnels);
+
+                rings.put(room, Arrays.copyOf(tunnels, count));
+
+                if (depth == HALO_DEPTH) {
+                    continue;
+                }
+
+                for (int i = 0; i < count; i++) {
+                    if (!isOwned(tunnels[i]) && !rings.containsKey(tunnels[i])) {
+                        rings.put(tunnels[i], null);
+                        next.add(tunnels[i]);
+                    }
+                }
+            }
+
+            frontier = next;
+        }
+
+        halo = new int[rings.size()];
+
+        int h = 0;
+
+        for (int room : rings.keySet()) {
+            halo[h++] = room;
+        }
+
+        Arrays.sort(halo);
+
+        // The outermost ring only keeps its tunnels to rooms in the piece. Count
+        // them up first, so a big shard's tunnels are only allocated once.
+        for (int[] out : rings.values()) {
+            for (int adj : out) {
+                size += (toLocal(adj) != 0) ? 1 : 0;
+            }
+        }
+
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException(String.format("Shard %d has too many tunnels to hold", shard));
+        }
+
+        // Now the local cave, owned rooms first.
+        int[] offsets = new int[owned + halo.length + 1];
+        int[] neighbors = new int[(int) size];
+        int filled = 0;
+
+        for (int local = 1; local < offsets.length; local++) {
+            int room = toGlobal(local);
+            int[] out = (local <= owned) ? tunnels : rings.get(room);
+            int count = (local <= owned) ? topology.tunnels(room, tunnels) : out.length;
+
+            for (int i = 0; i < count; i++) {
+                int adj = toLocal(out[i]);
+
+                if (adj != 0) {
+                    neighbors[filled++] = adj;
+                }
+            }
+
+            offsets[local] = filled;
+        }
+
+        CaveGenerator generator = new CaveGenerator(topology, seed, 1);
+
+        this.cave = new Cave(offsets, neighbors,
+                local -> new String(generator.description(toGlobal(local)), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Gets how the rooms are split between shards
+     *
+     * @return The shard map
+     */
+    public ShardMap getMap() {
+        return map;
+    }
+
+    /**
+     * Gets which shard this is
+     *
+     * @return The shard, from 0
+     */
+    public int getShard() {
+        return shard;
+    }
+
+    /**
+     * Gets the shard's piece of the cave, with the rooms numbered locally
+     *
+     * @return The cave
+     */
+    public Cave getCave() {
+        return cave;
+    }
+
+    /**
+     * Gets how many rooms the shard owns
+     *
+     * @return The number of rooms, which are local rooms 1 up to this
+     */
+    public int getOwnedRooms() {
+        return owned;
+    }
+
+    /**
+     * Gets how many other shards' rooms are cached in the halo
+     *
+     * @return The number of halo rooms
+     */
+    public int getHaloRooms() {
+        return halo.length;
+    }
+
+    /**
+     * Checks whether the shard owns a room
+     *
+     * @param room The room number in the whole cave
+     * @return True if it's one of the shard's own rooms
+     */
+    public boolean isOwned(int room) {
+        return room >= first && room < first + owned;
+    }
+
+    /**
+     * Turns a room number in the whole cave into one in the piece.
+     *
+     * @param room The room number in the whole cave
+     * @return The local room number, or 0 if the room isn't in the piece
+     */
+    public int toLocal(int room) {
+        if (isOwned(room)) {
+            return room - first + 1;
+        }
+
+        int index = Arrays.binarySearch(halo, room);
+
+        return (index < 0) ? 0 : owned + index + 1;
+    }
+
+    /**
+     * Turns a room number in the piece back into one in the whole cave.
+     *
+     * @param local The local room number
+     * @return The room number in the whole cave
+     */
+    public int toGlobal(int local) {
+        return (local <= owned) ? first + local - 1 : halo[local - owned - 1];
+    }
+}
@@ -0,0 +1,379 @@
+package huntthewumpus;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One game in a sharded cave. Everything about the game that moves with the
+ * player from shard to shard is kept in room numbers of the whole cave: where
+ * the player is, their arrows, the game's random numbers and where every
+ * hazard is. A GameEngine plays it in the current shard's piece of the cave,
+ * with just the hazards that fall in the piece, and commands and events are
+ * turned between the two sets of room numbers on the way in and out.
+ *
+ * Once a move leaves the player in another shard's room, isAway() says so and
+ * the game is handed off to that shard with write(), which is a few dozen bytes:
+ *
+ *      int   magic         "WSHG"
+ *      long  random        GameRandom.getState()
+ *      int   player room   in the whole cave
+ *      byte  arrows left
+ *      int   hazards
+ *          int   room      in the whole cave
+ *          byte  danger ordinal                x hazards
+ *
+ * Only games without GameRules can be sharded, so the hazards never move and
+ * the list is the same on every shard. A game that's over isn't handed off.
+ *
+ * This is per game and not thread-safe.
+ *
+ * @author Ivan Samuelson
+ */
+public final class ShardGame {
+    static final int MAGIC = 0x47485357;    // "WSHG" when read as little endian bytes.
+    static final int ARROWS = 3;            // Arrows every game starts with, like GameEngine.
+
+    private final ShardCave piece;      // The shard's piece of the cave.
+    private final int[] hazardRooms;    // Where every hazard is, in the whole cave.
+    private final byte[] hazardDangers; // What each one is, by danger ordinal.
+    private final GameRandom random;    // The game's randomness, shared with the engine.
+    private final int playerRoom;       // Where the player came in, in the whole cave.
+    private final int arrowsLeft;       // Arrows they came in with.
+    private final GameEngine engine;    // Plays the game here, or null if the player isn't in the piece.
+    private int[] foreign = new int[GameEngine.MAX_ARROW_PATH];     // Rooms outside the piece given with the last command.
+    private int numForeign;             // How many of them there are.
+
+    /**
+     * Sets up a game in a shard's piece of the cave.
+     *
+     * @param piece The shard's piece of the cave
+     * @param hazardRooms Where every hazard is, in the whole cave
+     * @param hazardDangers What each one is, by danger ordinal
+     * @param random The game's randomness
+     * @param playerRoom Where the player is, in the whole cave
+     * @param arrowsLeft How many arrows they have
+     */
+    private ShardGame(ShardCave piece, int[] hazardRooms, byte[] hazardDangers, GameRandom random,
+            int playerRoom, int arrowsLeft) {
+        this.piece = piece;
+        this.hazardRooms = hazardRooms;
+        this.hazardDangers = hazardDangers;
+        this.random = random;
+        this.playerRoom = playerRoom;
+        this.arrowsLeft = arrowsLeft;
+
+        if (piece.toLocal(playerRoom) == 0) {
+            // Just passing through, on its way to the shard that owns the room.
+            this.engine = null;
+            return;
+        }
+
+        HazardMap hazards = new HazardMap(Math.max(1, hazardRooms.length));
+
+        // Hazards out past the halo can't be reached from here, so they're left out.
+        for (int i = 0; i < hazardRooms.length; i++) {
+            int local = piece.toLocal(hazardRooms[i]);
+
+            if (local != 0) {
+                hazards.put(local, Room.DANGERS[hazardDangers[i]]);
+            }
+        }
+
+        this.engine = new GameEngine(piece.getCave(), hazards, random, 1);
+        engine.restorePlayer(piece.toLocal(playerRoom), arrowsLeft, false, false, false, Room.Danger.NONE);
+    }
+
+    /**
+     * Starts a new game, with the dangers placed anywhere in the whole cave but
+     * room 1. The dangers come out exactly where an unsharded GameEngine would
+     * put them with the same random numbers.
+     *
+     * @param piece The shard's piece of the cave
+     * @param config How many of each danger to place
+     * @param random Where the randomness for this game comes from
+     * @return The game, in room 1
+     */
+    public static ShardGame start(ShardCave piece, HazardConfig config, GameRandom random) {
+        HazardMap all = new HazardMap(config.getTotal());
+        int collisions = HazardPlacer.place(piece.getMap().getNumRooms(), 1, config, random, all);
+        int[] rooms = all.getRooms();
+        byte[] dangers = new byte[rooms.length];
+
+        for (int i = 0; i < rooms.length; i++) {
+            dangers[i] = (byte) all.get(rooms[i]).ordinal();
+        }
+
+        GameMetrics.GLOBAL.gameStarted(config.getTotal(), collisions);
+        return new ShardGame(piece, rooms, dangers, random, 1, ARROWS);
+    }
+
+    /**
+     * Moves the player into an adjacent room.
+     *
+     * @param room The room number in the whole cave
+     * @return What happened, in local room numbers. See GameEngine.move().
+     */
+    public List<GameEvent> move(int room) {
+        numForeign = 0;
+        return engine.move(local(room));
+    }
+
+    /**
+     * Shoots an arrow into an adjacent room.
+     *
+     * @param room The room number in the whole cave
+     * @return What happened, in local room numbers. See GameEngine.shoot().
+     */
+    public List<GameEvent> shoot(int room) {
+        numForeign = 0;
+        return engine.shoot(local(room));
+    }
+
+    /**
+     * Shoots a crooked arrow through a list of rooms.
+     *
+     * @param path The room numbers in the whole cave
+     * @return What happened, in local room numbers. See GameEngine.shoot().
+     */
+    public List<GameEvent> shoot(int[] path) {
+        int[] rooms = new int[path.length];
+
+        numForeign = 0;
+
+        for (int i = 0; i < path.length; i++) {
+            rooms[i] = local(path[i]);
+        }
+
+        return engine.shoot(rooms);
+    }
+
+    /**
+     * Looks around the room the player is in.
+     *
+     * @return The warnings. See GameEngine.look().
+     */
+    public List<GameEvent> look() {
+        return engine.look();
+    }
+
+    /**
+     * Turns a room number from the player into a local one. A room that isn't in
+     * the piece, or isn't a room at all, can't be next to the player. It's kept
+     * with the command and gets a negative number that the engine won't find a
+     * tunnel to, the same one each time it comes up in the command, and that
+     * toGlobal() turns back into whatever the player typed.
+     *
+     * @param room The room number in the whole cave
+     * @return The local room number
+     */
+    private int local(int room) {
+        int local = (room < 1) ? 0 : piece.toLocal(room);
+
+        if (local != 0) {
+            return local;
+        }
+
+        for (int i = 0; i < numForeign; i++) {
+            if (foreign[i] == room) {
+                return -(i+1);
+            }
+        }
+
+        if (numForeign == foreign.length) {
+            foreign = Arrays.copyOf(foreign, foreign.length * 2);
+        }
+
+        foreign[numForeign++] = room;
+        return -numForeign;
+    }
+
+    /**
+     * Turns a room number in an event back into one in the whole cave.
+     *
+     * @param local The local room number, as found in an event from the last command
+     * @return The room number in the whole cave, what the player typed for a
+     *         room outside the piece, or 0 if the event has no room
+     */
+    public int toGlobal(int local) {
+        if (local > 0) {
+            return piece.toGlobal(local);
+        }
+
+        return (local < 0) ? foreign[-local-1] : 0;
+    }
+
+    /**
+     * Gets the engine playing the game in this shard
+     *
+     * @return The engine, with local room numbers, or null if the player isn't in the piece
+     */
+    public GameEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Gets the room the player is in
+     *
+     * @return The room number in the whole cave
+     */
+    public int getPlayerRoom() {
+        return (engine == null) ? playerRoom : piece.toGlobal(engine.getPlayerRoom());
+    }
+
+    /**
+     * Gets how many arrows the player has left
+     *
+     * @return The number of arrows
+     */
+    public int getArrowsLeft() {
+        return (engine == null) ? arrowsLeft : engine.getArrowsLeft();
+    }
+
+    /**
+     * Checks whether the game has ended
+     *
+     * @return True if the game is over
+     */
+    public boolean isGameOver() {
+        return engine != null && engine.isGameOver();
+    }
+
+    /**
+     * Checks whether the player has left the shard's own rooms, so the game
+     * needs handing off before the next command
+     *
+     * @return True if the game is still going in another shard's room
+     */
+    public boolean isAway() {
+        return !isGameOver() && !piece.isOwned(getPlayerRoom());
+    }
+
+    /**
+     * Gets which shard owns the room the player is in
+     *
+     * @return The shard, from 0
+     */
+    public int getOwner() {
+        return piece.getMap().getOwner(getPlayerRoom());
+    }
+
+    /**
+     * Gets the rooms the player can get to from where they are
+     *
+     * @return The room numbers, in the whole cave
+     */
+    public int[] getTunnels() {
+        Cave cave = piece.getCave();
+        int room = engine.getPlayerRoom();
+        int[] tunnels = new int[cave.getDegree(room)];
+
+        for (int i = 0; i < tunnels.length; i++) {
+            tunnels[i] = piece.toGlobal(cave.getAdjRoom(room, i));
+        }
+
+        return tunnels;
+    }
+
+    /**
+     * Works out how many bytes write() takes
+     *
+     * @return The size in bytes
+     */
+    public int sizeOf() {
+        return 4 + 8 + 4 + 1 + 4 + 5 * hazardRooms.length;
+    }
+
+    /**
+     * Writes the game out to hand it to another shard, starting at the buffer's position.
+     *
+     * @param buffer Where to write it. Must have sizeOf() bytes left.
+     */
+    public void write(ByteBuffer buffer) {
+        ByteBuffer out = buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        out.putInt(MAGIC);
+        out.putLong(random.getState());
+        out.putInt(getPlayerRoom());
+        out.put((byte) getArrowsLeft());
+        out.putInt(hazardRooms.length);
+
+        for (int i = 0; i < hazardRooms.length; i++) {
+            out.putInt(hazardRooms[i]);
+            out.put(hazardDangers[i]);
+        }
+    }
+
+    /**
+     * Picks up a game handed over by another shard, starting at the buffer's
+     * position. Anything a game started with start() couldn't have come to is
+     * turned away: more arrows than it started with, or hazards other than the
+     * ones the shards place.
+     *
+     * @param buffer Where to read it from
+     * @param piece This shard's piece of the cave
+     * @param config How many of each danger every game has
+     * @return The game, ready to carry on
+     * @throws IOException If the game is broken, or for a cave of a different size
+     */
+    public static ShardGame read(ByteBuffer buffer, ShardCave piece, HazardConfig config) throws IOException {
+        ByteBuffer in = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        int numRooms = piece.getMap().getNumRooms();
+
+        try {
+            if (in.getInt() != MAGIC) {
+                throw new IOException("Not a sharded game");
+            }
+
+            long random = in.getLong();
+            int playerRoom = in.getInt();
+            int arrowsLeft = in.get();
+            int numHazards = in.getInt();
+
+            if (numHazards != config.getTotal() || numHazards > in.remaining() / 5) {
+                throw new IOException(String.format("Sharded game has %d hazards in it", numHazards));
+            }
+
+            int[] rooms = new int[numHazards];
+            byte[] dangers = new byte[numHazards];
+            int[] counts = new int[Room.DANGERS.length];
+
+            for (int i = 0; i < numHazards; i++) {
+                rooms[i] = in.getInt();
+                dangers[i] = in.get();
+
+                if (rooms[i] < 1 || rooms[i] > numRooms || dangers[i] <= 0 || dangers[i] >= Room.DANGERS.length) {
+                    throw new IOException(String.format("Sharded game has a bad hazard in room %d", rooms[i]));
+                }
+
+                // Two hazards never share a room.
+                for (int j = 0; j < i; j++) {
+                    if (rooms[j] == rooms[i]) {
+                        throw new IOException(String.format("Sharded game has two hazards in room %d", rooms[i]));
+                    }
+                }
+
+                counts[dangers[i]]++;
+            }
+
+            for (Room.Danger danger : Room.DANGERS) {
+                if (counts[danger.ordinal()] != config.getCount(danger)) {
+                    throw new IOException(String.format("Sharded game has %d %s hazards in it",
+                            counts[danger.ordinal()], danger));
+                }
+            }
+
+            if (playerRoom < 1 || playerRoom > numRooms || arrowsLeft < 1 || arrowsLeft > ARROWS) {
+                throw new IOException(String.format("Sharded game has the player in room %d with %d arrows",
+                        playerRoom, arrowsLeft));
+            }
+
+            return new ShardGame(piece, rooms, dangers, new GameRandom(random), playerRoom, arrowsLeft);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Sharded game is cut off", e);
+        }
+    }
+}
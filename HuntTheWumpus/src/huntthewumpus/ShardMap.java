@@ -0,0 +1,85 @@
+package huntthewumpus;
+
+/**
+ * Splits the rooms of a cave between a number of shards, each one a separate
+ * process with its own heap. Shard s owns one contiguous run of room numbers,
+ * so which shard owns a room is one division and every process can work it out
+ * for itself without asking anybody.
+ *
+ * Runs of room numbers make good shards when rooms are numbered so that
+ * neighbors are close together, like the rows of a grid or torus or the ring
+ * of a small world cave. Then only the rooms along the edge of a run have
+ * tunnels into another shard.
+ *
+ * @author Ivan Samuelson
+ */
+public final class ShardMap {
+    private final int numRooms;     // How many rooms are in the whole cave.
+    private final int shards;       // How many shards the rooms are split between.
+
+    /**
+     * Splits a cave's rooms between shards as evenly as they'll go, so no two
+     * shards own more than one room apart.
+     *
+     * @param numRooms How many rooms are in the whole cave
+     * @param shards How many shards to split them between
+     * @throws IllegalArgumentException If there are more shards than rooms
+     */
+    public ShardMap(int numRooms, int shards) {
+        if (shards < 1 || shards > numRooms) {
+            throw new IllegalArgumentException(String.format("Can't split %d rooms into %d shards", numRooms, shards));
+        }
+
+        this.numRooms = numRooms;
+        this.shards = shards;
+    }
+
+    /**
+     * Gets how many rooms are in the whole cave
+     *
+     * @return The number of rooms
+     */
+    public int getNumRooms() {
+        return numRooms;
+    }
+
+    /**
+     * Gets how many shards there are
+     *
+     * @return The number of shards
+     */
+    public int getShards() {
+        return shards;
+    }
+
+    /**
+     * Gets which shard owns a room
+     *
+     * @param room The room number (1 based)
+     * @return The shard, from 0
+     */
+    public int getOwner(int room) {
+        // The last shard whose first room is at or before this one.
+        return (int) (((long) room * shards - 1) / numRooms);
+    }
+
+    /**
+     * Gets the first room a shard owns
+     *
+     * @param shard The shard, from 0
+     * @return The room number (1 based)
+     */
+    public int getFirst(int shard) {
+        return (int) ((long) shard * numRooms / shards) + 1;
+    }
+
+    /**
+     * Gets one past the last room a shard owns
+     *
+     * @param shard The shard, from 0
+     * @return The room number (1 based) after the shard's last room
+     */
+    public int getEnd(int shard) {
+        return getFirst(shard+1);
+    }
+}
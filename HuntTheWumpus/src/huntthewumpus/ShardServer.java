@@ -0,0 +1,620 @@
+package huntthewumpus;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hosts the games in one shard of a cave too big for one process. Every shard
+ * is its own process on the same machine, listening on the base port plus its
+ * shard number, and plays the games of players standing in the rooms it owns.
+ * It listens for the other shards on a second port, see getPeerPort().
+ *
+ * Players talk to it much like a GameServer, one line in and one line out:
+ *
+ *      M room      move into a room
+ *      S room      shoot into a room
+ *      S r1 r2 ... shoot a crooked arrow through up to 5 rooms
+ *      L           look around
+ *      N           start a new game in room 1
+ *      J token     pick up a game another shard handed over
+ *      STATS       the shard's GameMetrics, as "STATS name value; name value; ..."
+ *      Q           quit
+ *
+ * and the replies are the same "ROOM 2 ARROWS 3 TUNNELS 1 3 7; MOVED 2" lines.
+ * A connection is greeted with "SHARD s OF n ROOMS first last HALO h".
+ *
+ * When a move takes the player into another shard's room, the game is sent to
+ * that shard over a socket between the two, and the reply ends with
+ *
+ *      ; HANDOFF shard port token
+ *
+ *  * The player connects to that shard (or reuses a connection they have) and
+ * sends "J token" to carry on. A game handed over is held for PARK_MILLIS
+ * waiting for its player.
+ *
+ * Shards hand games to each other on the peer port with "H game", the game
+ * written by ShardGame.write() in base 64, and get "TOKEN token" back. The
+ * peer port only listens on the loopback interface and players can't send "H"
+ * on theirs, so nobody out on the network can make up a game and join it. The
+ * game is still checked when it's picked up, in case it isn't one a shard
+ * could have written. Connections between shards are kept open and reused.
+ *
+ * Only games without GameRules are played, and no snapshots or history are
+ * kept, since a game's turns are spread over several processes.
+ *
+ * @author Ivan Samuelson
+ */
+public class ShardServer implements Closeable {
+    // How long a handed off game waits for its player, in milliseconds.
+    static final long PARK_MILLIS = 10000;
+
+    // The dangers every game has. Games are only sharded without GameRules.
+    static final HazardConfig HAZARDS = HazardConfig.CLASSIC;
+
+    private final ShardCave piece;      // This shard's piece of the cave.
+    private final int basePort;         // Shard s listens on basePort + s, and getPeerPort(s).
+    private final ExecutorService executor = GameServer.newThreadPerTaskExecutor("wumpus-shard");
+    private final Map<Long, Parked> parked = new ConcurrentHashMap<>();    // Handed over games waiting for their players.
+    private final Queue<Parked> arrivals = new ConcurrentLinkedQueue<>();  // The same games, oldest first, for expiring them.
+    private final List<Queue<Peer>> peers = new ArrayList<>();  // Idle connections to each other shard.
+    private final AtomicInteger activeSessions = new AtomicInteger();     // How many connections are open.
+    private volatile ServerSocket serverSocket; // Set once the server is listening.
+    private volatile ServerSocket peerSocket;   // Set once the server is listening for other shards.
+
+    /**
+     * Creates a server for one shard.
+     *
+     * @param piece The shard's piece of the cave
+     * @param basePort Shard 0's port. This shard listens on basePort plus its shard number.
+     */
+    public ShardServer(ShardCave piece, int basePort) {
+        this.piece = piece;
+        this.basePort = basePort;
+
+        for (int i = 0; i < piece.getMap().getShards(); i++) {
+            peers.add(new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    /**
+     * Gets the port a shard listens for the other shards on. It comes after all
+     * the shards' player ports and only takes connections from this machine.
+     *
+     * @param shard The shard, from 0
+     * @return The port
+     */
+    public int getPeerPort(int shard) {
+        return basePort + piece.getMap().getShards() + shard;
+    }
+
+    /**
+     * Listens for connections from players and other shards until the server is
+     * closed. Each connection is handed off to its own session thread.
+     *
+     * @throws IOException If the server can't listen on its ports
+     */
+    public void serve() throws IOException {
+        try (ServerSocket server = new ServerSocket(basePort + piece.getShard(), 1024);
+             ServerSocket peerServer = new ServerSocket(getPeerPort(piece.getShard()), 1024, InetAddress.getLoopbackAddress())) {
+            serverSocket = server;
+            peerSocket = peerServer;
+
+            executor.execute(() -> {
+                try {
+                    accept(peerServer, true);
+                } catch (IOException e) {
+                    System.out.printf("Encountered the following exception while listening for shards: %s\n", e.getMessage());
+                }
+            });
+
+            accept(server, false);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Accepts connections until the server socket is closed.
+     *
+     * @param server The socket to accept them on
+     * @param fromPeers True if it's the peer port, so the connections are other shards
+     * @throws IOException If accepting fails
+     */
+    private void accept(ServerSocket server, boolean fromPeers) throws IOException {
+        while (!server.isClosed()) {
+            Socket socket;
+
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                // Closed out from under us means we're shutting down.
+                if (server.isClosed()) {
+                    break;
+                }
+
+                throw e;
+            }
+
+            socket.setTcpNoDelay(true);
+
+            if (fromPeers) {
+                executor.execute(() -> runPeerSession(socket));
+            } else {
+                executor.execute(() -> runSession(socket));
+            }
+        }
+    }
+
+    /**
+     * Stops accepting new connections and lets go of the ones to other shards.
+     *
+     * @throws IOException If the server socket can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+
+        if (peerSocket != null) {
+            peerSocket.close();
+        }
+
+        for (Queue<Peer> idle : peers) {
+            Peer peer;
+
+            while ((peer = idle.poll()) != null) {
+                peer.close();
+            }
+        }
+    }
+
+    /**
+     * Gets how many connections are open right now, from players and other shards
+     *
+     * @return The number of active sessions
+     */
+    public int getActiveSessions() {
+        return activeSessions.get();
+    }
+
+    /**
+     * Gets how many handed over games are waiting for their players
+     *
+     * @return The number of games
+     */
+    public int getParkedGames() {
+        return parked.size();
+    }
+
+    /**
+     * Talks to one player until they quit or hang up.
+     *
+     * @param socket The connection
+     */
+    private void runSession(Socket socket) {
+        ShardMap map = piece.getMap();
+
+        activeSessions.incrementAndGet();
+
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII));
+             Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.US_ASCII))) {
+            ShardGame game = null;      // The player's game, while it's in this shard.
+            StringBuilder reply = new StringBuilder(128);
+            String line;
+
+            out.write(String.format("SHARD %d OF %d ROOMS %d %d HALO %d\n", piece.getShard(), map.getShards(),
+                    map.getFirst(piece.getShard()), map.getEnd(piece.getShard()) - 1, piece.getHaloRooms()));
+            out.flush();
+
+            while ((line = in.readLine()) != null) {
+                String command = line.trim();
+                long turnStart = System.nanoTime();
+
+                if (command.equalsIgnoreCase("Q")) {
+                    break;
+                } else if (command.equalsIgnoreCase("STATS")) {
+                    out.write("STATS " + GameMetrics.GLOBAL.dump().trim().replace("\n", "; ") + "\n");
+                    out.flush();
+                    continue;
+                } else if (command.equalsIgnoreCase("N")) {
+                    game = ShardGame.start(piece, HAZARDS, new GameRandom());
+
+                    if (game.isAway()) {
+                        // Room 1 is somebody else's, so the game starts over there.
+                        game = handoff(out, null, game, null);
+                    } else {
+                        reply(out, reply, game, game.look(), null);
+                    }
+                } else if (command.length() >= 2 && (command.charAt(0) == 'J' || command.charAt(0) == 'j')) {
+                    ShardGame joined;
+
+                    try {
+                        joined = join(Long.parseLong(command.substring(1).trim()));
+                    } catch (NumberFormatException e) {
+                        error(out, "You entered an invalid token");
+                        continue;
+                    }
+
+                    if (joined == null) {
+                        error(out, "There is no game waiting with that token");
+                        continue;
+                    }
+
+                    game = joined;
+                    reply(out, reply, game, null, null);
+                } else if (game == null) {
+                    error(out, "There is no game here, send N to start one");
+                    continue;
+                } else if (command.equalsIgnoreCase("L")) {
+                    reply(out, reply, game, game.look(), null);
+                } else if (command.length() >= 2 && (command.charAt(0) == 'M' || command.charAt(0) == 'm'
+                        || command.charAt(0) == 'S' || command.charAt(0) == 's')) {
+                    // "S 3 4 12" shoots a crooked arrow through each room in turn.
+                    String[] rooms = command.substring(1).trim().split("[\\s,]+");
+                    int[] path = new int[rooms.length];
+
+                    try {
+                        for (int i = 0; i < rooms.length; i++) {
+                            path[i] = Integer.parseInt(rooms[i]);
+                        }
+                    } catch (NumberFormatException e) {
+                        error(out, "You entered an invalid number");
+                        continue;
+                    }
+
+                    boolean moving = (command.charAt(0) == 'M' || command.charAt(0) == 'm');
+                    List<GameEvent> events;
+
+                    if (moving && path.length > 1) {
+                        error(out, "You can only move one room at a time");
+                        continue;
+                    } else if (moving) {
+                        events = game.move(path[0]);
+                    } else {
+                        events = (path.length > 1) ? game.shoot(path) : game.shoot(path[0]);
+                    }
+
+                    if (game.isAway()) {
+                        game = handoff(out, reply, game, events);
+                    } else {
+                        reply(out, reply, game, events, null);
+                    }
+                } else {
+                    error(out, "Unknown command");
+                    continue;
+                }
+
+                GameMetrics.GLOBAL.turn(System.nanoTime() - turnStart);
+            }
+        } catch (IOException e) {
+            // The client went away. Nothing to clean up but the socket.
+        } finally {
+            activeSessions.decrementAndGet();
+        }
+    }
+
+    /**
+     * Takes games handed over by one other shard until it hangs up. Nothing
+     * but "H game" and "Q" is listened to here.
+     *
+     * @param socket The connection, from this machine
+     */
+    private void runPeerSession(Socket socket) {
+        activeSessions.incrementAndGet();
+
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII));
+             Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.US_ASCII))) {
+            String line;
+
+            out.write(String.format("SHARD %d PEER\n", piece.getShard()));
+            out.flush();
+
+            while ((line = in.readLine()) != null) {
+                String command = line.trim();
+
+                if (command.equalsIgnoreCase("Q")) {
+                    break;
+                } else if (command.startsWith("H ")) {
+                    byte[] bytes;
+
+                    try {
+                        bytes = Base64.getDecoder().decode(command.substring(2).trim());
+                    } catch (IllegalArgumentException e) {
+                        error(out, "That isn't a game");
+                        continue;
+                    }
+
+                    out.write("TOKEN " + park(bytes) + "\n");
+                    out.flush();
+                } else {
+                    error(out, "Unknown command");
+                }
+            }
+        } catch (IOException e) {
+            // The other shard went away. Nothing to clean up but the socket.
+        } finally {
+            activeSessions.decrementAndGet();
+        }
+    }
+
+    /**
+     * Hands a game to the shard that owns the room the player is in, and tells
+     * the player where to pick it up.
+     *
+     * @param out Where to send the reply
+     * @param reply A buffer to build the reply in, or null to only send the handoff
+     * @param game The game, with the player in another shard's room
+     * @param events What happened on the command that took them there
+     * @return Null, since the game isn't in this shard any more
+     * @throws IOException If the reply can't be sent
+     */
+    private ShardGame handoff(Writer out, StringBuilder reply, ShardGame game, List<GameEvent> events) throws IOException {
+        int owner = game.getOwner();
+        ByteBuffer buffer = ByteBuffer.allocate(game.sizeOf());
+        long start = System.nanoTime();
+        String token;
+
+        game.write(buffer);
+
+        try {
+            token = send(owner, "H " + Base64.getEncoder().encodeToString(buffer.array()));
+        } catch (IOException e) {
+            // Nowhere for the game to go. It's lost, but the player can start another.
+            error(out, String.format("Shard %d can't be reached, the game is over", owner));
+            return null;
+        }
+
+        GameMetrics.GLOBAL.shardHandoff(System.nanoTime() - start);
+
+        String handoff = String.format("HANDOFF %d %d %s", owner, basePort + owner, token);
+
+        if (reply == null) {
+            out.write(handoff + "\n");
+            out.flush();
+        } else {
+            reply(out, reply, game, events, handoff);
+        }
+
+        return null;
+    }
+
+    /**
+     * Sends a game to another shard over a connection kept open for it.
+     *
+     * @param shard The shard
+     * @param command The "H game" line
+     * @return The token the shard is holding the game under
+     * @throws IOException If the shard can't be reached or won't take the game
+     */
+    private String send(int shard, String command) throws IOException {
+        Peer peer = peers.get(shard).poll();
+
+        if (peer == null) {
+            peer = new Peer(getPeerPort(shard));
+        }
+
+        String answer;
+
+        try {
+            answer = peer.call(command);
+        } catch (IOException e) {
+            peer.close();
+            throw e;
+        }
+
+        peers.get(shard).offer(peer);
+
+        if (!answer.startsWith("TOKEN ")) {
+            throw new IOException(String.format("Shard %d didn't take the game: %s", shard, answer));
+        }
+
+        return answer.substring(6);
+    }
+
+    /**
+     * Holds a handed over game until its player comes for it. Games are only
+     * read when they're picked up, so one that's never picked up costs no more
+     * than its bytes. Games that waited too long are thrown out on the way.
+     *
+     * @param bytes The game, as written by ShardGame.write()
+     * @return The token the player picks it up with
+     */
+    private long park(byte[] bytes) {
+        long now = System.nanoTime();
+        Parked game = new Parked(bytes, now + TimeUnit.MILLISECONDS.toNanos(PARK_MILLIS));
+        Parked oldest;
+
+        while ((oldest = arrivals.peek()) != null && oldest.deadline - now < 0) {
+            // Gone already if it was picked up, so this only gets the ones nobody came for.
+            arrivals.remove(oldest);
+            parked.remove(oldest.token, oldest);
+        }
+
+        do {
+            game.token = ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE;
+        } while (parked.putIfAbsent(game.token, game) != null);
+
+        arrivals.offer(game);
+        return game.token;
+    }
+
+    /**
+     * Picks up a handed over game.
+     *
+     * @param token The token it was parked under
+     * @return The game, or null if there's no such game or it couldn't be read
+     */
+    private ShardGame join(long token) {
+        Parked game = parked.remove(token);
+
+        if (game == null) {
+            return null;
+        }
+
+        try {
+            ShardGame joined = ShardGame.read(ByteBuffer.wrap(game.bytes), piece, HAZARDS);
+
+            // Only a game whose player is in one of our rooms can be played here.
+            if (joined.isAway()) {
+                return null;
+            }
+
+            GameMetrics.GLOBAL.shardJoined();
+            return joined;
+        } catch (IOException e) {
+            System.out.printf("Encountered the following exception while picking up a handed over game: %s\n",
+                    e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Sends the player's state and the events from their last command, in room
+     * numbers of the whole cave.
+     *
+     * @param out Where to send the reply
+     * @param reply A buffer to build the reply in, reused for every reply
+     * @param game The player's game
+     * @param events What happened, or null for nothing
+     * @param handoff Where the game went, or null if it's still here
+     * @throws IOException If the reply can't be sent
+     */
+    private static void reply(Writer out, StringBuilder reply, ShardGame game, List<GameEvent> events, String handoff)
+            throws IOException {
+        reply.setLength(0);
+        reply.append("ROOM ").append(game.getPlayerRoom()).append(" ARROWS ").append(game.getArrowsLeft()).append(" TUNNELS");
+
+        for (int room : game.getTunnels()) {
+            reply.append(' ').append(room);
+        }
+
+        if (events != null) {
+            for (GameEvent event : events) {
+                int room = game.toGlobal(event.getRoom());
+
+                reply.append("; ").append(event.getType().name());
+
+                if (room > 0) {
+                    reply.append(' ').append(room);
+                }
+
+                if (event.getDanger() != Room.Danger.NONE) {
+                    reply.append(' ').append(event.getDanger().name());
+                }
+            }
+        }
+
+        if (handoff != null) {
+            reply.append("; ").append(handoff);
+        }
+
+        reply.append('\n');
+        out.append(reply);
+        out.flush();
+    }
+
+    /**
+     * Sends an error reply.
+     *
+     * @param out Where to send the reply
+     * @param message What went wrong
+     * @throws IOException If the reply can't be sent
+     */
+    private static void error(Writer out, String message) throws IOException {
+        out.write("ERROR " + message + "\n");
+        out.flush();
+    }
+
+    /**
+     * A handed over game waiting for its player.
+     *
+     */
+    private static final class Parked {
+        final byte[] bytes;     // The game, as written by ShardGame.write().
+        final long deadline;    // When to give up on the player, as a System.nanoTime() value.
+        long token;             // What the player picks it up with.
+
+        Parked(byte[] bytes, long deadline) {
+            this.bytes = bytes;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * A connection to another shard on this machine, used by one session at a time.
+     *
+     */
+    private static final class Peer implements Closeable {
+        private final Socket socket;
+        private final BufferedReader in;
+        private final Writer out;
+
+        /**
+         * Connects to a shard and reads its greeting.
+         *
+         * @param port The shard's peer port
+         * @throws IOException If it can't be reached
+         */
+        Peer(int port) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            socket.setTcpNoDelay(true);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII));
+
+            if (in.readLine() == null) {
+                socket.close();
+                throw new IOException("Shard on port " + port + " hung up");
+            }
+        }
+
+        /**
+         * Sends a line and waits for the answer.
+         *
+         * @param line The line
+         * @return The answer
+         * @throws IOException If the shard hung up
+         */
+        String call(String line) throws IOException {
+            out.write(line);
+            out.write('\n');
+            out.flush();
+
+            String answer = in.readLine();
+
+            if (answer == null) {
+                throw new IOException("Shard hung up");
+            }
+
+            return answer;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package huntthewumpus;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
+
+/**
+ * Plays lots of games with a scripted strategy, spread across cores with
+ * fork/join. The games are split into fixed size chunks, and every chunk gets
+ * its own GameRandom seeded from the simulation seed and the chunk's position,
+ * so the results are the same no matter how many threads run them.
+ *
+ * @author Ivan Samuelson
+ */
+public class Simulation {
+    // Chunks smaller than this aren't worth splitting up any further.
+    static final int CHUNK = 4096;
+
+    private final Cave cave;            // The cave to play in.
+    private final HazardConfig config;  // How many of each danger to place.
+    private final GameRules rules;      // What the dangers get up to.
+    private final ThreadLocal<Strategy> strategies;   // One strategy per worker thread, reused for every game.
+    private final int maxTurns;         // When to give up on a game.
+
+    /**
+     * Creates a simulation.
+     *
+     * @param cave The cave to play in
+     * @param config How many of each danger to place
+     * @param strategy Makes a new strategy for each worker thread
+     * @param maxTurns The most commands a game gets before it counts as timed out
+     */
+    public Simulation(Cave cave, HazardConfig config, Supplier<Strategy> strategy, int maxTurns) {
+        this(cave, config, GameRules.NONE, strategy, maxTurns);
+    }
+
+    /**
+     * Creates a simulation where the dangers move around.
+     *
+     * @param cave The cave to play in
+     * @param config How many of each danger to place
+     * @param rules Which hazard behaviors the games are played with
+     * @param strategy Makes a new strategy for each worker thread
+     * @param maxTurns The most commands a game gets before it counts as timed out
+     */
+    public Simulation(Cave cave, HazardConfig config, GameRules rules, Supplier<Strategy> strategy, int maxTurns) {
+        this.cave = cave;
+        this.config = config;
+        this.rules = rules;
+        this.strategies = ThreadLocal.withInitial(strategy);
+        this.maxTurns = maxTurns;
+    }
+
+    /**
+     * Plays a number of games on a pool with the given number of threads.
+     *
+     * @param games How many games to play
+     * @param seed The seed. The same seed gives the same results.
+     * @param threads How many threads to play them on
+     * @return How the games turned out
+     */
+    public SimulationStats run(long games, long seed, int threads) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        try {
+            return pool.invoke(new Chunk(0, games, seed));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Plays a range of games on the current thread.
+     *
+     * @param first The first game number
+     * @param count How many games to play
+     * @param seed The simulation seed
+     * @return How the games turned out
+     */
+    private SimulationStats play(long first, long count, long seed) {
+        SimulationStats stats = new SimulationStats();
+        Strategy strategy = strategies.get();
+
+        // Seed from the chunk's position so it doesn't matter which thread runs it.
+        GameRandom random = new GameRandom(seed + first * 0x9E3779B97F4A7C15L).split();
+
+        for (long i = 0; i < count; i++) {
+            GameEngine engine = new GameEngine(cave, config, random);
+
+            rules.apply(engine);
+
+            stats.record(engine, strategy.play(engine, random, maxTurns));
+        }
+
+        return stats;
+    }
+
+    /**
+     * A range of games, split in half until it is small enough to just play.
+     *
+     */
+    private final class Chunk extends RecursiveTask<SimulationStats> {
+        private static final long serialVersionUID = 1L;
+
+        private final long first;   // The first game number.
+        private final long count;   // How many games.
+        private final long seed;    // The simulation seed.
+
+        Chunk(long first, long count, long seed) {
+            this.first = first;
+            this.count = count;
+            this.seed = seed;
+        }
+
+        @Override
+        protected SimulationStats compute() {
+            if (count <= CHUNK) {
+                return play(first, count, seed);
+            }
+
+            // Split on a chunk boundary so the chunks are always the same.
+            long half = ((count / CHUNK + 1) / 2) * CHUNK;
+            Chunk left = new Chunk(first, half, seed);
+            Chunk right = new Chunk(first + half, count - half, seed);
+
+            left.fork();
+
+            SimulationStats stats = right.compute();
+
+            return stats.add(left.join());
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package huntthewumpus;
+
+/**
+ * Tallies from a batch of simulated games: how they ended and how long they
+ * took. Each simulation worker fills its own, and they get added together at the end.
+ *
+ * @author Ivan Samuelson
+ */
+public final class SimulationStats {
+    // Games longer than this all land in the last bucket of the length histogram.
+    static final int MAX_LENGTH = 1024;
+
+    private long games;             // How many games were played.
+    private long wins;              // Games where the Wumpus got shot.
+    private long outOfArrows;       // Games lost by running out of arrows.
+    private long shotSelf;          // Games lost to the player's own crooked arrow.
+    private long timedOut;          // Games that hit the turn limit.
+    private final long[] deaths = new long[Room.DANGERS.length];    // Games lost to each danger.
+    private final long[] lengths = new long[MAX_LENGTH+1];         // How many games took each number of turns.
+
+    /**
+     * Records how one game turned out.
+     *
+     * @param engine The finished game
+     * @param turns How many commands were given
+     */
+    void record(GameEngine engine, int turns) {
+        games++;
+
+        if (!engine.isGameOver()) {
+            timedOut++;
+        } else if (engine.isWon()) {
+            wins++;
+        } else if (engine.getKilledBy() != Room.Danger.NONE) {
+            deaths[engine.getKilledBy().ordinal()]++;
+        } else if (engine.isShotSelf()) {
+            shotSelf++;
+        } else {
+            outOfArrows++;
+        }
+
+        lengths[Math.min(turns, MAX_LENGTH)]++;
+    }
+
+    /**
+     * Adds another worker's tallies into this one.
+     *
+     * @param other The tallies to add
+     * @return This, with the other tallies added in
+     */
+    SimulationStats add(SimulationStats other) {
+        games += other.games;
+        wins += other.wins;
+        outOfArrows += other.outOfArrows;
+        shotSelf += other.shotSelf;
+        timedOut += other.timedOut;
+
+        for (int i = 0; i < deaths.length; i++) {
+            deaths[i] += other.deaths[i];
+        }
+
+        for (int i = 0; i < lengths.length; i++) {
+            lengths[i] += other.lengths[i];
+        }
+
+        return this;
+    }
+
+    /**
+     * Gets how many games were played
+     *
+     * @return The number of games
+     */
+    public long getGames() {
+        return games;
+    }
+
+    /**
+     * Gets how many games were won
+     *
+     * @return The number of wins
+     */
+    public long getWins() {
+        return wins;
+    }
+
+    /**
+     * Gets how many games were lost to a danger
+     *
+     * @param danger The danger
+     * @return The number of games lost by walking into it
+     */
+    public long getDeaths(Room.Danger danger) {
+        return deaths[danger.ordinal()];
+    }
+
+    /**
+     * Gets how many games were lost by running out of arrows
+     *
+     * @return The number of games
+     */
+    public long getOutOfArrows() {
+        return outOfArrows;
+    }
+
+    /**
+     * Gets how many games were lost by the player shooting themselves
+     *
+     * @return The number of games
+     */
+    public long getShotSelf() {
+        return shotSelf;
+    }
+
+    /**
+     * Gets how many games hit the turn limit
+     *
+     * @return The number of games
+     */
+    public long getTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * Gets a percentile of game length.
+     *
+     * @param percentile The percentile, from 0 to 100
+     * @return The number of turns that percentile of games took or less
+     */
+    public int getLengthPercentile(double percentile) {
+        long rank = Math.max(1, (long) Math.ceil(games * percentile / 100.0));
+        long seen = 0;
+
+        for (int i = 0; i < lengths.length; i++) {
+            seen += lengths[i];
+
+            if (seen >= rank) {
+                return i;
+            }
+        }
+
+        return MAX_LENGTH;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append(String.format("%d games: %.2f%% won", games, 100.0 * wins / Math.max(1, games)));
+
+        for (Room.Danger danger : Room.DANGERS) {
+            if (deaths[danger.ordinal()] > 0) {
+                sb.append(String.format(", %.2f%% %s", 100.0 * deaths[danger.ordinal()] / games, danger));
+            }
+        }
+
+        sb.append(String.format(", %.2f%% shot themselves, %.2f%% out of arrows, %.2f%% timed out",
+                100.0 * shotSelf / Math.max(1, games), 100.0 * outOfArrows / Math.max(1, games),
+                100.0 * timedOut / Math.max(1, games)));
+        sb.append(String.format("\nGame length p50 %d, p90 %d, p99 %d turns", getLengthPercentile(50),
+                getLengthPercentile(90), getLengthPercentile(99)));
+
+        return sb.toString();
+    }
+}
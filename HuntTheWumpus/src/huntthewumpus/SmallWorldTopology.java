@@ -0,0 +1,76 @@
+package huntthewumpus;
+
+/**
+ * A "small world" cave: rooms in a big ring, each with tunnels to its nearest
+ * neighbors on either side, plus a few long tunnels that cut across the ring to
+ * random rooms. Most of the cave feels local, but any room is only a few long
+ * tunnels away from any other, which is how a lot of real networks look.
+ *
+ * The long tunnels come from a shuffle that pairs rooms off, and each pair gets
+ * a tunnel with the given chance, so rooms get at most one long tunnel each and
+ * every room can still be worked out on its own.
+ *
+ * @author Ivan Samuelson
+ */
+public final class SmallWorldTopology implements Topology {
+    private final int numRooms;         // How many rooms.
+    private final int reach;            // How many rooms on each side of the ring get a tunnel.
+    private final long threshold;       // Pairs whose hash is under this get a long tunnel.
+    private final long seed;            // Decides which pairs get a long tunnel.
+    private final Permutation pairs;    // Pairs rooms off for the long tunnels.
+
+    /**
+     * Creates a small world cave.
+     *
+     * @param numRooms How many rooms
+     * @param degree Tunnels around the ring for each room, an even number of 2 or more
+     * @param shortcuts The chance (0 to 1) that a room gets a long tunnel as well
+     * @param seed Which cave. The same seed always gives the same cave.
+     */
+    public SmallWorldTopology(int numRooms, int degree, double shortcuts, long seed) {
+        if (degree < 2 || degree % 2 != 0 || degree >= numRooms) {
+            throw new IllegalArgumentException(String.format("Can't give %d rooms %d tunnels each around a ring", numRooms, degree));
+        }
+
+        if (shortcuts < 0 || shortcuts > 1) {
+            throw new IllegalArgumentException(String.format("Shortcut chance %s is not between 0 and 1", shortcuts));
+        }
+
+        this.numRooms = numRooms;
+        this.reach = degree / 2;
+        this.threshold = (long) (shortcuts * (1L << 53));
+        this.seed = seed;
+        this.pairs = new Permutation(numRooms, seed);
+    }
+
+    @Override
+    public int getNumRooms() {
+        return numRooms;
+    }
+
+    @Override
+    public int getMaxDegree() {
+        return reach * 2 + 1;
+    }
+
+    @Override
+    public int tunnels(int room, int[] tunnels) {
+        long index = room-1;
+        int count = 0;
+
+        for (int step = 1; step <= reach; step++) {
+            count = CaveGenerator.addTunnel(tunnels, count, room, (int) ((index + numRooms - step) % numRooms) + 1);
+            count = CaveGenerator.addTunnel(tunnels, count, room, (int) ((index + step) % numRooms) + 1);
+        }
+
+        // Both rooms of a pair look at the same pair number, so they agree on whether they get a tunnel.
+        long place = pairs.inverse(index);
+        long partner = place ^ 1;
+
+        if (partner < numRooms && (GameRandom.mix64(seed ^ (place >>> 1)) >>> 11) < threshold) {
+            count = CaveGenerator.addTunnel(tunnels, count, room, (int) pairs.apply(partner) + 1);
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,398 @@
+package huntthewumpus;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A memory mapped file of fixed size slots, each holding the latest snapshot
+ * of one game. Saving a game is encoding a few dozen bytes and copying them into
+ * the mapping, with no system call, so thousands of sessions can be checkpointed
+ * every few seconds without anyone noticing. The operating system writes the
+ * pages out in the background, and force() makes sure they're on disk.
+ *
+ *      header (HEADER_SIZE bytes)
+ *          int   magic         "WSLT"
+ *          int   version       VERSION
+ *          int   slotSize
+ *          int   numSlots
+ *          long  fingerprint   Cave.getFingerprint() of the cave the store was made with
+ *      slot x numSlots, each two copies of slotSize/2 bytes
+ *          int   length        of the snapshot, 0 for an empty copy
+ *          int   crc           CRC-32 of the snapshot
+ *          long  sequence      which save this was, higher is newer
+ *          long  token         what the game is picked up again with
+ *          byte  snapshot[length]
+ *
+ * Each save goes into the older of a slot's two copies, so if the process dies
+ * halfway through a save the copy before it is still there and still good. A
+ * copy with a bad CRC is just ignored.
+ *
+ * A saved game is picked up again with its slot's token, a random number made
+ * up when the slot is claimed and saved with every copy, so it still works after
+ * a restart. The slot number alone gets nobody anywhere, so one player can't
+ * walk off with another's game by counting up from 0.
+ *
+ * The cave can change while the store is in use, so the store isn't tied to
+ * one. Every snapshot carries its own cave's fingerprint, and one saved in a
+ * cave that's changed since just won't load.
+ *
+ * Different slots can be saved from different threads at once. One slot should
+ * only be used by one thread at a time, which is how sessions use them anyway.
+ *
+ * @author Ivan Samuelson
+ */
+public final class SnapshotStore implements Closeable {
+    static final int MAGIC = 0x544C5357;    // "WSLT" when read as little endian bytes.
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 64;
+    private static final int COPY_HEADER = 24;
+
+    private final FileChannel channel;      // The store file.
+    private final MappedByteBuffer mapped;  // The whole file, mapped.
+    private final Cave cave;                // The cave the store was opened with, for load().
+    private final int slotSize;             // Bytes per slot, both copies.
+    private final int numSlots;             // How many slots there are.
+    private final BitSet saved = new BitSet();  // Slots holding a game.
+    private final BitSet live = new BitSet();   // Slots in use by a session right now.
+    private final long[] tokens;                // Each slot's token, 0 for none yet.
+    private final Map<Long, Integer> slots = new HashMap<>();  // Which slot each token is for.
+    private final SecureRandom random = new SecureRandom();    // Where tokens come from.
+    private final ThreadLocal<ByteBuffer> scratch;  // Where snapshots are encoded before copying them in.
+    private final ThreadLocal<CRC32> crcs = ThreadLocal.withInitial(CRC32::new);
+
+    /**
+     * Opens a store, creating it if it doesn't exist yet. An existing store
+     * keeps its own slot size and count.
+     *
+     * @param fileName The store file
+     * @param cave The cave the games are in
+     * @param numSlots How many slots a new store gets
+     * @param slotSize How many bytes each slot of a new store gets, for both copies
+     * @throws IOException If the file can't be opened
+     */
+    public SnapshotStore(String fileName, Cave cave, int numSlots, int slotSize) throws IOException {
+        File file = new File(fileName);
+        boolean existing = file.length() > 0;
+
+        this.cave = cave;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+            if (existing) {
+                channel.read(header, 0);
+
+                if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                    throw new IOException(fileName + " is not a snapshot store");
+                }
+
+                slotSize = header.getInt(8);
+                numSlots = header.getInt(12);
+            } else {
+                // Copies are kept 8 byte aligned.
+                slotSize = (slotSize + 15) & ~15;
+                header.putInt(MAGIC).putInt(VERSION).putInt(slotSize).putInt(numSlots).putLong(cave.getFingerprint());
+                header.clear();
+                channel.write(header, 0);
+            }
+
+            long size = HEADER_SIZE + (long) slotSize * numSlots;
+
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(String.format("%d slots of %d bytes is over the 2 GB a store can map", numSlots, slotSize));
+            }
+
+            this.slotSize = slotSize;
+            this.numSlots = numSlots;
+            this.mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            this.mapped.order(ByteOrder.LITTLE_ENDIAN);
+            this.tokens = new long[numSlots];
+            this.scratch = ThreadLocal.withInitial(() -> ByteBuffer.allocate(this.slotSize / 2 - COPY_HEADER));
+
+            // Slots with a good copy in them are games waiting to be picked up again,
+            // with the token they were saved under.
+            for (int slot = 0; slot < numSlots; slot++) {
+                int copy = newestCopy(slot);
+
+                if (copy >= 0) {
+                    saved.set(slot);
+                    tokens[slot] = mapped.getLong(copyPos(slot, copy) + 16);
+                    slots.put(tokens[slot], slot);
+                }
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets how many slots there are
+     *
+     * @return The number of slots
+     */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * Gets how many slots have a game saved in them
+     *
+     * @return The number of saved games
+     */
+    public synchronized int getSavedCount() {
+        return saved.cardinality();
+    }
+
+    /**
+     * Takes a slot with nothing saved in it for a new game, and gives it a new
+     * token.
+     *
+     * @return The slot, or -1 if every slot is taken
+     */
+    public synchronized int claim() {
+        for (int slot = saved.nextClearBit(0); slot < numSlots; slot = saved.nextClearBit(slot+1)) {
+            if (!live.get(slot)) {
+                live.set(slot);
+
+                // Whoever had the slot before can't use their old token to get at this game.
+                slots.remove(tokens[slot]);
+
+                do {
+                    tokens[slot] = random.nextLong() & Long.MAX_VALUE;
+                } while (tokens[slot] == 0 || slots.putIfAbsent(tokens[slot], slot) != null);
+
+                return slot;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Gets the token a slot's game is picked up again with
+     *
+     * @param slot The slot
+     * @return The token
+     */
+    public synchronized long getToken(int slot) {
+        return tokens[slot];
+    }
+
+    /**
+     * Takes the slot with a saved game in it under a token, to carry on with
+     * that game.
+     *
+     * @param token The token it was saved under
+     * @return The slot, or -1 if no game is saved under the token or somebody
+     *          else has it
+     */
+    public synchronized int resume(long token) {
+        Integer slot = slots.get(token);
+
+        if (slot == null || !saved.get(slot) || live.get(slot)) {
+            return -1;
+        }
+
+        live.set(slot);
+        return slot;
+    }
+
+    /**
+     * Gives a slot back. Whatever is saved in it stays there to be resumed later.
+     *
+     * @param slot The slot
+     */
+    public synchronized void release(int slot) {
+        live.clear(slot);
+    }
+
+    /**
+     * Saves a game into a slot.
+     *
+     * @param slot The slot
+     * @param engine The game
+     * @throws IOException If the snapshot is too big for the slot
+     */
+    public void save(int slot, GameEngine engine) throws IOException {
+        int size = GameSnapshot.sizeOf(engine);
+        ByteBuffer buffer = scratch.get();
+
+        if (size > buffer.capacity()) {
+            throw new IOException(String.format("Snapshot is %d bytes but slots only hold %d", size, buffer.capacity()));
+        }
+
+        buffer.clear();
+        GameSnapshot.write(engine, buffer);
+        buffer.flip();
+
+        CRC32 crc = crcs.get();
+
+        crc.reset();
+        crc.update(buffer.array(), 0, size);
+
+        // Take the CRC now, since finding the newest copy checks the copies with the same CRC32.
+        int checksum = (int) crc.getValue();
+
+        // Overwrite the older copy, snapshot first and its header last.
+        int newest = newestCopy(slot);
+        int copy = (newest == 0) ? 1 : 0;
+        int pos = copyPos(slot, copy);
+        long sequence = (newest < 0) ? 1 : mapped.getLong(copyPos(slot, newest) + 8) + 1;
+        ByteBuffer target = mapped.duplicate();
+
+        target.position(pos + COPY_HEADER);
+        target.put(buffer);
+        mapped.putInt(pos + 4, checksum);
+        mapped.putLong(pos + 8, sequence);
+        mapped.putLong(pos + 16, getToken(slot));
+        mapped.putInt(pos, size);
+
+        synchronized (this) {
+            saved.set(slot);
+        }
+    }
+
+    /**
+     * Brings back the game saved in a slot.
+     *
+     * @param slot The slot
+     * @return The game, or null if nothing good is saved there
+     * @throws IOException If the snapshot is for a different cave or can't be read
+     */
+    public GameEngine load(int slot) throws IOException {
+        return load(slot, cave);
+    }
+
+    /**
+     * Brings back the game saved in a slot into another copy of the cave, such
+     * as a newer version of it loaded since the store was opened.
+     *
+     * @param slot The slot
+     * @param cave The cave to play it in, which needs the same tunnels it was saved with
+     * @return The game, or null if nothing good is saved there
+     * @throws IOException If the snapshot is for a different cave or can't be read
+     */
+    public GameEngine load(int slot, Cave cave) throws IOException {
+        int copy = newestCopy(slot);
+
+        if (copy < 0) {
+            return null;
+        }
+
+        int pos = copyPos(slot, copy);
+        ByteBuffer buffer = mapped.duplicate();
+
+        buffer.limit(pos + COPY_HEADER + mapped.getInt(pos));
+        buffer.position(pos + COPY_HEADER);
+
+        return GameSnapshot.read(buffer.slice(), cave);
+    }
+
+    /**
+     * Throws away whatever is saved in a slot.
+     *
+     * @param slot The slot
+     */
+    public void clear(int slot) {
+        mapped.putInt(copyPos(slot, 0), 0);
+        mapped.putInt(copyPos(slot, 1), 0);
+
+        synchronized (this) {
+            saved.clear(slot);
+        }
+    }
+
+    /**
+     * Makes sure every save so far is on disk.
+     *
+     */
+    public void force() {
+        mapped.force();
+    }
+
+    /**
+     * Writes everything out and closes the store.
+     *
+     * @throws IOException If the file can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        mapped.force();
+        channel.close();
+    }
+
+    /**
+     * Works out which of a slot's copies is the newest good one.
+     *
+     * @param slot The slot
+     * @return 0 or 1, or -1 if neither copy is any good
+     */
+    private int newestCopy(int slot) {
+        int best = -1;
+        long bestSequence = 0;
+
+        for (int copy = 0; copy < 2; copy++) {
+            int pos = copyPos(slot, copy);
+            long sequence = mapped.getLong(pos + 8);
+
+            if (checkCopy(pos) && (best < 0 || sequence > bestSequence)) {
+                best = copy;
+                bestSequence = sequence;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Checks that a copy has a snapshot in it and its CRC matches.
+     *
+     * @param pos Where the copy starts
+     * @return True if the copy is good
+     */
+    private boolean checkCopy(int pos) {
+        int length = mapped.getInt(pos);
+
+        if (length <= 0 || length > slotSize / 2 - COPY_HEADER) {
+            return false;
+        }
+
+        CRC32 crc = crcs.get();
+
+        crc.reset();
+
+        for (int i = 0; i < length; i++) {
+            crc.update(mapped.get(pos + COPY_HEADER + i));
+        }
+
+        return (int) crc.getValue() == mapped.getInt(pos + 4);
+    }
+
+    /**
+     * Works out where one copy of a slot starts.
+     *
+     * @param slot The slot
+     * @param copy 0 or 1
+     * @return The position in the mapping
+     */
+    private int copyPos(int slot, int copy) {
+        if (slot < 0 || slot >= numSlots) {
+            throw new IndexOutOfBoundsException(String.format("Slot %d is not in the store", slot));
+        }
+
+        return HEADER_SIZE + slot * slotSize + copy * (slotSize / 2);
+    }
+}
@@ -0,0 +1,1024 @@
+package huntthewumpus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Works out how often perfect play wins in a cave, and what perfect play is.
+ *
+ * Every way the hazards could have been placed is equally likely, so the solver
+ * lists them all, each as a set of bit masks of rooms. What the player knows is
+ * then just which placements still fit everything they've seen so far (their
+ * belief), which rooms they've been in, and how many arrows they have left. A
+ * belief is searched like a game tree: the player picks the move or shot that
+ * wins in the most placements, and each room they walk into splits the
+ * placements up by which warnings they'd hear there. Wins are counted in whole
+ * placements, so the win chance comes out exact, as a fraction of the total.
+ *
+ * A few things keep the search small:
+ *
+ *      Walking into a room that's safe in every placement left can't hurt and
+ *      might tell us something, so when there is one, that's the only move tried.
+ *      An arrow through more rooms is never worse than one through fewer, so only
+ *      the biggest sets of rooms an arrow can fly through are tried.
+ *      A move is skipped if it dies in so many placements it can't beat the best
+ *      choice so far.
+ *      Beliefs are remembered in a transposition table keyed by two longs: the
+ *      rooms visited packed with the arrows left, and a Zobrist hash of which
+ *      placements are left. So the same belief reached two ways is solved once.
+ *
+ * Splitting a big belief hands each group of placements to its own fork/join
+ * task, so idle threads steal them. The player walks freely between rooms they've
+ * been in, so where they stand doesn't matter, only where they've been.
+ *
+ * Caves are limited to 62 rooms so a set of rooms fits in a long, and to
+ * MAX_PLACEMENTS placements. Hazards that move around (GameRules) aren't
+ * modelled, and neither is the turn limit.
+ *
+ * @author Ivan Samuelson
+ */
+public final class Solver {
+    public static final int MAX_ROOMS = 62;
+    public static final int MAX_PLACEMENTS = 1 << 22;
+
+    // Players start with this many arrows, same as GameEngine.
+    static final int START_ARROWS = 3;
+
+    // Beliefs with at least this many placements split their children across threads.
+    static final int PARALLEL = 1024;
+
+    // Bit 0 of an observation is bats in the room itself, and bit (1 << ordinal)
+    // is that kind of danger next door, same as GameEngine.getWarnings().
+    private static final int OWN_BATS = 1;
+    private static final int OBSERVATIONS = 1 << Room.DANGERS.length;
+
+    private final Cave cave;            // The cave being solved.
+    private final int numRooms;         // How many rooms it has.
+    private final int arrowPath;        // The most rooms an arrow can fly through.
+    private final long[] adjacent;      // Rooms next to each room (bit room-1), not counting itself.
+    private final long[][] kinds;       // Rooms holding each kind of danger, by ordinal then placement. Null if none are placed.
+    private final long[] wumpus;        // Wumpus room of each placement.
+    private final long[] deadly;        // Rooms that kill the player in each placement.
+    private final int numPlacements;    // How many ways the hazards can be placed.
+    private final Table table = new Table();    // Solved beliefs.
+    private long wins;                  // Placements perfect play wins, after solve().
+    private long solveNanos;            // How long solve() took.
+
+    /**
+     * Sets up a solver, listing every way the hazards can be placed.
+     *
+     * @param cave The cave to solve
+     * @param config How many of each danger are placed
+     * @param arrowPath The most rooms an arrow can fly through, from 1 (straight
+     *                  into the next room) up to GameEngine.MAX_ARROW_PATH
+     * @throws IllegalArgumentException If the cave is too big or there are too many placements
+     */
+    public Solver(Cave cave, HazardConfig config, int arrowPath) {
+        if (cave.getNumRooms() > MAX_ROOMS) {
+            throw new IllegalArgumentException(String.format("The solver handles caves of up to %d rooms, not %d",
+                    MAX_ROOMS, cave.getNumRooms()));
+        }
+
+        if (arrowPath < 1 || arrowPath > GameEngine.MAX_ARROW_PATH) {
+            throw new IllegalArgumentException(String.format("Arrows fly through 1 to %d rooms, not %d",
+                    GameEngine.MAX_ARROW_PATH, arrowPath));
+        }
+
+        this.cave = cave;
+        this.numRooms = cave.getNumRooms();
+        this.arrowPath = arrowPath;
+        this.adjacent = new long[numRooms];
+
+        for (int room = 1; room <= numRooms; room++) {
+            for (int i = 0; i < cave.getDegree(room); i++) {
+                int adj = cave.getAdjRoom(room, i);
+
+                if (adj != room) {
+                    adjacent[room-1] |= bit(adj);
+                }
+            }
+        }
+
+        // Count the placements before making room for them: choose each kind's
+        // rooms from what's left, never the start room.
+        long count = 1;
+        int free = numRooms - 1;
+
+        for (Room.Danger danger : Room.DANGERS) {
+            int n = (danger == Room.Danger.NONE) ? 0 : config.getCount(danger);
+
+            count *= choose(free, n);
+            free -= n;
+
+            if (free < 0 || count > MAX_PLACEMENTS) {
+                throw new IllegalArgumentException(String.format("%s in %d rooms is more placements than the solver can handle",
+                        config, numRooms));
+            }
+        }
+
+        this.numPlacements = (int) count;
+        this.kinds = new long[Room.DANGERS.length][];
+        this.wumpus = new long[numPlacements];
+        this.deadly = new long[numPlacements];
+
+        for (Room.Danger danger : Room.DANGERS) {
+            if (danger != Room.Danger.NONE && config.getCount(danger) > 0) {
+                kinds[danger.ordinal()] = new long[numPlacements];
+            }
+        }
+
+        int[] counts = new int[Room.DANGERS.length];
+
+        for (Room.Danger danger : Room.DANGERS) {
+            counts[danger.ordinal()] = (danger == Room.Danger.NONE) ? 0 : config.getCount(danger);
+        }
+
+        long[] current = new long[Room.DANGERS.length];
+        int placed = place(1, counts, 2, bit(1), current, 0);
+
+        assert placed == numPlacements;
+
+        for (int p = 0; p < numPlacements; p++) {
+            long wumpusRooms = (kinds[Room.Danger.WUMPUS.ordinal()] == null) ? 0 : kinds[Room.Danger.WUMPUS.ordinal()][p];
+
+            wumpus[p] = wumpusRooms;
+            deadly[p] = wumpusRooms
+                    | ((kinds[Room.Danger.SPIDER.ordinal()] == null) ? 0 : kinds[Room.Danger.SPIDER.ordinal()][p])
+                    | ((kinds[Room.Danger.PIT.ordinal()] == null) ? 0 : kinds[Room.Danger.PIT.ordinal()][p]);
+        }
+    }
+
+    /**
+     * Solves the cave, working out how many placements perfect play wins.
+     *
+     * @param threads How many threads to search with
+     * @return The chance of winning with perfect play, from 0 to 1
+     */
+    public double solve(int threads) {
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        try {
+            // The game starts by walking into room 1 with nothing known.
+            wins = pool.invoke(new Explore(0, START_ARROWS, allPlacements(), 1));
+        } finally {
+            pool.shutdown();
+        }
+
+        solveNanos = System.nanoTime() - start;
+
+        return getWinProbability();
+    }
+
+    /**
+     * Gets how many ways the hazards can be placed
+     *
+     * @return The number of placements
+     */
+    public int getPlacements() {
+        return numPlacements;
+    }
+
+    /**
+     * Gets how many placements perfect play wins, after solve()
+     *
+     * @return The number of placements won
+     */
+    public long getWins() {
+        return wins;
+    }
+
+    /**
+     * Gets the chance of winning with perfect play, after solve()
+     *
+     * @return The win probability, from 0 to 1
+     */
+    public double getWinProbability() {
+        return (double) wins / numPlacements;
+    }
+
+    /**
+     * Gets how many beliefs were solved and remembered
+     *
+     * @return The number of beliefs in the transposition table
+     */
+    public long getStates() {
+        return table.size();
+    }
+
+    /**
+     * Gets how long the last solve() took
+     *
+     * @return The time in nanoseconds
+     */
+    public long getSolveNanos() {
+        return solveNanos;
+    }
+
+    /**
+     * Gets every placement, as the belief of a player who knows nothing yet.
+     *
+     * @return The placement numbers
+     */
+    int[] allPlacements() {
+        int[] all = new int[numPlacements];
+
+        for (int p = 0; p < numPlacements; p++) {
+            all[p] = p;
+        }
+
+        return all;
+    }
+
+    /**
+     * Narrows a belief down to the placements where walking into a room is
+     * survived with the given observation.
+     *
+     * @param set The belief
+     * @param room The room walked into
+     * @param observation Bats in the room (bit 0) plus GameEngine.getWarnings(1)
+     * @return The placements that fit
+     */
+    int[] observe(int[] set, int room, int observation) {
+        int[] fits = new int[set.length];
+        int count = 0;
+
+        for (int p : set) {
+            if ((deadly[p] & bit(room)) == 0 && observation(p, room) == observation) {
+                fits[count++] = p;
+            }
+        }
+
+        return Arrays.copyOf(fits, count);
+    }
+
+    /**
+     * Narrows a belief down to the placements where an arrow missed.
+     *
+     * @param set The belief
+     * @param rooms Every room the arrow flew through
+     * @return The placements that fit
+     */
+    int[] missed(int[] set, long rooms) {
+        int[] fits = new int[set.length];
+        int count = 0;
+
+        for (int p : set) {
+            if ((wumpus[p] & rooms) == 0) {
+                fits[count++] = p;
+            }
+        }
+
+        return Arrays.copyOf(fits, count);
+    }
+
+    /**
+     * Picks the best thing to do for a belief.
+     *
+     * @param visited The rooms the player has been in
+     * @param arrows How many arrows they have
+     * @param set The placements that fit what they've seen
+     * @return What to do
+     */
+    Choice choose(long visited, int arrows, int[] set) {
+        Choice choice = new Choice();
+
+        search(visited, arrows, set, choice);
+        return choice;
+    }
+
+    /**
+     * Finds a way to shoot an arrow through a set of rooms.
+     *
+     * @param visited The rooms the player can shoot from
+     * @param targets The rooms that matter, as passed to the search
+     * @param rooms Which of the targets the arrow needs to fly through
+     * @return The room to shoot from followed by the arrow's path, or null if there's no way
+     */
+    int[] findShot(long visited, long targets, long rooms) {
+        int[] path = new int[arrowPath];
+
+        for (long from = visited; from != 0; from &= from - 1) {
+            int room = Long.numberOfTrailingZeros(from) + 1;
+            int length = findPath(room, room, 0, 0, targets, rooms, path);
+
+            if (length > 0) {
+                int[] shot = new int[length+1];
+
+                shot[0] = room;
+                System.arraycopy(path, 0, shot, 1, length);
+                return shot;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Solves a belief, looking in the transposition table first.
+     *
+     * @param visited The rooms the player has been in
+     * @param arrows How many arrows they have
+     * @param set The placements that fit what they've seen
+     * @param hash The Zobrist hash of set
+     * @return How many of the placements perfect play wins
+     */
+    private long solve(long visited, int arrows, int[] set, long hash) {
+        // Everything's known. Win if the Wumpus can be shot from somewhere safe.
+        if (set.length == 1) {
+            return solveKnown(visited, set[0]) ? 1 : 0;
+        }
+
+        long key = visited | ((long) arrows << MAX_ROOMS);
+        long wins = table.get(key, hash);
+
+        if (wins < 0) {
+            wins = search(visited, arrows, set, null);
+            table.put(key, hash, wins);
+        }
+
+        return wins;
+    }
+
+    /**
+     * Tries every sensible move and shot for a belief and keeps the best.
+     *
+     * @param visited The rooms the player has been in
+     * @param arrows How many arrows they have
+     * @param set The placements that fit what they've seen
+     * @param choice Where to put the best choice, or null if only the wins are wanted
+     * @return How many of the placements perfect play wins
+     */
+    private long search(long visited, int arrows, int[] set, Choice choice) {
+        int n = set.length;
+        long mayWumpus = 0;     // Rooms the Wumpus might be in.
+        long mayKill = 0;       // Rooms that might kill.
+
+        for (int p : set) {
+            mayWumpus |= wumpus[p];
+            mayKill |= deadly[p];
+        }
+
+        long frontier = neighbors(visited) & ~visited;
+        long safe = frontier & ~mayKill;
+
+        // A free look around. Always worth it, so don't bother with anything else.
+        if (safe != 0) {
+            int room = Long.numberOfTrailingZeros(safe) + 1;
+
+            // Picking doesn't need to know how it turns out.
+            if (choice != null) {
+                choice.move(room);
+                return -1;
+            }
+
+            return explore(visited, arrows, set, room);
+        }
+
+        long best = -1;
+        long[] shots = shots(visited, mayWumpus);
+        int[] hits = new int[shots.length];
+
+        // Shots first, since a sure thing or a last arrow needs no searching.
+        for (int i = 0; i < shots.length; i++) {
+            for (int p : set) {
+                if ((wumpus[p] & shots[i]) != 0) {
+                    hits[i]++;
+                }
+            }
+
+            if (hits[i] == n || (arrows == 1 && hits[i] > best)) {
+                best = hits[i];
+
+                if (choice != null) {
+                    choice.shoot(shots[i], mayWumpus);
+                }
+
+                if (best == n) {
+                    return best;
+                }
+            }
+        }
+
+        if (arrows > 1) {
+            for (int i = 0; i < shots.length; i++) {
+                int[] miss = missed(set, shots[i]);
+                long wins = hits[i] + solve(visited, arrows-1, miss, hash(miss));
+
+                if (wins > best) {
+                    best = wins;
+
+                    if (choice != null) {
+                        choice.shoot(shots[i], mayWumpus);
+                    }
+                }
+            }
+        }
+
+        // Then risky moves, least deadly first, skipping any that can't win enough.
+        int frontierCount = Long.bitCount(frontier);
+        long[] moves = new long[frontierCount];
+        int m = 0;
+
+        for (long rooms = frontier; rooms != 0; rooms &= rooms - 1) {
+            int room = Long.numberOfTrailingZeros(rooms) + 1;
+            long deaths = 0;
+
+            for (int p : set) {
+                deaths += (deadly[p] >>> (room-1)) & 1;
+            }
+
+            // Sort by deaths, keeping the room in the low bits.
+            moves[m++] = (deaths << 8) | room;
+        }
+
+        Arrays.sort(moves);
+
+        for (long move : moves) {
+            int room = (int) (move & 0xFF);
+            long deaths = move >>> 8;
+
+            if (n - deaths <= best) {
+                break;
+            }
+
+            long wins = explore(visited, arrows, set, room);
+
+            if (wins > best) {
+                best = wins;
+
+                if (choice != null) {
+                    choice.move(room);
+                }
+            }
+        }
+
+        return Math.max(best, 0);
+    }
+
+    /**
+     * Walks into a room and adds up the wins over everything that could be heard there.
+     *
+     * @param visited The rooms the player has been in
+     * @param arrows How many arrows they have
+     * @param set The placements that fit what they've seen
+     * @param room The room to walk into
+     * @return How many of the placements perfect play wins
+     */
+    private long explore(long visited, int arrows, int[] set, int room) {
+        int[][] groups = split(set, room);
+        long next = visited | bit(room);
+
+        // Big groups are worth sharing out between threads.
+        if (set.length >= PARALLEL && ForkJoinTask.inForkJoinPool()) {
+            List<Solve> tasks = new ArrayList<>();
+
+            for (int[] group : groups) {
+                if (group != null) {
+                    tasks.add(new Solve(next, arrows, group));
+                }
+            }
+
+            long wins = 0;
+
+            for (Solve task : ForkJoinTask.invokeAll(tasks)) {
+                wins += task.join();
+            }
+
+            return wins;
+        }
+
+        long wins = 0;
+
+        for (int[] group : groups) {
+            if (group != null) {
+                wins += solve(next, arrows, group, hash(group));
+            }
+        }
+
+        return wins;
+    }
+
+    /**
+     * Splits a belief up by what would be heard on walking into a room. The
+     * placements where the room kills are dropped.
+     *
+     * @param set The belief
+     * @param room The room walked into
+     * @return One group per observation, null where nothing fits
+     */
+    private int[][] split(int[] set, int room) {
+        byte[] observed = new byte[set.length];
+        int[] counts = new int[OBSERVATIONS+1];    // The last one is for deaths.
+
+        for (int i = 0; i < set.length; i++) {
+            int p = set[i];
+
+            observed[i] = (byte) (((deadly[p] & bit(room)) != 0) ? OBSERVATIONS : observation(p, room));
+            counts[observed[i]]++;
+        }
+
+        int[][] groups = new int[OBSERVATIONS][];
+        int[] filled = new int[OBSERVATIONS];
+
+        for (int o = 0; o < OBSERVATIONS; o++) {
+            if (counts[o] > 0) {
+                groups[o] = new int[counts[o]];
+            }
+        }
+
+        for (int i = 0; i < set.length; i++) {
+            if (observed[i] != OBSERVATIONS) {
+                groups[observed[i]][filled[observed[i]]++] = set[i];
+            }
+        }
+
+        return groups;
+    }
+
+    /**
+     * Works out what would be heard on walking into a room.
+     *
+     * @param p The placement
+     * @param room The room
+     * @return Bats in the room (bit 0) plus a bit (1 << ordinal) for each kind of danger next door
+     */
+    private int observation(int p, int room) {
+        long next = adjacent[room-1];
+        int observation = 0;
+
+        for (int kind = 1; kind < kinds.length; kind++) {
+            if (kinds[kind] != null && (kinds[kind][p] & next) != 0) {
+                observation |= 1 << kind;
+            }
+        }
+
+        long bats = kinds[Room.Danger.BATS.ordinal()] == null ? 0 : kinds[Room.Danger.BATS.ordinal()][p];
+
+        return ((bats & bit(room)) != 0) ? observation | OWN_BATS : observation;
+    }
+
+    /**
+     * Decides a belief with only one placement left: walk everywhere that's
+     * safe, and see if the Wumpus can be shot from any of it.
+     *
+     * @param visited The rooms the player has been in
+     * @param p The placement
+     * @return True if it's a win
+     */
+    private boolean solveKnown(long visited, int p) {
+        long reached = visited;
+        long more;
+
+        while ((more = neighbors(reached) & ~reached & ~deadly[p]) != 0) {
+            reached |= more;
+        }
+
+        return shots(reached, wumpus[p]).length > 0;
+    }
+
+    /**
+     * Lists the sets of target rooms an arrow can fly through from anywhere the
+     * player has been, keeping only the biggest ones. An arrow through more
+     * targets is never worse than one through fewer of the same.
+     *
+     * @param visited The rooms the player can shoot from
+     * @param targets The rooms worth hitting
+     * @return Each set of targets, with none a subset of another
+     */
+    private long[] shots(long visited, long targets) {
+        long[] found = new long[16];
+        int count = 0;
+
+        if (arrowPath == 1) {
+            // Just the rooms next door.
+            for (long rooms = neighbors(visited) & targets; rooms != 0; rooms &= rooms - 1) {
+                if (count == found.length) {
+                    found = Arrays.copyOf(found, count * 2);
+                }
+
+                found[count++] = rooms & -rooms;
+            }
+
+            return Arrays.copyOf(found, count);
+        }
+
+        long[][] holder = { found };
+        int[] size = { 0 };
+
+        for (long from = visited; from != 0; from &= from - 1) {
+            int room = Long.numberOfTrailingZeros(from) + 1;
+
+            collectShots(room, room, 0, 0, 0, targets, holder, size);
+        }
+
+        found = holder[0];
+        count = size[0];
+
+        // Lots of paths hit the same targets, so drop the repeats first.
+        Arrays.sort(found, 0, count);
+
+        int unique = 0;
+
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || found[unique-1] != found[i]) {
+                found[unique++] = found[i];
+            }
+        }
+
+        // Then keep only sets that nothing else contains.
+        int kept = 0;
+
+        for (int i = 0; i < unique; i++) {
+            long rooms = found[i];
+            boolean covered = false;
+
+            for (int j = 0; j < unique && !covered; j++) {
+                covered = j != i && (found[j] & rooms) == rooms;
+            }
+
+            if (!covered) {
+                found[kept++] = rooms;
+            }
+        }
+
+        return Arrays.copyOf(found, kept);
+    }
+
+    /**
+     * Follows every arrow path from a room, adding the targets each one hits.
+     *
+     * @param shooter The room the arrow is shot from, which it must not come back to
+     * @param at Where the arrow is
+     * @param before Where the arrow was two rooms ago, which it can't go straight back to
+     * @param depth How many rooms the arrow has flown through
+     * @param hit The targets hit so far
+     * @param targets The rooms worth hitting
+     * @param holder Holds the array of sets found, which may be grown
+     * @param size Holds how many sets have been found
+     */
+    private void collectShots(int shooter, int at, int before, int depth, long hit, long targets, long[][] holder, int[] size) {
+        for (int i = 0; i < cave.getDegree(at); i++) {
+            int next = cave.getAdjRoom(at, i);
+
+            if (next == shooter || next == before || next == at) {
+                continue;
+            }
+
+            long now = hit | (bit(next) & targets);
+
+            if (now != 0 && (depth+1 == arrowPath || now != hit)) {
+                if (size[0] == holder[0].length) {
+                    holder[0] = Arrays.copyOf(holder[0], size[0] * 2);
+                }
+
+                holder[0][size[0]++] = now;
+            }
+
+            if (depth+1 < arrowPath) {
+                collectShots(shooter, next, (depth == 0) ? 0 : at, depth+1, now, targets, holder, size);
+            }
+        }
+    }
+
+    /**
+     * Looks for an arrow path that hits exactly the given targets.
+     *
+     * @param shooter The room the arrow is shot from
+     * @param at Where the arrow is
+     * @param before Where the arrow was two rooms ago
+     * @param depth How many rooms the arrow has flown through
+     * @param targets The rooms that matter
+     * @param rooms The targets to hit
+     * @param path Where to put the path
+     * @return The length of the path, or 0 if there isn't one from here
+     */
+    private int findPath(int shooter, int at, int before, int depth, long targets, long rooms, int[] path) {
+        long hit = 0;
+
+        for (int i = 0; i < depth; i++) {
+            hit |= bit(path[i]) & targets;
+        }
+
+        if (hit == rooms) {
+            return depth;
+        }
+
+        if (depth == arrowPath || (hit & ~rooms) != 0) {
+            return 0;
+        }
+
+        for (int i = 0; i < cave.getDegree(at); i++) {
+            int next = cave.getAdjRoom(at, i);
+
+            if (next == shooter || next == before || next == at) {
+                continue;
+            }
+
+            path[depth] = next;
+
+            int length = findPath(shooter, next, (depth == 0) ? 0 : at, depth+1, targets, rooms, path);
+
+            if (length > 0) {
+                return length;
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Gets every room next to any of a set of rooms.
+     *
+     * @param rooms The rooms
+     * @return Their neighbors, which may include some of the rooms themselves
+     */
+    private long neighbors(long rooms) {
+        long next = 0;
+
+        for (; rooms != 0; rooms &= rooms - 1) {
+            next |= adjacent[Long.numberOfTrailingZeros(rooms)];
+        }
+
+        return next;
+    }
+
+    /**
+     * Lists every placement, one kind of danger at a time.
+     *
+     * @param kind The danger ordinal being placed
+     * @param counts How many of each kind to place
+     * @param from The lowest room this kind can still go in
+     * @param used Rooms already taken
+     * @param current The rooms picked for each kind so far
+     * @param next The next placement number
+     * @return The placement number after the last one added
+     */
+    private int place(int kind, int[] counts, int from, long used, long[] current, int next) {
+        if (kind == counts.length) {
+            for (int k = 1; k < counts.length; k++) {
+                if (kinds[k] != null) {
+                    kinds[k][next] = current[k];
+                }
+            }
+
+            return next + 1;
+        }
+
+        int placedOfKind = Long.bitCount(current[kind]);
+
+        if (placedOfKind == counts[kind]) {
+            return place(kind+1, counts, 2, used, current, next);
+        }
+
+        // Rooms of one kind go in increasing order, so each set is listed once.
+        for (int room = from; room <= numRooms; room++) {
+            if ((used & bit(room)) == 0) {
+                current[kind] |= bit(room);
+                next = place(kind, counts, room+1, used | bit(room), current, next);
+                current[kind] &= ~bit(room);
+            }
+        }
+
+        return next;
+    }
+
+    /**
+     * Works out the Zobrist hash of a belief: the sum of a random number for
+     * each placement in it.
+     *
+     * @param set The belief
+     * @return The hash
+     */
+    private static long hash(int[] set) {
+        long hash = 0;
+
+        for (int p : set) {
+            hash += GameRandom.mix64(p + 0x5DEECE66DL);
+        }
+
+        return hash;
+    }
+
+    /**
+     * Gets the bit for a room in a room mask.
+     *
+     * @param room The room number (1 based)
+     * @return The bit
+     */
+    private static long bit(int room) {
+        return 1L << (room-1);
+    }
+
+    /**
+     * Works out n choose k.
+     *
+     * @param n How many to choose from
+     * @param k How many to choose
+     * @return The number of ways, or 0 if k is more than n
+     */
+    private static long choose(int n, int k) {
+        if (k < 0 || k > n) {
+            return 0;
+        }
+
+        long result = 1;
+
+        for (int i = 1; i <= k; i++) {
+            result = result * (n - k + i) / i;
+        }
+
+        return result;
+    }
+
+    /**
+     * What the solver picked: a room to walk into, or rooms to shoot through.
+     *
+     */
+    static final class Choice {
+        boolean shoot;      // True to shoot, false to move.
+        int room;           // The room to walk into.
+        long rooms;         // The target rooms to shoot through.
+        long targets;       // The rooms that mattered when the shot was picked.
+
+        void move(int room) {
+            this.shoot = false;
+            this.room = room;
+        }
+
+        void shoot(long rooms, long targets) {
+            this.shoot = true;
+            this.rooms = rooms;
+            this.targets = targets;
+        }
+    }
+
+    /**
+     * Solves one belief as a fork/join task.
+     *
+     */
+    private final class Solve extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final long visited;
+        private final int arrows;
+        private final int[] set;
+
+        Solve(long visited, int arrows, int[] set) {
+            this.visited = visited;
+            this.arrows = arrows;
+            this.set = set;
+        }
+
+        @Override
+        protected Long compute() {
+            return solve(visited, arrows, set, hash(set));
+        }
+    }
+
+    /**
+     * Walks into a room as a fork/join task, to start the search off.
+     *
+     */
+    private final class Explore extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final long visited;
+        private final int arrows;
+        private final int[] set;
+        private final int room;
+
+        Explore(long visited, int arrows, int[] set, int room) {
+            this.visited = visited;
+            this.arrows = arrows;
+            this.set = set;
+            this.room = room;
+        }
+
+        @Override
+        protected Long compute() {
+            return explore(visited, arrows, set, room);
+        }
+    }
+
+    /**
+     * Solved beliefs, split into segments that each have their own lock. Each
+     * segment is an open addressing table of two long keys and the wins.
+     *
+     */
+    private static final class Table {
+        private static final int SEGMENTS = 64;     // Must be a power of two.
+
+        private final Segment[] segments = new Segment[SEGMENTS];
+
+        Table() {
+            for (int i = 0; i < SEGMENTS; i++) {
+                segments[i] = new Segment();
+            }
+        }
+
+        long get(long key, long hash) {
+            long mixed = GameRandom.mix64(key ^ hash);
+
+            return segments[(int) mixed & (SEGMENTS-1)].get(key, hash, mixed >>> 6);
+        }
+
+        void put(long key, long hash, long wins) {
+            long mixed = GameRandom.mix64(key ^ hash);
+
+            segments[(int) mixed & (SEGMENTS-1)].put(key, hash, mixed >>> 6, wins);
+        }
+
+        long size() {
+            long size = 0;
+
+            for (Segment segment : segments) {
+                size += segment.size();
+            }
+
+            return size;
+        }
+    }
+
+    /**
+     * One lock's worth of the transposition table.
+     *
+     */
+    private static final class Segment {
+        private long[] keys = new long[64];     // Visited rooms and arrows, 0 for an empty slot. Room 1 is always visited.
+        private long[] hashes = new long[64];   // Zobrist hash of the placements.
+        private long[] wins = new long[64];     // Placements won.
+        private int size;                       // How many slots are in use.
+
+        synchronized long get(long key, long hash, long mixed) {
+            int mask = keys.length - 1;
+
+            for (int slot = (int) mixed & mask; keys[slot] != 0; slot = (slot + 1) & mask) {
+                if (keys[slot] == key && hashes[slot] == hash) {
+                    return wins[slot];
+                }
+            }
+
+            return -1;
+        }
+
+        synchronized void put(long key, long hash, long mixed, long value) {
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+            }
+
+            int mask = keys.length - 1;
+            int slot = (int) mixed & mask;
+
+            while (keys[slot] != 0) {
+                if (keys[slot] == key && hashes[slot] == hash) {
+                    return;     // Another thread solved it too.
+                }
+
+                slot = (slot + 1) & mask;
+            }
+
+            keys[slot] = key;
+            hashes[slot] = hash;
+            wins[slot] = value;
+            size++;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        /**
+         * Doubles the size of the table.
+         *
+         */
+        private void grow() {
+            long[] oldKeys = keys;
+            long[] oldHashes = hashes;
+            long[] oldWins = wins;
+            int mask = oldKeys.length * 2 - 1;
+
+            keys = new long[oldKeys.length * 2];
+            hashes = new long[oldKeys.length * 2];
+            wins = new long[oldKeys.length * 2];
+
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    int slot = (int) (GameRandom.mix64(oldKeys[i] ^ oldHashes[i]) >>> 6) & mask;
+
+                    while (keys[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+
+                    keys[slot] = oldKeys[i];
+                    hashes[slot] = oldHashes[i];
+                    wins[slot] = oldWins[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package huntthewumpus;
+
+/**
+ * Spiders that breed. Every so many turns each spider tries to put a new spider
+ * in a random room next to it, as long as the room is empty and the player
+ * isn't in it, until the cave holds as many spiders as allowed.
+ *
+ * The hazard's state counts the turns since the spider last spread.
+ *
+ * @author Ivan Samuelson
+ */
+public final class SpreadingSpiders implements Behavior {
+    private final int interval;     // How many turns between spreading.
+    private final int max;          // The most spiders there can be.
+
+    /**
+     * Creates the behavior.
+     *
+     * @param interval How many turns each spider waits between spreading
+     * @param max The most spiders there can be in one game
+     */
+    public SpreadingSpiders(int interval, int max) {
+        this.interval = interval;
+        this.max = max;
+    }
+
+    @Override
+    public void tick(Hazard hazard, World world) {
+        hazard.setState(hazard.getState() + 1);
+
+        if (hazard.getState() < interval || world.getCount(Room.Danger.SPIDER) >= max) {
+            return;
+        }
+
+        hazard.setState(0);
+
+        Cave cave = world.getCave();
+        int degree = cave.getDegree(hazard.getRoom());
+
+        // Nowhere for the nest to spread to from a room with no tunnels out.
+        if (degree == 0) {
+            return;
+        }
+
+        int room = cave.getAdjRoom(hazard.getRoom(), world.getRandom().nextInt(degree));
+
+        if (room != world.getPlayerRoom()) {
+            world.spawn(room, Room.Danger.SPIDER);
+        }
+    }
+}
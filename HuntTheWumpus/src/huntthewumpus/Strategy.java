@@ -0,0 +1,22 @@
+package huntthewumpus;
+
+/**
+ * A scripted player for simulations. A strategy plays one game at a time by
+ * calling move() and shoot() on the engine until the game ends.
+ *
+ * One strategy object is used by one thread at a time, but it is reused for
+ * game after game, so it can keep scratch space around between games.
+ *
+ * @author Ivan Samuelson
+ */
+public interface Strategy {
+    /**
+     * Plays a game until it is over or the turn limit is hit.
+     *
+     * @param engine The game to play, fresh from its constructor
+     * @param random Where the strategy's randomness comes from
+     * @param maxTurns The most commands to give before giving up
+     * @return How many commands were given
+     */
+    int play(GameEngine engine, GameRandom random, int maxTurns);
+}
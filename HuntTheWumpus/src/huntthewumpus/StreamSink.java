@@ -0,0 +1,64 @@
+package huntthewumpus;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Writes output to a stream, one write call for each batch. Plain ASCII text is
+ * copied straight into a byte buffer that gets reused for every batch, anything
+ * else goes through the platform charset like System.out would.
+ *
+ * @author Ivan Samuelson
+ */
+public final class StreamSink implements OutputSink {
+    private final OutputStream out;     // Where the bytes go.
+    private byte[] bytes = new byte[4096];  // The last batch, encoded. Grows as needed.
+
+    /**
+     * Creates a sink that writes to a stream.
+     *
+     * @param out The stream to write to, System.out for the console
+     */
+    public StreamSink(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(CharSequence text) {
+        int length = text.length();
+
+        if (length > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(length, bytes.length * 2));
+        }
+
+        try {
+            for (int i = 0; i < length; i++) {
+                char c = text.charAt(i);
+
+                if (c >= 0x80) {
+                    // Not plain ASCII, let the charset sort it out.
+                    byte[] encoded = text.toString().getBytes(Charset.defaultCharset());
+
+                    out.write(encoded, 0, encoded.length);
+                    out.flush();
+                    return;
+                }
+
+                bytes[i] = (byte) c;
+            }
+
+            out.write(bytes, 0, length);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void flush() {
+        // Every write already went straight out.
+    }
+}
@@ -0,0 +1,62 @@
+package huntthewumpus;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Room descriptions held as Strings in a shared table. Rooms with the same
+ * description share one String instead of each carrying their own copy.
+ *
+ * @author Ivan Samuelson
+ */
+public final class StringTable implements RoomDescriptions {
+    private final int[] descIndex;          // Index into descriptions for each room.
+    private final String[] descriptions;    // Shared table of unique room descriptions.
+
+    /**
+     * Creates a table from already built arrays. The arrays are used as is, not copied.
+     *
+     * @param descIndex The index into descriptions for each room
+     * @param descriptions The table of unique room descriptions
+     */
+    public StringTable(int[] descIndex, String[] descriptions) {
+        this.descIndex = descIndex;
+        this.descriptions = descriptions;
+    }
+
+    /**
+     * Builds a table from one description per room, sharing duplicates.
+     *
+     * @param roomDescs The description of each room, room 1 first
+     * @return The shared table
+     */
+    public static StringTable of(String[] roomDescs) {
+        int[] descIndex = new int[roomDescs.length];
+        Map<String, Integer> table = new HashMap<>();
+
+        for (int i = 0; i < roomDescs.length; i++) {
+            Integer index = table.get(roomDescs[i]);
+
+            if (index == null) {
+                index = table.size();
+                table.put(roomDescs[i], index);
+            }
+
+            descIndex[i] = index;
+        }
+
+        // Flip the table around so a room's index finds its description.
+        String[] descriptions = new String[table.size()];
+
+        for (Map.Entry<String, Integer> entry : table.entrySet()) {
+            descriptions[entry.getValue()] = entry.getKey();
+        }
+
+        return new StringTable(descIndex, descriptions);
+    }
+
+    @Override
+    public String get(int room) {
+        return descriptions[descIndex[room-1]];
+    }
+}
@@ -0,0 +1,57 @@
+package huntthewumpus;
+
+/**
+ * Super bats from the original game. Walk into their room and they grab you
+ * and drop you somewhere random, maybe somewhere worse, then fly off to a new
+ * roost. They never drop you on other bats.
+ *
+ * @author Ivan Samuelson
+ */
+public final class SuperBats implements Behavior {
+    // Bats don't keep any state, so everyone can share this one.
+    public static final SuperBats INSTANCE = new SuperBats();
+
+    /**
+     * Use INSTANCE instead.
+     *
+     */
+    private SuperBats() {
+    }
+
+    @Override
+    public void notice(Hazard hazard, GameEvent event, World world) {
+        if (event.getType() != GameEvent.Type.MOVED || event.getRoom() != hazard.getRoom()) {
+            return;
+        }
+
+        // Anywhere but another roost. A cave that's nearly all roosts might not
+        // turn one up in a few tries, and then the bats just let go where they are.
+        int drop = 0;
+        GameRandom random = world.getRandom();
+
+        for (int tries = 0; tries < World.MAX_TRIES && drop == 0; tries++) {
+            int room = random.nextInt(world.getCave().getNumRooms()) + 1;
+
+            if (world.getDanger(room) != Room.Danger.BATS) {
+                drop = room;
+            }
+        }
+
+        if (drop != 0) {
+            world.movePlayer(drop);
+            world.addEvent(new GameEvent(GameEvent.Type.CARRIED, drop, Room.Danger.BATS));
+        }
+
+        // And off they go.
+        int roost = world.randomEmptyRoom();
+
+        if (roost != 0) {
+            world.moveHazard(hazard, roost);
+        }
+    }
+
+    @Override
+    public void tick(Hazard hazard, World world) {
+        // Bats just hang around until someone walks in.
+    }
+}
@@ -0,0 +1,36 @@
+package huntthewumpus;
+
+/**
+ * The shape of a generated cave. A topology works out any room's tunnels on
+ * its own, from nothing but the room number and its seed, so CaveGenerator can
+ * write any part of a cave on any thread without building the whole thing in
+ * memory first. Implementations must be safe to call from many threads at once
+ * and must always agree with themselves: if room a has a tunnel to room b, room
+ * b has one back to room a.
+ *
+ * @author Ivan Samuelson
+ */
+public interface Topology {
+    /**
+     * Gets how many rooms the cave has
+     *
+     * @return The number of rooms
+     */
+    int getNumRooms();
+
+    /**
+     * Gets the most tunnels any one room can have
+     *
+     * @return The largest degree, which is how big tunnels() needs its array to be
+     */
+    int getMaxDegree();
+
+    /**
+     * Works out where the tunnels out of a room go.
+     *
+     * @param room The room number (1 based)
+     * @param tunnels Where to put the room numbers, at least getMaxDegree() long
+     * @return How many tunnels the room has
+     */
+    int tunnels(int room, int[] tunnels);
+}
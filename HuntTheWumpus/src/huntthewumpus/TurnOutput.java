@@ -0,0 +1,88 @@
+package huntthewumpus;
+
+/**
+ * Collects everything printed during a turn in one buffer and hands it to an
+ * OutputSink in one go when the turn is flushed. The buffer is reused from turn
+ * to turn, so printing doesn't make any garbage once it has grown to fit.
+ *
+ * @author Ivan Samuelson
+ */
+public final class TurnOutput {
+    private final OutputSink sink;  // Where each turn goes.
+    private final StringBuilder buffer = new StringBuilder(1024);   // This turn's text so far.
+
+    /**
+     * Creates an output that writes to a sink.
+     *
+     * @param sink Where to write each turn
+     */
+    public TurnOutput(OutputSink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Adds some text as it is.
+     *
+     * @param text The text
+     * @return This, so prints can be chained
+     */
+    public TurnOutput print(CharSequence text) {
+        buffer.append(text);
+        return this;
+    }
+
+    /**
+     * Adds a number.
+     *
+     * @param value The number
+     * @return This, so prints can be chained
+     */
+    public TurnOutput print(int value) {
+        buffer.append(value);
+        return this;
+    }
+
+    /**
+     * Adds a message with a number in it.
+     *
+     * @param message The message
+     * @param value The number for its hole
+     * @return This, so prints can be chained
+     */
+    public TurnOutput print(MessageTemplate message, int value) {
+        message.appendTo(buffer, value);
+        return this;
+    }
+
+    /**
+     * Adds a message with some text in it.
+     *
+     * @param message The message
+     * @param value The text for its hole
+     * @return This, so prints can be chained
+     */
+    public TurnOutput print(MessageTemplate message, CharSequence value) {
+        message.appendTo(buffer, value);
+        return this;
+    }
+
+    /**
+     * Sends everything printed since the last flush to the sink in one write.
+     *
+     */
+    public void flush() {
+        if (buffer.length() > 0) {
+            sink.write(buffer);
+            buffer.setLength(0);
+        }
+    }
+
+    /**
+     * Flushes, then waits until the sink has written everything out.
+     *
+     */
+    public void close() {
+        flush();
+        sink.flush();
+    }
+}
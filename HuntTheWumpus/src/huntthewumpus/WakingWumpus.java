@@ -0,0 +1,59 @@
+package huntthewumpus;
+
+/**
+ * The Wumpus from the original game. It sleeps until an arrow misses, then
+ * wakes up and wanders for a few turns, taking a tunnel three times out of four.
+ * If it wanders into the player's room, that's lunch.
+ *
+ * The hazard's state is how many more turns it stays awake.
+ *
+ * @author Ivan Samuelson
+ */
+public final class WakingWumpus implements Behavior {
+    // One turn of wandering per miss, just like the original.
+    public static final WakingWumpus CLASSIC = new WakingWumpus(1);
+
+    private final int restless;     // How many turns it stays awake after a miss.
+
+    /**
+     * Creates the behavior.
+     *
+     * @param restless How many turns the Wumpus wanders after each miss
+     */
+    public WakingWumpus(int restless) {
+        this.restless = restless;
+    }
+
+    @Override
+    public void notice(Hazard hazard, GameEvent event, World world) {
+        if (event.getType() == GameEvent.Type.ARROW_MISSED) {
+            // Only tell the player if it was asleep.
+            if (hazard.getState() == 0) {
+                world.addEvent(new GameEvent(GameEvent.Type.WOKE, 0, Room.Danger.WUMPUS));
+            }
+
+            hazard.setState(restless);
+        }
+    }
+
+    @Override
+    public void tick(Hazard hazard, World world) {
+        if (hazard.getState() == 0) {
+            return;     // Still asleep.
+        }
+
+        hazard.setState(hazard.getState() - 1);
+
+        // Three times out of four it takes a random tunnel, if nothing else is in the way.
+        if (world.getRandom().nextInt(4) != 0) {
+            Cave cave = world.getCave();
+            int room = hazard.getRoom();
+            int degree = cave.getDegree(room);
+
+            // A room with no tunnels out just keeps it where it is.
+            if (degree > 0) {
+                world.moveHazard(hazard, cave.getAdjRoom(room, world.getRandom().nextInt(degree)));
+            }
+        }
+    }
+}
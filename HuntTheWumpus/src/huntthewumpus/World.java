@@ -0,0 +1,286 @@
+package huntthewumpus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The moving parts of one game: the hazards that do something, and the turn
+ * by turn "tick" that lets them do it. After each command the player gives,
+ * every hazard with a behavior hears what happened and then gets to act, so a
+ * tick costs the number of active hazards no matter how big the cave is.
+ *
+ * Behaviors change the game through the methods here, which keep the hazard
+ * map (and its proximity index) up to date as hazards move, spread, or carry
+ * the player off. The GameEngine checks where the player ended up afterwards.
+ *
+ * This is per game and not thread-safe.
+ *
+ * @author Ivan Samuelson
+ */
+public final class World {
+    // How many random rooms to try when looking for an empty one before giving up.
+    static final int MAX_TRIES = 64;
+
+    private final Cave cave;            // The cave the game is in.
+    private final HazardMap hazards;    // Where every danger is, active or not.
+    private final GameRandom random;    // The game's randomness.
+    private final List<Hazard> actors = new ArrayList<>();  // Every hazard with a behavior.
+    private final Behavior[] behaviors = new Behavior[Room.DANGERS.length];    // Behavior for each kind of danger, or null.
+    private final int[] counts = new int[Room.DANGERS.length]; // How many actors of each kind there are.
+    private List<GameEvent> events;     // The events of the turn being ticked.
+    private int playerRoom;             // Where the player is (1 based), while ticking.
+    private int turn = 0;               // How many turns have been ticked.
+
+    /**
+     * Creates a world with no active hazards.
+     *
+     * @param cave The cave the game is in
+     * @param hazards Where the dangers are
+     * @param random The game's randomness
+     */
+    World(Cave cave, HazardMap hazards, GameRandom random) {
+        this.cave = cave;
+        this.hazards = hazards;
+        this.random = random;
+    }
+
+    /**
+     * Gives every hazard of one kind a behavior, including any that spawn later.
+     * This looks at every hazard once, so do it at the start of the game.
+     *
+     * @param danger The kind of danger
+     * @param behavior What it does every turn
+     */
+    void addBehavior(Room.Danger danger, Behavior behavior) {
+        if (danger == Room.Danger.NONE || behaviors[danger.ordinal()] != null) {
+            throw new IllegalArgumentException(String.format("%s already has a behavior", danger));
+        }
+
+        behaviors[danger.ordinal()] = behavior;
+
+        for (int room : hazards.getRooms()) {
+            if (hazards.get(room) == danger) {
+                actors.add(new Hazard(danger, behavior, room));
+                counts[danger.ordinal()]++;
+            }
+        }
+    }
+
+    /**
+     * Gets every hazard with a behavior, in the order they act. For snapshots.
+     *
+     * @return The active hazards. Don't change the list.
+     */
+    List<Hazard> getActors() {
+        return actors;
+    }
+
+    /**
+     * Replaces the active hazards with ones from a snapshot. The hazards must
+     * already be in the hazard map, and their kinds must already have behaviors.
+     *
+     * @param rooms Where each active hazard is, in the order they act
+     * @param states The behavior state of each one
+     * @param turn How many turns had gone by
+     * @throws IllegalArgumentException If a hazard isn't in the map or its kind has no behavior
+     */
+    void restoreActors(int[] rooms, int[] states, int turn) {
+        actors.clear();
+        Arrays.fill(counts, 0);
+
+        for (int i = 0; i < rooms.length; i++) {
+            Room.Danger danger = hazards.get(rooms[i]);
+            Behavior behavior = behaviors[danger.ordinal()];
+
+            if (behavior == null) {
+                throw new IllegalArgumentException(String.format("No behavior for the %s in room %d", danger, rooms[i]));
+            }
+
+            Hazard hazard = new Hazard(danger, behavior, rooms[i]);
+
+            hazard.setState(states[i]);
+            actors.add(hazard);
+            counts[danger.ordinal()]++;
+        }
+
+        this.turn = turn;
+    }
+
+    /**
+     * Checks whether any hazard does anything, so a turn with nothing to tick can skip it.
+     *
+     * @return True if there is at least one active hazard
+     */
+    boolean isActive() {
+        return !actors.isEmpty();
+    }
+
+    /**
+     * Runs one tick: each active hazard hears about the turn's events, then
+     * acts. Hazards that spawn during the tick start acting next turn.
+     *
+     * @param player Where the player is (1 based)
+     * @param turnEvents The events of the turn so far. Hazards add theirs to it.
+     * @return Where the player is after the tick
+     */
+    int tick(int player, List<GameEvent> turnEvents) {
+        int active = actors.size();
+        int happened = turnEvents.size();
+
+        this.events = turnEvents;
+        this.playerRoom = player;
+
+        for (int i = 0; i < active; i++) {
+            Hazard hazard = actors.get(i);
+
+            for (int e = 0; e < happened; e++) {
+                hazard.getBehavior().notice(hazard, turnEvents.get(e), this);
+            }
+        }
+
+        for (int i = 0; i < active; i++) {
+            Hazard hazard = actors.get(i);
+
+            hazard.getBehavior().tick(hazard, this);
+        }
+
+        turn++;
+        this.events = null;
+        return playerRoom;
+    }
+
+    /**
+     * Gets the cave the game is in
+     *
+     * @return The cave
+     */
+    public Cave getCave() {
+        return cave;
+    }
+
+    /**
+     * Gets the game's randomness. Behaviors should only use this one so games
+     * with the same seed play out the same.
+     *
+     * @return The random number generator
+     */
+    public GameRandom getRandom() {
+        return random;
+    }
+
+    /**
+     * Gets how many turns have gone by
+     *
+     * @return The number of ticks so far
+     */
+    public int getTurn() {
+        return turn;
+    }
+
+    /**
+     * Gets where the player is
+     *
+     * @return The room number (1 based)
+     */
+    public int getPlayerRoom() {
+        return playerRoom;
+    }
+
+    /**
+     * Moves the player. The engine checks what's in the new room after the tick.
+     *
+     * @param room The room number (1 based)
+     */
+    public void movePlayer(int room) {
+        playerRoom = room;
+    }
+
+    /**
+     * Gets the danger in a room
+     *
+     * @param room The room number (1 based)
+     * @return The danger, Danger.NONE if there isn't one
+     */
+    public Room.Danger getDanger(int room) {
+        return hazards.get(room);
+    }
+
+    /**
+     * Gets how many active hazards of one kind there are
+     *
+     * @param danger The kind of danger
+     * @return How many of them have a behavior
+     */
+    public int getCount(Room.Danger danger) {
+        return counts[danger.ordinal()];
+    }
+
+    /**
+     * Moves a hazard into another room, as long as no other danger is there.
+     * Moving into the player's room is allowed. That's the point, really.
+     *
+     * @param hazard The hazard to move
+     * @param room The room number to move it to (1 based)
+     * @return True if it moved, false if the room was taken
+     */
+    public boolean moveHazard(Hazard hazard, int room) {
+        if (room == hazard.getRoom() || hazards.get(room) != Room.Danger.NONE) {
+            return false;
+        }
+
+        hazards.remove(hazard.getRoom());
+        hazards.put(room, hazard.getDanger());
+        hazard.setRoom(room);
+        return true;
+    }
+
+    /**
+     * Puts a new hazard in an empty room. It gets the behavior of its kind, if
+     * it has one, and starts acting next turn.
+     *
+     * @param room The room number (1 based)
+     * @param danger The kind of danger
+     * @return True if it was placed, false if the room was taken
+     */
+    public boolean spawn(int room, Room.Danger danger) {
+        if (danger == Room.Danger.NONE || hazards.get(room) != Room.Danger.NONE) {
+            return false;
+        }
+
+        hazards.put(room, danger);
+
+        if (behaviors[danger.ordinal()] != null) {
+            actors.add(new Hazard(danger, behaviors[danger.ordinal()], room));
+            counts[danger.ordinal()]++;
+        }
+
+        return true;
+    }
+
+    /**
+     * Picks a random room with no danger in it and without the player in it.
+     *
+     * @return The room number (1 based), or 0 if none turned up after a few tries
+     */
+    public int randomEmptyRoom() {
+        for (int tries = 0; tries < MAX_TRIES; tries++) {
+            int room = random.nextInt(cave.getNumRooms()) + 1;
+
+            if (room != playerRoom && hazards.get(room) == Room.Danger.NONE) {
+                return room;
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Adds an event to the turn, for the player to hear about.
+     *
+     * @param event What happened
+     */
+    public void addEvent(GameEvent event) {
+        events.add(event);
+    }
+}
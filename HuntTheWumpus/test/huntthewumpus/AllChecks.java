@@ -0,0 +1,59 @@
+package huntthewumpus;
+
+/**
+ * Runs every check, prints how each one went and exits with 1 if anything
+ * failed, so "ant check" fails with it.
+ *
+ * @author Ivan Samuelson
+ */
+public final class AllChecks {
+    /**
+     * No instances, just main().
+     *
+     */
+    private AllChecks() {
+    }
+
+    /**
+     * Runs the checks.
+     *
+     * @param args Not used
+     */
+    public static void main(String[] args) {
+        Check[] checks = {
+            new CaveFileCheck(),
+            new ReplayLogCheck(),
+            new GameSnapshotCheck(),
+            new HistoryCheck(),
+            new ShardEquivalenceCheck(),
+        };
+        int failed = 0;
+
+        for (Check check : checks) {
+            String name = check.getClass().getSimpleName();
+            long start = System.nanoTime();
+
+            System.out.printf("%s\n", name);
+
+            try {
+                check.run();
+            } catch (Exception e) {
+                // Anything it didn't expect counts against it.
+                check.check(false, "threw %s", e);
+                e.printStackTrace(System.out);
+            }
+
+            System.out.printf("    %d checks, %d failed in %.1f s\n", check.getChecks(), check.getFailures(),
+                    (System.nanoTime() - start) / 1e9);
+
+            failed += (check.getFailures() > 0) ? 1 : 0;
+        }
+
+        if (failed > 0) {
+            System.out.printf("%d of %d checks failed\n", failed, checks.length);
+            System.exit(1);
+        }
+
+        System.out.printf("All %d checks passed\n", checks.length);
+    }
+}
@@ -0,0 +1,246 @@
+package huntthewumpus;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Writes caves out as compiled cave files and reads them back, and checks that
+ * the tunnels, descriptions and fingerprint all come back the same. Then
+ * breaks compiled files and rooms files in the ways the loaders are meant to
+ * catch, and checks that each one is turned away with a CaveFormatException.
+ * A compiled file with a one way tunnel only gets caught when compiled files
+ * are asked to be validated.
+ *
+ * @author Ivan Samuelson
+ */
+final class CaveFileCheck extends Check {
+    private static final long SEED = 11;    // Which generated cave.
+
+    /**
+     * Runs every round trip and every broken file.
+     *
+     * @throws IOException If a file can't be written or read
+     */
+    @Override
+    void run() throws IOException {
+        File dir = tempDir("cave");
+
+        try {
+            roundTripRoomsFile(dir);
+            roundTripGenerated(dir, "torus:30x30");
+            roundTripGenerated(dir, "smallworld:500:4:0.05");
+            brokenCaveFiles(dir);
+            unvalidatedCaveFile(dir);
+            brokenRoomsFiles();
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /**
+     * Compiles the rooms file that comes with the game and loads it back.
+     *
+     * @param dir Where to write the compiled file
+     * @throws IOException If a file can't be written or read
+     */
+    private void roundTripRoomsFile(File dir) throws IOException {
+        File rooms = new File("rooms.txt");
+
+        if (!rooms.exists()) {
+            System.out.printf("    no rooms.txt here, skipping it\n");
+            return;
+        }
+
+        CaveLoader loader = new CaveLoader();
+        Cave text = loader.load(rooms.getPath());
+        String compiled = new File(dir, "rooms.wump").getPath();
+
+        check(!loader.isCompiled(), "rooms.txt loaded as a compiled cave");
+        CaveFile.write(text, compiled);
+
+        Cave cave = loader.load(compiled);
+
+        check(loader.isCompiled(), "compiled rooms.txt didn't load as a compiled cave");
+        same(text, cave, "compiled rooms.txt");
+    }
+
+    /**
+     * Generates a cave both as a rooms file and as a compiled cave file, and
+     * checks that both load as the cave the topology describes. The compiled
+     * one is then written again with CaveFile.write(), which has to give the
+     * same bytes back.
+     *
+     * @param dir Where to write the files
+     * @param shape The cave's shape
+     * @throws IOException If a file can't be written or read
+     */
+    private void roundTripGenerated(File dir, String shape) throws IOException {
+        Topology topology = CaveGenerator.parse(shape, SEED);
+        CaveGenerator generator = new CaveGenerator(topology, SEED, 2);
+        File text = new File(dir, "generated.txt");
+        File binary = new File(dir, "generated.wump");
+        File again = new File(dir, "again.wump");
+
+        generator.writeText(text.getPath());
+        generator.writeCompiled(binary.getPath());
+
+        Cave fromText = new CaveLoader().load(text.getPath());
+        Cave fromBinary = new CaveLoader().load(binary.getPath());
+        int[] tunnels = new int[topology.getMaxDegree()];
+
+        equal(topology.getNumRooms(), fromBinary.getNumRooms(), shape + " rooms");
+
+        for (int room = 1; room <= fromBinary.getNumRooms(); room++) {
+            int count = topology.tunnels(room, tunnels);
+
+            equal(count, fromBinary.getDegree(room), shape + " room " + room + " tunnels");
+
+            for (int i = 0; i < Math.min(count, fromBinary.getDegree(room)); i++) {
+                equal(tunnels[i], fromBinary.getAdjRoom(room, i), shape + " room " + room + " tunnel " + i);
+            }
+
+            equal(new String(generator.description(room), StandardCharsets.UTF_8), fromBinary.getRoomDesc(room),
+                    shape + " room " + room + " description");
+        }
+
+        same(fromText, fromBinary, shape);
+
+        CaveFile.write(fromBinary, again.getPath());
+        check(Arrays.equals(Files.readAllBytes(binary.toPath()), Files.readAllBytes(again.toPath())),
+                "%s written again by CaveFile.write() isn't the same file", shape);
+    }
+
+    /**
+     * Breaks a compiled cave file each way CaveFile.read() looks for.
+     *
+     * @param dir Where to write the file
+     * @throws IOException If a file can't be written or read
+     */
+    private void brokenCaveFiles(File dir) throws IOException {
+        File file = new File(dir, "broken.wump");
+        CaveGenerator generator = new CaveGenerator(CaveGenerator.parse("grid:5x4", SEED), SEED, 1);
+
+        generator.writeCompiled(file.getPath());
+
+        byte[] good = Files.readAllBytes(file.toPath());
+        int numRooms = 20;
+        int textSize = ByteBuffer.wrap(good).order(ByteOrder.LITTLE_ENDIAN).getInt(20);
+        int startsPos = good.length - 4 * (numRooms+1);
+
+        check(CaveFile.read(ByteBuffer.wrap(good)).getNumRooms() == numRooms, "unbroken cave file doesn't read");
+
+        broken(good, 0, 0x12345678, "cave file with the wrong magic");
+        broken(good, 4, CaveFile.VERSION + 1, "cave file from a newer version");
+        broken(good, 8, -1, "cave file with a negative room count");
+        broken(good, 16, 1, "cave file with something in the reserved field");
+        broken(good, 20, textSize + 4, "cave file with the wrong text size");
+        broken(good, CaveFile.HEADER_SIZE, 1, "cave file whose offsets don't start at 0");
+        broken(good, CaveFile.HEADER_SIZE + 8, 100, "cave file whose offsets go backwards");
+        broken(good, startsPos, 1, "cave file whose description starts don't start at 0");
+        broken(good, startsPos + 8, 0, "cave file whose description starts go backwards");
+        broken(good, startsPos + 4 * numRooms, textSize + 1, "cave file whose description starts run off the text");
+
+        fails(CaveFormatException.class, "cave file cut short",
+                () -> CaveFile.read(ByteBuffer.wrap(good, 0, good.length - 4).slice()));
+        fails(CaveFormatException.class, "cave file shorter than its header",
+                () -> CaveFile.read(ByteBuffer.wrap(good, 0, 16).slice()));
+    }
+
+    /**
+     * Compiles a cave with a one way tunnel in it, which the header and table
+     * checks can't see. It loads as it is by default, and is turned away once
+     * compiled files are validated too.
+     *
+     * @param dir Where to write the file
+     * @throws IOException If the file can't be written or read
+     */
+    private void unvalidatedCaveFile(File dir) throws IOException {
+        // Room 1 has a tunnel to room 3, but room 3 has no way back.
+        Cave oneWay = new Cave(new int[] { 0, 2, 4, 5 }, new int[] { 2, 3, 1, 3, 2 }, room -> "Room " + room);
+        String file = new File(dir, "oneway.wump").getPath();
+        CaveLoader loader = new CaveLoader();
+
+        CaveFile.write(oneWay, file);
+        same(oneWay, loader.load(file), "compiled cave with a one way tunnel");
+
+        loader.setValidateCompiled(true);
+        fails(CaveFormatException.class, "validated compiled cave with a one way tunnel", () -> loader.load(file));
+    }
+
+    /**
+     * Changes one int in a good compiled cave file and checks it won't read.
+     *
+     * @param good The good file
+     * @param pos Where the int is
+     * @param value What to put there
+     * @param what What's wrong with it, for the message
+     */
+    private void broken(byte[] good, int pos, int value, String what) {
+        ByteBuffer bad = ByteBuffer.wrap(good.clone()).order(ByteOrder.LITTLE_ENDIAN);
+
+        bad.putInt(pos, value);
+        fails(CaveFormatException.class, what, () -> CaveFile.read(bad));
+    }
+
+    /**
+     * Checks that rooms files with more rooms than they hold are turned away
+     * before anything is sized from the count.
+     *
+     */
+    private void brokenRoomsFiles() {
+        fails(CaveFormatException.class, "rooms file claiming two billion rooms",
+                () -> new CaveLoader().parse(ascii("2000000000\n1 2\nA room\n")));
+        fails(CaveFormatException.class, "rooms file that ends early",
+                () -> new CaveLoader().parse(ascii("3\n1 2\nA room\n2 1\nAnother room\n")));
+        fails(CaveFormatException.class, "rooms file with a word for a tunnel",
+                () -> new CaveLoader().parse(ascii("2\n1 two\nA room\n2 1\nAnother room\n")));
+
+        try {
+            Cave cave = new CaveLoader().parse(ascii("2\n1 2\nA room\n2 1\nAnother room"));
+
+            equal(2, cave.getNumRooms(), "two room file rooms");
+            equal("Another room", cave.getRoomDesc(2), "two room file description");
+        } catch (CaveFormatException e) {
+            check(false, "two room file didn't parse: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Checks that two caves have the same rooms, tunnels, descriptions and fingerprint.
+     *
+     * @param expected The cave it should be
+     * @param actual The cave that was read back
+     * @param what Which cave, for the message
+     */
+    private void same(Cave expected, Cave actual, String what) {
+        equal(expected.getNumRooms(), actual.getNumRooms(), what + " rooms");
+        equal(expected.getNumTunnels(), actual.getNumTunnels(), what + " tunnels");
+
+        if (expected.getNumRooms() != actual.getNumRooms()) {
+            return;
+        }
+
+        for (int room = 1; room <= expected.getNumRooms(); room++) {
+            check(Arrays.equals(tunnels(expected, room), tunnels(actual, room)),
+                    "%s room %d has different tunnels", what, room);
+            equal(expected.getRoomDesc(room), actual.getRoomDesc(room), what + " room " + room + " description");
+        }
+
+        equal(expected.getFingerprint(), actual.getFingerprint(), what + " fingerprint");
+    }
+
+    /**
+     * Wraps some text up the way a rooms file is loaded.
+     *
+     * @param text The text
+     * @return The bytes
+     */
+    private static ByteBuffer ascii(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+    }
+}
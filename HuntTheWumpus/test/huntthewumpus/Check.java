@@ -0,0 +1,289 @@
+package huntthewumpus;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A self-checking test. JUnit isn't bundled with the project, so each check is
+ * a plain class that plays games and reads files back, counting anything that
+ * didn't come out the way it should. AllChecks runs them all; "ant check" runs
+ * AllChecks.
+ *
+ * Checks live in the same package as the game so they can get at the
+ * package-private parts of the file formats.
+ *
+ * @author Ivan Samuelson
+ */
+abstract class Check {
+    // Classic hazards plus some super bats, so every rule has something to move.
+    static final HazardConfig HAZARDS = HazardConfig.CLASSIC.with(Room.Danger.BATS, 2);
+
+    // Every mix of rules a game can be played with.
+    static final int ALL_RULES = GameRules.WAKING_WUMPUS | GameRules.SUPER_BATS | GameRules.SPREADING_SPIDERS;
+
+    private int checks;     // How many things were checked.
+    private int failures;   // How many of them were wrong.
+
+    /**
+     * Something that's expected to throw.
+     *
+     */
+    interface Action {
+        void run() throws Exception;
+    }
+
+    /**
+     * Runs the check.
+     *
+     * @throws Exception If something went wrong that wasn't being checked for,
+     *          which counts as a failure
+     */
+    abstract void run() throws Exception;
+
+    /**
+     * Checks that something is true.
+     *
+     * @param ok Whether it is
+     * @param format What was being checked, as a format string
+     * @param args The format's arguments
+     */
+    void check(boolean ok, String format, Object... args) {
+        checks++;
+
+        if (!ok) {
+            // Only the first few are printed, since one bug tends to break a lot of games.
+            if (failures++ < 10) {
+                System.out.printf("    FAILED: %s\n", String.format(format, args));
+            }
+        }
+    }
+
+    /**
+     * Checks that two numbers are the same.
+     *
+     * @param expected What it should be
+     * @param actual What it is
+     * @param what What it is, for the message
+     */
+    void equal(long expected, long actual, String what) {
+        check(expected == actual, "%s is %d, expected %d", what, actual, expected);
+    }
+
+    /**
+     * Checks that two things are the same.
+     *
+     * @param expected What it should be
+     * @param actual What it is
+     * @param what What it is, for the message
+     */
+    void equal(Object expected, Object actual, String what) {
+        check(expected == null ? actual == null : expected.equals(actual), "%s is %s, expected %s", what, actual, expected);
+    }
+
+    /**
+     * Checks that something throws.
+     *
+     * @param type What it should throw
+     * @param what What it is, for the message
+     * @param action The thing to run
+     */
+    void fails(Class<? extends Exception> type, String what, Action action) {
+        try {
+            action.run();
+            check(false, "%s didn't throw %s", what, type.getSimpleName());
+        } catch (Exception e) {
+            check(type.isInstance(e), "%s threw %s instead of %s", what, e, type.getSimpleName());
+        }
+    }
+
+    /**
+     * Gets how many things were checked
+     *
+     * @return The number of checks
+     */
+    int getChecks() {
+        return checks;
+    }
+
+    /**
+     * Gets how many checks failed
+     *
+     * @return The number of failures
+     */
+    int getFailures() {
+        return failures;
+    }
+
+    /**
+     * Turns what a command did into a string, so two games can be compared.
+     *
+     * @param events What the command returned
+     * @return The events, one after another
+     */
+    static String describe(List<GameEvent> events) {
+        StringBuilder text = new StringBuilder();
+
+        for (GameEvent event : events) {
+            text.append(event.getType()).append(' ').append(event.getRoom()).append(' ').append(event.getDanger()).append("; ");
+        }
+
+        return text.toString();
+    }
+
+    /**
+     * Gets where the player can go from where they are.
+     *
+     * @param cave The cave
+     * @param room The room they're in
+     * @return The rooms, in tunnel order
+     */
+    static int[] tunnels(Cave cave, int room) {
+        int[] tunnels = new int[cave.getDegree(room)];
+
+        for (int i = 0; i < tunnels.length; i++) {
+            tunnels[i] = cave.getAdjRoom(room, i);
+        }
+
+        return tunnels;
+    }
+
+    /**
+     * Builds a whole cave straight from a topology, with no descriptions.
+     *
+     * @param topology The shape of the cave
+     * @return The cave
+     */
+    static Cave build(Topology topology) {
+        int numRooms = topology.getNumRooms();
+        int[] offsets = new int[numRooms+1];
+        int[] neighbors = new int[numRooms * topology.getMaxDegree()];
+        int[] tunnels = new int[topology.getMaxDegree()];
+        int size = 0;
+
+        for (int room = 1; room <= numRooms; room++) {
+            int count = topology.tunnels(room, tunnels);
+
+            System.arraycopy(tunnels, 0, neighbors, size, count);
+            size += count;
+            offsets[room] = size;
+        }
+
+        return new Cave(offsets, Arrays.copyOf(neighbors, size), room -> "");
+    }
+
+    /**
+     * Starts a game the way Game and ReplayRunner do.
+     *
+     * @param cave The cave
+     * @param seed The game's seed
+     * @param rules Which hazard behaviors it's played with
+     * @return The game
+     */
+    static GameEngine start(Cave cave, long seed, GameRules rules) {
+        GameEngine engine = new GameEngine(cave, HAZARDS, new GameRandom(seed));
+
+        rules.apply(engine);
+        return engine;
+    }
+
+    /**
+     * Plays one random command: usually a move, sometimes a shot down a tunnel
+     * or a crooked arrow, and now and then a move to a room that isn't next door.
+     *
+     * @param engine The game
+     * @param random Where the commands come from
+     * @param log Where to record the command, or null to not record it
+     * @return What the command did
+     * @throws IOException If the command can't be recorded
+     */
+    static List<GameEvent> play(GameEngine engine, Random random, ReplayLog log) throws IOException {
+        Cave cave = engine.getCave();
+        int room = engine.getPlayerRoom();
+        int kind = random.nextInt(10);
+
+        if (kind < 7) {
+            int to = (random.nextInt(20) == 0) ? random.nextInt(cave.getNumRooms() + 2) - 1
+                    : cave.getAdjRoom(room, random.nextInt(cave.getDegree(room)));
+
+            if (log != null) {
+                log.command(false, to);
+            }
+
+            return engine.move(to);
+        }
+
+        if (kind < 8) {
+            int to = cave.getAdjRoom(room, random.nextInt(cave.getDegree(room)));
+
+            if (log != null) {
+                log.command(true, to);
+            }
+
+            return engine.shoot(to);
+        }
+
+        int[] path = path(cave, room, random);
+
+        if (log != null) {
+            log.shot(path);
+        }
+
+        return engine.shoot(path);
+    }
+
+    /**
+     * Makes up a crooked arrow's path, mostly down real tunnels.
+     *
+     * @param cave The cave
+     * @param room Where it's shot from
+     * @param random Where the rooms come from
+     * @return The path
+     */
+    static int[] path(Cave cave, int room, Random random) {
+        int[] path = new int[1 + random.nextInt(GameEngine.MAX_ARROW_PATH)];
+        int at = room;
+
+        for (int i = 0; i < path.length; i++) {
+            path[i] = (random.nextInt(4) == 0) ? 1 + random.nextInt(cave.getNumRooms())
+                    : cave.getAdjRoom(at, random.nextInt(cave.getDegree(at)));
+            at = path[i];
+        }
+
+        return path;
+    }
+
+    /**
+     * Makes an empty directory to write files into.
+     *
+     * @param name What the check is, to name the directory
+     * @return The directory
+     * @throws IOException If it can't be made
+     */
+    static File tempDir(String name) throws IOException {
+        File dir = Files.createTempDirectory("wumpus-" + name).toFile();
+
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    /**
+     * Deletes a directory made by tempDir() and everything in it.
+     *
+     * @param dir The directory
+     */
+    static void delete(File dir) {
+        File[] files = dir.listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                delete(file);
+            }
+        }
+
+        dir.delete();
+    }
+}
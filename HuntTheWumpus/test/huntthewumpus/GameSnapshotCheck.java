@@ -0,0 +1,250 @@
+package huntthewumpus;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Snapshots random games partway through, brings them back and plays on with
+ * both the original and the copy. The copy has to be in the same state, down
+ * to its random numbers, so the same commands do the same things to both until
+ * the game ends. Games are played with every mix of rules, so hazards that move
+ * and breed have to come back exactly too.
+ *
+ * Snapshots go through a buffer, a file and a SnapshotStore that's closed and
+ * opened again. Snapshots for another cave, and broken ones, have to be turned
+ * away.
+ *
+ * @author Ivan Samuelson
+ */
+final class GameSnapshotCheck extends Check {
+    private static final int GAMES = 1000;  // Games snapshotted.
+
+    private final Random random = new Random(17);   // Where the seeds and commands come from.
+
+    /**
+     * Snapshots games every way there is.
+     *
+     * @throws IOException If a snapshot can't be written or read
+     */
+    @Override
+    void run() throws IOException {
+        File dir = tempDir("snapshot");
+
+        try {
+            Cave cave = build(CaveGenerator.parse("torus:10x10", 1));
+
+            for (int game = 0; game < GAMES; game++) {
+                GameEngine engine = midGame(cave);
+
+                same(engine, copy(engine, cave), "game " + game);
+            }
+
+            file(cave, new File(dir, "game.snap"));
+            store(cave, new File(dir, "games.slots"));
+            broken(cave);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /**
+     * Starts a random game and plays a few random commands.
+     *
+     * @param cave The cave
+     * @return The game, which may already be over
+     * @throws IOException Never, nothing is recorded
+     */
+    private GameEngine midGame(Cave cave) throws IOException {
+        GameEngine engine = start(cave, random.nextLong(), new GameRules(random.nextInt(ALL_RULES + 1)));
+        int turns = random.nextInt(12);
+
+        for (int turn = 0; turn < turns && !engine.isGameOver(); turn++) {
+            play(engine, random, null);
+        }
+
+        return engine;
+    }
+
+    /**
+     * Snapshots a game into a buffer and reads it back.
+     *
+     * @param engine The game
+     * @param cave The cave to read it back into
+     * @return The copy
+     * @throws IOException If it can't be read back
+     */
+    private GameEngine copy(GameEngine engine, Cave cave) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(GameSnapshot.sizeOf(engine));
+
+        GameSnapshot.write(engine, buffer);
+        equal(buffer.capacity(), buffer.position(), "snapshot size");
+        buffer.flip();
+
+        GameEngine copy = GameSnapshot.read(buffer, cave);
+
+        equal(0, buffer.remaining(), "snapshot bytes left over");
+        return copy;
+    }
+
+    /**
+     * Checks that a game and its copy are in the same state, then plays the
+     * same commands on both until the game ends, checking they do the same.
+     *
+     * @param engine The game
+     * @param copy The copy
+     * @param what Which game, for the message
+     * @throws IOException Never, nothing is recorded
+     */
+    private void same(GameEngine engine, GameEngine copy, String what) throws IOException {
+        long seed = random.nextLong();
+        Random commands = new Random(seed);
+        Random copyCommands = new Random(seed);
+        int turn = 0;
+
+        equal(engine.getPlayerRoom(), copy.getPlayerRoom(), what + " player room");
+        equal(engine.getArrowsLeft(), copy.getArrowsLeft(), what + " arrows");
+        check(engine.isGameOver() == copy.isGameOver() && engine.isWon() == copy.isWon()
+                && engine.isShotSelf() == copy.isShotSelf() && engine.getKilledBy() == copy.getKilledBy(),
+                "%s came back ended differently", what);
+        equal(engine.getRules(), copy.getRules(), what + " rules");
+        equal(engine.getWorld().getTurn(), copy.getWorld().getTurn(), what + " turn");
+
+        // A game that's over has nothing left to check.
+        while (!engine.isGameOver() && turn < 200) {
+            String expected = describe(play(engine, commands, null));
+            String actual = describe(play(copy, copyCommands, null));
+
+            equal(expected, actual, what + " turn " + turn++ + " after the snapshot");
+            equal(engine.getPlayerRoom(), copy.getPlayerRoom(), what + " player room after the snapshot");
+            equal(engine.getArrowsLeft(), copy.getArrowsLeft(), what + " arrows after the snapshot");
+            equal(engine.getRandom().getState(), copy.getRandom().getState(), what + " random numbers after the snapshot");
+
+            if (!expected.equals(actual)) {
+                return;
+            }
+        }
+
+        check(engine.isGameOver() == copy.isGameOver(), "%s copy ended %b, expected %b", what, copy.isGameOver(),
+                engine.isGameOver());
+    }
+
+    /**
+     * Saves a game to a file and loads it back.
+     *
+     * @param cave The cave
+     * @param file Where to save it
+     * @throws IOException If it can't be saved or loaded
+     */
+    private void file(Cave cave, File file) throws IOException {
+        GameEngine engine = midGame(cave);
+
+        GameSnapshot.save(engine, file.getPath());
+        same(engine, GameSnapshot.load(file.getPath(), cave), "game saved to a file");
+
+        Cave other = build(CaveGenerator.parse("grid:10x10", 1));
+
+        fails(IOException.class, "snapshot file loaded into another cave", () -> GameSnapshot.load(file.getPath(), other));
+    }
+
+    /**
+     * Saves games into a SnapshotStore, closes it, opens it again and loads them back.
+     *
+     * @param cave The cave
+     * @param file The store file
+     * @throws IOException If the store can't be written or read
+     */
+    private void store(Cave cave, File file) throws IOException {
+        GameEngine[] games = new GameEngine[8];
+        long[] tokens = new long[games.length];
+
+        try (SnapshotStore store = new SnapshotStore(file.getPath(), cave, games.length + 2, 512)) {
+            for (int i = 0; i < games.length; i++) {
+                int slot = store.claim();
+
+                equal(i, slot, "claimed slot");
+                tokens[i] = store.getToken(slot);
+
+                // Save twice, so the newest of the slot's two copies is the one that counts.
+                store.save(slot, midGame(cave));
+                games[i] = midGame(cave);
+                store.save(slot, games[i]);
+                store.release(slot);
+            }
+
+            store.clear(games.length - 1);
+        }
+
+        try (SnapshotStore store = new SnapshotStore(file.getPath(), cave, 1, 1)) {
+            equal(games.length + 2, store.getNumSlots(), "slots in a store opened again");
+            equal(games.length - 1, store.getSavedCount(), "saved games in a store opened again");
+
+            // Games are only picked up by their token, never by the slot number.
+            for (int slot = 0; slot < games.length; slot++) {
+                equal(-1, store.resume(slot), "resumed by slot number " + slot);
+            }
+
+            for (int slot = 0; slot < games.length - 1; slot++) {
+                equal(slot, store.resume(tokens[slot]), "slot resumed with its token");
+                same(games[slot], store.load(slot), "game in slot " + slot);
+            }
+
+            check(store.load(games.length - 1) == null, "cleared slot still has a game in it");
+            equal(-1, store.resume(tokens[games.length - 1]), "slot resumed after it was cleared");
+
+            // A slot is only ever handed out once at a time.
+            equal(-1, store.resume(tokens[0]), "slot 0 resumed twice");
+
+            // And a slot claimed again gets a new token, so the old one is no good.
+            equal(games.length - 1, store.claim(), "slot claimed after the cleared one");
+            check(store.getToken(games.length - 1) != tokens[games.length - 1], "slot claimed again kept its token");
+
+            // Each snapshot carries its own cave, so only the cave's own games load into it.
+            Cave other = build(CaveGenerator.parse("grid:10x10", 1));
+
+            fails(IOException.class, "stored game loaded into another cave", () -> store.load(0, other));
+        }
+    }
+
+    /**
+     * Checks that broken snapshots are turned away.
+     *
+     * @param cave The cave
+     * @throws IOException If something goes wrong that isn't being checked for
+     */
+    private void broken(Cave cave) throws IOException {
+        GameEngine engine = midGame(cave);
+        byte[] good = new byte[GameSnapshot.sizeOf(engine)];
+
+        GameSnapshot.write(engine, ByteBuffer.wrap(good));
+
+        fails(IOException.class, "snapshot cut off",
+                () -> GameSnapshot.read(ByteBuffer.wrap(good, 0, good.length - 1).slice(), cave));
+        fails(IOException.class, "snapshot with the wrong magic", () -> GameSnapshot.read(changed(good, 0, 0), cave));
+        fails(IOException.class, "snapshot from a newer version",
+                () -> GameSnapshot.read(changed(good, 4, GameSnapshot.VERSION + 1), cave));
+
+        // The player's room comes right after the magic, version, fingerprint and random numbers.
+        ByteBuffer outside = ByteBuffer.wrap(good.clone()).order(ByteOrder.LITTLE_ENDIAN);
+
+        outside.putInt(4 + 1 + 8 + 8, cave.getNumRooms() + 1);
+        fails(IOException.class, "snapshot with the player outside the cave", () -> GameSnapshot.read(outside, cave));
+    }
+
+    /**
+     * Copies a snapshot with one byte changed.
+     *
+     * @param good The snapshot
+     * @param pos Which byte
+     * @param value What to change it to
+     * @return The changed copy
+     */
+    private static ByteBuffer changed(byte[] good, int pos, int value) {
+        byte[] bad = good.clone();
+
+        bad[pos] = (byte) value;
+        return ByteBuffer.wrap(bad);
+    }
+}
@@ -0,0 +1,272 @@
+package huntthewumpus;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Writes random games to a HistoryLog small enough to seal a few segments,
+ * closes it and reads it all back. Every record appended has to be there, in
+ * order, with game numbers that carry on from one opening of the log to the
+ * next and the outcome each game really had. The room and outcome queries,
+ * which go through each sealed segment's HistoryIndex, have to find exactly
+ * what reading the whole log finds, and an index built again from its segment
+ * has to be the same file the log wrote.
+ *
+ * Then the log is opened for another cave, which has to start a segment of its
+ * own so HistoryStats counts the two caves apart, and a torn record is left on
+ * the end, which has to be cut off the next time the log is opened.
+ *
+ * @author Ivan Samuelson
+ */
+final class HistoryCheck extends Check {
+    private static final int GAMES = 1500;  // Games each time the log is opened.
+
+    private final Random random = new Random(23);   // Where the seeds and commands come from.
+    private final Map<Long, Integer> outcomes = new HashMap<>();    // How each game ended.
+    private long appended;  // Records appended every time the log was opened.
+    private long lastGame;  // The highest game number handed out.
+
+    /**
+     * Writes, reads and breaks a history log.
+     *
+     * @throws IOException If the log can't be written or read
+     */
+    @Override
+    void run() throws IOException {
+        File dir = tempDir("history");
+        File spare = tempDir("history-index");
+
+        try {
+            Cave cave = build(CaveGenerator.parse("torus:12x12", 3));
+            Cave other = build(CaveGenerator.parse("grid:12x12", 3));
+
+            write(dir, cave);
+            check(HistoryLog.segments(dir).length > 2, "only %d segments were written", HistoryLog.segments(dir).length);
+            readBack(dir, spare);
+
+            // Opened again for the same cave, it just carries on.
+            int segments = HistoryLog.segments(dir).length;
+
+            write(dir, cave);
+            readBack(dir, spare);
+
+            // Opened for another cave, the games go in segments of their own.
+            write(dir, other);
+            check(HistoryLog.segments(dir).length > segments, "another cave didn't start a new segment");
+            stats(dir, cave, other);
+
+            // A record cut off partway through is dropped when the log is opened again.
+            int[] all = HistoryLog.segments(dir);
+            File newest = HistoryLog.segmentFile(dir, all[all.length - 1]);
+
+            try (RandomAccessFile file = new RandomAccessFile(newest, "rw")) {
+                file.seek(file.length());
+                file.write(new byte[HistoryLog.RECORD_SIZE / 2]);
+            }
+
+            write(dir, other);
+            readBack(dir, spare);
+        } finally {
+            delete(dir);
+            delete(spare);
+        }
+    }
+
+    /**
+     * Opens the log and writes GAMES random games to it. One in ten is given
+     * up partway, like a player hanging up, and one in twenty is resumed from a
+     * snapshot instead of starting afresh.
+     *
+     * @param dir The log directory
+     * @param cave The cave to play in
+     * @throws IOException If the log can't be written
+     */
+    private void write(File dir, Cave cave) throws IOException {
+        // The smallest segments the log allows, so a few thousand games fill several.
+        try (HistoryLog log = new HistoryLog(dir.getPath(), cave, 0, 5)) {
+            for (int i = 0; i < GAMES; i++) {
+                GameEngine engine = start(cave, random.nextLong(), new GameRules(random.nextInt(ALL_RULES + 1)));
+                boolean resumed = random.nextInt(20) == 0;
+                int turns = (random.nextInt(10) == 0) ? random.nextInt(5) : Integer.MAX_VALUE;
+
+                if (resumed) {
+                    engine.move(cave.getAdjRoom(1, 0));
+                }
+
+                long game = resumed ? log.resumeGame(engine) : log.startGame(engine);
+
+                equal(lastGame + 1, game, "game number");
+                lastGame = game;
+
+                for (int turn = 0; turn < turns && !engine.isGameOver(); turn++) {
+                    log.record(game, engine, play(engine, random, null));
+                }
+
+                log.endGame(game, engine);
+                outcomes.put(game, ReplayLog.outcomeOf(engine));
+            }
+
+            appended += log.getAppended();
+        }
+    }
+
+    /**
+     * Reads the whole log back and checks it against what was written, then
+     * checks every room and outcome query against it.
+     *
+     * @param dir The log directory
+     * @param spare Somewhere to build indexes again
+     * @throws IOException If the log can't be read
+     */
+    private void readBack(File dir, File spare) throws IOException {
+        HistoryReader reader = new HistoryReader(dir.getPath());
+        List<String> all = new ArrayList<>();
+        List<int[]> fields = new ArrayList<>();     // Room, kind and extra of each record.
+        long[] started = { 0 };
+
+        reader.scan(0, (cave, game, room, kind, danger, extra) -> {
+            all.add(record(cave, game, room, kind, danger, extra));
+            fields.add(new int[] { room, kind, extra });
+
+            if (kind == HistoryLog.STARTED) {
+                check(game == started[0] + 1, "game %d started after game %d", game, started[0]);
+                started[0] = game;
+            } else if (kind == HistoryLog.ENDED) {
+                equal((int) outcomes.get(game), extra & 0xFF, "game " + game + " outcome");
+            }
+        });
+
+        equal(appended, all.size(), "records read back");
+        equal(lastGame, started[0], "last game read back");
+
+        // Every room query finds just the records in that room, in the order they were appended.
+        for (int room = 1; room <= 144; room++) {
+            List<String> found = new ArrayList<>();
+            List<String> expected = new ArrayList<>();
+
+            reader.forRoom(room, (cave, game, at, kind, danger, extra) -> found.add(record(cave, game, at, kind, danger, extra)));
+
+            for (int i = 0; i < all.size(); i++) {
+                if (fields.get(i)[0] == room) {
+                    expected.add(all.get(i));
+                }
+            }
+
+            equal(expected, found, "records in room " + room);
+        }
+
+        for (int outcome : new int[] { ReplayLog.UNFINISHED, ReplayLog.WON, ReplayLog.OUT_OF_ARROWS, ReplayLog.SHOT_SELF,
+                ReplayLog.DIED + Room.Danger.WUMPUS.ordinal(), ReplayLog.DIED + Room.Danger.PIT.ordinal() }) {
+            List<String> found = new ArrayList<>();
+            List<String> expected = new ArrayList<>();
+
+            reader.forOutcome(outcome, (cave, game, room, kind, danger, extra) -> found.add(record(cave, game, room, kind, danger, extra)));
+
+            for (int i = 0; i < all.size(); i++) {
+                if (fields.get(i)[1] == HistoryLog.ENDED && (fields.get(i)[2] & 0xFF) == outcome) {
+                    expected.add(all.get(i));
+                }
+            }
+
+            equal(expected, found, "games with outcome " + outcome);
+        }
+
+        indexes(dir, spare);
+    }
+
+    /**
+     * Checks that every sealed segment has an index that matches it.
+     *
+     * @param dir The log directory
+     * @param spare Somewhere to build indexes again
+     * @throws IOException If an index can't be read
+     */
+    private void indexes(File dir, File spare) throws IOException {
+        int[] segments = HistoryLog.segments(dir);
+
+        for (int i = 0; i < segments.length - 1; i++) {
+            File segment = HistoryLog.segmentFile(dir, segments[i]);
+            File index = HistoryLog.indexFile(dir, segments[i]);
+            File rebuilt = new File(spare, index.getName());
+
+            check(index.exists(), "sealed segment %d has no index", segments[i]);
+
+            if (!index.exists()) {
+                continue;
+            }
+
+            HistoryIndex.build(segment, rebuilt);
+            check(Arrays.equals(Files.readAllBytes(index.toPath()), Files.readAllBytes(rebuilt.toPath())),
+                    "index of segment %d built again isn't the same", segments[i]);
+            equal((segment.length() - HistoryLog.HEADER_SIZE) / HistoryLog.RECORD_SIZE, HistoryIndex.open(index).getRecords(),
+                    "records in the index of segment " + segments[i]);
+        }
+    }
+
+    /**
+     * Counts the log up with HistoryStats and checks the two caves are kept apart.
+     *
+     * @param dir The log directory
+     * @param cave The first cave
+     * @param other The second cave
+     * @throws IOException If the log can't be read
+     */
+    private void stats(File dir, Cave cave, Cave other) throws IOException {
+        HistoryStats stats = new HistoryStats();
+        long[] entries = new long[2];    // MOVED and CARRIED records in each cave's games.
+        Map<Long, Integer> caveOf = new HashMap<>();
+
+        equal(appended, stats.update(new HistoryReader(dir.getPath())), "records counted");
+        check(Arrays.equals(new long[] { cave.getFingerprint(), other.getFingerprint() }, stats.getCaves()),
+                "caves counted are %s", Arrays.toString(stats.getCaves()));
+
+        new HistoryReader(dir.getPath()).scan(0, (fingerprint, game, room, kind, danger, extra) -> {
+            if (kind == HistoryLog.STARTED) {
+                caveOf.put(game, (fingerprint == cave.getFingerprint()) ? 0 : 1);
+            } else if (kind == HistoryLog.MOVED || kind == HistoryLog.CARRIED) {
+                entries[caveOf.get(game)]++;
+            }
+        });
+
+        long[] counted = new long[2];
+
+        for (int room = 1; room <= 144; room++) {
+            counted[0] += stats.getEntries(cave.getFingerprint(), room);
+            counted[1] += stats.getEntries(other.getFingerprint(), room);
+        }
+
+        equal(entries[0], counted[0], "rooms entered in the first cave");
+        equal(entries[1], counted[1], "rooms entered in the second cave");
+
+        long ended = 0;
+
+        for (int outcome = 0; outcome < 256; outcome++) {
+            ended += stats.getOutcomes(outcome);
+        }
+
+        equal(lastGame, ended, "games ended");
+    }
+
+    /**
+     * Turns a record into a string, so lists of them can be compared.
+     *
+     * @param cave The cave its segment is stamped with
+     * @param game The game's number
+     * @param room Where it happened
+     * @param kind What happened
+     * @param danger The danger involved
+     * @param extra Anything else
+     * @return The record
+     */
+    private static String record(long cave, long game, int room, int kind, Room.Danger danger, int extra) {
+        return String.format("%016x %d %d %d %s %d", cave, game, room, kind, danger, extra);
+    }
+}
@@ -0,0 +1,159 @@
+package huntthewumpus;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+/**
+ * Records random games to a replay log and plays them back with ReplayRunner,
+ * which has to find every game turning out just as it was recorded. Games are
+ * played with every mix of rules, crooked arrows and now and then a room that
+ * isn't there, some are left unfinished, and more are appended to the log
+ * after it's been closed. Then the log is tampered with, cut short and played
+ * back in the wrong cave, which all have to be caught.
+ *
+ * @author Ivan Samuelson
+ */
+final class ReplayLogCheck extends Check {
+    private static final int GAMES = 400;   // Games recorded each time the log is opened.
+
+    private final Random random = new Random(3);    // Where the seeds and commands come from.
+    private long commands;      // Commands recorded so far.
+
+    /**
+     * Records, plays back and breaks replay logs.
+     *
+     * @throws IOException If a log can't be written or read
+     */
+    @Override
+    void run() throws IOException {
+        File dir = tempDir("replay");
+
+        try {
+            encoding();
+            roundTrip(dir);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /**
+     * Checks that commands and zigzag rooms decode to what was encoded.
+     *
+     */
+    private void encoding() {
+        int[] rooms = { 0, 1, -1, 31, 32, 4095, 4096, -4096, 1 << 20, Integer.MAX_VALUE, Integer.MIN_VALUE };
+
+        for (int room : rooms) {
+            for (boolean shoot : new boolean[] { false, true }) {
+                long command = ReplayLog.encode(shoot, room);
+
+                check(command != 0, "command for room %d encodes as the end marker", room);
+                equal(room, ReplayLog.decodeRoom(command), "decoded room " + room);
+                check(ReplayLog.decodeShoot(command) == shoot, "room %d decodes shoot as %b", room, !shoot);
+            }
+
+            equal(room, ReplayLog.unzigzag(ReplayLog.zigzag(room)), "unzigzagged room " + room);
+        }
+
+        // Small rooms take one byte, so the first 31 fit in 7 bits with the shoot bit.
+        check(ReplayLog.encode(true, 31) < 0x80, "room 31 doesn't fit in one byte");
+    }
+
+    /**
+     * Records games, plays them back, then breaks the log.
+     *
+     * @param dir Where to write the log
+     * @throws IOException If the log can't be written or read
+     */
+    private void roundTrip(File dir) throws IOException {
+        Cave cave = build(CaveGenerator.parse("torus:12x12", 5));
+        String log = new File(dir, "games.wlog").getPath();
+
+        record(log, cave);
+        playBack(log, cave, GAMES);
+
+        // A log that's opened again is appended to.
+        record(log, cave);
+        playBack(log, cave, 2 * GAMES);
+
+        // Another cave can't add to the log or play it back.
+        Cave other = build(CaveGenerator.parse("torus:12x13", 5));
+
+        fails(IOException.class, "replay log opened for another cave", () -> new ReplayLog(log, other).close());
+        fails(IOException.class, "replay log played back in another cave", () -> new ReplayRunner(other).run(log));
+
+        // The last game always runs to the end, so its last byte is how many
+        // arrows were left, and changing it has to be noticed.
+        try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+            file.seek(file.length() - 1);
+
+            int arrows = file.read();
+
+            file.seek(file.length() - 1);
+            file.write(arrows ^ 1);
+
+            ReplayRunner runner = new ReplayRunner(cave);
+
+            runner.run(log);
+            equal(1, runner.getMismatches(), "mismatches after tampering");
+            equal(2 * GAMES - 1, runner.getFirstMismatch(), "first mismatch after tampering");
+
+            // And one that's cut off partway through a game is an error, not a short log.
+            file.setLength(file.length() - 2);
+        }
+
+        fails(IOException.class, "replay log cut off", () -> new ReplayRunner(cave).run(log));
+    }
+
+    /**
+     * Appends GAMES random games to a log. One in ten is given up partway, and
+     * the last is always played to the end.
+     *
+     * @param log The log file
+     * @param cave The cave to play in
+     * @throws IOException If the log can't be written
+     */
+    private void record(String log, Cave cave) throws IOException {
+        try (ReplayLog replay = new ReplayLog(log, cave)) {
+            for (int game = 0; game < GAMES; game++) {
+                long seed = random.nextLong();
+                GameRules rules = new GameRules(random.nextInt(ALL_RULES + 1));
+                GameEngine engine = start(cave, seed, rules);
+                boolean giveUp = game < GAMES - 1 && random.nextInt(10) == 0;
+                int turns = giveUp ? random.nextInt(5) : Integer.MAX_VALUE;
+
+                replay.startGame(seed, HAZARDS, rules);
+
+                for (int turn = 0; turn < turns && !engine.isGameOver(); turn++) {
+                    play(engine, random, replay);
+                    commands++;
+                }
+
+                // A game given up on is ended by the next one starting, or by closing the log.
+                // One that ended before it could be given up on is ended as usual.
+                if (!giveUp || engine.isGameOver()) {
+                    replay.endGame(engine);
+                }
+            }
+        }
+    }
+
+    /**
+     * Plays a log back and checks every game matched.
+     *
+     * @param log The log file
+     * @param cave The cave it was recorded in
+     * @param games How many games it should have
+     * @throws IOException If the log can't be read
+     */
+    private void playBack(String log, Cave cave, long games) throws IOException {
+        ReplayRunner runner = new ReplayRunner(cave);
+
+        runner.run(log);
+        equal(games, runner.getGames(), "games played back");
+        equal(commands, runner.getCommands(), "commands played back");
+        equal(0, runner.getMismatches(), "mismatches, first in game " + runner.getFirstMismatch());
+    }
+}
@@ -0,0 +1,181 @@
+package huntthewumpus;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Plays the same games in a whole cave and in a sharded one, and checks that
+ * sharding doesn't change anything. Each game is started with the same seed in
+ * a GameEngine over the whole cave and in a ShardGame, and both get the same
+ * random commands. After every command the events, where the player is, their
+ * arrows, whether the game is over and the tunnels out of the room all have to
+ * match, with the shard's local room numbers turned back into the whole cave's.
+ * Now and then a command names 0, a negative number or a room past the end of
+ * the cave, which has to be turned down the same way in both.
+ *
+ * Whenever the ShardGame says the player has left its shard, it's written out
+ * and read back into the owning shard's piece, just like a handoff between
+ * shard servers, so every game crosses shards as often as it wanders.
+ *
+ * @author Ivan Samuelson
+ */
+final class ShardEquivalenceCheck extends Check {
+    private static final long SEED = 7;     // Which cave, for the random shapes.
+    private static final int GAMES = 3000;  // Games per shape.
+
+    // Shapes and how many shards to split them into.
+    private static final String[] SHAPES = { "dodecahedron", "torus:40x40", "grid:30x30", "smallworld:2000:4:0.02" };
+    private static final int[] SHARDS = { 2, 3, 4, 5 };
+
+    private long commands;      // Commands played in every shape.
+    private long handoffs;      // Times a game moved to another shard.
+
+    /**
+     * Plays every shape.
+     *
+     * @throws IOException If a handed off game couldn't be read back
+     */
+    @Override
+    void run() throws IOException {
+        for (int i = 0; i < SHAPES.length; i++) {
+            play(SHAPES[i], SHARDS[i]);
+        }
+
+        check(handoffs > 0, "no game ever crossed shards");
+        System.out.printf("    %d commands, %d handoffs\n", commands, handoffs);
+    }
+
+    /**
+     * Plays GAMES games in one shape, both ways.
+     *
+     * @param shape The cave's shape
+     * @param shards How many shards to split it into
+     * @throws IOException If a handed off game couldn't be read back
+     */
+    private void play(String shape, int shards) throws IOException {
+        Topology topology = CaveGenerator.parse(shape, SEED);
+        Cave whole = build(topology);
+        ShardMap map = new ShardMap(whole.getNumRooms(), shards);
+        ShardCave[] pieces = new ShardCave[shards];
+        Random random = new Random(shape.hashCode());
+
+        for (int shard = 0; shard < shards; shard++) {
+            pieces[shard] = new ShardCave(topology, SEED, map, shard);
+        }
+
+        for (int game = 0; game < GAMES; game++) {
+            long seed = random.nextLong();
+            GameEngine engine = new GameEngine(whole, HazardConfig.CLASSIC, new GameRandom(seed));
+            ShardGame sharded = ShardGame.start(pieces[0], HazardConfig.CLASSIC, new GameRandom(seed));
+            int turn = 0;
+
+            while (!engine.isGameOver()) {
+                if (sharded.isAway()) {
+                    sharded = handOff(sharded, pieces[sharded.getOwner()]);
+                }
+
+                String where = String.format("%s game %d turn %d", shape, game, turn++);
+                String expected;
+                String actual;
+
+                // Same command both ways. The whole cave's room numbers work for both.
+                int room = engine.getPlayerRoom();
+                int kind = random.nextInt(10);
+
+                if (kind < 7) {
+                    int to = (random.nextInt(20) == 0) ? anyRoom(whole, random)
+                            : whole.getAdjRoom(room, random.nextInt(whole.getDegree(room)));
+
+                    expected = describe(engine.move(to));
+                    actual = describe(sharded, sharded.move(to));
+                } else if (kind < 8) {
+                    int to = (random.nextInt(20) == 0) ? anyRoom(whole, random)
+                            : whole.getAdjRoom(room, random.nextInt(whole.getDegree(room)));
+
+                    expected = describe(engine.shoot(to));
+                    actual = describe(sharded, sharded.shoot(to));
+                } else {
+                    int[] path = path(whole, room, random);
+
+                    if (random.nextInt(10) == 0) {
+                        path[random.nextInt(path.length)] = anyRoom(whole, random);
+                    }
+
+                    expected = describe(engine.shoot(path));
+                    actual = describe(sharded, sharded.shoot(path));
+                }
+
+                commands++;
+                equal(expected, actual, where + " events");
+                equal(engine.getPlayerRoom(), sharded.getPlayerRoom(), where + " player room");
+                equal(engine.getArrowsLeft(), sharded.getArrowsLeft(), where + " arrows");
+                check(engine.isGameOver() == sharded.isGameOver(), "%s game over is %b, expected %b", where,
+                        sharded.isGameOver(), engine.isGameOver());
+
+                if (!engine.isGameOver()) {
+                    check(Arrays.equals(tunnels(whole, engine.getPlayerRoom()), sharded.getTunnels()),
+                            "%s tunnels are %s, expected %s", where, Arrays.toString(sharded.getTunnels()),
+                            Arrays.toString(tunnels(whole, engine.getPlayerRoom())));
+                }
+
+                if (getFailures() > 0) {
+                    // Once they've gone different ways, the rest of the game is just noise.
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Picks any number a player might type for a room: one of the cave's rooms,
+     * or 0, a negative number or one past the last room.
+     *
+     * @param cave The whole cave
+     * @param random Where the number comes from
+     * @return The room number
+     */
+    private static int anyRoom(Cave cave, Random random) {
+        return random.nextInt(cave.getNumRooms() + 5) - 3;
+    }
+
+    /**
+     * Hands a game to another shard the way a shard server does.
+     *
+     * @param game The game, in the shard it's leaving
+     * @param piece The shard it's going to
+     * @return The game, in the new shard
+     * @throws IOException If it couldn't be read back
+     */
+    private ShardGame handOff(ShardGame game, ShardCave piece) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(game.sizeOf());
+
+        game.write(buffer);
+        equal(buffer.capacity(), buffer.position(), "handed off game size");
+        buffer.flip();
+        handoffs++;
+
+        return ShardGame.read(buffer, piece, HazardConfig.CLASSIC);
+    }
+
+    /**
+     * Turns what a sharded command did into a string, with the rooms numbered
+     * as in the whole cave.
+     *
+     * @param game The game
+     * @param events What the command returned, in local room numbers
+     * @return The events, one after another
+     */
+    private static String describe(ShardGame game, List<GameEvent> events) {
+        StringBuilder text = new StringBuilder();
+
+        for (GameEvent event : events) {
+            text.append(event.getType()).append(' ').append(game.toGlobal(event.getRoom())).append(' ')
+                    .append(event.getDanger()).append("; ");
+        }
+
+        return text.toString();
+    }
+}